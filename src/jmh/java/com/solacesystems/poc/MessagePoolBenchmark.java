@@ -0,0 +1,53 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.DeliveryMode;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recycling Solace message states and Kafka completions through their pools,
+ * against allocating a fresh Solace message per record.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagePoolBenchmark {
+
+    private SolaceSentMessagePool statePool;
+    private RecyclingPool<KafkaPublishCompletion> completions;
+    private BytesXMLMessage solaceMsg;
+
+    @Setup
+    public void setup() {
+        statePool = new SolaceSentMessagePool(64);
+        completions = new RecyclingPool<>(KafkaPublishCompletion.class, 64);
+        solaceMsg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+    }
+
+    @Benchmark
+    public SolaceSentMessageState recycleState() throws InterruptedException {
+        SolaceSentMessageState state = statePool.acquire();
+        statePool.release(state);
+        return state;
+    }
+
+    @Benchmark
+    public BytesXMLMessage allocateMessage() {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+        return msg;
+    }
+
+    @Benchmark
+    public KafkaPublishCompletion recycleCompletion() {
+        KafkaPublishCompletion completion = KafkaPublishCompletion.acquire(completions, solaceMsg);
+        completion.onCompletion(null, null);
+        return completion;
+    }
+}
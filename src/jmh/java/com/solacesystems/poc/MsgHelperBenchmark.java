@@ -0,0 +1,83 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of moving keys and payloads between Kafka records and Solace messages, with the raw
+ * byte[] pass-through the bridge uses and with String (de)serializers for comparison.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MsgHelperBenchmark {
+
+    @Param({ "bytes", "string" })
+    public String serde;
+
+    @Param({ "16", "1024" })
+    public int payloadSize;
+
+    private MsgHelper<Object,Object> msgHelper;
+    private SolaceSentMessageState state;
+    private BytesXMLMessage received;
+    private Topic topic;
+    private Object key;
+    private Object payload;
+
+    @Setup
+    public void setup() throws Exception {
+        boolean bytes = serde.equals("bytes");
+        Properties props = new Properties();
+        String deser = (bytes ? ByteArrayDeserializer.class : StringDeserializer.class).getName();
+        String ser = (bytes ? ByteArraySerializer.class : StringSerializer.class).getName();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, deser);
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, deser);
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ser);
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ser);
+        msgHelper = new MsgHelper<>(props);
+
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+        key = bytes ? (Object) "key-12345".getBytes("UTF-8") : "key-12345";
+        payload = bytes ? (Object) text.getBytes("UTF-8") : text;
+
+        topic = JCSMPFactory.onlyInstance().createTopic("bench/topic");
+        state = new SolaceSentMessageState();
+        received = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msgHelper.putKey(received, topic.getName(), key);
+        msgHelper.putValue(received, topic.getName(), payload);
+    }
+
+    @Benchmark
+    public BytesXMLMessage populateMessage() {
+        msgHelper.populateMessage(state, 0, topic, key, payload);
+        return state.getMessage();
+    }
+
+    @Benchmark
+    public Object getKey() {
+        return msgHelper.getKey(received, "bench/topic");
+    }
+
+    @Benchmark
+    public Object getValue() {
+        return msgHelper.getValue(received, "bench/topic");
+    }
+}
@@ -0,0 +1,80 @@
+package com.solacesystems.poc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append/remove cost of the locking RingBuffer and the lock-free SpscRingBuffer, from one
+ * thread, from several threads contending on one ring, and across a producer/consumer pair.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RingBufferBenchmark {
+    private static final int CAPACITY = 1024;
+
+    private final Object item = new Object();
+    private RingBuffer<Object> ring;
+    private SpscRingBuffer<Object> spsc;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        ring = new RingBuffer<>(Object.class, CAPACITY);
+        spsc = new SpscRingBuffer<>(Object.class, CAPACITY);
+    }
+
+    @Benchmark
+    @Group("ringSingleThread")
+    public Object ringAppendRemove() {
+        ring.append(item);
+        return ring.remove();
+    }
+
+    @Benchmark
+    @Group("spscSingleThread")
+    public Object spscAppendRemove() {
+        spsc.append(item);
+        return spsc.remove();
+    }
+
+    // Each thread appends before it removes, so the shared ring never underflows
+    @Benchmark
+    @Group("ringContended")
+    @GroupThreads(4)
+    public Object ringAppendRemoveContended() {
+        ring.append(item);
+        return ring.remove();
+    }
+
+    @Benchmark
+    @Group("ringHandoff")
+    @GroupThreads(1)
+    public boolean ringProduce() {
+        return ring.used() < CAPACITY && ring.append(item);
+    }
+
+    @Benchmark
+    @Group("ringHandoff")
+    @GroupThreads(1)
+    public Object ringConsume() {
+        return ring.used() > 0 ? ring.remove() : null;
+    }
+
+    @Benchmark
+    @Group("spscHandoff")
+    @GroupThreads(1)
+    public boolean spscProduce() {
+        return spsc.append(item);
+    }
+
+    @Benchmark
+    @Group("spscHandoff")
+    @GroupThreads(1)
+    public Object spscConsume() {
+        return spsc.used() > 0 ? spsc.remove() : null;
+    }
+}
@@ -0,0 +1,71 @@
+package com.solacesystems.poc;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of translating a topic with each translation type, with and without the translator's
+ * own cache, and through the DestinationCache the bridge actually uses. Every type is given
+ * equivalent rules so they produce the same translation.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopicTranslationBenchmark {
+    private static final String TYPE_PROP = "bench_trans_type";
+    private static final String MAPPINGS_PROP = "bench_trans";
+
+    @Param({ BridgeProperties.TRANSLATION_TYPE_STRING, BridgeProperties.TRANSLATION_TYPE_WILDCARD, BridgeProperties.TRANSLATION_TYPE_REGEX })
+    public String type;
+
+    // Size of the translator's own cache; the string translator has none
+    @Param({ "0", "1024" })
+    public int cacheSize;
+
+    // Number of translation rules configured
+    @Param({ "100" })
+    public int rules;
+
+    private TopicTranslator translator;
+    private DestinationCache routes;
+    private String topic;
+
+    @Setup
+    public void setup() {
+        List<String[]> mappings = new ArrayList<>();
+        for (int i = 0; i < rules; i++) {
+            if (type.equals(BridgeProperties.TRANSLATION_TYPE_STRING))
+                mappings.add(new String[] { "sol/region" + i + "/orders", "kafka_orders_" + i });
+            else if (type.equals(BridgeProperties.TRANSLATION_TYPE_WILDCARD))
+                mappings.add(new String[] { "sol/region" + i + "/*", "kafka_$1_" + i });
+            else
+                mappings.add(new String[] { "sol/region" + i + "/(.*)", "kafka_$1_" + i });
+        }
+        Properties props = new Properties();
+        props.setProperty(TYPE_PROP, type);
+        props.put(MAPPINGS_PROP, mappings);
+        translator = BridgingConnector.newTopicTranslator(props, TYPE_PROP, MAPPINGS_PROP, cacheSize);
+        routes = new DestinationCache(translator, 1024, false);
+        // Late in the rule list, so linear scans pay for it
+        topic = "sol/region" + (rules - 2) + "/orders";
+        if (!translator.translate(topic).equals("kafka_orders_" + (rules - 2)))
+            throw new IllegalStateException("Unexpected translation " + translator.translate(topic));
+    }
+
+    @Benchmark
+    public String translate() {
+        return translator.translate(topic);
+    }
+
+    @Benchmark
+    public String routeLookup() {
+        return routes.lookup(topic).getName();
+    }
+}
@@ -0,0 +1,19 @@
+package com.solacesystems.poc;
+
+/**
+ * A TimedConnectionListener that is also told when the messages handed to it together are
+ * done, so it can send on whatever it batched up from them.
+ * @param <K> Data type of the record keys received.
+ * @param <V> Data type of the record values received.
+ */
+public interface BatchConnectionListener<K, V> extends TimedConnectionListener<K, V> {
+
+    /**
+     * Called after the last message of each batch, on the thread that handled the batch, and
+     * also every so often while no messages arrive, so whatever was held back waiting for more
+     * messages isn't held back indefinitely.
+     * @param worker Index of the PartitionWorkerPool worker that handled the batch, or -1
+     *               when it was handled on the polling thread.
+     */
+    public void onBatchEnd(int worker) throws Exception;
+}
@@ -5,4 +5,47 @@ class BridgeProperties {
     public static final String PROP_KAFKA_BRIDGE_TOPICS = "kaf_bridge_topics";
     public static final String PROP_KAFKA_SOLACE_TOPIC_TRANSLATIONS = "bridge_kafka_sol_topic_trans";
     public static final String PROP_SOLACE_KAFKA_TOPIC_TRANSLATIONS = "bridge_sol_kafka_topic_trans";
+    public static final String PROP_KAFKA_SOLACE_TOPIC_TRANSLATION_TYPE = "bridge_kafka_sol_topic_trans_type";
+    public static final String PROP_SOLACE_KAFKA_TOPIC_TRANSLATION_TYPE = "bridge_sol_kafka_topic_trans_type";
+    public static final String PROP_KAFKA_SOLACE_COMPRESSION = "bridge_kafka_sol_compression";
+    public static final String PROP_COMPRESSION_MIN_BYTES = "bridge_compression_min_bytes";
+    public static final String PROP_COMPRESSION_MAX_BYTES = "bridge_compression_max_bytes";
+    public static final String PROP_TOPIC_TRANSLATION_CACHE_SIZE = "bridge_topic_trans_cache_size";
+    public static final String PROP_SOLACE_PUB_ACK_WINDOW = "sol_pub_ack_window";
+    public static final String PROP_SOLACE_MSG_POOL_SIZE = "sol_msg_pool_size";
+    public static final String PROP_SOLACE_PUBLISHER_SESSIONS = "sol_publisher_sessions";
+    public static final String PROP_SOLACE_PUBLISH_BATCH_SIZE = "sol_publish_batch_size";
+    public static final String PROP_SOLACE_KEY_IN_USER_DATA = "sol_key_in_user_data";
+    public static final String PROP_SOLACE_APP_MSG_ID = "sol_app_msg_id";
+    public static final String PROP_SOLACE_PACK_MAX_RECORDS = "sol_pack_max_records";
+    public static final String PROP_SOLACE_PACK_MAX_BYTES = "sol_pack_max_bytes";
+    public static final String PROP_SOLACE_PACK_LINGER_MS = "sol_pack_linger_ms";
+    public static final String PROP_SOLACE_DEDUP_MAX_IDS = "sol_dedup_max_ids";
+    public static final String PROP_SOLACE_DEDUP_WINDOW_SEC = "sol_dedup_window_sec";
+    public static final String PROP_BRIDGE_PUBLISH_WORKERS = "bridge_publish_workers";
+    public static final String PROP_BRIDGE_WORKER_QUEUE_SIZE = "bridge_worker_queue_size";
+    public static final String PROP_KAFKA_MAX_INFLIGHT = "kaf_max_inflight";
+    public static final String PROP_KAFKA_COMMIT_INTERVAL_MS = "kaf_commit_interval_ms";
+    public static final String PROP_KAFKA_COMMIT_ACK_COUNT = "kaf_commit_ack_count";
+    public static final String PROP_KAFKA_MAX_UNACKED_PER_PARTITION = "kaf_max_unacked_per_partition";
+    public static final String PROP_KAFKA_RETRY_BACKOFF_MS = "kaf_retry_backoff_ms";
+    public static final String PROP_KAFKA_INFLIGHT_LOW_WATERMARK = "kaf_inflight_low_watermark";
+    public static final String PROP_BRIDGE_PAUSE_HIGH_PCT = "bridge_pause_high_pct";
+    public static final String PROP_BRIDGE_PAUSE_LOW_PCT = "bridge_pause_low_pct";
+    public static final String PROP_BRIDGE_ACK_QUEUE_SIZE = "bridge_ack_queue_size";
+    public static final String PROP_BRIDGE_ACK_MAX_RETRIES = "bridge_ack_max_retries";
+    public static final String PROP_BRIDGE_ACK_RETRY_BACKOFF_MS = "bridge_ack_retry_backoff_ms";
+    public static final String PROP_BRIDGE_SPOOL_DIR = "bridge_spool_dir";
+    public static final String PROP_BRIDGE_SPOOL_SEGMENT_MB = "bridge_spool_segment_mb";
+    public static final String PROP_BRIDGE_SPOOL_SEGMENTS = "bridge_spool_segments";
+    public static final String PROP_METRICS_HTTP_PORT = "bridge_metrics_http_port";
+    public static final String PROP_METRICS_HTTP_HOST = "bridge_metrics_http_host";
+    public static final String PROP_METRICS_JMX = "bridge_metrics_jmx";
+    public static final String PROP_METRICS_MAX_TOPICS = "bridge_metrics_max_topics";
+    public static final String PROP_METRICS_LOG_INTERVAL_SEC = "bridge_metrics_log_interval_sec";
+    public static final String PROP_METRICS_QUANTILE_WINDOW_SEC = "bridge_metrics_quantile_window_sec";
+
+    public static final String TRANSLATION_TYPE_STRING = "string";
+    public static final String TRANSLATION_TYPE_WILDCARD = "wildcard";
+    public static final String TRANSLATION_TYPE_REGEX = "regex";
 }
@@ -2,13 +2,17 @@ package com.solacesystems.poc;
 
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.Topic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
 import java.util.Timer;
@@ -33,19 +37,217 @@ public class BridgingConnector
     private KafkaConnector<byte[],byte[]>  kafkaConn;
     private SolaceConnector<byte[],byte[]> solaceConn;
 
-    private TopicTranslator kafkaSolaceTranslator;
-    private TopicTranslator solaceKafkaTranslator;
+    private DestinationCache kafkaSolaceRoutes;
+    private DestinationCache solaceKafkaRoutes;
+    // Kafka callbacks ACKing Solace messages; taken on the Solace dispatcher thread, recycled by the ack stage
+    private final RecyclingPool<KafkaPublishCompletion> kafkaCompletions;
+    // ACKs Solace messages, and retries rejected records, off Kafka's I/O thread
+    private final SolaceAckStage solaceAcks;
 
-    private boolean solaceConnected = false;
-    private boolean kafkaConnected  = false;
+    // Exported over JMX and, if a port is configured, HTTP in Prometheus text format
+    private final MetricsRegistry metrics;
+    private final DirectionMetrics kafkaToSolaceMetrics;
+    private final DirectionMetrics solaceToKafkaMetrics;
+    private final boolean metricsJmx;
+    private final String metricsHttpHost;
+    private final int metricsHttpPort;
+    private final int metricsLogIntervalSec;
+    private MetricsHttpServer metricsServer;
+
+    private volatile boolean solaceConnected = false;
+    private volatile boolean kafkaConnected  = false;
+
+    static final int DEFAULT_TRANSLATION_CACHE_SIZE = 10000;
+    private static final int DEFAULT_METRICS_MAX_TOPICS = 1000;
+    private static final int DEFAULT_ACK_QUEUE_SIZE = 4096;
+    private static final int DEFAULT_ACK_MAX_RETRIES = 3;
+    private static final int DEFAULT_ACK_RETRY_BACKOFF_MS = 100;
+
+    // Kafka->Solace publishing threads; 0 publishes inline on the polling thread
+    private static final int DEFAULT_WORKER_QUEUE_SIZE = 1024;
+    private final int publishWorkers;
+    private final int workerQueueSize;
+
+    // Kafka records spooled to disk while Solace can't take them; null unless bridge_spool_dir is set
+    private static final int DEFAULT_SPOOL_SEGMENT_MB = 64;
+    private static final int DEFAULT_SPOOL_SEGMENTS = 16;
+    // The Kafka 0.9 consumer's default max.partition.fetch.bytes
+    private static final int DEFAULT_MAX_PARTITION_FETCH_BYTES = 1048576;
+    private static final int SPOOL_DRAIN_BATCH = 1024;
+    private final DiskSpool spool;
+    // Polling thread only: set from the first spooled record until the spool is drained, so partitions stay in order
+    private boolean spooling = false;
+    private boolean spoolRejecting = false;
+    // Hands Kafka records Solace didn't take back, to the spool or to Kafka, to be published again
+    private final PublishFailureListener publishFailures;
+    // A spooled record read back while its lane was full, published before any other
+    private ConsumerRecord<byte[], byte[]> spoolHeld;
+    // Where polled records go to be published, and how full the lanes are; set by start()
+    private TimedConnectionListener<byte[], byte[]> kafkaPublisher;
+    private PartitionBackpressure.LaneLoad laneLoad;
 
     BridgingConnector(Properties properties) throws Exception {
         kafkaConn  = new KafkaConnector<>(properties);
         solaceConn = new SolaceConnector<>(properties);
-        kafkaSolaceTranslator = new TopicStringTranslator((List<String[]>)
-                        properties.get(BridgeProperties.PROP_KAFKA_SOLACE_TOPIC_TRANSLATIONS));
-        solaceKafkaTranslator = new TopicStringTranslator((List<String[]>)
-                        properties.get(BridgeProperties.PROP_SOLACE_KAFKA_TOPIC_TRANSLATIONS));
+        publishWorkers  = PartitionWorkerPool.configuredWorkers(properties);
+        workerQueueSize = IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_WORKER_QUEUE_SIZE, DEFAULT_WORKER_QUEUE_SIZE);
+        // Throttle the Solace queue flow rather than blocking its dispatcher while Kafka sends are outstanding
+        kafkaConn.setProducerFlowController(solaceConn);
+        String spoolDir = properties.getProperty(BridgeProperties.PROP_BRIDGE_SPOOL_DIR);
+        if (spoolDir != null && !spoolDir.trim().isEmpty()) {
+            int segmentBytes = IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_SPOOL_SEGMENT_MB, DEFAULT_SPOOL_SEGMENT_MB) * 1024 * 1024;
+            checkSpoolSegment(segmentBytes,
+                    IOHelper.getIntProperty(properties, ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG, DEFAULT_MAX_PARTITION_FETCH_BYTES));
+            spool = new DiskSpool(new File(spoolDir.trim()), segmentBytes,
+                    IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_SPOOL_SEGMENTS, DEFAULT_SPOOL_SEGMENTS));
+            // A record forced to disk is as safe as one Solace has ACK'd
+            spool.setSpoolListener(new PublishAckListener() {
+                @Override
+                public void onPublishAck(String topic, int partition, long offset) {
+                    kafkaConn.ack(topic, partition, offset);
+                }
+            });
+            // Whatever the last run left spooled goes out before anything newly polled
+            spooling = spool.unread() > 0;
+        }
+        else {
+            spool = null;
+        }
+        // Kafka offsets are only committed once Solace has ACK'd the bridged message
+        solaceConn.setPublishAckListener(new PublishAckListener() {
+            @Override
+            public void onPublishAck(String topic, int partition, long offset) {
+                // Records drained from the spool had their offsets committed when they were spooled
+                if (spool == null || !spool.acked(topic, partition, offset))
+                    kafkaConn.ack(topic, partition, offset);
+            }
+        });
+        // Drained records Solace doesn't take are read from the spool again; others are consumed again
+        publishFailures = new PublishFailureListener() {
+            @Override
+            public void onPublishFailed(String topic, int partition, long offset) {
+                if (spool == null || !spool.failed(topic, partition, offset))
+                    kafkaConn.failed(topic, partition, offset);
+            }
+        };
+        solaceConn.setPublishFailureListener(publishFailures);
+        // Translations are cached per source topic along with the Solace Topic object,
+        // so the translators themselves don't need to cache
+        int cacheSize = IOHelper.getIntProperty(properties, BridgeProperties.PROP_TOPIC_TRANSLATION_CACHE_SIZE, DEFAULT_TRANSLATION_CACHE_SIZE);
+        kafkaSolaceRoutes = new DestinationCache(newTopicTranslator(properties,
+                        BridgeProperties.PROP_KAFKA_SOLACE_TOPIC_TRANSLATION_TYPE,
+                        BridgeProperties.PROP_KAFKA_SOLACE_TOPIC_TRANSLATIONS, 0), cacheSize, true);
+        solaceKafkaRoutes = new DestinationCache(newTopicTranslator(properties,
+                        BridgeProperties.PROP_SOLACE_KAFKA_TOPIC_TRANSLATION_TYPE,
+                        BridgeProperties.PROP_SOLACE_KAFKA_TOPIC_TRANSLATIONS, 0), cacheSize, false);
+        // Room for every record the Kafka inflight window lets out, plus what the flow delivers while stopping
+        kafkaCompletions = new RecyclingPool<>(KafkaPublishCompletion.class, 2 * Math.max(1, kafkaConn.maxInflight()));
+        solaceAcks = new SolaceAckStage(properties.getProperty(BridgeProperties.PROP_SOLACE_BRIDGE_QUEUE),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_ACK_QUEUE_SIZE, DEFAULT_ACK_QUEUE_SIZE),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_ACK_MAX_RETRIES, DEFAULT_ACK_MAX_RETRIES),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_ACK_RETRY_BACKOFF_MS, DEFAULT_ACK_RETRY_BACKOFF_MS));
+        // Messages ACK'd here are remembered, so the Solace flow can ACK them straight away if redelivered
+        solaceAcks.setRedeliveryFilter(solaceConn.redeliveryFilter());
+        solaceAcks.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) throws Exception {
+                kafkaConn.resend(completion.kafkaTopic(), (byte[]) completion.key(), (byte[]) completion.value(), completion);
+            }
+        });
+        // Nothing more is consumed while a rejected record waits, so later records can't overtake it
+        solaceAcks.setRetryFlowController(new FlowController() {
+            @Override
+            public void stopFlow() {
+                kafkaConn.holdProducerFlow(true);
+            }
+
+            @Override
+            public void startFlow() {
+                kafkaConn.holdProducerFlow(false);
+            }
+        });
+
+        metrics = new MetricsRegistry(1000L * IOHelper.getIntProperty(properties,
+                BridgeProperties.PROP_METRICS_QUANTILE_WINDOW_SEC, MetricsRegistry.DEFAULT_QUANTILE_WINDOW_SEC));
+        int maxTopics = IOHelper.getIntProperty(properties, BridgeProperties.PROP_METRICS_MAX_TOPICS, DEFAULT_METRICS_MAX_TOPICS);
+        kafkaToSolaceMetrics = new DirectionMetrics(DirectionMetrics.KAFKA_TO_SOLACE, metrics, maxTopics);
+        solaceToKafkaMetrics = new DirectionMetrics(DirectionMetrics.SOLACE_TO_KAFKA, metrics, maxTopics);
+        solaceConn.setMetrics(kafkaToSolaceMetrics);
+        solaceConn.registerMetrics(metrics);
+        kafkaConn.registerMetrics(metrics);
+        solaceAcks.registerMetrics(metrics);
+        if (spool != null)
+            spool.registerMetrics(metrics);
+        registerMetrics();
+        metricsJmx = IOHelper.getBooleanProperty(properties, BridgeProperties.PROP_METRICS_JMX, true);
+        metricsHttpHost = properties.getProperty(BridgeProperties.PROP_METRICS_HTTP_HOST, "127.0.0.1").trim();
+        metricsHttpPort = IOHelper.getIntProperty(properties, BridgeProperties.PROP_METRICS_HTTP_PORT, 0);
+        metricsLogIntervalSec = IOHelper.getIntProperty(properties, BridgeProperties.PROP_METRICS_LOG_INTERVAL_SEC, 0);
+    }
+
+    /**
+     * Registers the bridge's own caches and pools; the connectors register theirs.
+     */
+    private void registerMetrics() {
+        registerCacheMetrics("kafka_to_solace_routes", kafkaSolaceRoutes.cache());
+        registerCacheMetrics("solace_to_kafka_routes", solaceKafkaRoutes.cache());
+        metrics.gauge("solkaf_pool_available", "Pooled objects free for use",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return kafkaCompletions.available();
+                    }
+                }, "pool", "kafka_completions");
+        metrics.counter("solkaf_pool_allocated_total", "Pooled objects created because none was free",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return kafkaCompletions.allocatedCount();
+                    }
+                }, "pool", "kafka_completions");
+    }
+
+    private void registerCacheMetrics(String name, final ClockCache<?, ?> cache) {
+        metrics.counter("solkaf_cache_hits_total", "Cache lookups that found their entry",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return cache.hits();
+                    }
+                }, "cache", name);
+        metrics.counter("solkaf_cache_misses_total", "Cache lookups that had to compute their entry",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return cache.misses();
+                    }
+                }, "cache", name);
+        metrics.gauge("solkaf_cache_size", "Entries held in a cache",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return cache.size();
+                    }
+                }, "cache", name);
+    }
+
+    /**
+     * Creates the TopicTranslator selected by a translation type property (default "string").
+     * @param properties shared application properties.
+     * @param typeProp name of the property selecting the translation type.
+     * @param mappingsProp name of the property holding the parsed translation pairs.
+     * @param cacheSize translation cache size for the wildcard and regex translators; 0 for none.
+     */
+    static TopicTranslator newTopicTranslator(Properties properties, String typeProp, String mappingsProp, int cacheSize) {
+        List<String[]> mappings = (List<String[]>) properties.get(mappingsProp);
+        String type = properties.getProperty(typeProp, BridgeProperties.TRANSLATION_TYPE_STRING).trim();
+        if (type.equalsIgnoreCase(BridgeProperties.TRANSLATION_TYPE_WILDCARD))
+            return new TopicWildcardTranslator(mappings, cacheSize);
+        if (type.equalsIgnoreCase(BridgeProperties.TRANSLATION_TYPE_REGEX))
+            return new TopicRegexTranslator(mappings, cacheSize);
+        if (!type.equalsIgnoreCase(BridgeProperties.TRANSLATION_TYPE_STRING))
+            throw new IllegalArgumentException("Unknown topic translation type '" + type + "' for " + typeProp);
+        return new TopicStringTranslator(mappings);
     }
 
     public static BridgingConnector newBridgingConnector(String propertyFilePath) throws Exception {
@@ -61,17 +263,34 @@ public class BridgingConnector
     }
 
     public void start() throws Exception {
+        startMetrics();
+        solaceAcks.start();
         logger.info("Connecting to Solace...");
         solaceConn.start(
-                new ConnectionListener<byte[], byte[]>() {
+                new TimedConnectionListener<byte[], byte[]>() {
             @Override
             public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                return onMessage(source, partition, topic, key, value, System.nanoTime());
+            }
+            @Override
+            public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value, long receivedNanos) {
+                solaceToKafkaMetrics.latency().handoff().record(System.nanoTime() - receivedNanos);
                 boolean result = false;
                 try {
-                    String kafkaTopic = solaceKafkaTranslator.translate(topic);
-                    kafkaConn.send(kafkaTopic, key, value, new KafkaPublishCompletion((BytesXMLMessage)source));
+                    String kafkaTopic = solaceKafkaRoutes.lookup(topic).getName();
+                    // Stamped before sending, as Kafka may answer before send() returns
+                    long sentNanos = System.nanoTime();
+                    solaceToKafkaMetrics.latency().publish().record(sentNanos - receivedNanos);
+                    // Records unpacked from an envelope share its message, ACK'd once they all are
+                    PackedEnvelope envelope = source instanceof PackedEnvelope ? (PackedEnvelope) source : null;
+                    BytesXMLMessage msg = envelope != null ? envelope.message() : (BytesXMLMessage) source;
+                    kafkaConn.send(kafkaTopic, key, value, KafkaPublishCompletion.acquire(kafkaCompletions,
+                            msg, solaceAcks, kafkaTopic, key, value,
+                            solaceToKafkaMetrics, receivedNanos, sentNanos).packedIn(envelope));
+                    solaceToKafkaMetrics.onMessage(topic, sizeOf(key, value));
                     result = true;
                 } catch (Exception ex) {
+                    solaceToKafkaMetrics.errors().increment();
                     logger.error("FAILED to send to Solace", ex);
                     result = false;
                 }
@@ -87,25 +306,52 @@ public class BridgingConnector
             }
         });
         logger.info("Connecting to kafka ...");
-        kafkaConn.start(
-                new ConnectionListener<byte[], byte[]>() {
+        final BatchConnectionListener<byte[], byte[]> kafkaToSolace =
+                new BatchConnectionListener<byte[], byte[]>() {
                     @Override
                     public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                        return onMessage(source, partition, topic, key, value, System.nanoTime());
+                    }
+                    @Override
+                    public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value, long receivedNanos) {
+                        kafkaToSolaceMetrics.latency().handoff().record(System.nanoTime() - receivedNanos);
                         logger.trace("Got Kafka message; sending over Solace.");
                         boolean result = false;
-                        String solaceTopic = kafkaSolaceTranslator.translate(topic);
+                        Topic solaceTopic = kafkaSolaceRoutes.lookup(topic).getTopic();
                         try {
-                            solaceConn.send(partition, solaceTopic, key, value);
+                            ConsumerRecord record = (ConsumerRecord) source;
+                            solaceConn.send(topic, partition, record.offset(), solaceTopic, key, value, receivedNanos);
+                            kafkaToSolaceMetrics.onMessage(topic, sizeOf(key, value));
                             result = true;
                         }
                         catch(JCSMPException ex) {
+                            kafkaToSolaceMetrics.errors().increment();
                             logger.error("EXCEPTION publishing msg to solace", ex);
                             ex.printStackTrace();
                             result = false;
                         }
+                        catch(InterruptedException ex) {
+                            logger.warn("Interrupted waiting to publish msg to solace");
+                            Thread.currentThread().interrupt();
+                            result = false;
+                        }
                         return result;
                     }
                     @Override
+                    public void onBatchEnd(int worker) throws Exception {
+                        // Worker i drives lane i; without workers the polling thread drives them all
+                        try {
+                            if (worker < 0)
+                                solaceConn.flushAll();
+                            else
+                                solaceConn.flush(worker);
+                        }
+                        catch(JCSMPException ex) {
+                            kafkaToSolaceMetrics.errors().increment();
+                            throw ex;
+                        }
+                    }
+                    @Override
                     public void onConnected() {
                         kafkaConnected = true;
                         solaceConn.startFlow();
@@ -115,30 +361,295 @@ public class BridgingConnector
                         kafkaConnected = false;
                         solaceConn.stopFlow();
                     }
-                });
+                };
+        if (publishWorkers > 0) {
+            // Worker i publishes exactly the partitions of Solace lane i, in order
+            final PartitionWorkerPool<byte[], byte[]> workerPool = new PartitionWorkerPool<>(
+                    "kafka-solace-worker", publishWorkers, workerQueueSize, kafkaToSolace, publishFailures);
+            metrics.gauge("solkaf_worker_queued", "Kafka records queued for the publish workers",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return workerPool.queued();
+                        }
+                    });
+            // A lane is as full as the fuller of its worker's queue and its pool of messages awaiting ACKs
+            laneLoad = new PartitionBackpressure.LaneLoad() {
+                @Override
+                public int lanes() {
+                    return solaceConn.laneCount();
+                }
+                @Override
+                public int percentFull(int lane) {
+                    return Math.max(workerPool.percentFull(lane), solaceConn.lanePercentFull(lane));
+                }
+            };
+            kafkaPublisher = new TimedConnectionListener<byte[], byte[]>() {
+                @Override
+                public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) throws Exception {
+                    return onMessage(source, partition, topic, key, value, System.nanoTime());
+                }
+                @Override
+                public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value, long receivedNanos) throws Exception {
+                    // The receive time travels with the record, so handoff includes time queued for the worker
+                    workerPool.dispatch((ConsumerRecord<byte[], byte[]>) source, receivedNanos);
+                    return true;
+                }
+                @Override
+                public void onConnected() {
+                    kafkaToSolace.onConnected();
+                }
+                @Override
+                public void onDisconnected() {
+                    kafkaToSolace.onDisconnected();
+                }
+            };
+        }
+        else {
+            laneLoad = new PartitionBackpressure.LaneLoad() {
+                @Override
+                public int lanes() {
+                    return solaceConn.laneCount();
+                }
+                @Override
+                public int percentFull(int lane) {
+                    return solaceConn.lanePercentFull(lane);
+                }
+            };
+            kafkaPublisher = kafkaToSolace;
+        }
+        if (spool == null) {
+            kafkaConn.setConsumerBackpressure(laneLoad);
+            kafkaConn.start(kafkaPublisher);
+        }
+        else {
+            // Full lanes spill into the spool instead, so partitions are only paused while it is full
+            kafkaConn.start(newSpoolingListener());
+        }
         logger.info("Kafka client started.");
 
     }
 
-    public void run() {
-        Long l = 1L;
-        Timer t = new Timer();
-        t.scheduleAtFixedRate(new TimerTask() {
+    /**
+     * Wraps the Kafka publisher so polled records go to the spool while Solace is disconnected
+     * or their lane is full, and keep going there until the spool has been drained.
+     */
+    private BatchConnectionListener<byte[], byte[]> newSpoolingListener() {
+        return new BatchConnectionListener<byte[], byte[]>() {
+            @Override
+            public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) throws Exception {
+                return onMessage(source, partition, topic, key, value, System.nanoTime());
+            }
+            @Override
+            public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value, long receivedNanos) throws Exception {
+                if (!spooling && solaceConnected && !laneFull(topic, partition))
+                    return kafkaPublisher.onMessage(source, partition, topic, key, value, receivedNanos);
+                long offset = ((ConsumerRecord) source).offset();
+                if (!spool.fits(topic, key, value)) {
+                    // Only once nothing spooled can be ahead of it, so its partition stays in order
+                    if (solaceConnected && spool.unread() == 0 && spoolHeld == null)
+                        return kafkaPublisher.onMessage(source, partition, topic, key, value, receivedNanos);
+                    // Handed back, so Kafka seeks its partition back to it and tries again later
+                    if (!spoolRejecting)
+                        logger.error("Kafka record {}-{} at offset {} is too large for a spool segment; its partition is held "
+                                + "at it until it can be published to Solace directly, once the spool is drained", topic, partition, offset);
+                    spoolRejecting = true;
+                    return false;
+                }
+                if (!spooling) {
+                    logger.warn("Spooling Kafka records to disk because Solace is {}.", solaceConnected ? "backed up" : "disconnected");
+                    spooling = true;
+                }
+                if (spoolOrRewind(spool, kafkaConn, topic, partition, offset, key, value)) {
+                    spoolRejecting = false;
+                    return true;
+                }
+                if (!spoolRejecting)
+                    logger.error("Spool is full; Kafka record {}-{} at offset {} and those after it are consumed again once it has room",
+                            topic, partition, offset);
+                spoolRejecting = true;
+                return false;
+            }
             @Override
-            public void run() {
-                solaceConn.dumpStats();
+            public void onBatchEnd(int worker) throws Exception {
+                spool.sync();
+                if (kafkaPublisher instanceof BatchConnectionListener)
+                    ((BatchConnectionListener<byte[], byte[]>) kafkaPublisher).onBatchEnd(worker);
             }
-        }, 2000L, 2000L);
+            @Override
+            public void onConnected() {
+                kafkaPublisher.onConnected();
+            }
+            @Override
+            public void onDisconnected() {
+                kafkaPublisher.onDisconnected();
+            }
+        };
+    }
+
+    /**
+     * Spools a polled record. Should the spool be full, the record and those polled after it
+     * from its partition are handed back to Kafka, to be consumed again once the spool has room
+     * (see KafkaConnector.releaseRewound()); a record too large for a segment is left to the
+     * caller, see DiskSpool.fits(). Polling thread only.
+     * @return true if the record was spooled.
+     */
+    static boolean spoolOrRewind(DiskSpool spool, KafkaConnector<byte[], byte[]> kafkaConn,
+                                 String topic, int partition, long offset, byte[] key, byte[] value) throws IOException {
+        if (spool.append(topic, partition, offset, key, value))
+            return true;
+        if (spool.isFull())
+            kafkaConn.rewind(topic, partition, offset);
+        return false;
+    }
+
+    /**
+     * Checks at startup that a spool segment holds any record the Kafka consumer can fetch.
+     * @throws IllegalArgumentException if it doesn't.
+     */
+    static void checkSpoolSegment(int segmentBytes, int maxPartitionFetchBytes) {
+        if (segmentBytes < DiskSpool.segmentBytesFor(maxPartitionFetchBytes))
+            throw new IllegalArgumentException(BridgeProperties.PROP_BRIDGE_SPOOL_SEGMENT_MB + " of " + segmentBytes / (1024 * 1024)
+                    + " MB can't hold a record of " + ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG + " (" + maxPartitionFetchBytes
+                    + " bytes); raise it");
+    }
+
+    /**
+     * @return true if the lane publishing the partition can't take another record without waiting.
+     */
+    private boolean laneFull(String topic, int partition) {
+        return laneLoad.percentFull(SolaceConnector.laneFor(topic, partition, laneLoad.lanes())) >= 100;
+    }
+
+    /**
+     * Publishes a batch of spooled records, oldest first, from the polling thread. Stops at a
+     * record whose lane is full, or while Solace is disconnected, to try it again next time; a
+     * record that fails, like one Solace rejects, goes back to the spool to be read again after
+     * the rest, and ends the batch.
+     * @return true if there may be more to drain straight away.
+     */
+    private boolean drainSpool() {
+        int count = 0;
+        while (count < SPOOL_DRAIN_BATCH) {
+            ConsumerRecord<byte[], byte[]> record = spoolHeld != null ? spoolHeld : spool.next();
+            spoolHeld = null;
+            if (record == null) {
+                spooling = false;
+                logger.info("Spool drained; publishing Kafka records directly again.");
+                break;
+            }
+            if (!solaceConnected || laneFull(record.topic(), record.partition())) {
+                spoolHeld = record;
+                break;
+            }
+            boolean sent = false;
+            try {
+                sent = kafkaPublisher.onMessage(record, record.partition(), record.topic(), record.key(), record.value(), System.nanoTime());
+            }
+            catch(Exception ex) {
+                logger.error("Exception when publishing a spooled Kafka msg", ex);
+            }
+            if (!sent) {
+                // Usually handed back already, by the failure listener
+                spool.failed(record.topic(), record.partition(), record.offset());
+                break;
+            }
+            count++;
+        }
+        if (count > 0 && kafkaPublisher instanceof BatchConnectionListener) {
+            try {
+                ((BatchConnectionListener<byte[], byte[]>) kafkaPublisher).onBatchEnd(-1);
+            }
+            catch(Exception ex) {
+                logger.error("Exception when ending a batch of spooled Kafka msgs", ex);
+            }
+        }
+        return count == SPOOL_DRAIN_BATCH;
+    }
+
+    /**
+     * Exports the metrics over JMX and HTTP, as configured.
+     */
+    private void startMetrics() throws Exception {
+        if (metricsJmx)
+            logger.info("Metrics registered with JMX as {}", MetricsMBean.register(metrics, MetricsMBean.DEFAULT_OBJECT_NAME));
+        if (metricsHttpPort > 0) {
+            metricsServer = new MetricsHttpServer(metrics, metricsHttpHost, metricsHttpPort);
+            metricsServer.start();
+        }
+    }
+
+    private static int sizeOf(byte[] key, byte[] value) {
+        return (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+    }
+
+    MetricsRegistry metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Stage ACKing Solace messages once Kafka has acknowledged their records.
+     */
+    SolaceAckStage solaceAcks() {
+        return solaceAcks;
+    }
+
+    /**
+     * @return Counts and stage latencies from Kafka receipt to Solace ACK.
+     */
+    DirectionMetrics kafkaToSolaceMetrics() {
+        return kafkaToSolaceMetrics;
+    }
+
+    /**
+     * @return Counts and stage latencies from Solace receipt to Kafka ACK.
+     */
+    DirectionMetrics solaceToKafkaMetrics() {
+        return solaceToKafkaMetrics;
+    }
+
+    public void run() {
+        Long l = 1L;
+        if (metricsLogIntervalSec > 0) {
+            Timer t = new Timer("bridge-metrics-log", true);
+            t.scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    logger.info("Bridge metrics:\n{}", metrics.prometheusText());
+                }
+            }, metricsLogIntervalSec * 1000L, metricsLogIntervalSec * 1000L);
+        }
+        boolean paused = false;
         while(true) {
             if (logger.isTraceEnabled())
                 logger.trace(" Polling " + l++);
-            if (solaceConnected) {
-                kafkaConn.poll(1000);
+            // Keep polling while Solace is down so the consumer stays in its group; pause its partitions
+            // instead, or with a spool, only once the spool is full
+            boolean blocked = spool == null ? !solaceConnected : spooling && spool.isFull();
+            if (blocked != paused) {
+                paused = blocked;
+                if (paused)
+                    logger.warn(spool == null ? "Pausing Kafka partitions because Solace is disconnected."
+                            : "Pausing Kafka partitions because the spool is full.");
+                else
+                    logger.info(spool == null ? "Solace connected; resuming Kafka partitions."
+                            : "Spool has room; resuming Kafka partitions.");
+                kafkaConn.setPaused(paused);
             }
-            else {
-                logger.warn("Skipping Kafka poll because Solace is disconnected.");
-                try { Thread.sleep(1000); } catch(InterruptedException e) {}
+            int timeoutMillis = 1000;
+            if (spool != null) {
+                spool.recycle();
+                // Partitions turned away while the spool was full are consumed again from where they stopped
+                if (!spool.isFull())
+                    kafkaConn.releaseRewound();
+                // Rejected records went back to the spool; publish them before anything newly polled
+                if (!spooling && spool.unread() > 0)
+                    spooling = true;
+                // Drain as fast as Solace takes it, polling in between only for what else has arrived
+                if (spooling && solaceConnected)
+                    timeoutMillis = drainSpool() ? 0 : 10;
             }
+            kafkaConn.poll(timeoutMillis);
         }
     }
 
@@ -0,0 +1,119 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, concurrent cache using CLOCK (second-chance) eviction.
+ *
+ * Lookups are lock-free: one ConcurrentHashMap get plus setting the entry's reference bit.
+ * Inserts happen only on a miss and are serialized; once full, the clock hand sweeps the
+ * entries, clearing reference bits, and evicts the first entry not used since the last sweep.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+class ClockCache<K,V> {
+
+    /**
+     * @param capacity maximum number of entries held.
+     */
+    public ClockCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.ring = new Entry[capacity];
+        this.map = new ConcurrentHashMap<>(2 * capacity);
+    }
+
+    /**
+     * @param key key to look up.
+     * @return the cached value, or null on a miss.
+     */
+    public V get(K key) {
+        Entry<K,V> entry = map.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        // Only write when needed, so hot entries don't keep dirtying their cache line
+        if (!entry.referenced)
+            entry.referenced = true;
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces a value, evicting a cold entry if the cache is full.
+     * @param key key to store.
+     * @param value value to store; must not be null.
+     */
+    public void put(K key, V value) {
+        synchronized (lock) {
+            Entry<K,V> existing = map.get(key);
+            if (existing != null) {
+                existing.value = value;
+                return;
+            }
+            Entry<K,V> entry = new Entry<>(key, value);
+            if (size < capacity) {
+                ring[size++] = entry;
+            }
+            else {
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % capacity;
+                }
+                map.remove(ring[hand].key);
+                evictions.incrementAndGet();
+                ring[hand] = entry;
+                hand = (hand + 1) % capacity;
+            }
+            map.put(key, entry);
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    private static final class Entry<K,V> {
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        final K key;
+        volatile V value;
+        volatile boolean referenced = false;
+    }
+
+    final private int capacity;
+    final private ConcurrentHashMap<K, Entry<K,V>> map;
+    // Guarded by lock
+    final private Entry<K,V>[] ring;
+    private int size = 0;
+    private int hand = 0;
+
+    final private AtomicLong hits = new AtomicLong();
+    final private AtomicLong misses = new AtomicLong();
+    final private AtomicLong evictions = new AtomicLong();
+
+    private final Object lock = new Object();
+}
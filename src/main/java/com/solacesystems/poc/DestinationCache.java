@@ -0,0 +1,75 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+
+/**
+ * Bounded cache of topic translations keyed by source topic, holding both the translated
+ * name and, for Solace-bound traffic, a ready-made JCSMP Topic. Once a source topic has been
+ * seen, each message costs a single lookup and creates no garbage.
+ */
+class DestinationCache {
+
+    /**
+     * A translated destination.
+     */
+    static final class Route {
+        Route(String name, Topic topic) {
+            this.name = name;
+            this.topic = topic;
+        }
+
+        /**
+         * @return the translated topic name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the JCSMP Topic for the translated name, or null if the cache does not create them.
+         */
+        public Topic getTopic() {
+            return topic;
+        }
+
+        final private String name;
+        final private Topic topic;
+    }
+
+    /**
+     * @param translator translation applied to source topics not yet in the cache.
+     * @param capacity maximum number of source topics remembered.
+     * @param createTopics true to also create a JCSMP Topic for each translated name.
+     */
+    public DestinationCache(TopicTranslator translator, int capacity, boolean createTopics) {
+        this.translator = translator;
+        this.createTopics = createTopics;
+        this.cache = new ClockCache<>(capacity);
+    }
+
+    /**
+     * @param sourceTopic topic the message arrived on.
+     * @return the route the message should be forwarded on.
+     */
+    public Route lookup(String sourceTopic) {
+        Route route = cache.get(sourceTopic);
+        if (route == null) {
+            String name = translator.translate(sourceTopic);
+            route = new Route(name, createTopics ? JCSMPFactory.onlyInstance().createTopic(name) : null);
+            cache.put(sourceTopic, route);
+        }
+        return route;
+    }
+
+    /**
+     * @return the underlying cache, for its size and hit/miss/eviction counters.
+     */
+    public ClockCache<String,Route> cache() {
+        return cache;
+    }
+
+    final private TopicTranslator translator;
+    final private boolean createTopics;
+    final private ClockCache<String,Route> cache;
+}
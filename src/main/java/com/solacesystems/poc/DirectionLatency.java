@@ -0,0 +1,59 @@
+package com.solacesystems.poc;
+
+/**
+ * Latency histograms for each stage one direction of the bridge takes a message through,
+ * all in nanoseconds:
+ *
+ * - handoff: from receipt on the source side until the bridge starts handling the message
+ *   (waiting behind earlier records of a poll, or in a publish worker's queue);
+ * - publish: from receipt until the message is handed to the destination's client;
+ * - ack: from that handover until the destination acknowledges it;
+ * - total: from receipt until the destination acknowledges it.
+ *
+ * Recording is lock-free and allocation-free, so it stays on the hot path.
+ */
+class DirectionLatency {
+
+    /**
+     * @param name direction name used in reports, e.g. "kafka->solace".
+     */
+    public DirectionLatency(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public LatencyHistogram handoff() {
+        return handoff;
+    }
+
+    public LatencyHistogram publish() {
+        return publish;
+    }
+
+    public LatencyHistogram ack() {
+        return ack;
+    }
+
+    public LatencyHistogram total() {
+        return total;
+    }
+
+    /**
+     * Formats every stage's percentiles, one line per stage.
+     */
+    public String summary() {
+        return name + " handoff " + handoff.summaryMicros() + "\n" +
+               name + " publish " + publish.summaryMicros() + "\n" +
+               name + " ack     " + ack.summaryMicros() + "\n" +
+               name + " total   " + total.summaryMicros();
+    }
+
+    final private String name;
+    final private LatencyHistogram handoff = new LatencyHistogram();
+    final private LatencyHistogram publish = new LatencyHistogram();
+    final private LatencyHistogram ack = new LatencyHistogram();
+    final private LatencyHistogram total = new LatencyHistogram();
+}
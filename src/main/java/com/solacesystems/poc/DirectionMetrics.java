@@ -0,0 +1,128 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts what one direction of the bridge does: messages and bytes bridged, in total and
+ * per source topic, ACKs and NACKs from the destination, publish errors, and the latency of
+ * each stage (see DirectionLatency). All are registered in a MetricsRegistry with a
+ * "direction" label.
+ *
+ * Per-topic series are created as topics are first seen, up to a configured number; the
+ * traffic of any further topics is counted under the topic "_other", so a stream of unique
+ * topic names can't grow the metrics without bound. Counting allocates nothing once a
+ * topic's series exist.
+ */
+class DirectionMetrics {
+    static final String KAFKA_TO_SOLACE = "kafka_to_solace";
+    static final String SOLACE_TO_KAFKA = "solace_to_kafka";
+    static final String OTHER_TOPICS = "_other";
+
+    /**
+     * @param direction direction label, e.g. KAFKA_TO_SOLACE.
+     * @param registry registry the metrics are exported from.
+     * @param maxTopics most source topics counted individually.
+     */
+    public DirectionMetrics(String direction, MetricsRegistry registry, int maxTopics) {
+        this.direction = direction;
+        this.registry = registry;
+        this.maxTopics = maxTopics;
+        latency = new DirectionLatency(direction);
+        messages = registry.counter("solkaf_messages_total", "Messages bridged", "direction", direction);
+        bytes = registry.counter("solkaf_bytes_total", "Key and payload bytes bridged", "direction", direction);
+        acks = registry.counter("solkaf_acks_total", "Bridged messages acknowledged by the destination", "direction", direction);
+        nacks = registry.counter("solkaf_nacks_total", "Bridged messages rejected by the destination", "direction", direction);
+        errors = registry.counter("solkaf_errors_total", "Messages that failed to be handed to the destination", "direction", direction);
+        String help = "Time spent in each stage of the bridge";
+        registry.summary("solkaf_latency_seconds", help, latency.handoff(), "direction", direction, "stage", "handoff");
+        registry.summary("solkaf_latency_seconds", help, latency.publish(), "direction", direction, "stage", "publish");
+        registry.summary("solkaf_latency_seconds", help, latency.ack(), "direction", direction, "stage", "ack");
+        registry.summary("solkaf_latency_seconds", help, latency.total(), "direction", direction, "stage", "total");
+    }
+
+    /**
+     * Counts a message handed to the destination.
+     * @param topic source topic of the message.
+     * @param size bytes of key and payload.
+     */
+    public void onMessage(String topic, int size) {
+        messages.increment();
+        bytes.add(size);
+        TopicCounters counters = topics.get(topic);
+        if (counters == null) {
+            // Topics are never removed, so once there is an overflow series no more are added
+            counters = other;
+            if (counters == null)
+                counters = addTopic(topic);
+        }
+        counters.messages.increment();
+        counters.bytes.add(size);
+    }
+
+    private synchronized TopicCounters addTopic(String topic) {
+        TopicCounters counters = topics.get(topic);
+        if (counters != null)
+            return counters;
+        if (topics.size() >= maxTopics) {
+            if (other == null)
+                other = new TopicCounters(OTHER_TOPICS);
+            return other;
+        }
+        counters = new TopicCounters(topic);
+        topics.put(topic, counters);
+        return counters;
+    }
+
+    public String direction() {
+        return direction;
+    }
+
+    public DirectionLatency latency() {
+        return latency;
+    }
+
+    public StripedCounter messages() {
+        return messages;
+    }
+
+    public StripedCounter bytes() {
+        return bytes;
+    }
+
+    public StripedCounter acks() {
+        return acks;
+    }
+
+    public StripedCounter nacks() {
+        return nacks;
+    }
+
+    public StripedCounter errors() {
+        return errors;
+    }
+
+    private class TopicCounters {
+        TopicCounters(String topic) {
+            messages = registry.counter("solkaf_topic_messages_total", "Messages bridged per source topic",
+                    "direction", direction, "topic", topic);
+            bytes = registry.counter("solkaf_topic_bytes_total", "Key and payload bytes bridged per source topic",
+                    "direction", direction, "topic", topic);
+        }
+
+        final StripedCounter messages;
+        final StripedCounter bytes;
+    }
+
+    final private String direction;
+    final private MetricsRegistry registry;
+    final private int maxTopics;
+    final private DirectionLatency latency;
+    final private StripedCounter messages;
+    final private StripedCounter bytes;
+    final private StripedCounter acks;
+    final private StripedCounter nacks;
+    final private StripedCounter errors;
+    final private ConcurrentHashMap<String, TopicCounters> topics = new ConcurrentHashMap<>();
+    // Shared by topics beyond maxTopics
+    private volatile TopicCounters other;
+}
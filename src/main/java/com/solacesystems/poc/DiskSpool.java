@@ -0,0 +1,634 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Local spool of Kafka records, kept in a bounded set of memory-mapped segment files, so
+ * the bridge can keep consuming while Solace is down or backed up and publish what it spooled
+ * once Solace catches up.
+ *
+ * Records are appended on the polling thread. Once sync() has forced them to disk, each
+ * spooled record is reported to the spool's listener, so its Kafka offset can be committed
+ * as though Solace had ACK'd it. Records are read back in the order they were appended; a
+ * drained record is marked done when Solace ACKs it (see acked()), or read again after the
+ * rest if Solace fails to take it (see failed()). A segment is recycled once
+ * every record in it has been both read and ACK'd, so the spool never grows beyond its
+ * segments. Whatever was not recycled is read again after a restart, so records are
+ * published at least once.
+ *
+ * Segment format, big-endian: magic (int), version (int) and sequence (long), then records,
+ * each a body length (int) and the CRC32 of the body (int) followed by the body: topic
+ * length (short), topic (UTF-8), partition (int), offset (long), key length (int, -1 for
+ * none), key bytes, value length (int, -1 for none) and value bytes. A zero length ends the
+ * segment's records. Recovery stops at the first record whose length or CRC doesn't check.
+ *
+ * Appending, reading and recycling must all happen on one thread; acked() and failed() may be
+ * called from any.
+ */
+class DiskSpool {
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final int  MAGIC   = 0x534b5350;
+    private static final int  VERSION = 1;
+    // Magic, version and sequence
+    private static final int  SEGMENT_HEADER = 4 + 4 + 8;
+    // Body length and CRC
+    private static final int  RECORD_HEADER = 4 + 4;
+    // Topic length, partition, offset, and the key and value lengths
+    private static final int  BODY_OVERHEAD = 2 + 4 + 8 + 4 + 4;
+    // Kafka topic names are ASCII and at most this long
+    private static final int  MAX_TOPIC_BYTES = 255;
+    static final String SEGMENT_PREFIX = "spool-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * A memory-mapped segment file.
+     */
+    private static final class Segment {
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            view = buffer.duplicate();
+        }
+
+        final File file;
+        final MappedByteBuffer buffer;
+        // For bulk copies, so the mapping's own position is never moved
+        final ByteBuffer view;
+        long sequence;
+        int writePos;
+        int readPos;
+        int written;
+        int read;
+        boolean dirty;
+        // Drained records Solace has yet to ACK
+        final AtomicInteger unacked = new AtomicInteger();
+    }
+
+    /**
+     * Identifies a drained record awaiting its Solace ACK.
+     */
+    private static final class RecordId {
+        RecordId(String topic, int partition, long offset) {
+            this.topic = topic;
+            this.partition = partition;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RecordId))
+                return false;
+            RecordId other = (RecordId) o;
+            return offset == other.offset && partition == other.partition && topic.equals(other.topic);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * topic.hashCode() + partition) + (int) (offset ^ (offset >>> 32));
+        }
+
+        final String topic;
+        final int partition;
+        final long offset;
+    }
+
+    /**
+     * Where a drained record awaiting its Solace ACK is spooled, so it can be read again.
+     */
+    private static final class Drained {
+        Drained(RecordId id, Segment segment, int pos) {
+            this.id = id;
+            this.segment = segment;
+            this.pos = pos;
+        }
+
+        final RecordId id;
+        final Segment segment;
+        final int pos;
+    }
+
+    /**
+     * Opens the spool, recovering any records a previous run left in it.
+     * @param dir directory holding the segment files; created if missing.
+     * @param segmentBytes size of each segment file.
+     * @param maxSegments most segment files; the spool holds at most segmentBytes * maxSegments.
+     */
+    public DiskSpool(File dir, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes < SEGMENT_HEADER + RECORD_HEADER + BODY_OVERHEAD + 4)
+            throw new IllegalArgumentException("Spool segments of " + segmentBytes + " bytes are too small");
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can't create spool directory " + dir);
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(2, maxSegments);
+        recover();
+    }
+
+    /**
+     * Maps every existing segment file, keeping those holding records in sequence order.
+     */
+    private void recover() throws IOException {
+        List<Segment> recovered = new ArrayList<>();
+        for (int i = 0; i < maxSegments; i++) {
+            // Created in index order, so the first one missing is the end of them
+            File file = segmentFile(i);
+            if (!file.exists())
+                break;
+            Segment segment = map(file);
+            created++;
+            if (segment.buffer.getInt(0) == MAGIC && segment.buffer.getInt(4) == VERSION && scan(segment) > 0)
+                recovered.add(segment);
+            else
+                free.add(segment);
+        }
+        Collections.sort(recovered, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+            }
+        });
+        for (Segment segment : recovered) {
+            active.add(segment);
+            unread += segment.written;
+            nextSequence = Math.max(nextSequence, segment.sequence + 1);
+        }
+        segmentsInUse = active.size();
+        if (unread > 0)
+            logger.info("Recovered {} spooled records in {} segments from {}", unread, active.size(), dir);
+    }
+
+    /**
+     * Finds the valid records of a recovered segment, and marks the end of them.
+     * @return Number of records.
+     */
+    private int scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        segment.sequence = buffer.getLong(8);
+        int pos = SEGMENT_HEADER;
+        int count = 0;
+        while (pos + RECORD_HEADER <= segmentBytes) {
+            int length = buffer.getInt(pos);
+            if (length < BODY_OVERHEAD || pos + RECORD_HEADER + length + 4 > segmentBytes)
+                break;
+            ensureScratch(length);
+            seek(segment.view, pos + RECORD_HEADER);
+            segment.view.get(scratch, 0, length);
+            if (crc(scratch, length) != buffer.getInt(pos + 4)) {
+                logger.warn("Spool segment {} has a corrupt record at {}; ignoring the rest of it", segment.file, pos);
+                break;
+            }
+            pos += RECORD_HEADER + length;
+            count++;
+        }
+        buffer.putInt(pos, 0);
+        segment.writePos = pos;
+        segment.readPos = SEGMENT_HEADER;
+        segment.written = count;
+        segment.read = 0;
+        segment.dirty = true;
+        return count;
+    }
+
+    /**
+     * @param listener told of every appended record once sync() has made it durable.
+     */
+    public void setSpoolListener(PublishAckListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param keyValueBytes most bytes of key and value a record may have.
+     * @return Smallest segment size holding such a record, whatever its topic.
+     */
+    static int segmentBytesFor(int keyValueBytes) {
+        return SEGMENT_HEADER + RECORD_HEADER + BODY_OVERHEAD + MAX_TOPIC_BYTES + keyValueBytes + 4;
+    }
+
+    /**
+     * @return true if the record is small enough for a segment; append() never takes one that isn't.
+     */
+    public boolean fits(String topic, byte[] key, byte[] value) {
+        return SEGMENT_HEADER + RECORD_HEADER + recordLength(topicBytes(topic), key, value) + 4 <= segmentBytes;
+    }
+
+    /**
+     * Appends a record to the spool; it is only durable once sync() returns.
+     * @return false if the spool has no room for it, or it doesn't fit in a segment.
+     */
+    public boolean append(String topic, int partition, long offset, byte[] key, byte[] value) throws IOException {
+        byte[] topicBytes = topicBytes(topic);
+        int length = recordLength(topicBytes, key, value);
+        // Room for the record and the end marker behind it
+        int size = RECORD_HEADER + length + 4;
+        Segment segment = active.isEmpty() ? null : active.get(active.size() - 1);
+        if (segment == null || segment.writePos + size > segmentBytes) {
+            if (SEGMENT_HEADER + size > segmentBytes || (segment = nextSegment()) == null) {
+                rejected++;
+                return false;
+            }
+        }
+        ensureScratch(length);
+        int p = 0;
+        scratch[p++] = (byte) (topicBytes.length >>> 8);
+        scratch[p++] = (byte) topicBytes.length;
+        System.arraycopy(topicBytes, 0, scratch, p, topicBytes.length);
+        p += topicBytes.length;
+        p = putInt(scratch, p, partition);
+        p = putInt(scratch, p, (int) (offset >>> 32));
+        p = putInt(scratch, p, (int) offset);
+        p = putBytes(scratch, p, key);
+        putBytes(scratch, p, value);
+
+        int pos = segment.writePos;
+        seek(segment.view, pos + RECORD_HEADER);
+        segment.view.put(scratch, 0, length);
+        segment.buffer.putInt(pos + 4, crc(scratch, length));
+        segment.buffer.putInt(pos + RECORD_HEADER + length, 0);
+        // Last, so a record is never seen before the whole of it is written
+        segment.buffer.putInt(pos, length);
+        segment.writePos = pos + RECORD_HEADER + length;
+        segment.written++;
+        segment.dirty = true;
+        unread++;
+        appended++;
+        pendingTopics.add(topic);
+        pendingPartitions.add(partition);
+        pendingOffsets.add(offset);
+        return true;
+    }
+
+    /**
+     * Forces every appended record to disk, then reports them to the spool listener.
+     */
+    public void sync() {
+        if (pendingTopics.isEmpty())
+            return;
+        for (Segment segment : active) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+        PublishAckListener l = listener;
+        for (int i = 0; i < pendingTopics.size(); i++) {
+            if (l != null)
+                l.onPublishAck(pendingTopics.get(i), pendingPartitions.get(i), pendingOffsets.get(i));
+        }
+        pendingTopics.clear();
+        pendingPartitions.clear();
+        pendingOffsets.clear();
+    }
+
+    /**
+     * Reads the next spooled record, in the order records were appended, then those Solace
+     * failed to take. Solace's ACK for it must then be passed to acked(), or its failure to
+     * failed(); until then its segment is kept.
+     * @return The record, or null if every spooled record has been read.
+     */
+    public ConsumerRecord<byte[], byte[]> next() {
+        for (int i = 0; i < active.size(); i++) {
+            Segment segment = active.get(i);
+            if (segment.read == segment.written)
+                continue;
+            int pos = segment.readPos;
+            ConsumerRecord<byte[], byte[]> record = read(segment, pos);
+            segment.readPos = pos + RECORD_HEADER + segment.buffer.getInt(pos);
+            segment.read++;
+            unread--;
+            drained++;
+
+            RecordId id = new RecordId(record.topic(), record.partition(), record.offset());
+            // A record spooled twice, e.g. redelivered after a rebalance, is only counted once
+            if (awaitingAck.putIfAbsent(id, new Drained(id, segment, pos)) == null)
+                segment.unacked.incrementAndGet();
+            return record;
+        }
+        // Still counted in its segment's unacked, so the segment is kept until it is ACK'd
+        Drained retry = requeued.poll();
+        if (retry == null)
+            return null;
+        requeuedCount.decrementAndGet();
+        drained++;
+        awaitingAck.put(retry.id, retry);
+        return read(retry.segment, retry.pos);
+    }
+
+    /**
+     * Decodes the record spooled at a position in a segment.
+     */
+    private ConsumerRecord<byte[], byte[]> read(Segment segment, int pos) {
+        int length = segment.buffer.getInt(pos);
+        ensureScratch(length);
+        seek(segment.view, pos + RECORD_HEADER);
+        segment.view.get(scratch, 0, length);
+
+        int topicLength = ((scratch[0] & 0xff) << 8) | (scratch[1] & 0xff);
+        String topic = new String(scratch, 2, topicLength, StandardCharsets.UTF_8);
+        int p = 2 + topicLength;
+        int partition = getInt(scratch, p);
+        long offset = ((long) getInt(scratch, p + 4) << 32) | (getInt(scratch, p + 8) & 0xffffffffL);
+        p += 12;
+        int keyLength = getInt(scratch, p);
+        byte[] key = getBytes(scratch, p + 4, keyLength);
+        p += 4 + Math.max(0, keyLength);
+        byte[] value = getBytes(scratch, p + 4, getInt(scratch, p));
+        return new ConsumerRecord<>(topic, partition, offset, key, value);
+    }
+
+    /**
+     * Marks a record read from the spool as ACK'd by Solace. May be called from any thread.
+     * @return true if the record was drained from the spool; false if it came straight from
+     * Kafka, and its offset is to be committed as usual.
+     */
+    public boolean acked(String topic, int partition, long offset) {
+        if (awaitingAck.isEmpty())
+            return false;
+        Drained drained = awaitingAck.remove(new RecordId(topic, partition, offset));
+        if (drained == null)
+            return false;
+        drained.segment.unacked.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Marks a record read from the spool as not taken by Solace, e.g. NACK'd, so next() reads
+     * it again once the records spooled after it have been. May be called from any thread.
+     * @return true if the record was drained from the spool; false if it came straight from Kafka.
+     */
+    public boolean failed(String topic, int partition, long offset) {
+        if (awaitingAck.isEmpty())
+            return false;
+        Drained drained = awaitingAck.remove(new RecordId(topic, partition, offset));
+        if (drained == null)
+            return false;
+        requeuedCount.incrementAndGet();
+        requeued.add(drained);
+        retried.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Recycles the oldest segments once all their records have been read and ACK'd.
+     * @return Number of segments recycled.
+     */
+    public int recycle() {
+        int recycled = 0;
+        while (!active.isEmpty()) {
+            Segment segment = active.get(0);
+            if (segment.read < segment.written || segment.unacked.get() > 0)
+                break;
+            // Left empty on disk, so a restart doesn't read its records again
+            segment.buffer.putInt(SEGMENT_HEADER, 0);
+            segment.buffer.force();
+            active.remove(0);
+            segmentsInUse = active.size();
+            free.add(segment);
+            recycled++;
+        }
+        return recycled;
+    }
+
+    /**
+     * Takes a free segment, or creates one, and starts it on the next sequence.
+     * @return The segment, or null if every segment is in use.
+     */
+    private Segment nextSegment() throws IOException {
+        Segment segment = free.pollFirst();
+        if (segment == null) {
+            if (created == maxSegments)
+                return null;
+            segment = map(segmentFile(created++));
+        }
+        segment.sequence = nextSequence++;
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putLong(8, segment.sequence);
+        segment.buffer.putInt(SEGMENT_HEADER, 0);
+        segment.writePos = segment.readPos = SEGMENT_HEADER;
+        segment.written = segment.read = 0;
+        segment.dirty = true;
+        active.add(segment);
+        segmentsInUse = active.size();
+        return segment;
+    }
+
+    private Segment map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentBytes);
+            // The mapping stays valid once the channel is closed
+            return new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, SEGMENT_PREFIX + index + SEGMENT_SUFFIX);
+    }
+
+    private static int recordLength(byte[] topicBytes, byte[] key, byte[] value) {
+        return BODY_OVERHEAD + topicBytes.length + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+    }
+
+    private byte[] topicBytes(String topic) {
+        // Records mostly come in runs from the same topic
+        if (!topic.equals(lastTopic)) {
+            lastTopicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            lastTopic = topic;
+        }
+        return lastTopicBytes;
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length)
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+    }
+
+    private int crc(byte[] data, int length) {
+        crc.reset();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Through Buffer, so the call links against Java 7's ByteBuffer too.
+     */
+    private static void seek(ByteBuffer buffer, int position) {
+        ((Buffer) buffer).position(position);
+    }
+
+    private static int putInt(byte[] data, int p, int v) {
+        data[p]     = (byte) (v >>> 24);
+        data[p + 1] = (byte) (v >>> 16);
+        data[p + 2] = (byte) (v >>> 8);
+        data[p + 3] = (byte) v;
+        return p + 4;
+    }
+
+    private static int putBytes(byte[] data, int p, byte[] bytes) {
+        if (bytes == null)
+            return putInt(data, p, -1);
+        p = putInt(data, p, bytes.length);
+        System.arraycopy(bytes, 0, data, p, bytes.length);
+        return p + bytes.length;
+    }
+
+    private static int getInt(byte[] data, int p) {
+        return ((data[p] & 0xff) << 24) | ((data[p + 1] & 0xff) << 16) | ((data[p + 2] & 0xff) << 8) | (data[p + 3] & 0xff);
+    }
+
+    private static byte[] getBytes(byte[] data, int p, int length) {
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, p, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * @return true if the spool is writing its last free segment, so Kafka should be held back
+     * until segments are recycled.
+     */
+    public boolean isFull() {
+        return free.isEmpty() && created == maxSegments && active.size() == maxSegments;
+    }
+
+    /**
+     * @return Number of spooled records yet to be read, including those to be read again.
+     */
+    public long unread() {
+        return unread + requeuedCount.get();
+    }
+
+    /**
+     * @return Number of segments holding records.
+     */
+    public int segmentsInUse() {
+        return active.size();
+    }
+
+    public long appended() {
+        return appended;
+    }
+
+    public long drained() {
+        return drained;
+    }
+
+    /**
+     * @return Number of records the spool had no room for.
+     */
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * @return Number of drained records Solace failed to take, and that were read again.
+     */
+    public long retried() {
+        return retried.get();
+    }
+
+    /**
+     * Registers the spool's size and throughput.
+     * @param registry registry to export them from.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("solkaf_spool_unread", "Kafka records spooled to disk and not yet published to Solace",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return unread();
+                    }
+                });
+        registry.gauge("solkaf_spool_segments", "Spool segment files holding records",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return segmentsInUse;
+                    }
+                });
+        registry.counter("solkaf_spool_appended_total", "Kafka records spooled to disk",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return appended;
+                    }
+                });
+        registry.counter("solkaf_spool_drained_total", "Spooled records read back for publishing to Solace",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return drained;
+                    }
+                });
+        registry.counter("solkaf_spool_rejected_total", "Kafka records the spool had no room for",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return rejected;
+                    }
+                });
+        registry.counter("solkaf_spool_retried_total", "Spooled records Solace failed to take, read back to be published again",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return retried.get();
+                    }
+                });
+    }
+
+    final private File dir;
+    final private int segmentBytes;
+    final private int maxSegments;
+    // Segments holding records, oldest first; the last is being written
+    final private List<Segment> active = new ArrayList<>();
+    final private ArrayDeque<Segment> free = new ArrayDeque<>();
+    private int created;
+    private long nextSequence;
+    // Drained records by id, so Solace's ACKs can find their segment
+    final private ConcurrentHashMap<RecordId, Drained> awaitingAck = new ConcurrentHashMap<>();
+    // Drained records Solace failed to take, to be read again
+    final private ConcurrentLinkedQueue<Drained> requeued = new ConcurrentLinkedQueue<>();
+    final private AtomicInteger requeuedCount = new AtomicInteger();
+    final private AtomicLong retried = new AtomicLong();
+    // Appended since the last sync()
+    final private List<String> pendingTopics = new ArrayList<>();
+    final private List<Integer> pendingPartitions = new ArrayList<>();
+    final private List<Long> pendingOffsets = new ArrayList<>();
+    private PublishAckListener listener;
+    final private CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[256];
+    private String lastTopic;
+    private byte[] lastTopicBytes;
+    // Written only by the spooling thread; read by the metrics thread
+    private volatile int segmentsInUse;
+    private volatile long unread;
+    private volatile long appended;
+    private volatile long drained;
+    private volatile long rejected;
+}
@@ -0,0 +1,18 @@
+package com.solacesystems.poc;
+
+/**
+ * Something that can be asked to stop and restart the inbound flow of messages,
+ * e.g. a Solace FlowReceiver or a set of Kafka partitions.
+ */
+public interface FlowController {
+
+    /**
+     * Stops delivery of inbound messages until startFlow is called.
+     */
+    void stopFlow();
+
+    /**
+     * Resumes delivery of inbound messages after a previous stopFlow.
+     */
+    void startFlow();
+}
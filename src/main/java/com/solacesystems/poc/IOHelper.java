@@ -41,6 +41,7 @@ class IOHelper {
     static void fixPropertyTypes(Properties props) {
         parseTopicTranslations(props, BridgeProperties.PROP_KAFKA_SOLACE_TOPIC_TRANSLATIONS);
         parseTopicTranslations(props, BridgeProperties.PROP_SOLACE_KAFKA_TOPIC_TRANSLATIONS);
+        parseTopicTranslations(props, BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION);
         parseKafkaTopicList(props);
     }
 
@@ -73,7 +74,21 @@ class IOHelper {
         return new String[0];
     }
 
-    static private String[] parseCommaSeparatedList(Properties props, String key) {
+    static int getIntProperty(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Integer.parseInt(value.trim());
+    }
+
+    static boolean getBooleanProperty(Properties props, String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            return defaultValue;
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    static String[] parseCommaSeparatedList(Properties props, String key) {
         if (props.containsKey(key)) {
             String valueString = (String) props.getProperty(key);
             return valueString.split(",");
@@ -0,0 +1,112 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of sent-but-unacknowledged items, indexed by their sequential message ID modulo a
+ * power-of-two capacity, so any ACK or error can be resolved in O(1) regardless of order.
+ *
+ * Items must be put in increasing, consecutive ID order by a single sending thread. They
+ * are normally removed by the acknowledging thread, but the sender may also remove an item
+ * whose send failed. The table also tracks the oldest ID still outstanding, advanced as
+ * the ACKs that fill gaps arrive.
+ *
+ * @param <T>
+ */
+class InflightTable<T extends HasMsgID> {
+
+    /**
+     * Creates a new table.
+     * @param minCapacity minimum number of slots; rounded up to a power of two.
+     */
+    public InflightTable(int minCapacity) {
+        int size = Integer.highestOneBit(Math.max(1, minCapacity));
+        if (size < minCapacity)
+            size <<= 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an item just before it is sent. Only to be called by the single sending thread.
+     * @param item item whose ID is one greater than the previously put item.
+     * @return false if the item's slot is still held by an older unacknowledged item.
+     */
+    public boolean put(T item) {
+        final long id = item.getMsgID();
+        final int idx = (int) id & mask;
+        if (slots.get(idx) != null)
+            return false;
+        if (next == EMPTY)
+            head = id;
+        slots.set(idx, item);
+        next = id + 1;
+        putCount++;
+        return true;
+    }
+
+    /**
+     * Removes an item by ID on ACK or error. The lock is uncontended except when the sending
+     * thread is backing out a failed send.
+     * @param id message ID being acknowledged.
+     * @return the item that was sent with this ID, or null if it is unknown or already removed.
+     */
+    public synchronized T remove(long id) {
+        final int idx = (int) id & mask;
+        final T item = slots.get(idx);
+        if (item == null || item.getMsgID() != id)
+            return null;
+        slots.set(idx, null);
+        removeCount++;
+        if (id == head)
+            advanceHead();
+        return item;
+    }
+
+    /**
+     * @return ID of the oldest item not yet removed; if none are outstanding, the ID the next put will have.
+     */
+    public long oldestUnacked() {
+        return head;
+    }
+
+    /**
+     * @return Instantaneous number of items put but not yet removed.
+     */
+    public int inflight() {
+        final long removed = removeCount;
+        return (int) (putCount - removed);
+    }
+
+    /**
+     * @return the number of slots in the table.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    private void advanceHead() {
+        long h = head;
+        final long n = next;
+        while (h < n) {
+            // A slot holding a different ID means ours was removed and the slot re-used
+            T item = slots.get((int) h & mask);
+            if (item != null && item.getMsgID() == h)
+                break;
+            h++;
+        }
+        head = h;
+    }
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    final private AtomicReferenceArray<T> slots;
+    final private int mask;
+    // Written under remove()'s lock (and once by the sending thread before any remove)
+    private volatile long head = 0;
+    // Written only by the sending thread
+    private volatile long next = EMPTY;
+    private volatile long putCount = 0;
+    // Written only under remove()'s lock
+    private volatile long removeCount = 0;
+}
@@ -0,0 +1,112 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts outstanding (sent but not yet acknowledged) messages and throttles the
+ * upstream source through a FlowController instead of blocking the sending thread.
+ *
+ * When the count reaches the high watermark the flow is stopped; it is restarted once
+ * acknowledgements bring the count back down to the low watermark. Messages already
+ * dispatched when the flow is stopped are still accepted, so the bound is soft.
+ *
+ * The flow can also be held stopped for another reason (see setHeld), in which case it is
+ * only restarted once neither the window nor the hold needs it stopped.
+ */
+class InflightWindow {
+
+    /**
+     * Creates a new window.
+     * @param highWatermark number of outstanding messages at which the flow is stopped.
+     * @param lowWatermark number of outstanding messages at which a stopped flow is restarted.
+     * @param controller the upstream flow to be stopped and started.
+     */
+    public InflightWindow(int highWatermark, int lowWatermark, FlowController controller) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark  = Math.min(lowWatermark, highWatermark - 1);
+        this.controller    = controller;
+    }
+
+    /**
+     * Records one more outstanding message, stopping the flow if the window is now full.
+     */
+    public void acquire() {
+        if (inflight.incrementAndGet() >= highWatermark) {
+            synchronized (lock) {
+                if (!throttled && inflight.get() >= highWatermark) {
+                    throttled = true;
+                    updateFlow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records one message as acknowledged, restarting the flow if it was stopped
+     * and the window has drained to the low watermark.
+     */
+    public void release() {
+        if (inflight.decrementAndGet() <= lowWatermark && throttled) {
+            synchronized (lock) {
+                if (throttled && inflight.get() <= lowWatermark) {
+                    throttled = false;
+                    updateFlow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the flow stopped, whatever the number of outstanding messages, or ends the hold.
+     * @param held true to keep the flow stopped until called again with false.
+     */
+    public void setHeld(boolean held) {
+        synchronized (lock) {
+            this.held = held;
+            updateFlow();
+        }
+    }
+
+    private void updateFlow() {
+        boolean stop = throttled || held;
+        if (stop != stopped) {
+            stopped = stop;
+            if (stop)
+                controller.stopFlow();
+            else
+                controller.startFlow();
+        }
+    }
+
+    /**
+     * @return Instantaneous number of outstanding messages.
+     */
+    public int inflight() {
+        return inflight.get();
+    }
+
+    /**
+     * @return true if the upstream flow is currently stopped by this window.
+     */
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return true if the upstream flow is currently stopped, by this window or a hold.
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    final private int highWatermark;
+    final private int lowWatermark;
+    final private FlowController controller;
+    final private AtomicInteger inflight = new AtomicInteger();
+    private volatile boolean throttled = false;
+    private volatile boolean stopped = false;
+    // Guarded by lock
+    private boolean held = false;
+
+    private final Object lock = new Object();
+}
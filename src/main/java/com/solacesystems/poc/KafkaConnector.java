@@ -2,11 +2,21 @@ package com.solacesystems.poc;
 
 import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Connects to a Kafka service, consuming records from topics and passing them off to interested listeners.
@@ -17,22 +27,196 @@ import java.util.Properties;
 class KafkaConnector<K,V> {
     private static final Logger logger = LoggerFactory.getLogger(KafkaConnector.class);
 
+    private static final int DEFAULT_MAX_INFLIGHT = 1000;
+    private static final int DEFAULT_COMMIT_INTERVAL_MS = 1000;
+    private static final int DEFAULT_COMMIT_ACK_COUNT = 1000;
+    private static final int DEFAULT_PAUSE_HIGH_PERCENT = 90;
+    private static final int DEFAULT_PAUSE_LOW_PERCENT = 50;
+    private static final int DEFAULT_RETRY_BACKOFF_MS = 1000;
+
     public KafkaConnector(Properties properties) {
+        this(properties, null, null);
+    }
+
+    /**
+     * @param properties shared application properties.
+     * @param kafkaConsumer consumer to use, e.g. a MockConsumer in tests; null to create one from the properties.
+     * @param kafkaProducer producer to use likewise; null to create one from the properties.
+     */
+    KafkaConnector(Properties properties, Consumer<K,V> kafkaConsumer, Producer<K,V> kafkaProducer) {
+        maxInflight = IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_MAX_INFLIGHT, DEFAULT_MAX_INFLIGHT);
+        inflightLowWatermark = IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_INFLIGHT_LOW_WATERMARK, maxInflight / 2);
+        pauseHighPercent = IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_PAUSE_HIGH_PCT, DEFAULT_PAUSE_HIGH_PERCENT);
+        pauseLowPercent = IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_PAUSE_LOW_PCT, DEFAULT_PAUSE_LOW_PERCENT);
+        retryBackoffMillis = IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_RETRY_BACKOFF_MS, DEFAULT_RETRY_BACKOFF_MS);
+        // Retried batches can overtake later ones unless only one request is in flight
+        // per connection; keep per-key (per-partition) ordering when sending asynchronously
+        if (maxInflight > 0
+                && IOHelper.getIntProperty(properties, ProducerConfig.RETRIES_CONFIG, 0) > 0
+                && !properties.containsKey(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)) {
+            properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+        }
+        // Offsets are committed only once records are acknowledged downstream
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
         // Create the consumer using props.
-        consumer = new KafkaConsumer<>(properties);
-        producer = new KafkaProducer<>(properties);
+        consumer = kafkaConsumer != null ? kafkaConsumer : new KafkaConsumer<K,V>(properties);
+        producer = kafkaProducer != null ? kafkaProducer : new KafkaProducer<K,V>(properties);
         topics = (List<String>) properties.get(BridgeProperties.PROP_KAFKA_BRIDGE_TOPICS);
         listener = null;
+        window = null;
+        // Until lanes are configured, only setPaused() holds the consumer back
+        backpressure = new PartitionBackpressure(consumer, NO_LOAD, pauseHighPercent, pauseLowPercent);
+        offsetTracker = new OffsetCommitTracker(
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_COMMIT_INTERVAL_MS, DEFAULT_COMMIT_INTERVAL_MS),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_COMMIT_ACK_COUNT, DEFAULT_COMMIT_ACK_COUNT),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_KAFKA_MAX_UNACKED_PER_PARTITION, OffsetCommitTracker.DEFAULT_MAX_PENDING));
+        // Acks arrive on other threads; rather than wait out an idle poll, cut it short to commit
+        offsetTracker.setCommitDueListener(new Runnable() {
+            @Override
+            public void run() {
+                if (polling)
+                    consumer.wakeup();
+            }
+        });
+    }
+
+    /**
+     * Bounds the number of records sent to Kafka but not yet acknowledged. When the bound
+     * is reached the upstream flow is stopped, and restarted once the window has drained to
+     * kaf_inflight_low_watermark (by default half the window).
+     * Only effective when sending asynchronously (kaf_max_inflight > 0).
+     * @param upstream Flow feeding this connector's producer (e.g. the Solace bridge queue).
+     */
+    public void setProducerFlowController(FlowController upstream) {
+        this.upstream = upstream;
+        if (maxInflight > 0) {
+            window = new InflightWindow(maxInflight, inflightLowWatermark, upstream);
+            windowedCallbacks = new RecyclingPool<>(WindowedCallback.class, 2 * maxInflight);
+        }
+    }
+
+    /**
+     * Holds the upstream flow stopped, e.g. while rejected records wait to be sent again so
+     * that records consumed meanwhile can't overtake them, or ends the hold. The inflight
+     * window still restarts the flow only once it has drained. May be called from any thread.
+     * @param held true to stop the flow until called again with false.
+     */
+    public void holdProducerFlow(boolean held) {
+        if (window != null)
+            window.setHeld(held);
+        else if (upstream != null) {
+            if (held)
+                upstream.stopFlow();
+            else
+                upstream.startFlow();
+        }
+    }
+
+    /**
+     * Pauses the partitions of each publishing lane while that lane is too full, rather than
+     * letting it block the polling thread; see PartitionBackpressure. The watermarks are
+     * bridge_pause_high_pct and bridge_pause_low_pct.
+     * @param load how full each lane consuming this connector's records is.
+     */
+    public void setConsumerBackpressure(PartitionBackpressure.LaneLoad load) {
+        backpressure = new PartitionBackpressure(consumer, load, pauseHighPercent, pauseLowPercent);
+    }
+
+    /**
+     * Pauses or resumes every assigned partition, e.g. while the destination is disconnected.
+     * Polling must carry on meanwhile, so the consumer stays in its group. May be called from
+     * any thread; takes effect at the next poll.
+     * @param paused true to stop receiving records.
+     */
+    public void setPaused(boolean paused) {
+        backpressure.setBlocked(paused);
     }
 
     /**
      * Wireup all callbacks and begin subscribing to Kafka.
-     * @param consumerCallback Callback to be invoked when messages are consumed from Kafka.
+     * @param consumerCallback Callback to be invoked when messages are consumed from Kafka;
+     *                         a TimedConnectionListener is also given each poll's receive time,
+     *                         and a BatchConnectionListener is told when each poll's records are done.
      */
     public void start(ConnectionListener<K,V> consumerCallback) {
         listener = consumerCallback;
+        timedListener = consumerCallback instanceof TimedConnectionListener
+                ? (TimedConnectionListener<K,V>) consumerCallback : null;
+        batchListener = consumerCallback instanceof BatchConnectionListener
+                ? (BatchConnectionListener<K,V>) consumerCallback : null;
         // Subscribe to the topic.
-        consumer.subscribe(this.topics);
+        consumer.subscribe(this.topics, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                // Last chance to commit what was acknowledged before another consumer takes over
+                commitAcknowledged(true);
+                offsetTracker.remove(partitions);
+                backpressure.revoked(partitions);
+                stuck.removeAll(partitions);
+                rewound.removeAll(partitions);
+                retrying.keySet().removeAll(partitions);
+            }
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                // Nothing to do; partitions are tracked as their records arrive
+            }
+        });
+    }
+
+    /**
+     * Marks a consumed record as safely published downstream so its offset can be committed.
+     * May be called from any thread; the commit itself happens on the polling thread.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    public void ack(String topic, int partition, long offset) {
+        offsetTracker.ack(topic, partition, offset);
+    }
+
+    /**
+     * Reports a consumed record that will never be acknowledged, e.g. one Solace rejected or
+     * that failed to send, so it is consumed again. At the next poll its partition is sought
+     * back to the record and paused for kaf_retry_backoff_ms; records consumed after it are
+     * consumed again too. Reports for records no longer awaiting an ack are ignored. May be
+     * called from any thread.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    public void failed(String topic, int partition, long offset) {
+        failures.add(new Failure(new TopicPartition(topic, partition), offset));
+        if (polling)
+            consumer.wakeup();
+    }
+
+    /**
+     * Hands a record and those consumed after it from the same partition back, to be consumed
+     * again: the partition is sought back to the record, its remaining records in the current
+     * poll are skipped, and it stays paused until releaseRewound(). Must be called on the polling
+     * thread, e.g. from the consumer callback when the record can't be taken yet.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    public void rewind(String topic, int partition, long offset) {
+        TopicPartition tp = new TopicPartition(topic, partition);
+        offsetTracker.untrack(topic, partition, offset);
+        rewound.add(tp);
+        holdAt(tp, offset);
+    }
+
+    /**
+     * Resumes the partitions paused by rewind(). Must be called on the polling thread.
+     */
+    public void releaseRewound() {
+        if (rewound.isEmpty())
+            return;
+        for (TopicPartition tp : rewound) {
+            if (!stuck.contains(tp) && !retrying.containsKey(tp))
+                backpressure.release(tp);
+        }
+        rewound.clear();
     }
 
     /**
@@ -40,7 +224,27 @@ class KafkaConnector<K,V> {
      * @param timeoutMillis blocking poll operation for the configured number of milliseconds.
      */
     public void poll(int timeoutMillis) {
-        final ConsumerRecords<K,V> consumerRecords = consumer.poll(timeoutMillis);
+        if (!failures.isEmpty())
+            retryFailed();
+        if (!retrying.isEmpty())
+            releaseRetried(System.currentTimeMillis());
+        if (!stuck.isEmpty())
+            releaseUnstuck();
+        backpressure.update();
+        ConsumerRecords<K,V> consumerRecords;
+        polling = true;
+        try {
+            consumerRecords = consumer.poll(timeoutMillis);
+        }
+        catch(WakeupException ex) {
+            // Woken because a commit is due, or a record failed
+            consumerRecords = ConsumerRecords.empty();
+        }
+        finally {
+            polling = false;
+        }
+        // Every record in the batch arrived with the poll
+        final long receivedNanos = System.nanoTime();
 
         if (consumerRecords.count()==0) {
             logger.debug("No records found.");
@@ -49,35 +253,411 @@ class KafkaConnector<K,V> {
             if (logger.isDebugEnabled())
                 logger.debug("Received {} records from Kafka", consumerRecords.count());
             for(ConsumerRecord<K,V> record : consumerRecords) {
+                if (!skipping.isEmpty() && skipping.contains(new TopicPartition(record.topic(), record.partition())))
+                    continue;
+                // Records are only committed once acked, so an unacked one holds back its partition's
+                // committed offset; one that fails is consumed again (see failed())
+                if (!offsetTracker.track(record.topic(), record.partition(), record.offset())) {
+                    TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+                    if (stuck.add(tp))
+                        logger.error("Kafka partition {} has {} records unacknowledged; pausing it until Solace ACKs "
+                                        + "or rejects enough of them", tp, offsetTracker.maxPending());
+                    holdAt(tp, record.offset());
+                    continue;
+                }
+                boolean handled = false;
                 try {
-                    listener.onMessage(record, record.partition(), record.topic(), record.key(), record.value());
+                    if (timedListener != null)
+                        handled = timedListener.onMessage(record, record.partition(), record.topic(), record.key(), record.value(), receivedNanos);
+                    else
+                        handled = listener.onMessage(record, record.partition(), record.topic(), record.key(), record.value());
                 }
                 catch(Exception ex) {
                     logger.error("Exception when handling Kafka msg (probably failed publishing to Solace)", ex);
                     ex.printStackTrace();
                 }
+                if (!handled) {
+                    // Unless the listener already handed the record back, e.g. with rewind()
+                    TopicPartition tp = new TopicPartition(record.topic(), record.partition());
+                    if (!skipping.contains(tp))
+                        retry(tp, record.offset());
+                }
+            }
+        }
+        skipping.clear();
+        // Even after an empty poll, so anything held back for more records is sent in time
+        if (batchListener != null) {
+            try {
+                batchListener.onBatchEnd(-1);
+            }
+            catch(Exception ex) {
+                logger.error("Exception when ending a batch of Kafka msgs (probably failed publishing to Solace)", ex);
             }
-            //TODO: This is a BAD HACK that can result in message loss. Find a way to individually ack msgs when the upstream ack arrives
-            consumer.commitAsync();
         }
+        if (offsetTracker.isCommitDue(System.currentTimeMillis()))
+            commitAcknowledged(false);
+    }
 
+    /**
+     * Seeks a partition back to an offset and pauses it, skipping the rest of its records in this poll.
+     */
+    private void holdAt(TopicPartition tp, long offset) {
+        consumer.seek(tp, offset);
+        backpressure.hold(tp);
+        skipping.add(tp);
+    }
+
+    /**
+     * Seeks a partition back to a record that failed, to consume it and those after it again
+     * once kaf_retry_backoff_ms has passed.
+     */
+    private void retry(TopicPartition tp, long offset) {
+        offsetTracker.untrack(tp.topic(), tp.partition(), offset);
+        retryCount++;
+        logger.warn("Kafka record {} at offset {} was not published to Solace; consuming it again in {} ms",
+                tp, offset, retryBackoffMillis);
+        retrying.put(tp, System.currentTimeMillis() + retryBackoffMillis);
+        holdAt(tp, offset);
+    }
+
+    /**
+     * Retries the earliest record reported by failed() from each partition.
+     */
+    private void retryFailed() {
+        Map<TopicPartition, Long> earliest = new HashMap<>();
+        Failure failure;
+        while ((failure = failures.poll()) != null) {
+            // Repeated reports, and those from revoked partitions, are no longer pending
+            if (!offsetTracker.isPending(failure.tp.topic(), failure.tp.partition(), failure.offset))
+                continue;
+            Long offset = earliest.get(failure.tp);
+            if (offset == null || failure.offset < offset)
+                earliest.put(failure.tp, failure.offset);
+        }
+        for (Map.Entry<TopicPartition, Long> entry : earliest.entrySet())
+            retry(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Resumes partitions whose failed records are due to be consumed again.
+     */
+    private void releaseRetried(long now) {
+        for (Iterator<Map.Entry<TopicPartition, Long>> it = retrying.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TopicPartition, Long> entry = it.next();
+            if (now >= entry.getValue()) {
+                it.remove();
+                TopicPartition tp = entry.getKey();
+                if (!stuck.contains(tp) && !rewound.contains(tp))
+                    backpressure.release(tp);
+            }
+        }
+    }
+
+    /**
+     * Resumes stuck partitions once acks, or records handed back, have brought them back to half their bound.
+     */
+    private void releaseUnstuck() {
+        for (Iterator<TopicPartition> it = stuck.iterator(); it.hasNext(); ) {
+            TopicPartition tp = it.next();
+            if (offsetTracker.pending(tp.topic(), tp.partition()) <= offsetTracker.maxPending() / 2) {
+                it.remove();
+                logger.info("Kafka partition {} is being acknowledged again; resuming it", tp);
+                if (!rewound.contains(tp) && !retrying.containsKey(tp))
+                    backpressure.release(tp);
+            }
+        }
+    }
+
+    /**
+     * Commits the highest contiguous acknowledged offset of every partition that has advanced.
+     * Must be called on the polling thread.
+     * @param sync true to block until the commit completes (e.g. during a rebalance).
+     */
+    private void commitAcknowledged(boolean sync) {
+        Map<TopicPartition, OffsetAndMetadata> commits = offsetTracker.collectCommits(System.currentTimeMillis());
+        if (commits.isEmpty())
+            return;
+        if (logger.isDebugEnabled())
+            logger.debug("Committing offsets {}", commits);
+        commitCount++;
+        if (sync) {
+            try {
+                try {
+                    consumer.commitSync(commits);
+                }
+                catch(WakeupException ex) {
+                    // A wakeup meant for the last poll; this commit still has to be made
+                    consumer.commitSync(commits);
+                }
+            }
+            catch(RuntimeException ex) {
+                commitFailureCount++;
+                throw ex;
+            }
+        }
+        else {
+            consumer.commitAsync(commits, new OffsetCommitCallback() {
+                @Override
+                public void onComplete(Map<TopicPartition, OffsetAndMetadata> offsets, Exception exception) {
+                    if (exception != null) {
+                        commitFailureCount++;
+                        logger.warn("FAILED committing offsets {}; they will be covered by the next commit", offsets, exception);
+                    }
+                }
+            });
+        }
     }
 
     /**
      * Send records to Kafka, invoking the producer callback when the record is ACK'd by the server.
+     * If kaf_max_inflight is greater than zero the send is asynchronous, otherwise it blocks until
+     * the record is acknowledged. Either way a record Kafka rejects is only reported to the
+     * callback; this throws only if Kafka never took the record. Only to be called from a single thread.
      * @param topic Topic on which to publish the message.
      * @param key Key instance for the record.
      * @param value Value instance for the record.
      * @param producerCallback Callback function invoked when this record is acknowledged by Kafka.
      */
     public void send(String topic, K key, V value, Callback producerCallback) throws Exception {
-        logger.debug("Sending message to Kafka with topic {} and key {}", topic, key);
-        producer.send(new ProducerRecord<>(topic, key, value), producerCallback)
-                .get(); // This makes the call synchronous
+        send(topic, key, value, producerCallback, true);
     }
 
+    /**
+     * Sends a record again, e.g. after Kafka rejected it, from a thread other than the one
+     * calling send(). The record takes a slot in the inflight window, which may stop the
+     * upstream flow but never waits, and is never waited on: its callback is always how the
+     * outcome is reported, unless this throws.
+     */
+    public void resend(String topic, K key, V value, Callback producerCallback) throws Exception {
+        send(topic, key, value, producerCallback, false);
+    }
+
+    private void send(String topic, K key, V value, Callback producerCallback, boolean sender) throws Exception {
+        if (logger.isDebugEnabled())
+            logger.debug("Sending message to Kafka with topic {} and key {}", topic, key);
+        if (maxInflight <= 0 && sender) {
+            try {
+                producer.send(new ProducerRecord<>(topic, key, value), producerCallback)
+                        .get(); // This makes the call synchronous
+            }
+            catch(ExecutionException ex) {
+                // Kafka has already reported the failure to the callback
+                if (logger.isDebugEnabled())
+                    logger.debug("Kafka rejected a record for topic {}: {}", topic, ex.getCause());
+            }
+        }
+        else if (window == null) {
+            producer.send(new ProducerRecord<>(topic, key, value), producerCallback);
+        }
+        else {
+            window.acquire();
+            // The pool is only taken from by the sending thread
+            WindowedCallback windowed = sender
+                    ? WindowedCallback.acquire(windowedCallbacks, window, producerCallback)
+                    : WindowedCallback.acquire(null, window, producerCallback);
+            try {
+                producer.send(new ProducerRecord<>(topic, key, value), windowed);
+            }
+            catch(Exception ex) {
+                windowed.callback = null;
+                if (sender)
+                    windowedCallbacks.recycle(windowed);
+                window.release();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return Number of records sent to Kafka but not yet acknowledged; 0 if not windowed.
+     */
+    public int inflight() {
+        return window == null ? 0 : window.inflight();
+    }
+
+    /**
+     * @return The configured kaf_max_inflight; 0 when sending synchronously.
+     */
+    public int maxInflight() {
+        return maxInflight;
+    }
+
+    /**
+     * Registers gauges for what is in flight to Kafka, the consumer's commit lag, and commits made.
+     * @param registry registry to export them from.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("solkaf_inflight", "Messages handed to the destination and not yet acknowledged",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return inflight();
+                    }
+                }, "direction", DirectionMetrics.SOLACE_TO_KAFKA);
+        registry.gauge("solkaf_kafka_commit_lag", "Kafka records consumed beyond the last offset commit",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return offsetTracker.commitLag();
+                    }
+                });
+        registry.gauge("solkaf_kafka_stuck_partitions", "Kafka partitions paused because too many of their records are unacknowledged",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return offsetTracker.stuckPartitions();
+                    }
+                });
+        registry.gauge("solkaf_kafka_unacked", "Kafka records consumed and not yet acknowledged by Solace",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return offsetTracker.pending();
+                    }
+                });
+        registry.counter("solkaf_kafka_commits_total", "Kafka offset commits made",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return commitCount;
+                    }
+                });
+        registry.counter("solkaf_kafka_commit_failures_total", "Kafka offset commits that failed",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return commitFailureCount;
+                    }
+                });
+        registry.counter("solkaf_kafka_retries_total", "Times a Kafka partition was sought back to consume a record Solace didn't take again",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return retryCount;
+                    }
+                });
+        registry.gauge("solkaf_kafka_paused_partitions", "Kafka partitions paused because their publishing lane is full",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return backpressure.pausedCount();
+                    }
+                });
+        registry.counter("solkaf_kafka_pauses_total", "Times a publishing lane's Kafka partitions were paused",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return backpressure.pauses();
+                    }
+                });
+        registry.gauge("solkaf_flow_stopped", "1 while the source flow is stopped because too much is in flight or records wait to be retried",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return window != null && window.isStopped() ? 1 : 0;
+                    }
+                }, "direction", DirectionMetrics.SOLACE_TO_KAFKA);
+        if (windowedCallbacks != null) {
+            registry.counter("solkaf_pool_allocated_total", "Pooled objects created because none was free",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return windowedCallbacks.allocatedCount();
+                        }
+                    }, "pool", "kafka_windowed_callbacks");
+        }
+    }
+
+    /**
+     * Releases the record's slot in the inflight window before handing off to the caller's callback.
+     * Recycled once complete; the window bounds how many are outstanding.
+     */
+    private static class WindowedCallback implements Callback {
+        /**
+         * @param pool pool to take from and recycle to; null for a callback used once.
+         */
+        static WindowedCallback acquire(RecyclingPool<WindowedCallback> pool, InflightWindow window, Callback callback) {
+            WindowedCallback windowed = pool == null ? null : pool.poll();
+            if (windowed == null)
+                windowed = new WindowedCallback(pool);
+            windowed.window = window;
+            windowed.callback = callback;
+            return windowed;
+        }
+
+        private WindowedCallback(RecyclingPool<WindowedCallback> pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            InflightWindow window = this.window;
+            Callback callback = this.callback;
+            this.callback = null;
+            if (pool != null)
+                pool.recycle(this);
+            window.release();
+            callback.onCompletion(metadata, exception);
+        }
+
+        final private RecyclingPool<WindowedCallback> pool;
+        private InflightWindow window;
+        private Callback callback;
+    }
+
+    /**
+     * A record reported by failed(), waiting for the polling thread.
+     */
+    private static final class Failure {
+        Failure(TopicPartition tp, long offset) {
+            this.tp = tp;
+            this.offset = offset;
+        }
+
+        final TopicPartition tp;
+        final long offset;
+    }
+
+    private static final PartitionBackpressure.LaneLoad NO_LOAD = new PartitionBackpressure.LaneLoad() {
+        @Override
+        public int lanes() {
+            return 1;
+        }
+        @Override
+        public int percentFull(int lane) {
+            return 0;
+        }
+    };
+
     final private Consumer<K,V> consumer;
     final private Producer<K,V> producer;
+    final private int maxInflight;
+    final private int inflightLowWatermark;
+    final private int pauseHighPercent;
+    final private int pauseLowPercent;
+    final private int retryBackoffMillis;
+    private volatile PartitionBackpressure backpressure;
+    // Set while the polling thread is inside consumer.poll(), which is when a wakeup is useful
+    private volatile boolean polling = false;
+    private InflightWindow window;
+    private RecyclingPool<WindowedCallback> windowedCallbacks;
+    final private OffsetCommitTracker offsetTracker;
+    private volatile FlowController upstream;
+    // Only used on the polling thread
+    final private Set<TopicPartition> stuck = new HashSet<>();
+    final private Set<TopicPartition> rewound = new HashSet<>();
+    final private Set<TopicPartition> skipping = new HashSet<>();
+    // Partitions paused after a failed record, and when to resume them
+    final private Map<TopicPartition, Long> retrying = new HashMap<>();
+    final private ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+    // Only changed on the polling thread, where commits are made and their callbacks run
+    private volatile long commitCount;
+    private volatile long commitFailureCount;
+    private volatile long retryCount;
     private List<String> topics;
     private ConnectionListener<K,V> listener;
+    // The same listener, when it wants receive times
+    private TimedConnectionListener<K,V> timedListener;
+    // The same listener, when it wants to know where each poll's records end
+    private BatchConnectionListener<K,V> batchListener;
 }
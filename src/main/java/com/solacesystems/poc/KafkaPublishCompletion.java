@@ -5,25 +5,223 @@ import org.apache.kafka.clients.producer.RecordMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * ACKs a Solace message back to its queue once Kafka has acknowledged the bridged record.
+ * Instances are recycled through a RecyclingPool, so a steady stream of Solace messages
+ * doesn't create a callback per record.
+ *
+ * Bound to a SolaceAckStage, the completion only records Kafka's answer and hands itself
+ * to the stage, so the Kafka producer's I/O thread never calls into JCSMP; the stage ACKs
+ * the message, or sends the record again, and recycles the completion. Without a stage it
+ * ACKs the message itself, on whichever thread Kafka completes it.
+ */
 class KafkaPublishCompletion implements org.apache.kafka.clients.producer.Callback {
     private static final Logger logger = LoggerFactory.getLogger(KafkaPublishCompletion.class);
 
+    /**
+     * Takes a completion from the pool, or creates one if none is free, bound to a Solace message.
+     * Only to be called by the single thread sending to Kafka.
+     * @param pool completions recycled once Kafka has answered.
+     * @param solaceMsg message to ACK when Kafka acknowledges the record.
+     */
+    public static KafkaPublishCompletion acquire(RecyclingPool<KafkaPublishCompletion> pool, BytesXMLMessage solaceMsg) {
+        return acquire(pool, solaceMsg, null, 0, 0);
+    }
+
+    /**
+     * As acquire(pool, solaceMsg), also counting the outcome and recording the ACK and total
+     * latency when Kafka answers.
+     * @param metrics Solace to Kafka metrics; may be null.
+     * @param receivedNanos System.nanoTime() when the Solace message was received.
+     * @param sentNanos System.nanoTime() when the record was handed to the Kafka producer.
+     */
+    public static KafkaPublishCompletion acquire(RecyclingPool<KafkaPublishCompletion> pool, BytesXMLMessage solaceMsg,
+                                                 DirectionMetrics metrics, long receivedNanos, long sentNanos) {
+        return acquire(pool, solaceMsg, null, null, null, null, metrics, receivedNanos, sentNanos);
+    }
+
+    /**
+     * As acquire(pool, solaceMsg, metrics, receivedNanos, sentNanos), handing Kafka's answer to
+     * an ack stage along with the record, so the stage can send it again if Kafka rejects it.
+     * @param ackStage stage that settles the Solace message; null to settle it on Kafka's thread.
+     * @param kafkaTopic topic the record is sent to.
+     * @param key record key as sent.
+     * @param value record value as sent.
+     */
+    public static KafkaPublishCompletion acquire(RecyclingPool<KafkaPublishCompletion> pool, BytesXMLMessage solaceMsg,
+                                                 SolaceAckStage ackStage, String kafkaTopic, Object key, Object value,
+                                                 DirectionMetrics metrics, long receivedNanos, long sentNanos) {
+        KafkaPublishCompletion completion = pool.poll();
+        if (completion == null)
+            completion = new KafkaPublishCompletion(pool);
+        completion.solaceMsg = solaceMsg;
+        completion.ackStage = ackStage;
+        completion.kafkaTopic = kafkaTopic;
+        completion.key = key;
+        completion.value = value;
+        completion.metrics = metrics;
+        completion.receivedNanos = receivedNanos;
+        completion.sentNanos = sentNanos;
+        completion.attempts = 1;
+        return completion;
+    }
+
+    /**
+     * Marks the record as one of those packed in an envelope, so the Solace message is only
+     * ACK'd once every record in it has been acknowledged.
+     * @param envelope envelope the record was unpacked from; null if it had a message of its own.
+     * @return this completion.
+     */
+    public KafkaPublishCompletion packedIn(PackedEnvelope envelope) {
+        this.envelope = envelope;
+        return this;
+    }
+
     public KafkaPublishCompletion(BytesXMLMessage solaceMsg) {
+        this.pool = null;
         this.solaceMsg = solaceMsg;
     }
 
+    private KafkaPublishCompletion(RecyclingPool<KafkaPublishCompletion> pool) {
+        this.pool = pool;
+    }
+
     @Override
     public void onCompletion(RecordMetadata metadata, Exception exception) {
+        SolaceAckStage ackStage = this.ackStage;
+        if (ackStage != null) {
+            this.exception = exception;
+            completedNanos = System.nanoTime();
+            ackStage.completed(this);
+            return;
+        }
+        BytesXMLMessage msg = solaceMsg;
+        PackedEnvelope envelope = this.envelope;
+        DirectionMetrics metrics = this.metrics;
+        long receivedNanos = this.receivedNanos;
+        long sentNanos = this.sentNanos;
+        recycle();
         // On ACK from Kafka bus, ACK the message back to the Solace bus
         if (exception == null) {
-            solaceMsg.ackMessage();
+            if (metrics != null) {
+                long now = System.nanoTime();
+                metrics.latency().ack().record(now - sentNanos);
+                metrics.latency().total().record(now - receivedNanos);
+                metrics.acks().increment();
+            }
+            if (envelope == null || envelope.memberAcked())
+                msg.ackMessage();
         }
         else {
+            if (metrics != null)
+                metrics.nacks().increment();
             logger.error("FAILURE Publishing message to Kafka; Solace message "
-                    + solaceMsg.getApplicationMessageId() + " is NOT Acknowledged",
+                    + msg.getApplicationMessageId() + " is NOT Acknowledged",
                     exception);
         }
     }
 
-    final private BytesXMLMessage solaceMsg;
+    /**
+     * ACKs the Solace message; for a record packed in an envelope, only once every record in
+     * it has been acknowledged.
+     * @return true if the message was ACK'd.
+     */
+    boolean ackSolace() {
+        if (envelope != null && !envelope.memberAcked())
+            return false;
+        solaceMsg.ackMessage();
+        return true;
+    }
+
+    /**
+     * Lets go of the message and record and returns the completion to its pool.
+     */
+    void recycle() {
+        // Don't hold on to the message while sitting in the pool
+        solaceMsg = null;
+        envelope = null;
+        ackStage = null;
+        kafkaTopic = null;
+        key = null;
+        value = null;
+        metrics = null;
+        exception = null;
+        if (pool != null)
+            pool.recycle(this);
+    }
+
+    /**
+     * Readies the completion for the record to be sent to Kafka again.
+     * @param sentNanos System.nanoTime() when the record is handed to the Kafka producer again.
+     */
+    void resending(long sentNanos) {
+        this.sentNanos = sentNanos;
+        exception = null;
+        attempts++;
+    }
+
+    BytesXMLMessage solaceMsg() {
+        return solaceMsg;
+    }
+
+    String kafkaTopic() {
+        return kafkaTopic;
+    }
+
+    Object key() {
+        return key;
+    }
+
+    Object value() {
+        return value;
+    }
+
+    DirectionMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Kafka's error for the last send, or null if the record was acknowledged.
+     */
+    Exception exception() {
+        return exception;
+    }
+
+    /**
+     * @return Number of times the record has been sent to Kafka.
+     */
+    int attempts() {
+        return attempts;
+    }
+
+    long receivedNanos() {
+        return receivedNanos;
+    }
+
+    long sentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * @return System.nanoTime() when Kafka answered the last send.
+     */
+    long completedNanos() {
+        return completedNanos;
+    }
+
+    final private RecyclingPool<KafkaPublishCompletion> pool;
+    private BytesXMLMessage solaceMsg;
+    private PackedEnvelope envelope;
+    private SolaceAckStage ackStage;
+    private String kafkaTopic;
+    private Object key;
+    private Object value;
+    private DirectionMetrics metrics;
+    private long receivedNanos;
+    private long sentNanos;
+    private long completedNanos;
+    private Exception exception;
+    private int attempts;
+    // When the stage may send the record again; only touched by the stage's thread
+    long retryAtNanos;
 }
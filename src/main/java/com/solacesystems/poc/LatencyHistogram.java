@@ -0,0 +1,185 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, typically latencies in nanoseconds.
+ *
+ * As in HdrHistogram, every power of two is split into a fixed number of linear sub-buckets,
+ * so the value reported for a bucket is always within 1/SUB_BUCKETS (about 1.6%) of what was
+ * recorded, from nanoseconds up to minutes, in a few thousand counters. Recording is one
+ * atomic increment plus max/min updates and allocates nothing; values beyond the range are
+ * counted in the top bucket. Reads taken while values are being recorded are not an atomic
+ * snapshot, which is fine for periodic reporting.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values up to 2^40ns (about 18 minutes) are bucketed exactly
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * @param value value to record; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(indexOf(Math.min(value, MAX_VALUE)));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long seen;
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) { }
+        while (value < (seen = min.get()) && !min.compareAndSet(seen, value)) { }
+    }
+
+    /**
+     * @return Number of values recorded.
+     */
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * @return Sum of the values recorded.
+     */
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * @return Largest value recorded, or 0 if none.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * @return Smallest value recorded, or 0 if none.
+     */
+    public long min() {
+        long m = min.get();
+        return m == Long.MAX_VALUE ? 0 : m;
+    }
+
+    /**
+     * @return Mean of the values recorded, or 0 if none.
+     */
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile percentile in [0, 100].
+     * @return The value at or below which the given percentage of recorded values fall,
+     *         as the top of its bucket (never more than the largest value recorded); 0 if none.
+     */
+    public long percentile(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += counts.get(i);
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestEquivalentValue(i), max());
+        }
+        return max();
+    }
+
+    /**
+     * Copies the count of every bucket, e.g. to compare two reads.
+     * @param into array to copy into, re-used if long enough; may be null.
+     * @return The counts, indexed as for percentile(long[], double).
+     */
+    public long[] bucketCounts(long[] into) {
+        if (into == null || into.length < BUCKETS)
+            into = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            into[i] = counts.get(i);
+        return into;
+    }
+
+    /**
+     * @param bucketCounts counts as from bucketCounts(), or differences between two of them.
+     * @param percentile percentile in [0, 100].
+     * @return The top of the bucket at or below which the given percentage of the counted values fall; 0 if none.
+     */
+    static long percentile(long[] bucketCounts, double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += bucketCounts[i];
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank)
+                return Math.min(highestEquivalentValue(i), MAX_VALUE);
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Adds every count recorded in another histogram to this one.
+     * @param other histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0)
+                counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        long seen;
+        long value = other.max.get();
+        while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) { }
+        value = other.min.get();
+        while (value < (seen = min.get()) && !min.compareAndSet(seen, value)) { }
+    }
+
+    /**
+     * Formats the usual percentiles, converting from nanoseconds to microseconds.
+     */
+    public String summaryMicros() {
+        return String.format("count %d, min %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, p99.99 %.1f, max %.1f, mean %.1f us",
+                count(), min() / 1000.0,
+                percentile(50) / 1000.0, percentile(90) / 1000.0, percentile(99) / 1000.0,
+                percentile(99.9) / 1000.0, percentile(99.99) / 1000.0,
+                max() / 1000.0, mean() / 1000.0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        // The top SUB_BUCKET_BITS+1 bits, in [SUB_BUCKETS, 2*SUB_BUCKETS), follow the previous power of two's buckets
+        return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+}
@@ -0,0 +1,183 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.*;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Far side of the load generator: receives the bridged messages, either by subscribing to
+ * Solace topics or by consuming Kafka topics, and records each one's latency from the
+ * send time scheduled by the load generator.
+ */
+abstract class LoadConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(LoadConsumer.class);
+
+    /**
+     * Subscribes a Solace session directly to the topics the bridge publishes on. Messages are
+     * decoded as the bridge encodes them: decompressed, and unpacked if they are envelopes.
+     * @param props Solace session properties, with the bridge's byte array (de)serializers
+     *              and bridge_kafka_sol_compression rules.
+     * @param topics Solace topic subscriptions; may contain wildcards.
+     */
+    static LoadConsumer newSolaceConsumer(final Properties props, final String[] topics) throws JCSMPException {
+        return new LoadConsumer() {
+            private JCSMPSession session;
+
+            @Override
+            void start() throws Exception {
+                final MsgHelper<byte[],byte[]> msgHelper = new MsgHelper<>(props);
+                session = JCSMPFactory.onlyInstance().createSession(
+                        SolaceConnector.createSessionProperties(props, 255, "-loadsink"));
+                session.connect();
+                XMLMessageConsumer consumer = session.getMessageConsumer(new XMLMessageListener() {
+                    @Override
+                    public void onReceive(BytesXMLMessage msg) {
+                        onMessage(msgHelper, msg);
+                    }
+                    @Override
+                    public void onException(JCSMPException e) {
+                        logger.error("EXCEPTION receiving load messages from Solace: {}", e);
+                    }
+                });
+                for (String topic : topics)
+                    session.addSubscription(JCSMPFactory.onlyInstance().createTopic(topic));
+                consumer.start();
+                logger.info("Load consumer subscribed to Solace topics {}", Arrays.toString(topics));
+            }
+
+            @Override
+            void close() {
+                session.closeSession();
+            }
+        };
+    }
+
+    /**
+     * Consumes the Kafka topics the bridge publishes to, on a dedicated polling thread.
+     * @param props Kafka consumer properties.
+     * @param topics Kafka topics.
+     */
+    static LoadConsumer newKafkaConsumer(final Properties props, final String[] topics) {
+        return new LoadConsumer() {
+            private volatile boolean running = true;
+            private Thread poller;
+
+            @Override
+            void start() {
+                poller = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        KafkaConsumer<byte[],byte[]> consumer = new KafkaConsumer<>(props);
+                        consumer.subscribe(Arrays.asList(topics));
+                        logger.info("Load consumer subscribed to Kafka topics {}", Arrays.toString(topics));
+                        try {
+                            while (running) {
+                                ConsumerRecords<byte[],byte[]> records = consumer.poll(100);
+                                for (ConsumerRecord<byte[],byte[]> record : records)
+                                    onPayload(record.value(), record.value() == null ? 0 : record.value().length);
+                            }
+                        }
+                        finally {
+                            consumer.close();
+                        }
+                    }
+                }, "load-consumer");
+                poller.start();
+            }
+
+            @Override
+            void close() throws InterruptedException {
+                running = false;
+                poller.join();
+            }
+        };
+    }
+
+    abstract void start() throws Exception;
+
+    abstract void close() throws Exception;
+
+    /**
+     * Records the latency of every payload in a message received from Solace.
+     * @param msgHelper decodes the message as the bridge encoded it.
+     * @param msg received message.
+     */
+    void onMessage(MsgHelper<byte[],byte[]> msgHelper, BytesXMLMessage msg) {
+        try {
+            if (!RecordPacker.isPacked(msg)) {
+                byte[] value = msgHelper.getValue(msg, null);
+                onPayload(value, value.length);
+                return;
+            }
+            byte[] data = msgHelper.getEnvelope(msg);
+            int count = RecordPacker.packedCount(data);
+            byte[][] values = new byte[count][];
+            RecordPacker.unpack(data, new int[count], new long[count], new byte[count][], values);
+            for (byte[] value : values)
+                onPayload(value, value == null ? 0 : value.length);
+        }
+        catch(RuntimeException ex) {
+            if (unrecognised.getAndIncrement() == 0)
+                logger.warn("FAILED to decode a message received from Solace", ex);
+        }
+    }
+
+    /**
+     * Records the latency of one received payload; payloads not from the load generator are counted and ignored.
+     */
+    void onPayload(byte[] payload, int length) {
+        long intended = LoadPayload.readIntendedEpochNanos(payload, length);
+        if (intended < 0) {
+            unrecognised.incrementAndGet();
+            return;
+        }
+        long now = LoadPayload.epochNanos();
+        latency.record(now - intended);
+        if (received.getAndIncrement() == 0)
+            firstNanos = now;
+        lastNanos = now;
+    }
+
+    /**
+     * @return Number of load payloads received.
+     */
+    long received() {
+        return received.get();
+    }
+
+    /**
+     * @return Number of messages or payloads received that weren't load payloads or couldn't be decoded.
+     */
+    long unrecognised() {
+        return unrecognised.get();
+    }
+
+    /**
+     * @return Latency of every payload received, in nanoseconds.
+     */
+    LatencyHistogram latency() {
+        return latency;
+    }
+
+    /**
+     * @return Messages per second between the first and the last payload received.
+     */
+    double sustainedRate() {
+        long n = received.get();
+        long elapsed = lastNanos - firstNanos;
+        return n < 2 || elapsed <= 0 ? 0 : (n - 1) * 1e9 / elapsed;
+    }
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong unrecognised = new AtomicLong();
+    private volatile long firstNanos;
+    private volatile long lastNanos;
+}
@@ -0,0 +1,285 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.*;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives load through the bridge and measures it end to end.
+ *
+ * Sender threads publish at a fixed target rate into one side of the bridge (Kafka or Solace),
+ * open-loop: each message has a scheduled send time, and a sender that falls behind sends the
+ * backlog immediately rather than slowing down. A LoadConsumer on the far side records each
+ * message's latency from its scheduled send time and the sustained receive rate.
+ *
+ * Runs the senders, the consumer or both (the default, sharing one clock), configured from
+ * a properties file holding the Kafka and Solace connection properties plus the load_* properties.
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+    static final String PROP_LOAD_MODE = "load_mode";
+    static final String PROP_LOAD_DIRECTION = "load_direction";
+    static final String PROP_LOAD_RATE = "load_rate";
+    static final String PROP_LOAD_DURATION_SEC = "load_duration_sec";
+    static final String PROP_LOAD_THREADS = "load_threads";
+    static final String PROP_LOAD_TOPICS = "load_topics";
+    static final String PROP_LOAD_CONSUME_TOPICS = "load_consume_topics";
+    static final String PROP_LOAD_PAYLOAD_SIZES = "load_payload_sizes";
+    static final String PROP_LOAD_KEY_COUNT = "load_key_count";
+    static final String PROP_LOAD_REPORT_INTERVAL_SEC = "load_report_interval_sec";
+    static final String PROP_LOAD_DRAIN_SEC = "load_drain_sec";
+
+    static final String MODE_BOTH = "both";
+    static final String MODE_PRODUCE = "produce";
+    static final String MODE_CONSUME = "consume";
+    static final String DIRECTION_KAFKA_TO_SOLACE = "kafka_to_solace";
+    static final String DIRECTION_SOLACE_TO_KAFKA = "solace_to_kafka";
+
+    // Below this the sender parks until its next send is due; closer than that it spins
+    private static final long SPIN_THRESHOLD_NANOS = 50000L;
+
+    /**
+     * Publishes a load payload into one side of the bridge. Called from every sender thread.
+     */
+    interface Sender {
+        void send(String topic, byte[] key, byte[] payload) throws Exception;
+        void close();
+    }
+
+    LoadGenerator(Properties properties) {
+        this.properties = properties;
+        mode = properties.getProperty(PROP_LOAD_MODE, MODE_BOTH).trim();
+        direction = properties.getProperty(PROP_LOAD_DIRECTION, DIRECTION_KAFKA_TO_SOLACE).trim();
+        rate = IOHelper.getIntProperty(properties, PROP_LOAD_RATE, 10000);
+        durationSec = IOHelper.getIntProperty(properties, PROP_LOAD_DURATION_SEC, 60);
+        threads = Math.max(1, IOHelper.getIntProperty(properties, PROP_LOAD_THREADS, 1));
+        topics = list(properties, PROP_LOAD_TOPICS);
+        sizes = new LoadPayload.SizeDistribution(properties.getProperty(PROP_LOAD_PAYLOAD_SIZES, "100"));
+        keys = LoadPayload.keys(IOHelper.getIntProperty(properties, PROP_LOAD_KEY_COUNT, 1000));
+        reportIntervalSec = Math.max(1, IOHelper.getIntProperty(properties, PROP_LOAD_REPORT_INTERVAL_SEC, 5));
+        drainSec = IOHelper.getIntProperty(properties, PROP_LOAD_DRAIN_SEC, 5);
+        if (!MODE_CONSUME.equals(mode) && (topics.length == 0 || rate <= 0))
+            throw new IllegalArgumentException(PROP_LOAD_TOPICS + " and a positive " + PROP_LOAD_RATE + " are required to send");
+    }
+
+    public static LoadGenerator newLoadGenerator(String propertyFilePath) {
+        Properties props = IOHelper.readPropsFile(propertyFilePath);
+        IOHelper.dumpProperties(props);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        return new LoadGenerator(props);
+    }
+
+    public void run() throws Exception {
+        boolean kafkaToSolace = DIRECTION_KAFKA_TO_SOLACE.equals(direction);
+        if (!kafkaToSolace && !DIRECTION_SOLACE_TO_KAFKA.equals(direction))
+            throw new IllegalArgumentException("Unknown " + PROP_LOAD_DIRECTION + " '" + direction + "'");
+
+        LoadConsumer consumer = null;
+        if (!MODE_PRODUCE.equals(mode)) {
+            String[] consumeTopics = list(properties, PROP_LOAD_CONSUME_TOPICS);
+            consumer = kafkaToSolace
+                    ? LoadConsumer.newSolaceConsumer(properties, consumeTopics)
+                    : LoadConsumer.newKafkaConsumer(properties, consumeTopics);
+            consumer.start();
+        }
+
+        Thread[] senders = new Thread[0];
+        Sender sender = null;
+        if (!MODE_CONSUME.equals(mode)) {
+            sender = kafkaToSolace ? newKafkaSender(properties) : newSolaceSender(properties);
+            long start = System.nanoTime() + 100000000L;
+            long end = start + durationSec * 1000000000L;
+            senders = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                senders[i] = new Thread(newSenderLoop(sender, i, start, end), "load-sender-" + i);
+                senders[i].start();
+            }
+        }
+
+        long lastSent = 0, lastReceived = 0;
+        long deadline = System.nanoTime() + (durationSec + drainSec) * 1000000000L;
+        while (MODE_CONSUME.equals(mode) || System.nanoTime() < deadline) {
+            Thread.sleep(reportIntervalSec * 1000L);
+            long s = sent.get();
+            long r = consumer == null ? 0 : consumer.received();
+            System.out.println(String.format("Sent %d (%d msg/s, %d errors, max lag %.1f ms)",
+                    s, (s - lastSent) / reportIntervalSec, errors.get(), maxLagNanos.get() / 1000000.0));
+            if (consumer != null)
+                System.out.println(String.format("Received %d (%d msg/s) latency %s",
+                        r, (r - lastReceived) / reportIntervalSec, consumer.latency().summaryMicros()));
+            lastSent = s;
+            lastReceived = r;
+        }
+        for (Thread t : senders)
+            t.join();
+        if (sender != null)
+            sender.close();
+
+        System.out.println("==== Summary ====");
+        if (sender != null)
+            System.out.println(String.format("Sent %d at a target of %d msg/s over %d s; %d errors",
+                    sent.get(), rate, durationSec, errors.get()));
+        if (consumer != null) {
+            System.out.println(String.format("Received %d, sustained %.0f msg/s; %d unrecognised",
+                    consumer.received(), consumer.sustainedRate(), consumer.unrecognised()));
+            System.out.println("End-to-end latency " + consumer.latency().summaryMicros());
+            consumer.close();
+        }
+    }
+
+    /**
+     * One sender thread's open-loop schedule: message n of thread i is due at
+     * start + (n * threads + i) * interval, regardless of when earlier sends completed.
+     */
+    private Runnable newSenderLoop(final Sender sender, final int thread, final long start, final long end) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                double intervalNanos = 1e9 / rate;
+                Random random = new Random(thread);
+                // One buffer per size; the clients copy payloads before send() returns
+                byte[][] buffers = new byte[sizes.count()][];
+                for (int i = 0; i < buffers.length; i++)
+                    buffers[i] = new byte[sizes.size(i)];
+                for (long n = 0; ; n++) {
+                    long intended = start + (long) ((n * threads + thread) * intervalNanos);
+                    if (intended >= end)
+                        break;
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        if (intended - now > SPIN_THRESHOLD_NANOS)
+                            LockSupport.parkNanos(intended - now - SPIN_THRESHOLD_NANOS);
+                    }
+                    long lag = now - intended;
+                    long seen;
+                    while (lag > (seen = maxLagNanos.get()) && !maxLagNanos.compareAndSet(seen, lag)) { }
+
+                    byte[] payload = buffers[sizes.sample(random)];
+                    LoadPayload.writeHeader(payload, LoadPayload.toEpochNanos(intended), n);
+                    byte[] key = keys.length == 0 ? null : keys[random.nextInt(keys.length)];
+                    String topic = topics[(int) ((n * threads + thread) % topics.length)];
+                    try {
+                        sender.send(topic, key, payload);
+                        sent.incrementAndGet();
+                    }
+                    catch(Exception ex) {
+                        if (errors.incrementAndGet() == 1)
+                            logger.error("FAILED sending load message", ex);
+                    }
+                }
+            }
+        };
+    }
+
+    private Sender newKafkaSender(Properties props) {
+        final KafkaProducer<byte[],byte[]> producer = new KafkaProducer<>(props);
+        final Callback callback = new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                if (exception != null && errors.incrementAndGet() == 1)
+                    logger.error("FAILED publishing load message to Kafka", exception);
+            }
+        };
+        return new Sender() {
+            @Override
+            public void send(String topic, byte[] key, byte[] payload) {
+                producer.send(new ProducerRecord<>(topic, key, payload), callback);
+            }
+            @Override
+            public void close() {
+                producer.close();
+            }
+        };
+    }
+
+    private Sender newSolaceSender(Properties props) throws JCSMPException {
+        int pubAckWindow = IOHelper.getIntProperty(props, BridgeProperties.PROP_SOLACE_PUB_ACK_WINDOW, 255);
+        final JCSMPSession session = JCSMPFactory.onlyInstance().createSession(
+                SolaceConnector.createSessionProperties(props, pubAckWindow, "-loadgen"));
+        session.connect();
+        final XMLMessageProducer producer = session.getMessageProducer(new JCSMPStreamingPublishEventHandler() {
+            @Override
+            public void responseReceived(String messageID) {
+            }
+            @Override
+            public void handleError(String messageID, JCSMPException e, long timestamp) {
+                if (errors.incrementAndGet() == 1)
+                    logger.error("FAILED publishing load message to Solace", e);
+            }
+        });
+        return new Sender() {
+            @Override
+            public void send(String topic, byte[] key, byte[] payload) throws JCSMPException {
+                // Guaranteed messages are held until ACK'd, so each needs its own container
+                BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+                msg.setDeliveryMode(DeliveryMode.PERSISTENT);
+                PassThroughMsgHelper.putKey(msg, key);
+                PassThroughMsgHelper.putValue(msg, payload);
+                producer.send(msg, JCSMPFactory.onlyInstance().createTopic(topic));
+            }
+            @Override
+            public void close() {
+                session.closeSession();
+            }
+        };
+    }
+
+    private static String[] list(Properties props, String key) {
+        String[] entries = IOHelper.parseCommaSeparatedList(props, key);
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = entries[i].trim();
+        return entries;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("\tUSAGE: <path/to/load-props-file.properties>");
+            System.out.println("");
+            System.exit(1);
+        }
+
+        try {
+            LoadGenerator generator = LoadGenerator.newLoadGenerator(args[0]);
+
+            generator.run();
+        }
+        catch(Exception ex) {
+            ex.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    private final Properties properties;
+    private final String mode;
+    private final String direction;
+    private final int rate;
+    private final int durationSec;
+    private final int threads;
+    private final String[] topics;
+    private final LoadPayload.SizeDistribution sizes;
+    private final byte[][] keys;
+    private final int reportIntervalSec;
+    private final int drainSec;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    // How far behind schedule any send has started
+    private final AtomicLong maxLagNanos = new AtomicLong();
+}
@@ -0,0 +1,127 @@
+package com.solacesystems.poc;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Payload layout, clock, size distribution and key set shared by the load generator's
+ * senders and its far-side consumer.
+ *
+ * Every payload starts with a header: a magic number, the time the message was intended to
+ * be sent and a sequence number; the rest is filler up to the chosen size. Latency is measured
+ * from the intended send time rather than the actual one, so when the senders fall behind
+ * schedule the delay is counted against the system under test instead of being hidden
+ * (avoiding coordinated omission).
+ */
+final class LoadPayload {
+    static final int MAGIC = 0x534b4c47;
+    static final int HEADER_SIZE = 4 + 8 + 8;
+
+    // One timeline per JVM: wall-clock at startup advanced by the monotonic clock, so senders
+    // and consumers in the same process agree exactly, and across hosts as far as clocks are synced
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1000000L;
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    private LoadPayload() {}
+
+    /**
+     * @param nanoTime a System.nanoTime() reading.
+     * @return the same instant in nanoseconds since the epoch.
+     */
+    static long toEpochNanos(long nanoTime) {
+        return BASE_EPOCH_NANOS + (nanoTime - BASE_NANO_TIME);
+    }
+
+    /**
+     * @return the current time in nanoseconds since the epoch.
+     */
+    static long epochNanos() {
+        return toEpochNanos(System.nanoTime());
+    }
+
+    /**
+     * Writes the header into the start of a payload buffer.
+     * @param payload buffer at least HEADER_SIZE long.
+     * @param intendedEpochNanos when the message was scheduled to be sent.
+     * @param sequence sender's message sequence number.
+     */
+    static void writeHeader(byte[] payload, long intendedEpochNanos, long sequence) {
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        buf.putInt(MAGIC);
+        buf.putLong(intendedEpochNanos);
+        buf.putLong(sequence);
+    }
+
+    /**
+     * @param payload received payload bytes.
+     * @param length number of valid bytes.
+     * @return the intended send time, or -1 if this is not a load generator payload.
+     */
+    static long readIntendedEpochNanos(byte[] payload, int length) {
+        if (payload == null || length < HEADER_SIZE)
+            return -1;
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        if (buf.getInt() != MAGIC)
+            return -1;
+        return buf.getLong();
+    }
+
+    /**
+     * Weighted payload sizes, parsed from "size[:weight],..." e.g. "100:9,10000:1".
+     */
+    static final class SizeDistribution {
+        SizeDistribution(String spec) {
+            String[] entries = spec.split(",");
+            sizes = new int[entries.length];
+            cumulative = new double[entries.length];
+            double total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] pair = entries[i].trim().split(":");
+                sizes[i] = Math.max(HEADER_SIZE, Integer.parseInt(pair[0].trim()));
+                double weight = pair.length > 1 ? Double.parseDouble(pair[1].trim()) : 1.0;
+                if (weight < 0)
+                    throw new IllegalArgumentException("Negative weight in payload sizes: " + spec);
+                total += weight;
+                cumulative[i] = total;
+            }
+            if (total <= 0)
+                throw new IllegalArgumentException("No payload size has a positive weight: " + spec);
+            for (int i = 0; i < cumulative.length; i++)
+                cumulative[i] /= total;
+        }
+
+        /**
+         * @return index of a size chosen at random by weight.
+         */
+        int sample(Random random) {
+            double r = random.nextDouble();
+            for (int i = 0; i < cumulative.length - 1; i++)
+                if (r < cumulative[i])
+                    return i;
+            return cumulative.length - 1;
+        }
+
+        int size(int index) {
+            return sizes[index];
+        }
+
+        int count() {
+            return sizes.length;
+        }
+
+        final private int[] sizes;
+        final private double[] cumulative;
+    }
+
+    /**
+     * Creates the key set for a given cardinality.
+     * @param cardinality number of distinct keys; 0 for records without keys.
+     * @return one byte[] per key, or an empty array.
+     */
+    static byte[][] keys(int cardinality) {
+        byte[][] keys = new byte[Math.max(0, cardinality)][];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = ("key-" + i).getBytes();
+        return keys;
+    }
+}
@@ -0,0 +1,95 @@
+package com.solacesystems.poc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves a MetricsRegistry over HTTP in the Prometheus text format, at /metrics, using the
+ * JDK's built-in HTTP server. Scrapes are answered on a single daemon thread.
+ */
+final class MetricsHttpServer {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHttpServer.class);
+
+    static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Binds the server; call start() to begin answering.
+     * @param registry metrics to serve.
+     * @param host address to listen on, e.g. 127.0.0.1 for local scrapers only.
+     * @param port port to listen on; 0 picks a free one (see port()).
+     */
+    public MetricsHttpServer(final MetricsRegistry registry, String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    String method = exchange.getRequestMethod();
+                    if (!method.equals("GET") && !method.equals("HEAD")) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    byte[] body = registry.prometheusText().getBytes(UTF8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    if (method.equals("HEAD")) {
+                        exchange.sendResponseHeaders(200, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+                catch(RuntimeException ex) {
+                    logger.error("FAILED serving metrics", ex);
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bridge-metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Serving metrics at http://{}:{}{}", server.getAddress().getHostString(), port(), PATH);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    final private HttpServer server;
+    final private ExecutorService executor;
+}
@@ -0,0 +1,85 @@
+package com.solacesystems.poc;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes every series of a MetricsRegistry as a read-only JMX attribute, named as in the
+ * Prometheus text (e.g. solkaf_messages_total{direction="kafka_to_solace"}). Series created
+ * after registration, such as those of newly seen topics, appear the next time the
+ * attributes are listed.
+ */
+final class MetricsMBean implements DynamicMBean {
+    static final String DEFAULT_OBJECT_NAME = "com.solacesystems.poc:type=BridgeMetrics";
+
+    /**
+     * Registers the registry's metrics with the platform MBean server.
+     * @param registry metrics to expose.
+     * @param objectName JMX name to register them under.
+     * @return The registered name.
+     */
+    public static ObjectName register(MetricsRegistry registry, String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+        server.registerMBean(new MetricsMBean(registry), name);
+        return name;
+    }
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.snapshot().get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException("No metric " + attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = registry.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            Number value = values.get(attribute);
+            if (value != null)
+                list.add(new Attribute(attribute, value));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        // Nothing is writable
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Bridge metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> series : registry.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(series.getKey(), series.getValue().getClass().getName(),
+                    series.getKey(), true, false, false));
+        }
+        return new MBeanInfo(MetricsMBean.class.getName(), "Solace-Kafka bridge metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+    }
+
+    final private MetricsRegistry registry;
+}
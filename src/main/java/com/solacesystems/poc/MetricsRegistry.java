@@ -0,0 +1,291 @@
+package com.solacesystems.poc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Named metrics of the bridge, exported through JMX (MetricsMBean) and as Prometheus text
+ * (MetricsHttpServer).
+ *
+ * Metrics are grouped in families as Prometheus has them: one name, help text and type, and
+ * any number of series told apart by their labels. A series' value comes from one of:
+ *
+ * - a StripedCounter owned by the registry, for counting on the hot path;
+ * - a Gauge reading a value kept elsewhere (pool occupancy, cache hits, ...), exported as
+ *   either a gauge or a counter;
+ * - a LatencyHistogram in nanoseconds, exported as a summary in seconds. Its sum and count
+ *   cover the whole run, as Prometheus expects, but its quantiles cover only the last
+ *   completed window (see MetricsRegistry(long)), so they follow changes in latency.
+ *
+ * Registration and reading are thread-safe; counting goes straight to the StripedCounter.
+ */
+class MetricsRegistry {
+    static final String TYPE_COUNTER = "counter";
+    static final String TYPE_GAUGE = "gauge";
+    static final String TYPE_SUMMARY = "summary";
+
+    // Quantiles exported for every latency summary
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    static final int DEFAULT_QUANTILE_WINDOW_SEC = 60;
+
+    /**
+     * Creates a registry whose summary quantiles cover windows of DEFAULT_QUANTILE_WINDOW_SEC.
+     */
+    public MetricsRegistry() {
+        this(DEFAULT_QUANTILE_WINDOW_SEC * 1000L);
+    }
+
+    /**
+     * @param quantileWindowMillis length of the windows summary quantiles are computed over. A
+     *                             window ends at the first read after it is this long, and its
+     *                             quantiles are exported until the next one ends; until the first
+     *                             one ends, the quantiles cover everything recorded so far.
+     */
+    public MetricsRegistry(long quantileWindowMillis) {
+        this.quantileWindowNanos = quantileWindowMillis * 1000000L;
+    }
+
+    /**
+     * Supplies the current value of a metric kept outside the registry.
+     */
+    interface Gauge {
+        long value();
+    }
+
+    /**
+     * Gets the counter registered under the given name and labels, creating it if need be.
+     * @param name family name, e.g. "solkaf_messages_total".
+     * @param help family description.
+     * @param labels alternating label names and values.
+     */
+    public StripedCounter counter(String name, String help, String... labels) {
+        Family family = family(name, help, TYPE_COUNTER);
+        String key = labelString(labels);
+        Object existing = family.series.get(key);
+        if (existing == null) {
+            StripedCounter counter = new StripedCounter();
+            existing = family.series.putIfAbsent(key, counter);
+            if (existing == null)
+                return counter;
+        }
+        if (!(existing instanceof StripedCounter))
+            throw new IllegalArgumentException("Metric " + name + "{" + key + "} is not a StripedCounter");
+        return (StripedCounter) existing;
+    }
+
+    /**
+     * Registers a counter whose value is kept elsewhere, e.g. a cache's hit count.
+     * @param name family name.
+     * @param help family description.
+     * @param value supplies the current count.
+     * @param labels alternating label names and values.
+     */
+    public void counter(String name, String help, Gauge value, String... labels) {
+        family(name, help, TYPE_COUNTER).series.put(labelString(labels), value);
+    }
+
+    /**
+     * Registers a value that can go up and down, e.g. a pool's occupancy.
+     * @param name family name.
+     * @param help family description.
+     * @param value supplies the current value.
+     * @param labels alternating label names and values.
+     */
+    public void gauge(String name, String help, Gauge value, String... labels) {
+        family(name, help, TYPE_GAUGE).series.put(labelString(labels), value);
+    }
+
+    /**
+     * Registers a latency histogram, exported as a summary in seconds; see the class comment.
+     * @param name family name, e.g. "solkaf_latency_seconds".
+     * @param help family description.
+     * @param histogram latencies in nanoseconds.
+     * @param labels alternating label names and values.
+     */
+    public void summary(String name, String help, LatencyHistogram histogram, String... labels) {
+        family(name, help, TYPE_SUMMARY).series.put(labelString(labels), new Summary(histogram));
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format (version 0.0.4).
+     */
+    public String prometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            if (family.series.isEmpty())
+                continue;
+            out.append("# HELP ").append(family.name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object source = series.getValue();
+                if (source instanceof Summary) {
+                    LatencyHistogram histogram = ((Summary) source).histogram;
+                    long[] window = ((Summary) source).window(System.nanoTime());
+                    for (double quantile : QUANTILES) {
+                        appendSample(out, family.name, withLabel(labels, "quantile", format(quantile)),
+                                format(LatencyHistogram.percentile(window, quantile * 100) / 1e9));
+                    }
+                    appendSample(out, family.name + "_sum", labels, format(histogram.sum() / 1e9));
+                    appendSample(out, family.name + "_count", labels, Long.toString(histogram.count()));
+                }
+                else {
+                    appendSample(out, family.name, labels, Long.toString(longValue(source)));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Reads every series, keyed as it appears in the Prometheus text (e.g.
+     * solkaf_messages_total{direction="kafka_to_solace"}). Counters and gauges are Longs;
+     * summaries give Doubles in seconds for each quantile, their sum, and a Long count.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Family family : families.values()) {
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object source = series.getValue();
+                if (source instanceof Summary) {
+                    LatencyHistogram histogram = ((Summary) source).histogram;
+                    long[] window = ((Summary) source).window(System.nanoTime());
+                    for (double quantile : QUANTILES) {
+                        values.put(seriesName(family.name, withLabel(labels, "quantile", format(quantile))),
+                                LatencyHistogram.percentile(window, quantile * 100) / 1e9);
+                    }
+                    values.put(seriesName(family.name + "_sum", labels), histogram.sum() / 1e9);
+                    values.put(seriesName(family.name + "_count", labels), histogram.count());
+                }
+                else {
+                    values.put(seriesName(family.name, labels), longValue(source));
+                }
+            }
+        }
+        return values;
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family created = new Family(name, help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null)
+                return created;
+        }
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        return family;
+    }
+
+    private static long longValue(Object source) {
+        if (source instanceof StripedCounter)
+            return ((StripedCounter) source).sum();
+        return ((Gauge) source).value();
+    }
+
+    private static void appendSample(StringBuilder out, String name, String labels, String value) {
+        out.append(seriesName(name, labels)).append(' ').append(value).append('\n');
+    }
+
+    private static String seriesName(String name, String labels) {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    /**
+     * @param labels alternating label names and values.
+     * @return The labels as they appear between a series' braces, values escaped.
+     */
+    static String labelString(String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name, value pairs");
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                out.append(',');
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\') out.append("\\\\");
+                else if (ch == '"') out.append("\\\"");
+                else if (ch == '\n') out.append("\\n");
+                else out.append(ch);
+            }
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+
+    /**
+     * A histogram with the bucket counts it had at the start of the current window, so the
+     * quantiles of the last window can be told apart from those of the whole run.
+     */
+    private class Summary {
+        Summary(LatencyHistogram histogram) {
+            this.histogram = histogram;
+            windowStartNanos = System.nanoTime();
+            windowStart = new long[histogram.bucketCounts(null).length];
+        }
+
+        /**
+         * @return Counts recorded in the last window to have ended, or so far in the first one.
+         */
+        synchronized long[] window(long nowNanos) {
+            current = histogram.bucketCounts(current);
+            if (last == null)
+                last = new long[current.length];
+            boolean ended = nowNanos - windowStartNanos >= quantileWindowNanos;
+            if (ended || !firstEnded) {
+                for (int i = 0; i < current.length; i++)
+                    last[i] = current[i] - windowStart[i];
+            }
+            if (ended) {
+                System.arraycopy(current, 0, windowStart, 0, current.length);
+                windowStartNanos = nowNanos;
+                firstEnded = true;
+            }
+            return last;
+        }
+
+        final LatencyHistogram histogram;
+        private final long[] windowStart;
+        private long windowStartNanos;
+        private long[] current;
+        private long[] last;
+        private boolean firstEnded;
+    }
+
+    private static class Family {
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        final String name;
+        final String help;
+        final String type;
+        // Series sorted by their labels, so output is stable between scrapes
+        final ConcurrentSkipListMap<String, Object> series = new ConcurrentSkipListMap<>();
+    }
+
+    // Families sorted by name
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+    private final long quantileWindowNanos;
+}
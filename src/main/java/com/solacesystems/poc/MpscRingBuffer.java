@@ -0,0 +1,107 @@
+package com.solacesystems.poc;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for any number of appending threads and exactly one removing
+ * thread, e.g. Kafka producer callbacks (usually on the producer's I/O thread, but run
+ * inline by whichever thread called send() when the send fails at once) handing work to
+ * a single stage thread.
+ *
+ * Appenders claim a slot by advancing the shared tail with a CAS, then publish it by an
+ * ordered write of the slot's own sequence number, so the remover only ever sees fully
+ * written slots and neither side takes a lock. Capacity is rounded up to a power of two.
+ *
+ * @param <T>
+ */
+class MpscRingBuffer<T> {
+
+    /**
+     * @param clazz Data type of instances to be stored in the buffer.
+     * @param capacity Maximum number of items that can be stored at one time; rounded up to a power of two.
+     */
+    public MpscRingBuffer(Class<T> clazz, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        buffer = (T[]) Array.newInstance(clazz, size);
+        sequences = new AtomicLongArray(size);
+        // A slot is free for the append whose sequence equals its own
+        for (int i = 0; i < size; i++)
+            sequences.lazySet(i, i);
+    }
+
+    /**
+     * Adds an item to the end of the buffer. May be called from any thread; never waits.
+     * @param item additional item
+     * @return true if the item was appended; false if the buffer was full.
+     */
+    public boolean append(T item) {
+        while (true) {
+            final long t = tail.get();
+            final int idx = (int) t & mask;
+            final long seq = sequences.get(idx);
+            if (seq < t)
+                // Still holds the item from a lap ago
+                return false;
+            if (seq == t && tail.compareAndSet(t, t + 1)) {
+                buffer[idx] = item;
+                // Published: the remover waits for the slot's sequence to pass t
+                sequences.lazySet(idx, t + 1);
+                return true;
+            }
+            // Another appender claimed this slot first; try the next one
+        }
+    }
+
+    /**
+     * Removes up to maxItems of the oldest items in order. Only to be called by the single removing thread.
+     * @param into array the removed items are written to, from index 0.
+     * @param maxItems maximum number of items to remove; at most into.length.
+     * @return Number of items removed; 0 if the buffer was empty.
+     */
+    public int drainTo(T[] into, int maxItems) {
+        long h = head;
+        int count = 0;
+        while (count < maxItems) {
+            final int idx = (int) h & mask;
+            // An appender may have claimed the slot without publishing it yet; stop there
+            if (sequences.get(idx) != h + 1)
+                break;
+            into[count++] = buffer[idx];
+            buffer[idx] = null;
+            // Free for the append a lap later
+            sequences.lazySet(idx, h + mask + 1);
+            h++;
+        }
+        head = h;
+        return count;
+    }
+
+    /**
+     * @return the total capacity of the buffer.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return Instantaneous number of items claimed or waiting to be removed.
+     */
+    public int used() {
+        final long used = tail.get() - head;
+        return (int) Math.max(0, Math.min(used, mask + 1));
+    }
+
+    final private T[] buffer;
+    final private AtomicLongArray sequences;
+    final private int mask;
+    // Next slot to claim; advanced by any appending thread
+    private final SpscRingBuffer.Sequence tail = new SpscRingBuffer.Sequence();
+    // Next slot to remove; only touched by the removing thread
+    private volatile long head;
+}
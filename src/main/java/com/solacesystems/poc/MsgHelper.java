@@ -1,11 +1,11 @@
 package com.solacesystems.poc;
 
 import com.solacesystems.jcsmp.BytesXMLMessage;
-import com.solacesystems.jcsmp.JCSMPFactory;
-import com.solacesystems.jcsmp.SDTException;
-import com.solacesystems.jcsmp.SDTMap;
+import com.solacesystems.jcsmp.Topic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.Serializer;
 
@@ -20,6 +20,7 @@ import java.util.Properties;
  */
 class MsgHelper<K,V> {
     public final static String HDR_KAFKA_KEY = "solkaf_bridge_hdr_key";
+    public final static String HDR_PAYLOAD_CODEC = "solkaf_bridge_hdr_codec";
 
     /**
      * Scans the properties for key and value serializer/deserializer definitions.
@@ -39,69 +40,136 @@ class MsgHelper<K,V> {
         valDeserializer = (Deserializer<V>)Class.forName(valDeserName).newInstance();
         keySerializer   = (Serializer<K>)  Class.forName(keySerName).newInstance();
         valSerializer   = (Serializer<V>)  Class.forName(valSerName).newInstance();
+        passThrough = isPassThrough(props);
+        keyInUserData = IOHelper.getBooleanProperty(props, BridgeProperties.PROP_SOLACE_KEY_IN_USER_DATA, false);
+        applicationMessageIds = IOHelper.getBooleanProperty(props, BridgeProperties.PROP_SOLACE_APP_MSG_ID, true);
+        compression = PayloadCompression.fromProperties(props);
+    }
+
+    /**
+     * True when every key and value (de)serializer is the byte array one, so messages
+     * can be carried across as raw bytes by PassThroughMsgHelper.
+     * @param props -- shared application properties object including Kafka and Solace properties.
+     */
+    static boolean isPassThrough(Properties props) {
+        return ByteArrayDeserializer.class.getName().equals(props.getProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG))
+            && ByteArrayDeserializer.class.getName().equals(props.getProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG))
+            && ByteArraySerializer.class.getName().equals(props.getProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG))
+            && ByteArraySerializer.class.getName().equals(props.getProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG));
     }
 
     /**
      * Serializes and writes the payload to the outbound message.
-     * Serializes and writes the key to a header in the outbound message properties.
-     * Sets the correlation object and customized application message ID.
+     * Serializes and writes the key to the outbound message.
+     * Sets the correlation object and message ID, and the ApplicationMessageId unless sol_app_msg_id is false.
      * Sets the topic on the outbound message for topic publication.
      * @param msgState full message and lifecycle state; includes message, topic, application msgID.
      * @param partition kafka partition from which the message was read.
-     * @param topicName name of the source topic and outbound topic for publication.
+     * @param topic outbound topic for publication; its name is also passed to the serializers.
      * @param key message key object instance.
      * @param payload message payload object instance.
      */
-    public void populateMessage(SolaceSentMessageState msgState, int partition, String topicName, K key, V payload) {
+    public void populateMessage(SolaceSentMessageState msgState, int partition, Topic topic, K key, V payload) {
         BytesXMLMessage msg = msgState.getMessage();
+        String topicName = topic.getName();
+        // A pooled message may last have carried an envelope
+        if (RecordPacker.isPacked(msg))
+            msg.setApplicationMessageType(null);
         putKey(msg, topicName, key);
         putValue(msg, topicName, payload);
         msg.setCorrelationKey(msgState);
-        msgState.setMsgID(sequence++);
-        msgState.setDestination(JCSMPFactory.onlyInstance().createTopic(topicName));
+        setMsgID(msgState);
+        msgState.setDestination(topic);
         msgState.setPartition(partition);
     }
 
     /**
-     * Serializes the key and adds it to the message properties as a header value.
+     * Writes an envelope of packed records to the outbound message, compressed like any other
+     * payload, and marks the message as an envelope (see RecordPacker).
+     * Sets the correlation object and message ID, and the topic for publication.
+     * @param msgState full message and lifecycle state; includes message, topic, application msgID.
+     * @param envelope closed envelope of records bound for one topic.
+     */
+    public void populateEnvelope(SolaceSentMessageState msgState, RecordPacker.Envelope envelope) {
+        BytesXMLMessage msg = msgState.getMessage();
+        Topic topic = envelope.topic();
+        // Each record carries its own key
+        PassThroughMsgHelper.putKey(msg, null);
+        msg.setApplicationMessageType(RecordPacker.PACKED_MSG_TYPE);
+        compression.putValue(msg, topic.getName(), envelope.buffer(), envelope.length());
+        msg.setCorrelationKey(msgState);
+        setMsgID(msgState);
+        msgState.setDestination(topic);
+        msgState.setPartition(-1);
+        msgState.setPacked(envelope);
+    }
+
+    private void setMsgID(SolaceSentMessageState msgState) {
+        msgState.setMsgID(sequence++);
+        // Formatting the ID allocates on every send
+        if (applicationMessageIds)
+            msgState.getMessage().setApplicationMessageId(msgState.getMessageID());
+    }
+
+    /**
+     * Returns an envelope's framed records, decompressed if need be.
+     * @param msg received envelope message.
+     */
+    public byte[] getEnvelope(BytesXMLMessage msg) {
+        byte codec = PayloadCompression.codecOf(msg);
+        byte[] bytes = PassThroughMsgHelper.getValue(msg);
+        return codec == PayloadCompression.NONE ? bytes : compression.decompress(codec, bytes);
+    }
+
+    /**
+     * @return The key serialized as it would be on a message, for packing.
+     */
+    public byte[] keyBytes(String topic, K key) {
+        return passThrough ? (byte[]) key : keySerializer.serialize(topic, key);
+    }
+
+    /**
+     * @return The value serialized as it would be on a message, for packing.
+     */
+    public byte[] valueBytes(String topic, V payload) {
+        return passThrough ? (byte[]) payload : valSerializer.serialize(topic, payload);
+    }
+
+    /**
+     * @return A key unpacked from an envelope, deserialized.
+     */
+    public K toKey(String topic, byte[] bytes) {
+        return passThrough || bytes == null ? (K) bytes : keyDeserializer.deserialize(topic, bytes);
+    }
+
+    /**
+     * @return A value unpacked from an envelope, deserialized.
+     */
+    public V toValue(String topic, byte[] bytes) {
+        return passThrough ? (V) bytes : valDeserializer.deserialize(topic, bytes);
+    }
+
+    /**
+     * Serializes the key and adds it to the message; see PassThroughMsgHelper.putKey.
      * @param msg message to be populated with the key.
      * @param topic topic the message will be published on.
      * @param key key instance to be populated on the message.
      */
     public void putKey(BytesXMLMessage msg, String topic, K key) {
-        SDTMap map = msg.getProperties();
-        if (map == null) {
-            map = JCSMPFactory.onlyInstance().createMap();
-            msg.setProperties(map);
-        }
-        try {
-            map.putBytes(HDR_KAFKA_KEY, keySerializer.serialize(topic, key));
-        }
-        catch(SDTException ex) {
-            ex.printStackTrace();
-        }
+        PassThroughMsgHelper.putKey(msg, passThrough ? (byte[]) key : keySerializer.serialize(topic, key), keyInUserData);
     }
 
     /**
-     * Deserializes and returns the key instance from the message headers.
+     * Deserializes and returns the key instance from the message.
      * @param msg message on which to retrieve the key instance.
      * @param topic topic on which the message was received.
      * @return deserialized key instance.
      */
     public K getKey(BytesXMLMessage msg, String topic) {
-        K key = null;
-        SDTMap props = msg.getProperties();
-        if (props != null && props.containsKey(HDR_KAFKA_KEY)) {
-            try {
-                byte[] keybytes = props.getBytes(HDR_KAFKA_KEY);
-                key = (K) keyDeserializer.deserialize(topic, keybytes);
-            }
-            catch(SDTException ex) {
-                ex.printStackTrace();
-                key = null;
-            }
-        }
-        return key;
+        byte[] keybytes = PassThroughMsgHelper.getKey(msg);
+        if (passThrough || keybytes == null)
+            return (K) keybytes;
+        return keyDeserializer.deserialize(topic, keybytes);
     }
 
     /**
@@ -111,7 +179,9 @@ class MsgHelper<K,V> {
      * @param payload payload to be serialized and attached to the message for publication.
      */
     public void putValue(BytesXMLMessage msg, String topic, V payload) {
-        msg.writeAttachment(valSerializer.serialize(topic, payload));
+        byte[] bytes = passThrough ? (byte[]) payload : valSerializer.serialize(topic, payload);
+        // Compressed if the topic has a codec; see PayloadCompression
+        compression.putValue(msg, topic, bytes);
     }
 
     /**
@@ -121,16 +191,36 @@ class MsgHelper<K,V> {
      * @return deserialized payload instance.
      */
     public V getValue(BytesXMLMessage msg, String topic) {
+        byte codec = PayloadCompression.codecOf(msg);
+        if (codec != PayloadCompression.NONE) {
+            byte[] bytes = compression.decompress(codec, PassThroughMsgHelper.getValue(msg));
+            return passThrough ? (V) bytes : valDeserializer.deserialize(topic, bytes);
+        }
+        if (passThrough)
+            return (V) PassThroughMsgHelper.getValue(msg);
         // Deserialize the value
         byte[] bytes = new byte[ msg.getAttachmentContentLength() ];
         msg.readAttachmentBytes(bytes);
         return (V) valDeserializer.deserialize(topic, bytes);
     }
 
+    /**
+     * @return Payload compression applied by putValue and undone by getValue.
+     */
+    public PayloadCompression compression() {
+        return compression;
+    }
+
     final private Deserializer<K> keyDeserializer;
     final private Deserializer<V> valDeserializer;
     final private Serializer<K>   keySerializer;
     final private Serializer<V>   valSerializer;
+    // Both sides carry raw bytes; skip the (de)serializers entirely
+    final private boolean passThrough;
+    final private boolean keyInUserData;
+    final private boolean applicationMessageIds;
+    // Owned by the single thread using this helper
+    final private PayloadCompression compression;
 
     private long sequence = System.nanoTime();
 }
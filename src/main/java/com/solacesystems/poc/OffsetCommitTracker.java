@@ -0,0 +1,374 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks Kafka offsets handed off for publication, per partition, and computes the
+ * highest contiguous acknowledged offset that is safe to commit back to Kafka.
+ *
+ * Offsets are tracked on the Kafka poll thread in consumption order, and may be
+ * acknowledged from any thread in any order. Commits are coalesced: the tracker
+ * only asks for a commit once enough acks have arrived or enough time has passed.
+ *
+ * Each partition tracks a bounded number of unacknowledged offsets. A record whose ack never
+ * arrives holds back its partition's commit for good (one that fails to publish is untracked
+ * and consumed again instead), so once the bound is reached track() refuses further offsets
+ * rather than growing without limit, and the partition is reported as stuck until acks or
+ * untracking bring it back below the bound.
+ */
+class OffsetCommitTracker {
+    static final int DEFAULT_MAX_PENDING = 65536;
+
+    /**
+     * Creates a new tracker, holding up to DEFAULT_MAX_PENDING unacknowledged offsets per partition.
+     * @param commitIntervalMillis maximum time between commits while acks are arriving.
+     * @param commitAckCount number of acks after which a commit is due regardless of time.
+     */
+    public OffsetCommitTracker(long commitIntervalMillis, int commitAckCount) {
+        this(commitIntervalMillis, commitAckCount, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Creates a new tracker.
+     * @param commitIntervalMillis maximum time between commits while acks are arriving.
+     * @param commitAckCount number of acks after which a commit is due regardless of time.
+     * @param maxPending most unacknowledged offsets tracked per partition; rounded up to a power of two.
+     */
+    public OffsetCommitTracker(long commitIntervalMillis, int commitAckCount, int maxPending) {
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.commitAckCount = commitAckCount;
+        this.maxPending = Integer.highestOneBit(Math.max(2, maxPending) - 1) << 1;
+    }
+
+    /**
+     * Records an offset as handed off but not yet acknowledged. Must be called in
+     * increasing offset order per partition, which is the order Kafka delivers them.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     * @return false if the partition already has maxPending offsets unacknowledged, in which
+     * case the offset is not tracked and the record must not be handed off.
+     */
+    public boolean track(String topic, int partition, long offset) {
+        return getOrCreate(topic, partition).track(offset);
+    }
+
+    /**
+     * Stops tracking the given offset and any tracked after it, for records handed back
+     * unpublished to be consumed again (e.g. after seeking the partition back to them).
+     * @param topic Kafka topic the records were consumed from.
+     * @param partition Kafka partition the records were consumed from.
+     * @param offset Kafka offset of the first record handed back.
+     */
+    public void untrack(String topic, int partition, long offset) {
+        PartitionOffsets p = find(topic, partition);
+        if (p != null)
+            p.untrack(offset);
+    }
+
+    /**
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     * @return true if the offset is tracked and not yet acknowledged.
+     */
+    public boolean isPending(String topic, int partition, long offset) {
+        PartitionOffsets p = find(topic, partition);
+        return p != null && p.isPending(offset);
+    }
+
+    /**
+     * Records an offset as acknowledged downstream. Acks for untracked offsets
+     * (e.g. from partitions revoked since the record was sent) are ignored.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    public void ack(String topic, int partition, long offset) {
+        PartitionOffsets p = find(topic, partition);
+        if (p != null && p.ack(offset)) {
+            // Only the ack that makes a commit due says so, once per commit
+            if (acksSinceCommit.incrementAndGet() == commitAckCount) {
+                Runnable listener = commitDueListener;
+                if (listener != null)
+                    listener.run();
+            }
+        }
+    }
+
+    /**
+     * @param listener told, on the acknowledging thread, when enough acks have arrived that a
+     *                 commit is due, so the polling thread can be woken to make it.
+     */
+    public void setCommitDueListener(Runnable listener) {
+        this.commitDueListener = listener;
+    }
+
+    /**
+     * @param now current time in milliseconds.
+     * @return true if acknowledged offsets have been waiting long enough, or in large enough
+     * numbers, that they should be committed.
+     */
+    public boolean isCommitDue(long now) {
+        int acks = acksSinceCommit.get();
+        return acks >= commitAckCount || (acks > 0 && now - lastCommitTime >= commitIntervalMillis);
+    }
+
+    /**
+     * Collects the commit position for every partition whose acknowledged watermark
+     * has advanced since the last call, and resets the commit timer.
+     * @param now current time in milliseconds.
+     * @return Offsets to commit; empty if nothing has advanced.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> collectCommits(long now) {
+        Map<TopicPartition, OffsetAndMetadata> commits = new HashMap<>();
+        acksSinceCommit.set(0);
+        lastCommitTime = now;
+        for (PartitionOffsets[] offsets : topics.values()) {
+            for (PartitionOffsets p : offsets) {
+                if (p == null) continue;
+                long position = p.takeCommitPosition();
+                if (position >= 0)
+                    commits.put(p.topicPartition, new OffsetAndMetadata(position));
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Stops tracking the given partitions, e.g. when they are revoked in a rebalance.
+     * @param partitions Partitions to forget.
+     */
+    public void remove(Collection<TopicPartition> partitions) {
+        synchronized (lock) {
+            for (TopicPartition tp : partitions) {
+                PartitionOffsets[] offsets = topics.get(tp.topic());
+                if (offsets != null && tp.partition() < offsets.length)
+                    offsets[tp.partition()] = null;
+            }
+        }
+    }
+
+    /**
+     * @return Total number of offsets tracked but not yet acknowledged across all partitions.
+     */
+    public int pending() {
+        int pending = 0;
+        for (PartitionOffsets[] offsets : topics.values()) {
+            for (PartitionOffsets p : offsets) {
+                if (p != null) pending += p.pending();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return Number of offsets tracked but not yet acknowledged for one partition.
+     */
+    public int pending(String topic, int partition) {
+        PartitionOffsets p = find(topic, partition);
+        return p == null ? 0 : p.pending();
+    }
+
+    /**
+     * @return Most unacknowledged offsets tracked per partition.
+     */
+    public int maxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @return Number of partitions holding as many unacknowledged offsets as they can track.
+     */
+    public int stuckPartitions() {
+        int stuck = 0;
+        for (PartitionOffsets[] offsets : topics.values()) {
+            for (PartitionOffsets p : offsets) {
+                if (p != null && p.pending() == maxPending) stuck++;
+            }
+        }
+        return stuck;
+    }
+
+    /**
+     * @return Total number of offsets consumed beyond each partition's last commit position,
+     * i.e. how many records would be redelivered if the bridge stopped now.
+     */
+    public long commitLag() {
+        long lag = 0;
+        for (PartitionOffsets[] offsets : topics.values()) {
+            for (PartitionOffsets p : offsets) {
+                if (p != null) lag += p.commitLag();
+            }
+        }
+        return lag;
+    }
+
+    private PartitionOffsets find(String topic, int partition) {
+        PartitionOffsets[] offsets = topics.get(topic);
+        return (offsets != null && partition < offsets.length) ? offsets[partition] : null;
+    }
+
+    private PartitionOffsets getOrCreate(String topic, int partition) {
+        PartitionOffsets p = find(topic, partition);
+        if (p != null)
+            return p;
+        PartitionOffsets[] offsets;
+        synchronized (lock) {
+            offsets = topics.get(topic);
+            if (offsets == null || partition >= offsets.length) {
+                PartitionOffsets[] grown = new PartitionOffsets[partition + 1];
+                if (offsets != null)
+                    System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                offsets = grown;
+            }
+            if (offsets[partition] == null)
+                offsets[partition] = new PartitionOffsets(new TopicPartition(topic, partition), maxPending);
+            topics.put(topic, offsets);
+            return offsets[partition];
+        }
+    }
+
+    /**
+     * Pending offsets for one partition, kept in consumption order in a ring that grows up to a bound.
+     */
+    static class PartitionOffsets {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        /**
+         * @param maxCapacity most offsets pending at once; a power of two.
+         */
+        PartitionOffsets(TopicPartition topicPartition, int maxCapacity) {
+            this.topicPartition = topicPartition;
+            this.maxCapacity = maxCapacity;
+            offsets = new long[Math.min(INITIAL_CAPACITY, maxCapacity)];
+            acked = new boolean[offsets.length];
+        }
+
+        synchronized boolean track(long offset) {
+            if (size == offsets.length) {
+                if (size == maxCapacity)
+                    return false;
+                grow();
+            }
+            int idx = (head + size) & (offsets.length - 1);
+            offsets[idx] = offset;
+            acked[idx] = false;
+            size++;
+            if (firstTracked < 0)
+                firstTracked = offset;
+            lastTracked = offset;
+            return true;
+        }
+
+        synchronized void untrack(long offset) {
+            int mask = offsets.length - 1;
+            while (size > 0 && offsets[(head + size - 1) & mask] >= offset)
+                size--;
+            if (lastTracked >= offset)
+                lastTracked = offset - 1;
+        }
+
+        synchronized boolean isPending(long offset) {
+            int pos = find(offset);
+            return pos >= 0 && !acked[(head + pos) & (offsets.length - 1)];
+        }
+
+        synchronized boolean ack(long offset) {
+            int pos = find(offset);
+            if (pos < 0)
+                return false;
+            acked[(head + pos) & (offsets.length - 1)] = true;
+            // Advance past the contiguous acknowledged prefix
+            int mask = offsets.length - 1;
+            while (size > 0 && acked[head]) {
+                commitPosition = offsets[head] + 1;
+                head = (head + 1) & mask;
+                size--;
+            }
+            return true;
+        }
+
+        synchronized long takeCommitPosition() {
+            if (commitPosition <= lastCommitted)
+                return -1;
+            lastCommitted = commitPosition;
+            return commitPosition;
+        }
+
+        synchronized int pending() {
+            return size;
+        }
+
+        synchronized long commitLag() {
+            if (lastTracked < 0)
+                return 0;
+            // Before the first commit, everything since the first record tracked
+            long committed = lastCommitted >= 0 ? lastCommitted : firstTracked;
+            return Math.max(0, lastTracked + 1 - committed);
+        }
+
+        /**
+         * @return Position of the offset relative to head, or -1 if it is not pending.
+         */
+        private int find(long offset) {
+            if (size == 0)
+                return -1;
+            int mask = offsets.length - 1;
+            // Offsets are usually contiguous, so try a direct index before searching
+            long delta = offset - offsets[head];
+            if (delta >= 0 && delta < size && offsets[(head + (int) delta) & mask] == offset)
+                return (int) delta;
+            int lo = 0, hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long value = offsets[(head + mid) & mask];
+                if (value < offset) lo = mid + 1;
+                else if (value > offset) hi = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        private void grow() {
+            long[] newOffsets = new long[offsets.length * 2];
+            boolean[] newAcked = new boolean[acked.length * 2];
+            for (int i = 0; i < size; i++) {
+                int idx = (head + i) & (offsets.length - 1);
+                newOffsets[i] = offsets[idx];
+                newAcked[i] = acked[idx];
+            }
+            offsets = newOffsets;
+            acked = newAcked;
+            head = 0;
+        }
+
+        final TopicPartition topicPartition;
+        final private int maxCapacity;
+        private long[] offsets;
+        private boolean[] acked;
+        private int head = 0;
+        private int size = 0;
+        private long commitPosition = -1;
+        private long lastCommitted = -1;
+        private long firstTracked = -1;
+        private long lastTracked = -1;
+    }
+
+    final private long commitIntervalMillis;
+    final private int commitAckCount;
+    final private int maxPending;
+    final private Map<String, PartitionOffsets[]> topics = new ConcurrentHashMap<>();
+    final private AtomicInteger acksSinceCommit = new AtomicInteger();
+    private volatile long lastCommitTime = System.currentTimeMillis();
+    private volatile Runnable commitDueListener;
+
+    private final Object lock = new Object();
+}
@@ -0,0 +1,69 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A received Solace message packing several Kafka records (see RecordPacker). Passed as the
+ * source of each unpacked record, so the message is only ACK'd once Kafka has acknowledged
+ * every one of them; if any is never acknowledged, the whole envelope is redelivered.
+ */
+final class PackedEnvelope {
+
+    /**
+     * @param message received envelope message.
+     * @param members number of records packed in it.
+     */
+    public PackedEnvelope(BytesXMLMessage message, int members) {
+        this.message = message;
+        this.members = members;
+        remaining = new AtomicInteger(members);
+    }
+
+    /**
+     * Counts one record as acknowledged by Kafka. May be called from any thread.
+     * @return true for the last of the records, when the envelope is to be ACK'd; never once any has failed.
+     */
+    public boolean memberAcked() {
+        return remaining.decrementAndGet() == 0 && !failed;
+    }
+
+    /**
+     * Counts records that will never be acknowledged, e.g. those never handed to Kafka, so the
+     * envelope is settled without being ACK'd once the rest are. May be called from any thread.
+     * @param records number of records failed.
+     */
+    public void membersFailed(int records) {
+        // Written before the count, so whichever thread takes it to zero sees it
+        failed = true;
+        remaining.addAndGet(-records);
+    }
+
+    /**
+     * @return true once any record has failed, so the envelope is never to be ACK'd.
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    public BytesXMLMessage message() {
+        return message;
+    }
+
+    public int members() {
+        return members;
+    }
+
+    /**
+     * @return Number of records Kafka has yet to acknowledge.
+     */
+    public int remaining() {
+        return remaining.get();
+    }
+
+    final private BytesXMLMessage message;
+    final private int members;
+    final private AtomicInteger remaining;
+    private volatile boolean failed;
+}
@@ -0,0 +1,182 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds back the Kafka consumer while what it feeds is too full, by pausing partitions rather
+ * than blocking the polling thread. A blocked polling thread stops heartbeating (heartbeats
+ * are only sent from poll() in this client), which gets the consumer thrown out of its group;
+ * a paused partition is still assigned and polled, it just returns no records.
+ *
+ * Partitions are grouped into the lanes that publish them (see SolaceConnector.laneFor). Each
+ * lane's partitions are paused once the lane is at least highPercent full, and resumed once it
+ * has drained to lowPercent, so a slow lane doesn't hold back the others. All partitions are
+ * paused while blocked, e.g. while Solace is disconnected. Single partitions can also be held
+ * paused, independently of their lane, until released.
+ *
+ * Not thread-safe: the consumer may only be used from the polling thread, so update(), hold(),
+ * release() and revoked() must be called there. Only setBlocked() may be called from other threads.
+ */
+class PartitionBackpressure {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionBackpressure.class);
+
+    /**
+     * How full each publishing lane is.
+     */
+    interface LaneLoad {
+        int lanes();
+
+        /**
+         * @param lane lane index in [0, lanes()).
+         * @return How full the lane is, in percent.
+         */
+        int percentFull(int lane);
+    }
+
+    /**
+     * @param consumer consumer whose partitions are paused; only used on the polling thread.
+     * @param load how full each lane is.
+     * @param highPercent lane fullness at which its partitions are paused.
+     * @param lowPercent lane fullness at which its paused partitions are resumed.
+     */
+    public PartitionBackpressure(Consumer<?,?> consumer, LaneLoad load, int highPercent, int lowPercent) {
+        this.consumer = consumer;
+        this.load = load;
+        this.highPercent = highPercent;
+        this.lowPercent = Math.min(lowPercent, highPercent - 1);
+        throttled = new boolean[Math.max(1, load.lanes())];
+    }
+
+    /**
+     * Pauses or resumes partitions as lanes cross their watermarks. Called before each poll.
+     */
+    public void update() {
+        boolean blocked = this.blocked;
+        boolean anyThrottled = false;
+        for (int lane = 0; lane < throttled.length; lane++) {
+            int percent = blocked ? 100 : load.percentFull(lane);
+            if (!throttled[lane] && percent >= highPercent) {
+                throttled[lane] = true;
+                pauses++;
+                if (logger.isDebugEnabled())
+                    logger.debug("Lane {} is {}% full; pausing its Kafka partitions", lane, percent);
+            }
+            else if (throttled[lane] && percent <= lowPercent) {
+                throttled[lane] = false;
+                resumeLane(lane);
+                if (logger.isDebugEnabled())
+                    logger.debug("Lane {} is {}% full; resuming its Kafka partitions", lane, percent);
+            }
+            anyThrottled |= throttled[lane];
+        }
+        // Checked on every poll while throttled, so partitions assigned since are paused too
+        if (anyThrottled)
+            pauseThrottled();
+    }
+
+    /**
+     * Pauses one partition until release() is called, whatever its lane's fullness.
+     * @param tp partition to hold.
+     */
+    public void hold(TopicPartition tp) {
+        if (held.add(tp) && paused.add(tp)) {
+            consumer.pause(tp);
+            pausedCount = paused.size();
+        }
+    }
+
+    /**
+     * Ends a hold(); the partition is resumed unless its lane is still throttled.
+     * @param tp partition to release.
+     */
+    public void release(TopicPartition tp) {
+        if (held.remove(tp) && !throttled[laneOf(tp)] && paused.remove(tp)) {
+            consumer.resume(tp);
+            pausedCount = paused.size();
+        }
+    }
+
+    /**
+     * Forgets partitions revoked in a rebalance; they can't be resumed once gone.
+     * @param partitions revoked partitions.
+     */
+    public void revoked(Collection<TopicPartition> partitions) {
+        paused.removeAll(partitions);
+        held.removeAll(partitions);
+        pausedCount = paused.size();
+    }
+
+    /**
+     * @param blocked true to pause every partition regardless of lane fullness; takes effect at the next update().
+     */
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+    }
+
+    /**
+     * @return Number of partitions currently paused.
+     */
+    public int pausedCount() {
+        return pausedCount;
+    }
+
+    /**
+     * @return Number of times a lane's partitions have been paused.
+     */
+    public long pauses() {
+        return pauses;
+    }
+
+    private void pauseThrottled() {
+        List<TopicPartition> toPause = null;
+        for (TopicPartition tp : consumer.assignment()) {
+            if (throttled[laneOf(tp)] && !paused.contains(tp)) {
+                if (toPause == null)
+                    toPause = new ArrayList<>();
+                toPause.add(tp);
+            }
+        }
+        if (toPause != null) {
+            consumer.pause(toPause.toArray(new TopicPartition[toPause.size()]));
+            paused.addAll(toPause);
+            pausedCount = paused.size();
+        }
+    }
+
+    private void resumeLane(int lane) {
+        List<TopicPartition> toResume = new ArrayList<>();
+        for (TopicPartition tp : paused) {
+            if (laneOf(tp) == lane && !held.contains(tp))
+                toResume.add(tp);
+        }
+        if (!toResume.isEmpty()) {
+            consumer.resume(toResume.toArray(new TopicPartition[toResume.size()]));
+            paused.removeAll(toResume);
+            pausedCount = paused.size();
+        }
+    }
+
+    private int laneOf(TopicPartition tp) {
+        return throttled.length == 1 ? 0 : SolaceConnector.laneFor(tp.topic(), tp.partition(), throttled.length);
+    }
+
+    final private Consumer<?,?> consumer;
+    final private LaneLoad load;
+    final private int highPercent;
+    final private int lowPercent;
+    final private boolean[] throttled;
+    final private Set<TopicPartition> paused = new HashSet<>();
+    final private Set<TopicPartition> held = new HashSet<>();
+    private volatile boolean blocked = false;
+    private volatile int pausedCount = 0;
+    private volatile long pauses = 0;
+}
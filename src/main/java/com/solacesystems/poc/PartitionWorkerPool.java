@@ -0,0 +1,208 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans Kafka records out from the polling thread to a fixed set of worker threads.
+ *
+ * Each partition is always handled by the same worker (see SolaceConnector.laneFor), so
+ * records are processed in order within a partition while different partitions proceed in
+ * parallel. Each worker has its own bounded queue with the polling thread as its only producer.
+ *
+ * This is what pipelines the bridge: the polling thread goes straight back to fetching while
+ * workers publish, and acknowledgements flow back to it through the OffsetCommitTracker, since
+ * only the polling thread may commit. Records a worker fails on go back to it the same way,
+ * through the failure listener, to be consumed again.
+ *
+ * @param <K> Data type of Record Keys from the Kafka bus.
+ * @param <V> Data type of Record Values from the Kafka bus.
+ */
+class PartitionWorkerPool<K,V> {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionWorkerPool.class);
+
+    private static final int  DRAIN_BATCH     = 256;
+    private static final long IDLE_PARK_NANOS = 1000000L;
+    private static final int  IDLE_SPINS      = 100;
+    private static final long FULL_PARK_NANOS = 50000L;
+
+    /**
+     * Number of publish workers configured by bridge_publish_workers. By default there is one
+     * per Solace publisher session, and at least one, so polling Kafka and publishing to Solace
+     * overlap; 0 publishes inline on the polling thread.
+     * @param properties shared application properties.
+     */
+    static int configuredWorkers(Properties properties) {
+        int publisherSessions = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PUBLISHER_SESSIONS, 0);
+        return IOHelper.getIntProperty(properties, BridgeProperties.PROP_BRIDGE_PUBLISH_WORKERS, Math.max(1, publisherSessions));
+    }
+
+    /**
+     * Starts the worker threads.
+     * @param name prefix for the worker thread names.
+     * @param workers number of worker threads.
+     * @param queueSize capacity of each worker's queue of records.
+     * @param handler invoked on a worker thread for each record; a BatchConnectionListener
+     *                is also told when each drained batch is done.
+     */
+    public PartitionWorkerPool(String name, int workers, int queueSize, ConnectionListener<K,V> handler) {
+        this(name, workers, queueSize, handler, null);
+    }
+
+    /**
+     * Starts the worker threads.
+     * @param name prefix for the worker thread names.
+     * @param workers number of worker threads.
+     * @param queueSize capacity of each worker's queue of records.
+     * @param handler invoked on a worker thread for each record; a BatchConnectionListener
+     *                is also told when each drained batch is done.
+     * @param failureListener told, on the worker thread, of each record the handler fails on
+     *                        (returns false or throws), so it can be consumed again; may be null.
+     */
+    public PartitionWorkerPool(String name, int workers, int queueSize, ConnectionListener<K,V> handler,
+                               PublishFailureListener failureListener) {
+        this.workers = new Worker[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker<>(i, queueSize, handler, failureListener);
+            Thread thread = new Thread(this.workers[i], name + "-" + i);
+            thread.setDaemon(true);
+            this.workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues a record for the worker that owns its partition, waiting if that worker's queue
+     * is full. Only to be called by the single polling thread.
+     * @param record consumed Kafka record.
+     * @throws InterruptedException if interrupted while waiting for queue space.
+     */
+    public void dispatch(ConsumerRecord<K,V> record) throws InterruptedException {
+        dispatch(record, System.nanoTime());
+    }
+
+    /**
+     * Queues a record for the worker that owns its partition, waiting if that worker's queue
+     * is full. Only to be called by the single polling thread.
+     * @param record consumed Kafka record.
+     * @param receivedNanos System.nanoTime() when the record was received, passed on to a TimedConnectionListener.
+     * @throws InterruptedException if interrupted while waiting for queue space.
+     */
+    public void dispatch(ConsumerRecord<K,V> record, long receivedNanos) throws InterruptedException {
+        Worker<K,V> worker = workers[SolaceConnector.laneFor(record.topic(), record.partition(), workers.length)];
+        while (!worker.queue.append(record, receivedNanos)) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+            if (Thread.interrupted())
+                throw new InterruptedException("Interrupted waiting to hand off a Kafka record");
+        }
+        if (worker.idle.get())
+            LockSupport.unpark(worker.thread);
+    }
+
+    /**
+     * @return Number of records queued across all workers but not yet handled.
+     */
+    public int queued() {
+        int queued = 0;
+        for (Worker<K,V> worker : workers)
+            queued += worker.queue.used();
+        return queued;
+    }
+
+    /**
+     * @param worker worker index; the same as the lane its partitions map to.
+     * @return How full the worker's queue is, in percent.
+     */
+    public int percentFull(int worker) {
+        SpscRingBuffer<ConsumerRecord<K,V>> queue = workers[worker].queue;
+        return (int) (100L * queue.used() / queue.capacity());
+    }
+
+    public int size() {
+        return workers.length;
+    }
+
+    private static class Worker<K,V> implements Runnable {
+        Worker(int index, int queueSize, ConnectionListener<K,V> handler, PublishFailureListener failureListener) {
+            this.index = index;
+            queue = new SpscRingBuffer<>((Class<ConsumerRecord<K,V>>) (Class) ConsumerRecord.class, queueSize, true);
+            this.handler = handler;
+            this.timedHandler = handler instanceof TimedConnectionListener ? (TimedConnectionListener<K,V>) handler : null;
+            this.batchHandler = handler instanceof BatchConnectionListener ? (BatchConnectionListener<K,V>) handler : null;
+            this.failureListener = failureListener;
+        }
+
+        @Override
+        public void run() {
+            List<ConsumerRecord<K,V>> batch = new ArrayList<>(DRAIN_BATCH);
+            long[] receivedNanos = new long[DRAIN_BATCH];
+            while (!Thread.currentThread().isInterrupted()) {
+                if (queue.drainTo(batch, DRAIN_BATCH, receivedNanos) == 0) {
+                    // Announce we're going idle with a full fence, then re-check before parking. The
+                    // polling thread only orders its append before reading the flag, so a record it
+                    // queued as we announced may take a moment to show; spin briefly to catch it
+                    // rather than park through it
+                    idle.set(true);
+                    int spins = IDLE_SPINS;
+                    while (queue.used() == 0 && --spins > 0)
+                        ;
+                    if (spins == 0)
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    idle.lazySet(false);
+                    // Lets the handler send anything it held back for more records, e.g. lingering envelopes
+                    endBatch();
+                    continue;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    ConsumerRecord<K,V> record = batch.get(i);
+                    boolean handled = false;
+                    try {
+                        if (timedHandler != null)
+                            handled = timedHandler.onMessage(record, record.partition(), record.topic(), record.key(), record.value(), receivedNanos[i]);
+                        else
+                            handled = handler.onMessage(record, record.partition(), record.topic(), record.key(), record.value());
+                    }
+                    catch(Exception ex) {
+                        logger.error("Exception when handling Kafka msg (probably failed publishing to Solace)", ex);
+                    }
+                    if (!handled && failureListener != null)
+                        failureListener.onPublishFailed(record.topic(), record.partition(), record.offset());
+                }
+                batch.clear();
+                endBatch();
+            }
+        }
+
+        private void endBatch() {
+            if (batchHandler == null)
+                return;
+            try {
+                batchHandler.onBatchEnd(index);
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            catch(Exception ex) {
+                logger.error("Exception when ending a batch of Kafka msgs (probably failed publishing to Solace)", ex);
+            }
+        }
+
+        final SpscRingBuffer<ConsumerRecord<K,V>> queue;
+        final ConnectionListener<K,V> handler;
+        final TimedConnectionListener<K,V> timedHandler;
+        final BatchConnectionListener<K,V> batchHandler;
+        final PublishFailureListener failureListener;
+        final int index;
+        final AtomicBoolean idle = new AtomicBoolean();
+        Thread thread;
+    }
+
+    final private Worker<K,V>[] workers;
+}
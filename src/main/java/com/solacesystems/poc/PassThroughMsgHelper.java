@@ -0,0 +1,127 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Raw byte[] message handling for the usual bridge deployment, where both sides use
+ * byte array (de)serializers and the bytes are simply carried across. Avoids the generic
+ * Serializer/Deserializer calls and any copying beyond what the client APIs require.
+ */
+final class PassThroughMsgHelper {
+
+    // Marks a message whose key is carried in the user data field instead of a header
+    static final String KEY_IN_USER_DATA = "solkaf_bridge_key_ud";
+    // Largest user data JCSMP accepts
+    static final int MAX_USER_DATA_KEY = 36;
+
+    private PassThroughMsgHelper() {}
+
+    /**
+     * Writes the key bytes to a header in the outbound message properties.
+     * @param msg message to be populated with the key.
+     * @param key raw key bytes; may be null.
+     */
+    static void putKey(BytesXMLMessage msg, byte[] key) {
+        putKey(msg, key, false);
+    }
+
+    /**
+     * Writes the key bytes to the outbound message, in a header in the message properties,
+     * re-using the message's existing property map if it has one. With keyInUserData, keys
+     * that fit are carried by reference in the user data field instead, which allocates
+     * nothing; but only while the message's application message type and user data are not
+     * set to anything else, so fields set by an application are never overwritten.
+     * @param msg message to be populated with the key.
+     * @param key raw key bytes; may be null.
+     * @param keyInUserData true to carry short keys in the user data field (sol_key_in_user_data).
+     */
+    static void putKey(BytesXMLMessage msg, byte[] key, boolean keyInUserData) {
+        SDTMap map = msg.getProperties();
+        // A re-used message may still carry a key from its last send
+        if (KEY_IN_USER_DATA.equals(msg.getApplicationMessageType())) {
+            msg.setUserData(null);
+            msg.setApplicationMessageType(null);
+        }
+        if (key == null
+                || (keyInUserData
+                    && key.length <= MAX_USER_DATA_KEY
+                    && msg.getApplicationMessageType() == null
+                    && msg.getUserData() == null)) {
+            if (key != null) {
+                msg.setUserData(key);
+                msg.setApplicationMessageType(KEY_IN_USER_DATA);
+            }
+            if (map != null)
+                map.remove(MsgHelper.HDR_KAFKA_KEY);
+            return;
+        }
+        if (map == null) {
+            map = JCSMPFactory.onlyInstance().createMap();
+            msg.setProperties(map);
+        }
+        try {
+            map.putBytes(MsgHelper.HDR_KAFKA_KEY, key);
+        }
+        catch(SDTException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * @param msg message on which to retrieve the key.
+     * @return the raw key bytes from the message, or null if there is no key.
+     */
+    static byte[] getKey(BytesXMLMessage msg) {
+        SDTMap props = msg.getProperties();
+        if (props == null)
+            return KEY_IN_USER_DATA.equals(msg.getApplicationMessageType()) ? msg.getUserData() : null;
+        try {
+            // Returns the map's own array, and null when the header is absent
+            byte[] key = props.getBytes(MsgHelper.HDR_KAFKA_KEY);
+            if (key == null && KEY_IN_USER_DATA.equals(msg.getApplicationMessageType()))
+                key = msg.getUserData();
+            return key;
+        }
+        catch(SDTException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Copies the payload bytes into the outbound message attachment.
+     * @param msg message to be populated with the payload.
+     * @param payload raw payload bytes.
+     */
+    static void putValue(BytesXMLMessage msg, byte[] payload) {
+        msg.writeAttachment(payload);
+    }
+
+    /**
+     * Returns the attachment bytes, without copying when the message's attachment buffer is
+     * backed by an array holding exactly the payload; otherwise makes one exact-size copy.
+     * Kafka serializes the whole array synchronously inside send(), so sharing the message's
+     * array is safe and an exact-size array is the least the producer API allows.
+     * @param msg message from which to retrieve the payload.
+     * @return the raw payload bytes.
+     */
+    static byte[] getValue(BytesXMLMessage msg) {
+        ByteBuffer attachment = msg.getAttachmentByteBuffer();
+        if (attachment == null)
+            return new byte[0];
+        if (attachment.hasArray()
+                && attachment.arrayOffset() == 0
+                && attachment.position() == 0
+                && attachment.remaining() == attachment.array().length) {
+            return attachment.array();
+        }
+        byte[] bytes = new byte[attachment.remaining()];
+        attachment.get(bytes);
+        return bytes;
+    }
+}
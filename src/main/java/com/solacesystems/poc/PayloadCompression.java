@@ -0,0 +1,307 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.SDTException;
+import com.solacesystems.jcsmp.SDTMap;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of the payloads bridged to Solace, chosen per Solace topic.
+ *
+ * Codecs are selected with Solace wildcard rules mapping the translated topic to a codec
+ * name (see TopicWildcardTranslator), e.g. {@code orders/>:lz4,audit/*:deflate}; topics no
+ * rule matches are sent as they are, and so are payloads smaller than a minimum size or that
+ * don't get any smaller. A compressed message carries its codec in the HDR_PAYLOAD_CODEC
+ * header, next to MsgHelper's key header, and its attachment holds the uncompressed length
+ * (4 bytes, big-endian) then the compressed data.
+ *
+ * Messages carrying the header are decompressed on the way back to Kafka whether or not this
+ * bridge compresses anything itself. LZ4 and Snappy are the implementations the Kafka client
+ * already ships for its own compression; Deflate is the JDK's.
+ *
+ * Each instance keeps its (de)compressors and a scratch buffer for re-use, so it must only be
+ * used by one thread, like the MsgHelper that owns it.
+ */
+final class PayloadCompression {
+    static final byte NONE    = 0;
+    static final byte DEFLATE = 1;
+    static final byte LZ4     = 2;
+    static final byte SNAPPY  = 3;
+
+    static final int DEFAULT_MIN_BYTES = 512;
+    static final int DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+    private static final int LENGTH_PREFIX = 4;
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * Reads the compression rules (bridge_kafka_sol_compression), threshold
+     * (bridge_compression_min_bytes) and largest payload decompressed
+     * (bridge_compression_max_bytes) from the properties.
+     * @param props shared application properties; the rules may be given parsed, as by IOHelper, or as text.
+     */
+    static PayloadCompression fromProperties(Properties props) {
+        Object rules = props.get(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION);
+        if (rules instanceof String) {
+            Properties parsed = new Properties();
+            parsed.setProperty(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION, (String) rules);
+            IOHelper.parseTopicTranslations(parsed, BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION);
+            rules = parsed.get(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION);
+        }
+        List<String[]> mappings = rules == null ? Collections.<String[]>emptyList() : (List<String[]>) rules;
+        return new PayloadCompression(mappings,
+                IOHelper.getIntProperty(props, BridgeProperties.PROP_COMPRESSION_MIN_BYTES, DEFAULT_MIN_BYTES),
+                IOHelper.getIntProperty(props, BridgeProperties.PROP_COMPRESSION_MAX_BYTES, DEFAULT_MAX_BYTES));
+    }
+
+    /**
+     * @param mappings pairs of Solace topic wildcard pattern and codec name (deflate, lz4, snappy or none).
+     * @param minBytes payloads smaller than this are never compressed.
+     */
+    public PayloadCompression(List<String[]> mappings, int minBytes) {
+        this(mappings, minBytes, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param mappings pairs of Solace topic wildcard pattern and codec name (deflate, lz4, snappy or none).
+     * @param minBytes payloads smaller than this are never compressed.
+     * @param maxBytes received payloads claiming to be larger than this once decompressed are rejected.
+     */
+    public PayloadCompression(List<String[]> mappings, int minBytes, int maxBytes) {
+        for (String[] pair : mappings) {
+            if (codecId(pair[1].trim()) < 0)
+                throw new IllegalArgumentException("Unknown compression codec '" + pair[1].trim() + "' for " + pair[0].trim());
+        }
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        rules = mappings.isEmpty() ? null : new TopicWildcardTranslator(mappings, 0);
+        codecs = mappings.isEmpty() ? null : new ClockCache<String, Byte>(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param name codec name, case-insensitive.
+     * @return The codec's id, or -1 if there is no such codec.
+     */
+    static byte codecId(String name) {
+        if (name.equalsIgnoreCase("none"))    return NONE;
+        if (name.equalsIgnoreCase("deflate")) return DEFLATE;
+        if (name.equalsIgnoreCase("lz4"))     return LZ4;
+        if (name.equalsIgnoreCase("snappy"))  return SNAPPY;
+        return -1;
+    }
+
+    /**
+     * @param topic Solace topic the message is published on.
+     * @return The codec configured for the topic; NONE if it has none.
+     */
+    public byte codecFor(String topic) {
+        if (rules == null)
+            return NONE;
+        Byte codec = codecs.get(topic);
+        if (codec == null) {
+            String name = rules.translate(topic);
+            // An unmatched topic comes back as itself rather than as a codec name
+            codec = name == topic ? NONE : codecId(name.trim());
+            codecs.put(topic, codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Attaches the payload to an outbound message, compressed if its topic has a codec and
+     * that makes it smaller, and sets or clears the header to match.
+     * @param msg message to be populated with the payload.
+     * @param topic Solace topic the message is published on.
+     * @param payload serialized payload.
+     */
+    public void putValue(BytesXMLMessage msg, String topic, byte[] payload) {
+        putValue(msg, topic, payload, payload == null ? 0 : payload.length);
+    }
+
+    /**
+     * As putValue(msg, topic, payload), for a payload taking up only the start of its array.
+     * @param payloadLength length of the payload, from the start of the array.
+     */
+    public void putValue(BytesXMLMessage msg, String topic, byte[] payload, int payloadLength) {
+        byte codec = payload == null || payloadLength < minBytes ? NONE : codecFor(topic);
+        int length = codec == NONE ? 0 : compress(codec, payload, payloadLength);
+        if (length == 0 || length >= payloadLength) {
+            // A re-used message may still be flagged from its last send
+            SDTMap map = msg.getProperties();
+            if (map != null && codecs != null)
+                map.remove(MsgHelper.HDR_PAYLOAD_CODEC);
+            if (payload == null || payloadLength == payload.length)
+                PassThroughMsgHelper.putValue(msg, payload);
+            else
+                msg.writeAttachment(payload, 0, payloadLength);
+            return;
+        }
+        SDTMap map = msg.getProperties();
+        if (map == null) {
+            map = JCSMPFactory.onlyInstance().createMap();
+            msg.setProperties(map);
+        }
+        try {
+            map.putByte(MsgHelper.HDR_PAYLOAD_CODEC, codec);
+        }
+        catch(SDTException ex) {
+            throw new IllegalStateException("Can't flag compressed payload", ex);
+        }
+        msg.writeAttachment(scratch, 0, length);
+        compressed++;
+        bytesSaved += payloadLength - length;
+    }
+
+    /**
+     * @param msg received message.
+     * @return The codec its payload was compressed with; NONE if it wasn't.
+     */
+    static byte codecOf(BytesXMLMessage msg) {
+        SDTMap map = msg.getProperties();
+        if (map == null || !map.containsKey(MsgHelper.HDR_PAYLOAD_CODEC))
+            return NONE;
+        try {
+            Byte codec = map.getByte(MsgHelper.HDR_PAYLOAD_CODEC);
+            return codec == null ? NONE : codec;
+        }
+        catch(SDTException ex) {
+            return NONE;
+        }
+    }
+
+    /**
+     * @param codec codec the data was compressed with.
+     * @param data length-prefixed compressed data, as attached by putValue.
+     * @return The payload, in an array of exactly its size.
+     * @throws IllegalArgumentException if the data is corrupt, or its length prefix is out of
+     *         range or disagrees with the data; nothing is allocated for a bad prefix.
+     */
+    public byte[] decompress(byte codec, byte[] data) {
+        if (data.length < LENGTH_PREFIX)
+            throw new IllegalArgumentException("Compressed payload is only " + data.length + " bytes");
+        int length = ((data[0] & 0xff) << 24) | ((data[1] & 0xff) << 16) | ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+        if (length < 0 || length > maxBytes)
+            throw new IllegalArgumentException("Compressed payload claims " + (length & 0xffffffffL)
+                    + " bytes, more than the " + maxBytes + " allowed");
+        int inLength = data.length - LENGTH_PREFIX;
+        try {
+            // Snappy writes without bounds checks, so its own header must agree before anything is allocated
+            if (codec == SNAPPY && Snappy.uncompressedLength(data, LENGTH_PREFIX, inLength) != length)
+                throw new IllegalArgumentException("Compressed payload's length prefix disagrees with its data");
+            byte[] payload = new byte[length];
+            int produced;
+            switch (codec) {
+                case DEFLATE:
+                    if (inflater == null)
+                        inflater = new Inflater(true);
+                    inflater.reset();
+                    inflater.setInput(data, LENGTH_PREFIX, inLength);
+                    produced = inflater.inflate(payload);
+                    break;
+                case LZ4:
+                    if (lz4Decompressor == null)
+                        lz4Decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+                    produced = lz4Decompressor.decompress(data, LENGTH_PREFIX, inLength, payload, 0, length);
+                    break;
+                case SNAPPY:
+                    produced = Snappy.uncompress(data, LENGTH_PREFIX, inLength, payload, 0);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown compression codec " + codec);
+            }
+            if (produced != length || (codec == DEFLATE && !inflater.finished()))
+                throw new IllegalArgumentException("Compressed payload's length prefix disagrees with its data");
+            return payload;
+        }
+        catch(DataFormatException | IOException | LZ4Exception ex) {
+            throw new IllegalArgumentException("Corrupt compressed payload", ex);
+        }
+    }
+
+    /**
+     * Compresses into the scratch buffer, behind the length prefix.
+     * @return Length of the prefix and compressed data; 0 if the codec gave up.
+     */
+    private int compress(byte codec, byte[] payload, int length) {
+        // Room for the worst case of any codec, so none of them needs to grow it mid-way
+        int room = LENGTH_PREFIX + length + length / 6 + 64;
+        if (scratch == null || scratch.length < room)
+            scratch = new byte[Math.max(room, scratch == null ? 0 : 2 * scratch.length)];
+        scratch[0] = (byte) (length >>> 24);
+        scratch[1] = (byte) (length >>> 16);
+        scratch[2] = (byte) (length >>> 8);
+        scratch[3] = (byte) length;
+        int out;
+        switch (codec) {
+            case DEFLATE:
+                if (deflater == null)
+                    deflater = new Deflater(Deflater.BEST_SPEED, true);
+                deflater.reset();
+                deflater.setInput(payload, 0, length);
+                deflater.finish();
+                out = deflater.deflate(scratch, LENGTH_PREFIX, scratch.length - LENGTH_PREFIX);
+                if (!deflater.finished())
+                    return 0;
+                break;
+            case LZ4:
+                if (lz4Compressor == null)
+                    lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+                out = lz4Compressor.compress(payload, 0, length, scratch, LENGTH_PREFIX, scratch.length - LENGTH_PREFIX);
+                break;
+            case SNAPPY:
+                if (Snappy.maxCompressedLength(length) > scratch.length - LENGTH_PREFIX)
+                    scratch = new byte[LENGTH_PREFIX + Snappy.maxCompressedLength(length)];
+                try {
+                    out = Snappy.compress(payload, 0, length, scratch, LENGTH_PREFIX);
+                }
+                catch(IOException ex) {
+                    return 0;
+                }
+                break;
+            default:
+                return 0;
+        }
+        return LENGTH_PREFIX + out;
+    }
+
+    /**
+     * @return Number of payloads sent compressed.
+     */
+    public long compressed() {
+        return compressed;
+    }
+
+    /**
+     * @return Bytes saved by compression, in total.
+     */
+    public long bytesSaved() {
+        return bytesSaved;
+    }
+
+    final private int minBytes;
+    final private int maxBytes;
+    final private TopicWildcardTranslator rules;
+    // Codec per Solace topic, so rules are only matched once per topic
+    final private ClockCache<String, Byte> codecs;
+    // Compressed payloads are built here, then copied into the message
+    private byte[] scratch;
+    private Deflater deflater;
+    private Inflater inflater;
+    private LZ4Compressor lz4Compressor;
+    private LZ4SafeDecompressor lz4Decompressor;
+    // Written only by the owning thread; read by the metrics thread
+    private volatile long compressed;
+    private volatile long bytesSaved;
+}
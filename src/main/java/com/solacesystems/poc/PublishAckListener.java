@@ -0,0 +1,15 @@
+package com.solacesystems.poc;
+
+/**
+ * Notified when a record bridged from Kafka has been acknowledged by the other side.
+ */
+public interface PublishAckListener {
+
+    /**
+     * Called once the bridged copy of a Kafka record is safely persisted downstream.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    void onPublishAck(String topic, int partition, long offset);
+}
@@ -0,0 +1,16 @@
+package com.solacesystems.poc;
+
+/**
+ * Notified when a record bridged from Kafka has been rejected by the other side, or failed to
+ * be sent to it, and will never be acknowledged.
+ */
+public interface PublishFailureListener {
+
+    /**
+     * Called once the bridged copy of a Kafka record has been rejected downstream, or failed to be sent.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param offset Kafka offset of the record.
+     */
+    void onPublishFailed(String topic, int partition, long offset);
+}
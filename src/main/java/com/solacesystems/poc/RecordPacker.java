@@ -0,0 +1,327 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.Topic;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs Kafka records bound for the same Solace topic into envelopes, so many small records
+ * cost the broker one persistent message instead of one each. Each publishing lane owns one
+ * packer, used only by the lane's thread.
+ *
+ * An envelope is closed once it holds enough records or bytes, or once its first record has
+ * waited long enough; the lane then publishes it as a single message. Envelopes and their
+ * buffers are re-used, so packing allocates nothing once they have grown to size.
+ *
+ * Envelope format, big-endian: a version byte and the number of records (int), then for each
+ * record its partition (int), offset (long), key length (int, -1 for none), key bytes, value
+ * length (int, -1 for none) and value bytes. An envelope message has its application message
+ * type set to PACKED_MSG_TYPE; unlike a header, that costs no allocation per message.
+ */
+final class RecordPacker {
+    // Marks a message whose attachment is an envelope of records
+    static final String PACKED_MSG_TYPE = "solkaf_bridge_packed";
+    static final byte VERSION = 1;
+    private static final int HEADER = 1 + 4;
+    // Partition, offset, and the key and value lengths
+    private static final int RECORD_OVERHEAD = 4 + 8 + 4 + 4;
+
+    /**
+     * An envelope being filled for one Solace topic.
+     */
+    static final class Envelope {
+        Envelope(int maxRecords) {
+            sourceTopics = new String[maxRecords];
+            partitions = new int[maxRecords];
+            offsets = new long[maxRecords];
+        }
+
+        void append(String sourceTopic, int partition, long offset, byte[] key, byte[] value) {
+            int keyLength = key == null ? 0 : key.length;
+            int valueLength = value == null ? 0 : value.length;
+            ensureRoom(RECORD_OVERHEAD + keyLength + valueLength);
+            putInt(partition);
+            putLong(offset);
+            putBytes(key);
+            putBytes(value);
+            sourceTopics[count] = sourceTopic;
+            partitions[count] = partition;
+            offsets[count] = offset;
+            count++;
+            // Kept current in the header, so the buffer is always a complete envelope
+            buffer[1] = (byte) (count >>> 24);
+            buffer[2] = (byte) (count >>> 16);
+            buffer[3] = (byte) (count >>> 8);
+            buffer[4] = (byte) count;
+        }
+
+        private void ensureRoom(int bytes) {
+            if (length + bytes > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(length + bytes, 2 * buffer.length));
+        }
+
+        private void putInt(int v) {
+            buffer[length++] = (byte) (v >>> 24);
+            buffer[length++] = (byte) (v >>> 16);
+            buffer[length++] = (byte) (v >>> 8);
+            buffer[length++] = (byte) v;
+        }
+
+        private void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        private void putBytes(byte[] bytes) {
+            if (bytes == null) {
+                putInt(-1);
+                return;
+            }
+            putInt(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        /**
+         * @return Solace topic the envelope is published on.
+         */
+        Topic topic() {
+            return topic;
+        }
+
+        /**
+         * @return The framed records, valid up to length().
+         */
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int length() {
+            return length;
+        }
+
+        /**
+         * @return Number of records in the envelope.
+         */
+        int count() {
+            return count;
+        }
+
+        String sourceTopic(int i) {
+            return sourceTopics[i];
+        }
+
+        int partition(int i) {
+            return partitions[i];
+        }
+
+        long offset(int i) {
+            return offsets[i];
+        }
+
+        /**
+         * @return System.nanoTime() when the first record was received from Kafka.
+         */
+        long receivedNanos() {
+            return receivedNanos;
+        }
+
+        private Topic topic;
+        private byte[] buffer = new byte[256];
+        private int length;
+        private int count;
+        private long receivedNanos;
+        final private String[] sourceTopics;
+        final private int[] partitions;
+        final private long[] offsets;
+    }
+
+    /**
+     * @param maxRecords most records in one envelope.
+     * @param maxBytes an envelope is closed once its framed records reach this size.
+     * @param lingerMillis most time an envelope waits for more records after its first; 0 closes
+     *                     them all whenever the lane flushes.
+     * @param maxOpen most envelopes open at once, one per Solace topic; the oldest is closed to
+     *                make room for another.
+     */
+    public RecordPacker(int maxRecords, int maxBytes, long lingerMillis, int maxOpen) {
+        this.maxRecords = Math.max(1, maxRecords);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.lingerNanos = lingerMillis * 1000000L;
+        open = new Envelope[Math.max(1, maxOpen)];
+        free = new Envelope[open.length];
+    }
+
+    /**
+     * @param topic Solace topic.
+     * @return The envelope open for the topic, or null if there is none.
+     */
+    public Envelope find(Topic topic) {
+        for (int i = 0; i < openCount; i++) {
+            // Routes are cached, so the same topic is almost always the same instance
+            if (open[i].topic == topic)
+                return open[i];
+        }
+        for (int i = 0; i < openCount; i++) {
+            if (open[i].topic.equals(topic))
+                return open[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return true if a record of this key and value would take the envelope past its size limit.
+     */
+    public boolean wouldOverflow(Envelope envelope, byte[] key, byte[] value) {
+        int size = RECORD_OVERHEAD + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+        return envelope.count > 0 && envelope.length + size > maxBytes;
+    }
+
+    /**
+     * @return true once the envelope should be closed for holding as many records or bytes as allowed.
+     */
+    public boolean isComplete(Envelope envelope) {
+        return envelope.count >= maxRecords || envelope.length >= maxBytes;
+    }
+
+    /**
+     * @return true if no more envelopes can be opened until one is closed.
+     */
+    public boolean isFull() {
+        return openCount == open.length;
+    }
+
+    /**
+     * Opens an envelope for a topic that has none open. Only to be called when not isFull().
+     * @param topic Solace topic.
+     * @param receivedNanos System.nanoTime() when the envelope's first record was received.
+     */
+    public Envelope open(Topic topic, long receivedNanos) {
+        Envelope envelope = freeCount > 0 ? free[--freeCount] : new Envelope(maxRecords);
+        free[freeCount] = null;
+        envelope.topic = topic;
+        envelope.receivedNanos = receivedNanos;
+        Arrays.fill(envelope.buffer, 0, HEADER, (byte) 0);
+        envelope.buffer[0] = VERSION;
+        envelope.length = HEADER;
+        envelope.count = 0;
+        open[openCount++] = envelope;
+        return envelope;
+    }
+
+    /**
+     * @return The envelope that has been open longest, or null if none is open.
+     */
+    public Envelope oldest() {
+        return openCount == 0 ? null : open[0];
+    }
+
+    /**
+     * @param nowNanos System.nanoTime().
+     * @return An open envelope whose linger time is up, or null if none is.
+     */
+    public Envelope nextDue(long nowNanos) {
+        // Opened in order, so only the oldest can be the first due
+        if (openCount == 0 || nowNanos - open[0].receivedNanos < lingerNanos)
+            return null;
+        return open[0];
+    }
+
+    /**
+     * Closes an envelope once it has been published, for re-use.
+     * @param envelope an open envelope.
+     */
+    public void close(Envelope envelope) {
+        for (int i = 0; i < openCount; i++) {
+            if (open[i] == envelope) {
+                System.arraycopy(open, i + 1, open, i, openCount - i - 1);
+                open[--openCount] = null;
+                break;
+            }
+        }
+        envelope.topic = null;
+        Arrays.fill(envelope.sourceTopics, 0, envelope.count, null);
+        envelope.count = 0;
+        if (freeCount < free.length)
+            free[freeCount++] = envelope;
+    }
+
+    /**
+     * @return Number of envelopes open.
+     */
+    public int openCount() {
+        return openCount;
+    }
+
+    /**
+     * @param msg received message.
+     * @return true if the message is an envelope of packed records.
+     */
+    static boolean isPacked(BytesXMLMessage msg) {
+        return PACKED_MSG_TYPE.equals(msg.getApplicationMessageType());
+    }
+
+    /**
+     * @param data envelope as published, after any decompression.
+     * @return Number of records in the envelope.
+     * @throws IllegalArgumentException if the envelope is malformed.
+     */
+    static int packedCount(byte[] data) {
+        if (data.length < HEADER)
+            throw new IllegalArgumentException("Envelope is only " + data.length + " bytes");
+        if (data[0] != VERSION)
+            throw new IllegalArgumentException("Unknown envelope version " + data[0]);
+        int count = ((data[1] & 0xff) << 24) | ((data[2] & 0xff) << 16) | ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+        // Every record takes at least its fixed fields
+        if (count < 0 || count > (data.length - HEADER) / RECORD_OVERHEAD)
+            throw new IllegalArgumentException("Envelope of " + data.length + " bytes can't hold " + count + " records");
+        return count;
+    }
+
+    /**
+     * Reads the records of an envelope into the given arrays, each at least packedCount(data) long.
+     * @param data envelope as published, after any decompression.
+     * @throws IllegalArgumentException if the envelope is malformed.
+     */
+    static void unpack(byte[] data, int[] partitions, long[] offsets, byte[][] keys, byte[][] values) {
+        int count = packedCount(data);
+        ByteBuffer in = ByteBuffer.wrap(data, HEADER, data.length - HEADER);
+        try {
+            for (int i = 0; i < count; i++) {
+                partitions[i] = in.getInt();
+                offsets[i] = in.getLong();
+                keys[i] = getBytes(in);
+                values[i] = getBytes(in);
+            }
+        }
+        catch(BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Envelope of " + data.length + " bytes is too short for " + count + " records");
+        }
+        if (in.hasRemaining())
+            throw new IllegalArgumentException("Envelope has " + in.remaining() + " bytes beyond its " + count + " records");
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        if (length > in.remaining())
+            throw new BufferUnderflowException();
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    final private int maxRecords;
+    final private int maxBytes;
+    final private long lingerNanos;
+    // Open envelopes, oldest first
+    final private Envelope[] open;
+    private int openCount;
+    // Closed envelopes kept for re-use
+    final private Envelope[] free;
+    private int freeCount;
+}
@@ -0,0 +1,60 @@
+package com.solacesystems.poc;
+
+/**
+ * Bounded free list for objects that are taken on one thread and handed back on another,
+ * such as callbacks created by a sending thread and completed on a client I/O thread.
+ *
+ * Unlike SolaceSentMessagePool it never waits: poll() returns null when nothing is free
+ * and the caller allocates, and objects recycled into a full pool are left to the garbage
+ * collector. Once the pool has grown to the steady-state number outstanding, it allocates nothing.
+ *
+ * @param <T> type of pooled object
+ */
+class RecyclingPool<T> {
+
+    /**
+     * @param clazz type of pooled object.
+     * @param capacity most free objects held for re-use.
+     */
+    public RecyclingPool(Class<T> clazz, int capacity) {
+        free = new SpscRingBuffer<>(clazz, capacity);
+    }
+
+    /**
+     * Takes a free object. Only to be called by the single taking thread.
+     * @return a recycled object, or null if none is free.
+     */
+    public T poll() {
+        if (free.used() == 0) {
+            allocated++;
+            return null;
+        }
+        return free.remove();
+    }
+
+    /**
+     * Hands an object back for re-use. Usually called on the completing thread, but
+     * serialized so that a completion run inline by the taking thread is also safe.
+     * @param item object no longer in use.
+     */
+    public synchronized void recycle(T item) {
+        free.append(item);
+    }
+
+    /**
+     * @return Number of objects currently free.
+     */
+    public int available() {
+        return free.used();
+    }
+
+    /**
+     * @return Number of times poll() found the pool empty, so the caller had to allocate.
+     */
+    public long allocatedCount() {
+        return allocated;
+    }
+
+    private final SpscRingBuffer<T> free;
+    private volatile long allocated;
+}
@@ -0,0 +1,160 @@
+package com.solacesystems.poc;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the Solace messages recently ACK'd after Kafka acknowledged their records, so
+ * those the broker delivers again can be ACK'd without being sent to Kafka a second time.
+ *
+ * The broker redelivers whatever it hasn't heard an ACK for when a flow is rebound, including
+ * messages whose ACK was still in the client's window when the flow went down. Only messages
+ * flagged as redelivered need checking, so the first delivery of a message never looks here.
+ *
+ * Messages are keyed on their guaranteed message id, which stays the same across
+ * redeliveries from the queue. The ids are held in two generations of open-addressing tables
+ * of longs; once the current one is three quarters full, or a time window has passed since it
+ * started, it becomes the previous one and the oldest is cleared for re-use. So between one
+ * and two generations of ids are remembered, at 8 bytes per table slot. Unlike a Bloom
+ * filter, a lookup never mistakes a message for one already delivered, so a message that
+ * hasn't been bridged is never dropped; a duplicate that has aged out is just sent again.
+ *
+ * Ids are recorded on the thread ACKing messages and checked on the flow's dispatcher thread,
+ * so every method synchronizes on the filter; it is only contended by redelivered messages.
+ */
+final class RedeliveryFilter {
+    static final int DEFAULT_MAX_IDS = 100000;
+    static final int DEFAULT_WINDOW_SEC = 300;
+
+    /**
+     * @param maxIds least ids each generation holds before the next is started; its table is the
+     *               next power of two of at least 4/3 of this.
+     * @param windowMillis longest time ids are added to one generation before the next is started.
+     */
+    public RedeliveryFilter(int maxIds, long windowMillis) {
+        int slots = Integer.highestOneBit(Math.max(4, (int) Math.min(1 << 30, 4L * maxIds / 3)) - 1) << 1;
+        mask = slots - 1;
+        this.maxIds = slots / 4 * 3;
+        this.windowNanos = windowMillis * 1000000L;
+        current = new long[slots];
+        previous = new long[slots];
+    }
+
+    /**
+     * Remembers a message as delivered, once it has been ACK'd.
+     * @param messageId the message's guaranteed message id; 0 (none) is ignored.
+     * @param nowNanos System.nanoTime().
+     */
+    public synchronized void delivered(long messageId, long nowNanos) {
+        if (messageId == 0)
+            return;
+        age(nowNanos);
+        if (contains(previous, messageId))
+            return;
+        // The window runs from the first id remembered
+        if (currentCount + previousCount == 0)
+            currentStartNanos = nowNanos;
+        int slot = slot(current, messageId);
+        if (current[slot] == 0) {
+            current[slot] = messageId;
+            if (++currentCount >= maxIds)
+                rotate(nowNanos);
+        }
+    }
+
+    /**
+     * @param messageId the guaranteed message id of a redelivered message.
+     * @param nowNanos System.nanoTime().
+     * @return true if the message is known to have been bridged and ACK'd already.
+     */
+    public synchronized boolean isDuplicate(long messageId, long nowNanos) {
+        if (messageId == 0)
+            return false;
+        age(nowNanos);
+        if (contains(current, messageId) || contains(previous, messageId)) {
+            duplicates++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts a new generation once the current one has been filling for longer than the window;
+     * ids two windows old are forgotten altogether.
+     */
+    private void age(long nowNanos) {
+        if (currentCount + previousCount == 0)
+            return;
+        long age = nowNanos - currentStartNanos;
+        if (age >= windowNanos) {
+            rotate(nowNanos);
+            if (age >= 2 * windowNanos)
+                rotate(nowNanos);
+        }
+    }
+
+    private void rotate(long nowNanos) {
+        long[] oldest = previous;
+        Arrays.fill(oldest, 0L);
+        previous = current;
+        previousCount = currentCount;
+        current = oldest;
+        currentCount = 0;
+        currentStartNanos = nowNanos;
+        rotations++;
+    }
+
+    private boolean contains(long[] table, long messageId) {
+        return table[slot(table, messageId)] == messageId;
+    }
+
+    /**
+     * @return The slot holding the id, or the empty slot it would go in.
+     */
+    private int slot(long[] table, long messageId) {
+        int i = mix(messageId) & mask;
+        // Tables are never more than three quarters full, so there is always an empty slot
+        while (table[i] != 0 && table[i] != messageId)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int mix(long id) {
+        // Message ids are sequential; spread them across the table
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        return (int) id;
+    }
+
+    /**
+     * @return Number of ids remembered.
+     */
+    public synchronized int tracked() {
+        return currentCount + previousCount;
+    }
+
+    /**
+     * @return Number of redelivered messages found to be duplicates.
+     */
+    public synchronized long duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return Number of generations started.
+     */
+    public synchronized long rotations() {
+        return rotations;
+    }
+
+    final private int mask;
+    final private int maxIds;
+    final private long windowNanos;
+    private long[] current;
+    private long[] previous;
+    private int currentCount;
+    private int previousCount;
+    private long currentStartNanos;
+    private long duplicates;
+    private long rotations;
+}
@@ -82,7 +82,8 @@ class RingBuffer<T> {
 
     final private T[]  buffer;
     final private int  capacity;
-    private int used   = 0;
+    // Volatile so the unlocked full/empty checks see the latest count
+    private volatile int used = 0;
     private int addpos = 0;
     private int rempos = 0;
 
@@ -0,0 +1,301 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.apache.kafka.common.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Settles Solace messages once Kafka has answered for their bridged records, on a thread
+ * of its own: ACKs them back to their queue, or sends rejected records to Kafka again.
+ *
+ * Kafka runs every producer callback on its single I/O thread, so ACKing from the callback
+ * would hold up every other record's completion behind JCSMP. Instead KafkaPublishCompletion
+ * only appends itself to a lock-free queue here, and the stage drains that queue in bursts.
+ * Should the queue ever fill, completions go to an unbounded overflow queue instead, so the
+ * Kafka thread never waits on the stage.
+ *
+ * Records Kafka rejects with a retriable error are sent again after a backoff, up to a
+ * number of times. A message that still fails, or fails for good, is left unacknowledged,
+ * so the broker redelivers it once its flow is bound again. While any record waits to be
+ * retried the source flow is held stopped, so records with the same key consumed meanwhile
+ * can't overtake it; those already sent to Kafka when it failed still can, so a retry may
+ * reorder a key's records.
+ */
+class SolaceAckStage implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SolaceAckStage.class);
+
+    private static final int  DRAIN_BATCH     = 256;
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    /**
+     * Sends a rejected record to Kafka again.
+     */
+    interface Resender {
+        /**
+         * @param completion completion of the rejected record, to be passed to Kafka again as the callback.
+         */
+        void resend(KafkaPublishCompletion completion) throws Exception;
+    }
+
+    /**
+     * @param flow name of the Solace flow whose messages are settled, e.g. its queue; labels the metrics.
+     * @param queueSize completions queued for the stage before overflowing; rounded up to a power of two.
+     * @param maxRetries times a rejected record is sent again before giving up on it.
+     * @param retryBackoffMillis wait before the first retry; each further retry waits that much longer.
+     */
+    public SolaceAckStage(String flow, int queueSize, int maxRetries, long retryBackoffMillis) {
+        this.flow = flow;
+        this.maxRetries = maxRetries;
+        this.retryBackoffNanos = retryBackoffMillis * 1000000L;
+        queue = new MpscRingBuffer<>(KafkaPublishCompletion.class, queueSize);
+        burst = new KafkaPublishCompletion[DRAIN_BATCH];
+    }
+
+    /**
+     * @param resender sends rejected records again; without one they are never retried.
+     */
+    public void setResender(Resender resender) {
+        this.resender = resender;
+    }
+
+    /**
+     * @param retryFlow stopped while rejected records wait to be sent again, and started once the
+     *                  last has been; null to leave the flow running.
+     */
+    public void setRetryFlowController(FlowController retryFlow) {
+        this.retryFlow = retryFlow;
+    }
+
+    /**
+     * @param redeliveries told of every message ACK'd, so the flow can spot it should the broker
+     *                     deliver it again; null to not record them.
+     */
+    public void setRedeliveryFilter(RedeliveryFilter redeliveries) {
+        this.redeliveries = redeliveries;
+    }
+
+    /**
+     * Starts the stage's thread.
+     */
+    public void start() {
+        thread = new Thread(this, "solace-ack-" + flow);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Hands a completion Kafka has answered to the stage. May be called from any thread; never waits.
+     * @param completion completion with Kafka's answer recorded.
+     */
+    public void completed(KafkaPublishCompletion completion) {
+        if (!queue.append(completion)) {
+            overflow.add(completion);
+            overflows.incrementAndGet();
+        }
+        if (idle)
+            LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (process() == 0) {
+                // Announce we're going idle, then re-check so a completion can't be missed
+                idle = true;
+                if (queue.used() == 0 && overflow.isEmpty())
+                    LockSupport.parkNanos(retries.isEmpty()
+                            ? IDLE_PARK_NANOS
+                            : Math.min(IDLE_PARK_NANOS, retries.peekFirst().retryAtNanos - System.nanoTime()));
+                idle = false;
+            }
+        }
+    }
+
+    /**
+     * Settles one burst of completions, and any retries that are due. Only to be called by the
+     * stage's thread, or by a test driving the stage in its place.
+     * @return Number of completions handled.
+     */
+    int process() {
+        int count = queue.drainTo(burst, DRAIN_BATCH);
+        for (int i = 0; i < count; i++) {
+            settle(burst[i]);
+            burst[i] = null;
+        }
+        KafkaPublishCompletion spilled;
+        while (count < DRAIN_BATCH && (spilled = overflow.poll()) != null) {
+            settle(spilled);
+            count++;
+        }
+        if (!retries.isEmpty()) {
+            long now = System.nanoTime();
+            // Queued in the order they failed; a longer backoff at the front only delays those behind it
+            while (!retries.isEmpty() && retries.peekFirst().retryAtNanos - now <= 0) {
+                resend(retries.pollFirst());
+                count++;
+            }
+            if (retries.isEmpty() && retryFlow != null)
+                retryFlow.startFlow();
+        }
+        return count;
+    }
+
+    private void settle(KafkaPublishCompletion completion) {
+        Exception exception = completion.exception();
+        DirectionMetrics metrics = completion.metrics();
+        if (exception == null) {
+            boolean settled = completion.ackSolace();
+            long now = System.nanoTime();
+            if (settled && redeliveries != null)
+                redeliveries.delivered(completion.solaceMsg().getMessageIdLong(), now);
+            ackLatency.record(now - completion.completedNanos());
+            if (metrics != null) {
+                metrics.latency().ack().record(completion.completedNanos() - completion.sentNanos());
+                metrics.latency().total().record(now - completion.receivedNanos());
+                metrics.acks().increment();
+            }
+            acked++;
+            completion.recycle();
+            return;
+        }
+        if (metrics != null)
+            metrics.nacks().increment();
+        BytesXMLMessage msg = completion.solaceMsg();
+        if (resender != null && completion.attempts() <= maxRetries && exception instanceof RetriableException) {
+            logger.warn("FAILURE Publishing message to Kafka; retrying Solace message {} (attempt {} of {}): {}",
+                    msg.getApplicationMessageId(), completion.attempts() + 1, maxRetries + 1, exception.toString());
+            completion.retryAtNanos = System.nanoTime() + retryBackoffNanos * completion.attempts();
+            if (retries.isEmpty() && retryFlow != null)
+                retryFlow.stopFlow();
+            retries.addLast(completion);
+            return;
+        }
+        failures++;
+        logger.error("FAILURE Publishing message to Kafka after " + completion.attempts() + " attempt(s); Solace message "
+                + msg.getApplicationMessageId() + " is NOT Acknowledged and will be redelivered when its flow is rebound",
+                exception);
+        completion.recycle();
+    }
+
+    private void resend(KafkaPublishCompletion completion) {
+        retried++;
+        completion.resending(System.nanoTime());
+        try {
+            resender.resend(completion);
+        }
+        catch(Exception ex) {
+            // Kafka never took the record, so no callback will come for it
+            failures++;
+            logger.error("FAILURE Resending message to Kafka; Solace message "
+                    + completion.solaceMsg().getApplicationMessageId() + " is NOT Acknowledged", ex);
+            completion.recycle();
+        }
+    }
+
+    /**
+     * Registers the stage's queue depth, outcomes and the time from Kafka's answer to the Solace ACK.
+     * @param registry registry to export them from.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.summary("solkaf_solace_ack_latency_seconds", "Time from Kafka acknowledging a record to ACKing its Solace message",
+                ackLatency, "flow", flow);
+        registry.gauge("solkaf_ack_queued", "Kafka answers waiting for the Solace ack stage",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return queued();
+                    }
+                }, "flow", flow);
+        registry.counter("solkaf_ack_overflow_total", "Kafka answers that found the ack stage's queue full",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return overflows.get();
+                    }
+                }, "flow", flow);
+        registry.counter("solkaf_ack_retries_total", "Records sent to Kafka again after being rejected",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return retried;
+                    }
+                }, "flow", flow);
+        registry.counter("solkaf_ack_failures_total", "Solace messages left unacknowledged because Kafka rejected their record",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return failures;
+                    }
+                }, "flow", flow);
+    }
+
+    /**
+     * @return Number of completions waiting to be settled, not counting retries.
+     */
+    public int queued() {
+        return queue.used() + overflow.size();
+    }
+
+    /**
+     * @return Number of rejected records waiting to be sent again. Only to be called on the stage's thread.
+     */
+    public int retrying() {
+        return retries.size();
+    }
+
+    public long acked() {
+        return acked;
+    }
+
+    public long retried() {
+        return retried;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    public long overflows() {
+        return overflows.get();
+    }
+
+    /**
+     * @return Time from Kafka's answer to the Solace ACK, in nanoseconds.
+     */
+    public LatencyHistogram ackLatency() {
+        return ackLatency;
+    }
+
+    final private String flow;
+    final private int maxRetries;
+    final private long retryBackoffNanos;
+    final private MpscRingBuffer<KafkaPublishCompletion> queue;
+    // Only used once the queue is full, so allocation is confined to overload
+    final private ConcurrentLinkedQueue<KafkaPublishCompletion> overflow = new ConcurrentLinkedQueue<>();
+    final private KafkaPublishCompletion[] burst;
+    // Rejected records waiting out their backoff; only touched by the stage's thread
+    final private ArrayDeque<KafkaPublishCompletion> retries = new ArrayDeque<>();
+    final private LatencyHistogram ackLatency = new LatencyHistogram();
+    private Resender resender;
+    private FlowController retryFlow;
+    private RedeliveryFilter redeliveries;
+    private Thread thread;
+    private volatile boolean idle = false;
+    // Written only by the stage's thread
+    private volatile long acked;
+    private volatile long retried;
+    private volatile long failures;
+    // Counted by the completing threads
+    private final AtomicLong overflows = new AtomicLong();
+}
@@ -6,23 +6,78 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
 
-class SolaceConnector<K,V> {
+class SolaceConnector<K,V> implements FlowController {
     private static final Logger logger = LoggerFactory.getLogger(SolaceConnector.class);
 
-    private static final int MAX_CACHED_MSGS = 2048;
+    private static final int DEFAULT_PUB_ACK_WINDOW = 255;
 
     public SolaceConnector(Properties properties) throws Exception {
         listener = null;
 
+        // Every outstanding message holds one pooled state, so size the pool from the ACK window
+        int pubAckWindow = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PUB_ACK_WINDOW, DEFAULT_PUB_ACK_WINDOW);
+        int poolSize = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_MSG_POOL_SIZE, 2 * pubAckWindow);
+        // Optionally publish on dedicated sessions, each with its own context and I/O thread
+        int publisherSessions = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PUBLISHER_SESSIONS, 0);
+        // One publishing lane per worker thread, each with its own pool of states; without
+        // workers the polling thread drives one lane per publisher session
+        int workers = PartitionWorkerPool.configuredWorkers(properties);
+        int numLanes = workers > 0 ? workers : Math.max(1, publisherSessions);
+        // Messages each lane sends together in one sendMultiple(); 1 sends them one at a time
+        int batchSize = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PUBLISH_BATCH_SIZE, 1);
+
         msgHelper = new MsgHelper<K,V>(properties);
+        topicNames = new TopicNameCache(IOHelper.getIntProperty(properties,
+                BridgeProperties.PROP_TOPIC_TRANSLATION_CACHE_SIZE, BridgingConnector.DEFAULT_TRANSLATION_CACHE_SIZE));
+        // Messages already bridged are remembered, unless sol_dedup_max_ids is 0
+        int dedupMaxIds = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_DEDUP_MAX_IDS, RedeliveryFilter.DEFAULT_MAX_IDS);
+        redeliveries = dedupMaxIds <= 0 ? null : new RedeliveryFilter(dedupMaxIds, 1000L * IOHelper.getIntProperty(properties,
+                BridgeProperties.PROP_SOLACE_DEDUP_WINDOW_SEC, RedeliveryFilter.DEFAULT_WINDOW_SEC));
 
         this.sourceQueue = properties.getProperty(BridgeProperties.PROP_SOLACE_BRIDGE_QUEUE);
+        session = JCSMPFactory.onlyInstance().createSession(createSessionProperties(properties, pubAckWindow, null));
+
+        XMLMessageProducer[] producers;
+        if (publisherSessions > 0) {
+            publisherContexts = new Context[publisherSessions];
+            publisherSessionList = new JCSMPSession[publisherSessions];
+            producers = new XMLMessageProducer[publisherSessions];
+            for (int i = 0; i < publisherSessions; i++) {
+                publisherContexts[i] = JCSMPFactory.onlyInstance().createContext(
+                        new ContextProperties().setName("bridge-publisher-" + i));
+                publisherSessionList[i] = JCSMPFactory.onlyInstance().createSession(
+                        createSessionProperties(properties, pubAckWindow, "-pub" + i), publisherContexts[i]);
+                producers[i] = publisherSessionList[i].getMessageProducer(newProducerEventHandler());
+            }
+        }
+        else {
+            publisherContexts = new Context[0];
+            publisherSessionList = new JCSMPSession[0];
+            producers = new XMLMessageProducer[] { session.getMessageProducer(newProducerEventHandler()) };
+        }
+        lanes = new SolacePublisher[numLanes];
+        for (int i = 0; i < numLanes; i++)
+            lanes[i] = new SolacePublisher<>(i, properties, poolSize, batchSize, producers[i % producers.length]);
+        logger.info("Publishing to Solace on {} lane(s) over {} session(s), up to {} message(s) at a time",
+                numLanes, producers.length, lanes[0].batchSize());
+    }
+
+    /**
+     * Builds JCSMP session properties from the bridge properties.
+     * @param properties shared application properties.
+     * @param pubAckWindow publisher ACK window size.
+     * @param clientNameSuffix appended to a configured client name so every session's is unique; may be null.
+     */
+    static JCSMPProperties createSessionProperties(Properties properties, int pubAckWindow, String clientNameSuffix) {
         final JCSMPProperties solprops = new JCSMPProperties();
         for (String name : properties.stringPropertyNames()) {
             Object value = properties.getProperty(name);
             solprops.setProperty(name, value);
         }
-        solprops.setIntegerProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, 255);
+        String clientName = properties.getProperty(JCSMPProperties.CLIENT_NAME);
+        if (clientNameSuffix != null && clientName != null)
+            solprops.setProperty(JCSMPProperties.CLIENT_NAME, clientName + clientNameSuffix);
+        solprops.setIntegerProperty(JCSMPProperties.PUB_ACK_WINDOW_SIZE, pubAckWindow);
         //solprops.setBooleanProperty(JCSMPProperties.GENERATE_RCV_TIMESTAMPS, true);
         //solprops.setBooleanProperty(JCSMPProperties.GENERATE_SEND_TIMESTAMPS, true);
         JCSMPChannelProperties channelProperties =
@@ -30,47 +85,44 @@ class SolaceConnector<K,V> {
         channelProperties.setConnectRetries(100);
         channelProperties.setReconnectRetries(-1);
         channelProperties.setReconnectRetryWaitInMillis(200);
-        session = JCSMPFactory.onlyInstance().createSession(solprops);
+        return solprops;
+    }
 
-        producer = session.getMessageProducer(
-                new JCSMPStreamingPublishCorrelatingEventHandler() {
-                    @Override
-                    public void handleErrorEx(Object key, JCSMPException e, long timestamp) {
-                        logger.error("Solace Producer received error for msg: {}@{} - {}",
-                                key, timestamp, e);
-                    }
-                    @Override
-                    public void responseReceivedEx(Object key) {
-                        SolaceSentMessageState inbound = (SolaceSentMessageState) key;
-                        logger.debug("Producer received response for msg: {}", inbound.getMessageID());
-                        SolaceSentMessageState state = usedMsgBuffer.remove();
-                        if (inbound.getMsgID() == state.getMsgID()) {
-                            logger.debug("ACK'd message equals allocated message {}", inbound.getMessageID());
-                            // TODO: ACK the message back to the Kafka connector here if we find a way
-                            // Put the ack'd message back into our list of Free messages to be reused
-                            logger.debug("Putting message {} back in the msg-pool for re-use", inbound.getMessageID());
-                            freeMsgBuffer.append(inbound);
-                        }
-                        else {
-                            // If these don't match, something bad is going on
-                            logger.error("MAYDAY! Latest ACK ID {} does not match earliest sent ID {}; either out of sequence or worse.",
-                                    inbound.getMessageID(), state.getMessageID());
-                        }
-                    }
-                    @Override
-                    public void responseReceived(String messageID) {
-                        logger.error("Not expected to be called on standard JCSMPStreamingPublishEventHandler because Correlation key was set.");
-                    }
-                    @Override
-                    public void handleError(String messageID, JCSMPException e, long timestamp) {
-                        logger.error("Solace Producer received error for msg: {}@{} - {}", messageID, timestamp, e);
-                        e.printStackTrace();
-                    }
-                });
+    /**
+     * Routes publisher ACKs and errors back to the lane that sent the message; the lane
+     * is carried on the correlation key, so one handler type serves every session.
+     */
+    private JCSMPStreamingPublishCorrelatingEventHandler newProducerEventHandler() {
+        return new JCSMPStreamingPublishCorrelatingEventHandler() {
+            @Override
+            public void handleErrorEx(Object key, JCSMPException e, long timestamp) {
+                logger.error("Solace Producer received error for msg: {}@{} - {}",
+                        key, timestamp, e);
+                SolaceSentMessageState failed = (SolaceSentMessageState) key;
+                lanes[failed.getLane()].onError(failed);
+            }
+            @Override
+            public void responseReceivedEx(Object key) {
+                SolaceSentMessageState inbound = (SolaceSentMessageState) key;
+                if (logger.isDebugEnabled())
+                    logger.debug("Producer received response for msg: {}", inbound.getMessageID());
+                lanes[inbound.getLane()].onAck(inbound);
+            }
+            @Override
+            public void responseReceived(String messageID) {
+                logger.error("Not expected to be called on standard JCSMPStreamingPublishEventHandler because Correlation key was set.");
+            }
+            @Override
+            public void handleError(String messageID, JCSMPException e, long timestamp) {
+                logger.error("Solace Producer received error for msg: {}@{} - {}", messageID, timestamp, e);
+                e.printStackTrace();
+            }
+        };
     }
 
     public void start(ConnectionListener<K,V> callback) throws JCSMPException {
         listener = callback;
+        timedListener = callback instanceof TimedConnectionListener ? (TimedConnectionListener<K,V>) callback : null;
 
         ConsumerFlowProperties queueProps = new ConsumerFlowProperties();
         queueProps.setWindowedAckMaxSize(255);
@@ -79,22 +131,52 @@ class SolaceConnector<K,V> {
         queueProps.setAckMode(JCSMPProperties.SUPPORTED_MESSAGE_ACK_CLIENT);
         queueProps.setActiveFlowIndication(true);
         session.connect();
+        for (JCSMPSession publisherSession : publisherSessionList)
+            publisherSession.connect();
         consumer = session.createFlow(
                 new XMLMessageListener() {
 
                     @Override
                     public void onReceive(BytesXMLMessage msg) {
-                        String topic = msg.getDestination().getName();
+                        long receivedNanos = System.nanoTime();
+                        // Already bridged, but the broker never heard the ACK; just ACK it again
+                        if (redeliveries != null && msg.getRedelivered()
+                                && redeliveries.isDuplicate(msg.getMessageIdLong(), receivedNanos)) {
+                            msg.ackMessage();
+                            return;
+                        }
+                        // Same String per topic, without decoding the destination each time
+                        String topic = topicNames.lookup(msg);
 
-                        // Deserialize the key
-                        K key = msgHelper.getKey(msg, topic);
+                        if (RecordPacker.isPacked(msg)) {
+                            if (!dispatchEnvelope(msg, topic, receivedNanos, msgHelper, listener))
+                                discarded++;
+                            return;
+                        }
 
-                        // Deserialize the value
-                        V value = msgHelper.getValue(msg, topic);
+                        K key;
+                        V value;
+                        try {
+                            // Deserialize the key
+                            key = msgHelper.getKey(msg, topic);
+
+                            // Deserialize the value
+                            value = msgHelper.getValue(msg, topic);
+                        }
+                        catch(RuntimeException ex) {
+                            // Redelivering it would only fail the same way
+                            logger.error("FAILED to decode message on {}; it is ACK'd and discarded", topic, ex);
+                            msg.ackMessage();
+                            discarded++;
+                            return;
+                        }
 
                         // Invoke the listener
                         try {
-                            listener.onMessage(msg, null, topic, key, value);
+                            if (timedListener != null)
+                                timedListener.onMessage(msg, null, topic, key, value, receivedNanos);
+                            else
+                                listener.onMessage(msg, null, topic, key, value);
                         }
                         catch(Exception e) {
                             e.printStackTrace();
@@ -124,27 +206,176 @@ class SolaceConnector<K,V> {
         consumer.start();
     }
 
-    public void send(int partition, String topic, K key, V payload) throws JCSMPException {
+    /**
+     * Hands each record packed in an envelope to the listener in turn, with the original Kafka
+     * partition and a PackedEnvelope as the source, so the envelope is only ACK'd once every
+     * record is. A malformed envelope is logged, and ACK'd so it isn't redelivered forever;
+     * none of it is bridged. Should the listener fail a record, the records after it are not
+     * handed over, and are settled as failed with it so the envelope completes unacknowledged.
+     * @return false if the envelope was malformed and discarded.
+     */
+    static <K,V> boolean dispatchEnvelope(BytesXMLMessage msg, String topic, long receivedNanos,
+                                          MsgHelper<K,V> msgHelper, ConnectionListener<K,V> listener) {
+        int count;
+        int[] partitions;
+        long[] offsets;
+        byte[][] keys;
+        byte[][] values;
+        try {
+            byte[] data = msgHelper.getEnvelope(msg);
+            count = RecordPacker.packedCount(data);
+            partitions = new int[count];
+            offsets = new long[count];
+            keys = new byte[count][];
+            values = new byte[count][];
+            RecordPacker.unpack(data, partitions, offsets, keys, values);
+        }
+        catch(RuntimeException ex) {
+            logger.error("FAILED to unpack envelope on {}; it is ACK'd and discarded", topic, ex);
+            msg.ackMessage();
+            return false;
+        }
+        if (count == 0) {
+            msg.ackMessage();
+            return true;
+        }
+        TimedConnectionListener<K,V> timedListener = listener instanceof TimedConnectionListener
+                ? (TimedConnectionListener<K,V>) listener : null;
+        PackedEnvelope envelope = new PackedEnvelope(msg, count);
+        for (int i = 0; i < count; i++) {
+            boolean dispatched;
+            try {
+                K key = msgHelper.toKey(topic, keys[i]);
+                V value = msgHelper.toValue(topic, values[i]);
+                if (timedListener != null)
+                    dispatched = timedListener.onMessage(envelope, partitions[i], topic, key, value, receivedNanos);
+                else
+                    dispatched = listener.onMessage(envelope, partitions[i], topic, key, value);
+            }
+            catch(Exception ex) {
+                logger.error("FAILED to bridge a record of the envelope on {}", topic, ex);
+                dispatched = false;
+            }
+            if (!dispatched) {
+                // The envelope is redelivered whole anyway, so don't send the rest
+                logger.error("Envelope on {} is NOT Acknowledged; {} of its {} records were not bridged",
+                        topic, count - i, count);
+                envelope.membersFailed(count - i);
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of received messages ACK'd and dropped because they couldn't be decoded.
+     */
+    public long discarded() {
+        return discarded;
+    }
+
+    /**
+     * @return Messages ACK'd after being bridged, for the ack stage to record; null if
+     * redelivered messages are not checked (sol_dedup_max_ids is 0).
+     */
+    public RedeliveryFilter redeliveryFilter() {
+        return redeliveries;
+    }
+
+    /**
+     * Registers a listener to be told when each Kafka record published to Solace is ACK'd.
+     * @param ackListener listener notified on the JCSMP producer thread.
+     */
+    public void setPublishAckListener(PublishAckListener ackListener) {
+        for (SolacePublisher<K,V> lane : lanes)
+            lane.setPublishAckListener(ackListener);
+    }
+
+    /**
+     * Registers a listener to be told when a Kafka record published to Solace is rejected, or
+     * fails to be sent.
+     * @param failureListener listener notified on the JCSMP producer thread, or on the sending
+     *                        thread for a send that fails.
+     */
+    public void setPublishFailureListener(PublishFailureListener failureListener) {
+        for (SolacePublisher<K,V> lane : lanes)
+            lane.setPublishFailureListener(failureListener);
+    }
+
+    /**
+     * @param metrics Kafka to Solace metrics each lane counts its ACKs, NACKs and stage latencies in.
+     */
+    public void setMetrics(DirectionMetrics metrics) {
+        for (SolacePublisher<K,V> lane : lanes)
+            lane.setMetrics(metrics);
+    }
+
+    /**
+     * @return Number of independent publishing lanes; each must be driven by its own thread.
+     */
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane lane index in [0, laneCount()).
+     * @return How much of the lane's message pool is waiting for ACKs, in percent.
+     */
+    public int lanePercentFull(int lane) {
+        SolaceSentMessagePool pool = lanes[lane].pool();
+        int capacity = pool.capacity();
+        return (int) (100L * (capacity - pool.available()) / capacity);
+    }
+
+    /**
+     * Maps a Kafka partition to the lane that publishes it, so each partition's records
+     * are always published in order by the same thread.
+     * @param topic Kafka topic the record was consumed from.
+     * @param partition Kafka partition the record was consumed from.
+     * @param lanes number of lanes (or workers) to spread partitions across.
+     * @return lane index in [0, lanes).
+     */
+    public static int laneFor(String topic, int partition, int lanes) {
+        return ((31 * topic.hashCode() + partition) & Integer.MAX_VALUE) % lanes;
+    }
+
+    /**
+     * Publishes a Kafka record to Solace on the partition's lane. Blocks while every pooled
+     * message container of that lane is waiting for an ACK, holding back the calling thread.
+     * All records of a given partition must be sent from the same thread.
+     * @param receivedNanos System.nanoTime() when the record was polled from Kafka.
+     */
+    public void send(String sourceTopic, int partition, long offset, Topic topic, K key, V payload, long receivedNanos)
+            throws JCSMPException, InterruptedException {
         logger.debug("Sending message to Solace with topic {} and key {}", topic, key);
+        SolacePublisher<K,V> lane = lanes.length == 1 ? lanes[0] : lanes[laneFor(sourceTopic, partition, lanes.length)];
+        lane.send(sourceTopic, partition, offset, topic, key, payload, receivedNanos);
+    }
 
-        SolaceSentMessageState msgState = null;
-        if (freeMsgBuffer.used() > 0)
-            msgState = freeMsgBuffer.remove();
-        else {
-            msgState = new SolaceSentMessageState();
-            allocCount++;
-        }
-        msgHelper.populateMessage(msgState, partition, topic, key, payload);
-        usedMsgBuffer.append(msgState);
-        logger.debug("Sending msg: {}", msgState.getMsgID());
-        producer.send(msgState.getMessage(), msgState.getDestination());
+    /**
+     * Sends whatever the lane has staged for its next batch, and any packed envelopes that have
+     * lingered long enough. Only to be called by the thread driving that lane.
+     * @param lane lane index in [0, laneCount()).
+     */
+    public void flush(int lane) throws JCSMPException, InterruptedException {
+        lanes[lane].flush();
     }
 
+    /**
+     * Sends whatever every lane has staged; for when a single thread drives all lanes.
+     */
+    public void flushAll() throws JCSMPException, InterruptedException {
+        for (SolacePublisher<K,V> lane : lanes)
+            lane.flush();
+    }
+
+    @Override
     public void stopFlow() {
         if (consumer != null)
             consumer.stop();
     }
 
+    @Override
     public void startFlow() {
         try {
             if (consumer != null)
@@ -156,30 +387,136 @@ class SolaceConnector<K,V> {
         }
     }
 
-    public void dumpStats() {
-        System.out.println("Buffers available " +
-                        freeMsgBuffer.used() +
-                        ", used "+
-                        usedMsgBuffer.used() +
-                        ", total alloc'd " +
-                        allocCount);
+    /**
+     * Registers gauges for what the lanes have in flight, their pools' occupancy, the
+     * received topic name cache and the redelivered messages found to be duplicates.
+     * @param registry registry to export them from.
+     */
+    public void registerMetrics(MetricsRegistry registry) {
+        registry.gauge("solkaf_inflight", "Messages handed to the destination and not yet acknowledged",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        long inflight = 0;
+                        for (SolacePublisher<K,V> lane : lanes)
+                            inflight += lane.inflight().inflight();
+                        return inflight;
+                    }
+                }, "direction", DirectionMetrics.KAFKA_TO_SOLACE);
+        for (final SolacePublisher<K,V> lane : lanes) {
+            String laneLabel = Integer.toString(lane.lane());
+            registry.gauge("solkaf_pool_available", "Pooled objects free for use",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.pool().available();
+                        }
+                    }, "pool", "solace_messages", "lane", laneLabel);
+            registry.gauge("solkaf_pool_capacity", "Pooled objects in total",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.pool().capacity();
+                        }
+                    }, "pool", "solace_messages", "lane", laneLabel);
+            registry.counter("solkaf_pool_exhausted_total", "Times a sender waited for a pooled object",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.pool().exhaustedCount();
+                        }
+                    }, "pool", "solace_messages", "lane", laneLabel);
+            registry.counter("solkaf_publish_batches_total", "Batches of messages sent to Solace in one call",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.batches();
+                        }
+                    }, "lane", laneLabel);
+            registry.counter("solkaf_packed_envelopes_total", "Envelopes of packed Kafka records published to Solace",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.envelopes();
+                        }
+                    }, "lane", laneLabel);
+            registry.counter("solkaf_packed_records_total", "Kafka records published to Solace packed in envelopes",
+                    new MetricsRegistry.Gauge() {
+                        @Override
+                        public long value() {
+                            return lane.packedRecords();
+                        }
+                    }, "lane", laneLabel);
+        }
+        registry.counter("solkaf_cache_hits_total", "Cache lookups that found their entry",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return topicNames.hits();
+                    }
+                }, "cache", "solace_topic_names");
+        registry.counter("solkaf_cache_misses_total", "Cache lookups that had to compute their entry",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return topicNames.misses();
+                    }
+                }, "cache", "solace_topic_names");
+        registry.counter("solkaf_cache_fallbacks_total", "Topic name lookups that decoded the destination for lack of its received bytes",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return topicNames.fallbacks();
+                    }
+                }, "cache", "solace_topic_names");
+        registry.counter("solkaf_discarded_total", "Solace messages ACK'd and dropped because they couldn't be decoded",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return discarded;
+                    }
+                }, "flow", sourceQueue);
+        if (redeliveries == null)
+            return;
+        registry.counter("solkaf_duplicates_total", "Redelivered Solace messages ACK'd without being sent to Kafka again",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return redeliveries.duplicates();
+                    }
+                }, "flow", sourceQueue);
+        registry.gauge("solkaf_dedup_tracked", "Solace message ids remembered for spotting redelivered duplicates",
+                new MetricsRegistry.Gauge() {
+                    @Override
+                    public long value() {
+                        return redeliveries.tracked();
+                    }
+                }, "flow", sourceQueue);
     }
 
-    // Solace session
+    // Solace session; consumes the bridge queue, and publishes unless publisher sessions are configured
     final private JCSMPSession session;
 
-    // Solace producer
-    private XMLMessageProducer producer;
-    private final RingBuffer<SolaceSentMessageState> usedMsgBuffer = new RingBuffer<>(SolaceSentMessageState.class, MAX_CACHED_MSGS);
-    private final RingBuffer<SolaceSentMessageState> freeMsgBuffer = new RingBuffer<>(SolaceSentMessageState.class, MAX_CACHED_MSGS);
-    private int allocCount = 0;
+    // Dedicated Solace publisher sessions, each on its own context (I/O thread)
+    final private JCSMPSession[] publisherSessionList;
+    final private Context[] publisherContexts;
+    // Publishing lanes, indexed by SolaceSentMessageState.getLane()
+    private final SolacePublisher<K,V>[] lanes;
 
     // Solace listener
     private FlowReceiver consumer;
     // Client listener interested in Solace messages
     private ConnectionListener<K,V> listener;
+    // The same listener, when it wants receive times
+    private TimedConnectionListener<K,V> timedListener;
     private String sourceQueue;
 
     // Encapsulates message handling, serialization
     private final MsgHelper<K,V> msgHelper;
+    // Received destinations to topic names; only touched by the flow's dispatcher thread
+    private final TopicNameCache topicNames;
+    // Ids of messages ACK'd after being bridged, to spot redelivered duplicates; null if disabled
+    private final RedeliveryFilter redeliveries;
+    // Written only by the flow's dispatcher thread
+    private volatile long discarded;
 }
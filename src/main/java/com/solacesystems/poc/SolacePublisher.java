@@ -0,0 +1,408 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPException;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.JCSMPSendMultipleEntry;
+import com.solacesystems.jcsmp.Topic;
+import com.solacesystems.jcsmp.XMLMessageProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One publishing lane into Solace: a pool of message states, the table of those in flight,
+ * and the sequence that numbers them. Each lane is driven by a single publishing thread, so
+ * lanes never share mutable state and Kafka partitions can be published in parallel.
+ *
+ * @param <K> type of the message Key from the Kafka bus
+ * @param <V> type of the message Value from the Kafka bus
+ */
+class SolacePublisher<K,V> {
+    private static final Logger logger = LoggerFactory.getLogger(SolacePublisher.class);
+
+    private static final long INFLIGHT_PARK_NANOS = 50000L;
+    // The most messages JCSMP accepts in one sendMultiple() call
+    static final int MAX_BATCH_SIZE = 50;
+    static final int DEFAULT_PACK_MAX_BYTES = 65536;
+    // Envelopes open at once per lane, each for a different Solace topic
+    private static final int PACK_MAX_OPEN = 64;
+
+    /**
+     * Creates a lane that sends each message as soon as it is given, and pre-allocates its message states.
+     * @param lane index of this lane; stamped on its states so ACKs can find their way back.
+     * @param properties shared application properties, for the serializers.
+     * @param poolSize number of message states owned by this lane.
+     * @param producer JCSMP producer this lane publishes through.
+     */
+    public SolacePublisher(int lane, Properties properties, int poolSize, XMLMessageProducer producer) throws Exception {
+        this(lane, properties, poolSize, 1, producer);
+    }
+
+    /**
+     * Creates a lane and pre-allocates its message states.
+     * @param lane index of this lane; stamped on its states so ACKs can find their way back.
+     * @param properties shared application properties, for the serializers and record packing.
+     * @param poolSize number of message states owned by this lane.
+     * @param batchSize most messages sent together in one sendMultiple() call; 1 sends each
+     *                  message on its own. At most MAX_BATCH_SIZE.
+     * @param producer JCSMP producer this lane publishes through.
+     */
+    public SolacePublisher(int lane, Properties properties, int poolSize, int batchSize, XMLMessageProducer producer) throws Exception {
+        this.lane = lane;
+        this.producer = producer;
+        msgHelper = new MsgHelper<K,V>(properties);
+        msgPool = new SolaceSentMessagePool(poolSize, lane);
+        // Sized well beyond the pool so a slow ACK rarely blocks a slot from being re-used
+        inflightMsgs = new InflightTable<>(2 * poolSize);
+        this.batchSize = Math.max(1, Math.min(Math.min(batchSize, MAX_BATCH_SIZE), poolSize));
+        batch = new SolaceSentMessageState[this.batchSize];
+        batchReceivedNanos = new long[this.batchSize];
+        // One vector of each length, all sharing the same entries: sendMultiple copies
+        // any vector it is given only part of
+        vectors = new JCSMPSendMultipleEntry[this.batchSize + 1][];
+        JCSMPSendMultipleEntry[] entries = new JCSMPSendMultipleEntry[this.batchSize];
+        for (int i = 0; i < entries.length; i++)
+            entries[i] = JCSMPFactory.onlyInstance().createSendMultipleEntry(null, null);
+        for (int length = 1; length <= this.batchSize; length++)
+            vectors[length] = Arrays.copyOf(entries, length);
+        // Packing is off unless envelopes may hold more than one record
+        int packRecords = IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PACK_MAX_RECORDS, 0);
+        packer = packRecords > 1 ? new RecordPacker(packRecords,
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PACK_MAX_BYTES, DEFAULT_PACK_MAX_BYTES),
+                IOHelper.getIntProperty(properties, BridgeProperties.PROP_SOLACE_PACK_LINGER_MS, 0),
+                PACK_MAX_OPEN) : null;
+    }
+
+    /**
+     * Publishes a Kafka record to Solace. When batching, the message is only staged, and sent
+     * with the rest of the batch once it is full or on flush(). When packing, the record is
+     * added to its topic's envelope, which is published once full or on a flush() after its
+     * linger time. Blocks while every pooled message container is waiting for an ACK, holding
+     * back the calling thread. Only to be called by this lane's thread.
+     * @param receivedNanos System.nanoTime() when the record was polled from Kafka.
+     */
+    public void send(String sourceTopic, int partition, long offset, Topic topic, K key, V payload, long receivedNanos)
+            throws JCSMPException, InterruptedException {
+        if (packer != null) {
+            pack(sourceTopic, partition, offset, topic, key, payload, receivedNanos);
+            return;
+        }
+        // Staged messages hold pooled states that no ACK will free until they are sent
+        if (batched > 0 && msgPool.available() == 0)
+            sendBatch();
+        SolaceSentMessageState msgState = msgPool.acquire();
+        msgHelper.populateMessage(msgState, partition, topic, key, payload);
+        msgState.setSourceTopic(sourceTopic);
+        msgState.setOffset(offset);
+        publish(msgState, receivedNanos);
+    }
+
+    private void pack(String sourceTopic, int partition, long offset, Topic topic, K key, V payload, long receivedNanos)
+            throws JCSMPException, InterruptedException {
+        String topicName = topic.getName();
+        byte[] keyBytes = msgHelper.keyBytes(topicName, key);
+        byte[] valueBytes = msgHelper.valueBytes(topicName, payload);
+        RecordPacker.Envelope envelope = packer.find(topic);
+        if (envelope != null && packer.wouldOverflow(envelope, keyBytes, valueBytes)) {
+            publishEnvelope(envelope);
+            envelope = null;
+        }
+        if (envelope == null) {
+            if (packer.isFull())
+                publishEnvelope(packer.oldest());
+            envelope = packer.open(topic, receivedNanos);
+        }
+        envelope.append(sourceTopic, partition, offset, keyBytes, valueBytes);
+        if (packer.isComplete(envelope))
+            publishEnvelope(envelope);
+    }
+
+    /**
+     * Publishes an envelope as one message and closes it.
+     */
+    private void publishEnvelope(RecordPacker.Envelope envelope) throws JCSMPException, InterruptedException {
+        if (batched > 0 && msgPool.available() == 0)
+            sendBatch();
+        SolaceSentMessageState msgState = msgPool.acquire();
+        msgHelper.populateEnvelope(msgState, envelope);
+        long receivedNanos = envelope.receivedNanos();
+        packedRecords += envelope.count();
+        envelopes++;
+        packer.close(envelope);
+        publish(msgState, receivedNanos);
+    }
+
+    /**
+     * Sends a populated message, or stages it for the next batch.
+     */
+    private void publish(SolaceSentMessageState msgState, long receivedNanos) throws JCSMPException, InterruptedException {
+        try {
+            while (!inflightMsgs.put(msgState)) {
+                if (batched > 0) {
+                    sendBatch();
+                    continue;
+                }
+                // An ACK from a full table's length ago is still outstanding
+                LockSupport.parkNanos(INFLIGHT_PARK_NANOS);
+                if (Thread.interrupted())
+                    throw new InterruptedException("Interrupted waiting for an inflight slot");
+            }
+        }
+        catch(JCSMPException | InterruptedException ex) {
+            // Never made it into the inflight table, so nothing else will return it
+            reportFailed(msgState);
+            msgPool.returnUnsent(msgState);
+            throw ex;
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Sending msg: {} on lane {}", msgState.getMsgID(), lane);
+        if (batchSize > 1) {
+            batch[batched] = msgState;
+            batchReceivedNanos[batched] = receivedNanos;
+            if (++batched == batchSize)
+                sendBatch();
+            return;
+        }
+        // Stamped before sending, as the ACK may arrive before send() returns
+        long sentNanos = System.nanoTime();
+        msgState.setTimes(receivedNanos, sentNanos);
+        DirectionMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.latency().publish().record(sentNanos - receivedNanos);
+        try {
+            producer.send(msgState.getMessage(), msgState.getDestination());
+        }
+        catch(JCSMPException ex) {
+            // No ACK or error will ever arrive for this one
+            if (inflightMsgs.remove(msgState.getMsgID()) != null) {
+                reportFailed(msgState);
+                msgPool.returnUnsent(msgState);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Publishes every envelope whose linger time is up, then sends every staged message in one
+     * sendMultiple() call. Only to be called by this lane's thread.
+     */
+    public void flush() throws JCSMPException, InterruptedException {
+        if (packer != null && packer.openCount() > 0) {
+            long now = System.nanoTime();
+            RecordPacker.Envelope due;
+            while ((due = packer.nextDue(now)) != null)
+                publishEnvelope(due);
+        }
+        sendBatch();
+    }
+
+    private void sendBatch() throws JCSMPException {
+        int count = batched;
+        if (count == 0)
+            return;
+        batched = 0;
+        JCSMPSendMultipleEntry[] vector = vectors[count];
+        // Stamped before sending, as ACKs may arrive before sendMultiple() returns
+        long sentNanos = System.nanoTime();
+        DirectionMetrics metrics = this.metrics;
+        for (int i = 0; i < count; i++) {
+            SolaceSentMessageState msgState = batch[i];
+            msgState.setTimes(batchReceivedNanos[i], sentNanos);
+            if (metrics != null)
+                metrics.latency().publish().record(sentNanos - batchReceivedNanos[i]);
+            vector[i].setMessage(msgState.getMessage()).setDestination(msgState.getDestination());
+        }
+        int sent = 0;
+        try {
+            while (sent < count)
+                sent += producer.sendMultiple(vector, sent, count - sent, 0);
+        }
+        catch(JCSMPException ex) {
+            // Whatever wasn't sent will never be ACK'd; what was may still be
+            for (int i = sent; i < count; i++) {
+                if (inflightMsgs.remove(batch[i].getMsgID()) != null) {
+                    reportFailed(batch[i]);
+                    msgPool.returnUnsent(batch[i]);
+                }
+            }
+            throw ex;
+        }
+        finally {
+            for (int i = 0; i < count; i++) {
+                batch[i] = null;
+                vector[i].setMessage(null).setDestination(null);
+            }
+        }
+        batches++;
+    }
+
+    /**
+     * @return Most messages sent together in one sendMultiple() call.
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return Number of messages staged for the next flush().
+     */
+    public int batched() {
+        return batched;
+    }
+
+    /**
+     * @return Number of sendMultiple() batches sent.
+     */
+    public long batches() {
+        return batches;
+    }
+
+    /**
+     * @return Number of envelopes of packed records published.
+     */
+    public long envelopes() {
+        return envelopes;
+    }
+
+    /**
+     * @return Number of records published packed in envelopes.
+     */
+    public long packedRecords() {
+        return packedRecords;
+    }
+
+    /**
+     * @return Packer of this lane's records, or null if records are published one per message.
+     */
+    RecordPacker packer() {
+        return packer;
+    }
+
+    /**
+     * Handles the broker's ACK of a message from this lane. Called on the JCSMP producer thread.
+     * @param inbound correlation key of the ACK'd message.
+     */
+    public void onAck(SolaceSentMessageState inbound) {
+        SolaceSentMessageState state = inflightMsgs.remove(inbound.getMsgID());
+        if (state != null) {
+            DirectionMetrics metrics = this.metrics;
+            if (metrics != null) {
+                long now = System.nanoTime();
+                metrics.latency().ack().record(now - state.getSentNanos());
+                metrics.latency().total().record(now - state.getReceivedNanos());
+                // Counted per Kafka record, like the messages received
+                metrics.acks().add(Math.max(1, state.getPackedCount()));
+            }
+            // ACK the source record back to the Kafka connector so its offset can be committed
+            PublishAckListener ackListener = this.ackListener;
+            if (ackListener != null) {
+                int packed = state.getPackedCount();
+                if (packed == 0)
+                    ackListener.onPublishAck(state.getSourceTopic(), state.getPartition(), state.getOffset());
+                // An envelope's ACK is the ACK of every record in it
+                for (int i = 0; i < packed; i++)
+                    ackListener.onPublishAck(state.getPackedTopic(i), state.getPackedPartition(i), state.getPackedOffset(i));
+            }
+            // Put the ack'd message back into our list of Free messages to be reused
+            if (logger.isDebugEnabled())
+                logger.debug("Putting message {} back in the msg-pool for re-use", inbound.getMessageID());
+            msgPool.release(state);
+        }
+        else {
+            logger.warn("ACK for msg {} which is not in flight; ignoring duplicate or late ACK.",
+                    inbound.getMsgID());
+        }
+    }
+
+    /**
+     * Handles the broker's rejection of a message from this lane. Called on the JCSMP producer thread.
+     * @param inbound correlation key of the failed message.
+     */
+    public void onError(SolaceSentMessageState inbound) {
+        // The Kafka record is not ACK'd; the failure listener hands it back to be published
+        // again, and the container is re-used now
+        SolaceSentMessageState failed = inflightMsgs.remove(inbound.getMsgID());
+        int records = failed == null ? 1 : Math.max(1, failed.getPackedCount());
+        if (failed != null) {
+            reportFailed(failed);
+            msgPool.release(failed);
+        }
+        DirectionMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.nacks().add(records);
+    }
+
+    /**
+     * Tells the failure listener about every Kafka record in a message that will never be ACK'd.
+     */
+    private void reportFailed(SolaceSentMessageState failed) {
+        PublishFailureListener failureListener = this.failureListener;
+        if (failureListener == null)
+            return;
+        int packed = failed.getPackedCount();
+        if (packed == 0)
+            failureListener.onPublishFailed(failed.getSourceTopic(), failed.getPartition(), failed.getOffset());
+        for (int i = 0; i < packed; i++)
+            failureListener.onPublishFailed(failed.getPackedTopic(i), failed.getPackedPartition(i), failed.getPackedOffset(i));
+    }
+
+    /**
+     * @param ackListener listener told when each Kafka record published on this lane is ACK'd.
+     */
+    public void setPublishAckListener(PublishAckListener ackListener) {
+        this.ackListener = ackListener;
+    }
+
+    /**
+     * @param failureListener listener told when each Kafka record published on this lane is
+     *                        rejected, or fails to be sent.
+     */
+    public void setPublishFailureListener(PublishFailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * @param metrics Kafka to Solace metrics this lane's ACKs, NACKs and stage latencies are counted in.
+     */
+    public void setMetrics(DirectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int lane() {
+        return lane;
+    }
+
+    public SolaceSentMessagePool pool() {
+        return msgPool;
+    }
+
+    public InflightTable<SolaceSentMessageState> inflight() {
+        return inflightMsgs;
+    }
+
+    final private int lane;
+    final private XMLMessageProducer producer;
+    // Encapsulates message handling, serialization; owns this lane's message sequence
+    final private MsgHelper<K,V> msgHelper;
+    // Each is filled by one thread and drained by another: this lane's publishing thread
+    // and the JCSMP producer thread delivering ACKs
+    final private SolaceSentMessagePool msgPool;
+    final private InflightTable<SolaceSentMessageState> inflightMsgs;
+    private volatile PublishAckListener ackListener;
+    private volatile PublishFailureListener failureListener;
+    private volatile DirectionMetrics metrics;
+    // Messages staged for the next sendMultiple(); owned by this lane's thread
+    final private int batchSize;
+    final private SolaceSentMessageState[] batch;
+    final private long[] batchReceivedNanos;
+    final private JCSMPSendMultipleEntry[][] vectors;
+    private int batched = 0;
+    private volatile long batches = 0;
+    // Envelopes being filled; null when records are published one per message
+    final private RecordPacker packer;
+    private volatile long envelopes = 0;
+    private volatile long packedRecords = 0;
+}
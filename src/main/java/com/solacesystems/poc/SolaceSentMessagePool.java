@@ -0,0 +1,115 @@
+package com.solacesystems.poc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed-size pool of SolaceSentMessageState instances, all allocated up front.
+ *
+ * States are acquired by the publishing thread and released by the JCSMP producer
+ * thread once the broker ACKs them. When every state is outstanding, acquire() waits
+ * for a release instead of allocating, which holds back the publishing thread and
+ * with it the Kafka consumer.
+ */
+class SolaceSentMessagePool {
+    private static final Logger logger = LoggerFactory.getLogger(SolaceSentMessagePool.class);
+
+    private static final long PARK_NANOS = 50000L;
+
+    /**
+     * Allocates every state the pool will ever hand out.
+     * @param capacity number of states; the most messages that can be outstanding at once.
+     */
+    public SolaceSentMessagePool(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Allocates every state the pool will ever hand out, tagged with the lane that owns them.
+     * @param capacity number of states; the most messages that can be outstanding at once.
+     * @param lane index of the publishing lane that owns this pool.
+     */
+    public SolaceSentMessagePool(int capacity, int lane) {
+        free = new SpscRingBuffer<>(SolaceSentMessageState.class, capacity);
+        unsent = new SolaceSentMessageState[capacity];
+        for (int i = 0; i < capacity; i++) {
+            SolaceSentMessageState state = new SolaceSentMessageState();
+            state.setLane(lane);
+            free.append(state);
+        }
+        logger.info("Pre-allocated {} Solace message containers", capacity);
+    }
+
+    /**
+     * Takes a free state, waiting for one to be released if the pool is exhausted.
+     * Only to be called by the single publishing thread.
+     * @return A state ready to be populated and sent.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public SolaceSentMessageState acquire() throws InterruptedException {
+        if (unsentCount > 0) {
+            SolaceSentMessageState state = unsent[--unsentCount];
+            unsent[unsentCount] = null;
+            return state;
+        }
+        if (free.used() > 0)
+            return free.remove();
+        exhaustedCount++;
+        logger.debug("Solace message pool exhausted; waiting for ACKs");
+        while (free.used() == 0) {
+            LockSupport.parkNanos(PARK_NANOS);
+            if (Thread.interrupted())
+                throw new InterruptedException("Interrupted waiting for a free Solace message container");
+        }
+        return free.remove();
+    }
+
+    /**
+     * Returns a state to the pool for re-use. Only to be called by the single releasing thread.
+     * @param state state previously handed out by acquire().
+     */
+    public void release(SolaceSentMessageState state) {
+        if (!free.append(state))
+            logger.error("Released more Solace message containers than were allocated; dropping msg {}",
+                    state.getMsgID());
+    }
+
+    /**
+     * Hands back a state that was acquired but never successfully sent, so no ACK will
+     * release it. Only to be called by the publishing thread; returned states are the next
+     * ones acquired.
+     * @param state state previously handed out by acquire().
+     */
+    public void returnUnsent(SolaceSentMessageState state) {
+        unsent[unsentCount++] = state;
+    }
+
+    /**
+     * @return the fixed number of states owned by this pool.
+     */
+    public int capacity() {
+        return free.capacity();
+    }
+
+    /**
+     * @return Instantaneous number of states free to be acquired.
+     */
+    public int available() {
+        return free.used() + unsentCount;
+    }
+
+    /**
+     * @return Number of times acquire() has found the pool empty and had to wait.
+     */
+    public long exhaustedCount() {
+        return exhaustedCount;
+    }
+
+    final private SpscRingBuffer<SolaceSentMessageState> free;
+    // Owned by the publishing thread; a stack, as the publishing thread is the free list's consumer, not its producer
+    final private SolaceSentMessageState[] unsent;
+    private volatile int unsentCount = 0;
+    private volatile long exhaustedCount = 0;
+}
@@ -24,14 +24,14 @@ class SolaceSentMessageState implements HasMsgID {
     //
 
     /**
-     * Sets a long integer msg-ID for tracking and uses it as the underlying message
-     * ApplicationMessageID (string).
+     * Sets a long integer msg-ID for tracking. It is not written to the underlying message:
+     * ACKs find this state through the correlation key, and MsgHelper sets the
+     * ApplicationMessageID from it unless that is turned off.
      *
      * @param id Long integer message ID; should be unique within this producer's sequence.
      */
     public void setMsgID(long id) {
         this.id = id;
-        message.setApplicationMessageId(Long.toString(id));
     }
 
     /**
@@ -64,7 +64,16 @@ class SolaceSentMessageState implements HasMsgID {
     }
 
     /**
-     * TBD Sets the Kafka Offset this message was received from.
+     * Sets the Kafka topic this message was consumed from.
+     *
+     * @param sourceTopic Source topic for this message being published to Solace.
+     */
+    public void setSourceTopic(String sourceTopic) {
+        this.sourceTopic = sourceTopic;
+    }
+
+    /**
+     * Sets the Kafka Offset this message was received from.
      *
      * @param offset Source offset for this message being published to Solace.
      */
@@ -72,10 +81,109 @@ class SolaceSentMessageState implements HasMsgID {
         this.offset = offset;
     }
 
+    /**
+     * Sets the publishing lane that owns this state, so ACKs are routed back to it.
+     *
+     * @param lane Index of the owning SolacePublisher.
+     */
+    public void setLane(int lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * Sets when the Kafka record was received and when it was handed to the Solace producer,
+     * for measuring how long each stage took once the ACK arrives.
+     *
+     * @param receivedNanos System.nanoTime() when the record was polled from Kafka.
+     * @param sentNanos System.nanoTime() when the message was handed to the producer.
+     */
+    public void setTimes(long receivedNanos, long sentNanos) {
+        this.receivedNanos = receivedNanos;
+        this.sentNanos = sentNanos;
+    }
+
+    /**
+     * Records the Kafka records packed into this message, so each of them can be ACK'd once
+     * the envelope is. The arrays holding them grow to the largest envelope and are re-used.
+     *
+     * @param envelope Envelope whose records this message carries.
+     */
+    public void setPacked(RecordPacker.Envelope envelope) {
+        int count = envelope.count();
+        if (packedOffsets == null || packedOffsets.length < count) {
+            packedTopics = new String[count];
+            packedPartitions = new int[count];
+            packedOffsets = new long[count];
+        }
+        for (int i = 0; i < count; i++) {
+            packedTopics[i] = envelope.sourceTopic(i);
+            packedPartitions[i] = envelope.partition(i);
+            packedOffsets[i] = envelope.offset(i);
+        }
+        // Any topics left from a bigger envelope are only overwritten, never read
+        packedCount = count;
+    }
+
     //
     // GETTERS
     //
 
+    /**
+     * Gets the number of Kafka records packed into this message.
+     *
+     * @return Number of packed records, or 0 if the message carries a single record.
+     */
+    public int getPackedCount() {
+        return packedCount;
+    }
+
+    /**
+     * @param i index of a packed record, in [0, getPackedCount()).
+     * @return Kafka topic the packed record came from.
+     */
+    public String getPackedTopic(int i) {
+        return packedTopics[i];
+    }
+
+    /**
+     * @param i index of a packed record, in [0, getPackedCount()).
+     * @return Kafka partition the packed record came from.
+     */
+    public int getPackedPartition(int i) {
+        return packedPartitions[i];
+    }
+
+    /**
+     * @param i index of a packed record, in [0, getPackedCount()).
+     * @return Kafka offset of the packed record.
+     */
+    public long getPackedOffset(int i) {
+        return packedOffsets[i];
+    }
+
+    /**
+     * @return System.nanoTime() when the record was polled from Kafka.
+     */
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+    /**
+     * @return System.nanoTime() when the message was handed to the producer.
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * Gets the publishing lane that owns this state.
+     *
+     * @return Index of the owning SolacePublisher.
+     */
+    public int getLane() {
+        return lane;
+    }
+
     /**
      * Gets the Solace destination topic for this message.
      * @return Solace Destination object for this message to be published on.
@@ -92,6 +200,15 @@ class SolaceSentMessageState implements HasMsgID {
         return message;
     }
 
+    /**
+     * Gets the Kafka topic a record came from (needed with partition and offset for acking the record).
+     *
+     * @return Kafka topic name, or null if not a Kafka record.
+     */
+    public String getSourceTopic() {
+        return sourceTopic;
+    }
+
     /**
      * Gets the Kafka partition a record came from (can be useful for acking the record).
      *
@@ -111,12 +228,12 @@ class SolaceSentMessageState implements HasMsgID {
     }
 
     /**
-     * Retrieves the application message-ID from the Solace message.
+     * Formats the msg-ID for logging.
      *
-     * @return
+     * @return The msg-ID as a string.
      */
     public String getMessageID() {
-        return message.getApplicationMessageId();
+        return Long.toString(id);
     }
 
     //
@@ -125,7 +242,17 @@ class SolaceSentMessageState implements HasMsgID {
     private final BytesXMLMessage message;
     private Destination destination;
 
+    private int lane;
+    private String sourceTopic;
     private int partition;
     private long offset;
     private long id;
+    private long receivedNanos;
+    private long sentNanos;
+
+    // Source records of a packed envelope
+    private int packedCount;
+    private String[] packedTopics;
+    private int[] packedPartitions;
+    private long[] packedOffsets;
 }
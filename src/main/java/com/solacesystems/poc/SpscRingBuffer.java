@@ -0,0 +1,191 @@
+package com.solacesystems.poc;
+
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free RingBuffer for exactly one appending thread and one removing thread,
+ * e.g. a publisher thread handing state objects to the JCSMP producer's ACK thread.
+ *
+ * Drop-in replacement for RingBuffer: slots are addressed by masking ever-increasing
+ * head/tail sequences over power-of-two storage, while capacity() stays the size
+ * asked for. The sequences sit on their own cache lines and are published with
+ * ordered (lazySet) writes, so neither side takes a lock or a full fence.
+ *
+ * @param <T>
+ */
+class SpscRingBuffer<T> {
+
+    /**
+     * Creates a new SpscRingBuffer with a static number of buffer slots available for use.
+     * @param clazz Data type of instances to be stored in the buffer.
+     * @param capacity Maximum number of items that can be stored at one time.
+     */
+    public SpscRingBuffer(Class<T> clazz, int capacity) {
+        this(clazz, capacity, false);
+    }
+
+    /**
+     * Creates a new SpscRingBuffer, optionally carrying a long stamp (e.g. a timestamp) with
+     * every item; see append(T, long) and drainTo(Collection, int, long[]).
+     * @param clazz Data type of instances to be stored in the buffer.
+     * @param capacity Maximum number of items that can be stored at one time.
+     * @param stamped true to allocate storage for the stamps.
+     */
+    public SpscRingBuffer(Class<T> clazz, int capacity, boolean stamped) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.mask = size - 1;
+        buffer = (T[]) Array.newInstance(clazz, size);
+        stamps = stamped ? new long[size] : null;
+    }
+
+    /**
+     * Adds a new item to the end of the buffer. Only to be called by the single appending thread.
+     * @param item additional item
+     * @return true if the item could be successfully appended; false if not.
+     */
+    public boolean append(T item) {
+        final long t = tail.get();
+        if (t - tail.cached >= capacity) {
+            // Looks full from our last view of the consumer; refresh it
+            tail.cached = head.get();
+            if (t - tail.cached >= capacity)
+                return false;
+        }
+        buffer[(int) t & mask] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Adds a new item and its stamp to the end of a stamped buffer. Only to be called by the single appending thread.
+     * @param item additional item
+     * @param stamp value carried along with the item
+     * @return true if the item could be successfully appended; false if not.
+     */
+    public boolean append(T item, long stamp) {
+        final long t = tail.get();
+        if (t - tail.cached >= capacity) {
+            tail.cached = head.get();
+            if (t - tail.cached >= capacity)
+                return false;
+        }
+        final int idx = (int) t & mask;
+        // Published along with the item by the ordered write of the tail
+        stamps[idx] = stamp;
+        buffer[idx] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Removes oldest item from the buffer and returns it. Only to be called by the single removing thread.
+     * @return oldest instance of T from the buffer.
+     * @throws BufferUnderflowException when there are no items available to remove
+     */
+    public T remove() throws BufferUnderflowException {
+        final long h = head.get();
+        if (h >= head.cached) {
+            // Looks empty from our last view of the producer; refresh it
+            head.cached = tail.get();
+            if (h >= head.cached)
+                throw new BufferUnderflowException();
+        }
+        final int idx = (int) h & mask;
+        T item = buffer[idx];
+        buffer[idx] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    /**
+     * Removes up to maxItems of the oldest items in order, publishing the new head once
+     * for the whole batch. Only to be called by the single removing thread.
+     * @param into collection the removed items are added to.
+     * @param maxItems maximum number of items to remove.
+     * @return Number of items removed; 0 if the buffer was empty.
+     */
+    public int drainTo(Collection<? super T> into, int maxItems) {
+        return drainTo(into, maxItems, null);
+    }
+
+    /**
+     * Removes up to maxItems of the oldest items in order along with their stamps, publishing
+     * the new head once for the whole batch. Only to be called by the single removing thread.
+     * @param into collection the removed items are added to.
+     * @param maxItems maximum number of items to remove.
+     * @param stampsInto receives the stamp of the i'th removed item at index i; null to ignore stamps.
+     * @return Number of items removed; 0 if the buffer was empty.
+     */
+    public int drainTo(Collection<? super T> into, int maxItems, long[] stampsInto) {
+        final long h = head.get();
+        long available = head.cached - h;
+        if (available < maxItems) {
+            head.cached = tail.get();
+            available = head.cached - h;
+        }
+        final int count = (int) Math.min(available, maxItems);
+        for (int i = 0; i < count; i++) {
+            final int idx = (int) (h + i) & mask;
+            into.add(buffer[idx]);
+            buffer[idx] = null;
+            if (stampsInto != null)
+                stampsInto[i] = stamps[idx];
+        }
+        if (count > 0)
+            head.lazySet(h + count);
+        return count;
+    }
+
+    /**
+     * The total number of items that can be stored at one time. This is static, defined at instantiation.
+     * @return the total capacity of the buffer.
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * The number of slots in the buffer that are currently populated with items.
+     * @return Instantaneous number of used slots.
+     */
+    public int used() {
+        // The two sequences are read at slightly different instants, so clamp to a sane range
+        final long h = head.get();
+        final long used = tail.get() - h;
+        return (int) Math.max(0, Math.min(used, capacity));
+    }
+
+    /**
+     * The number of slots that are not used and are thus available to be used.
+     * @return Instantaneous number of usable slots.
+     */
+    public int available() {
+        return capacity - used();
+    }
+
+    /**
+     * A sequence padded out to its own cache line, along with the owning thread's
+     * cached view of the opposite sequence so that it rarely has to read it.
+     */
+    static final class Sequence extends AtomicLong {
+        long cached;
+        long p1, p2, p3, p4, p5, p6;
+    }
+
+    final private T[]  buffer;
+    final private long[] stamps;
+    final private int  capacity;
+    final private int  mask;
+    // Next slot to append; written only by the appending thread
+    private final Sequence tail = new Sequence();
+    // Next slot to remove; written only by the removing thread
+    private final Sequence head = new Sequence();
+}
@@ -0,0 +1,55 @@
+package com.solacesystems.poc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter many threads can add to without contending on one memory location, in the
+ * manner of Java 8's LongAdder (which isn't available at this language level).
+ *
+ * Each thread adds to one of several cells, chosen by its thread ID, and every cell sits on
+ * its own cache line so threads on different cells don't invalidate each other's caches.
+ * Reading sums the cells, so it is only as consistent as a LongAdder's: fine for metrics.
+ * Adding allocates nothing.
+ */
+final class StripedCounter {
+    // Longs per cell: one 64 byte cache line
+    private static final int PAD = 8;
+    private static final int STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    public StripedCounter() {
+        // A spare line at either end keeps the first and last cells off the array header and neighbours
+        cells = new AtomicLongArray((STRIPES + 2) * PAD);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @param delta amount to add to the counter.
+     */
+    public void add(long delta) {
+        // Thread IDs are handed out in sequence, so consecutive threads land on different cells
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd((stripe + 1) * PAD, delta);
+    }
+
+    /**
+     * @return Total of everything added so far.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            sum += cells.get((stripe + 1) * PAD);
+        return sum;
+    }
+
+    /**
+     * @return The power of two at or above the number of processors, capped at 64.
+     */
+    static int stripesFor(int processors) {
+        return Integer.highestOneBit(Math.max(1, Math.min(processors, 64)) * 2 - 1);
+    }
+
+    private final AtomicLongArray cells;
+}
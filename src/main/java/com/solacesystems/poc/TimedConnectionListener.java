@@ -0,0 +1,22 @@
+package com.solacesystems.poc;
+
+/**
+ * A ConnectionListener that is also told when each message was received, so the time it
+ * spends in each stage of the bridge can be measured.
+ * @param <K> Data type of the record keys received.
+ * @param <V> Data type of the record values received.
+ */
+public interface TimedConnectionListener<K, V> extends ConnectionListener<K, V> {
+
+    /**
+     * Called for each message on the observed message source, instead of onMessage without a time.
+     * @param source Original inbound received object.
+     * @param partition Kafka partition from which the inbound message was read.
+     * @param topic Topic on which the inbound message was published.
+     * @param key Record key instance after deserialization.
+     * @param value Record value instance after deserialization.
+     * @param receivedNanos System.nanoTime() when the message was received from the source.
+     * @return False on any failure while processing the message.
+     */
+    public boolean onMessage(Object source, Integer partition, String topic, K key, V value, long receivedNanos) throws Exception;
+}
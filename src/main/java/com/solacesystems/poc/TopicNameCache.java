@@ -0,0 +1,132 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.impl.JCSMPXMLMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Maps the raw destination bytes of received Solace messages to topic name Strings.
+ *
+ * A received message holds its destination as bytes, and getDestination() decodes them into
+ * a new String and Topic on every message. Looking the bytes up here instead returns the
+ * same String for every message on a topic, so nothing is allocated and the String's cached
+ * hash code makes the following route lookup cheap.
+ *
+ * The received bytes are only exposed by the JCSMP implementation class. Messages of any other
+ * class, or a JCSMP version without it, fall back to the public getDestination().getName(),
+ * allocating again; the first fallback is logged and each one is counted in fallbacks().
+ *
+ * The table is direct-mapped with a short linear probe; a topic that finds its probe range
+ * full replaces the entry at its home slot. Not thread-safe: owned by the Solace dispatcher thread.
+ */
+final class TopicNameCache {
+    private static final Logger logger = LoggerFactory.getLogger(TopicNameCache.class);
+
+    private static final int PROBES = 4;
+
+    /**
+     * @param capacity most topic names held; rounded up to a power of two.
+     */
+    public TopicNameCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+        mask = size - 1;
+        keys = new byte[size][];
+        hashes = new int[size];
+        names = new String[size];
+    }
+
+    /**
+     * @param msg received message.
+     * @return the name of the message's destination.
+     */
+    public String lookup(BytesXMLMessage msg) {
+        byte[] bytes = receivedBytes(msg);
+        if (bytes == null) {
+            fallbacks++;
+            return msg.getDestination().getName();
+        }
+
+        int hash = hash(bytes);
+        int home = hash & mask;
+        int slot = home;
+        for (int i = 0; i < PROBES; i++) {
+            int candidate = (home + i) & mask;
+            byte[] key = keys[candidate];
+            if (key == null) {
+                slot = candidate;
+                break;
+            }
+            if (hashes[candidate] == hash && Arrays.equals(key, bytes)) {
+                hits++;
+                return names[candidate];
+            }
+        }
+        misses++;
+        String name = msg.getDestination().getName();
+        // The message owns its byte array; keep a copy
+        keys[slot] = bytes.clone();
+        hashes[slot] = hash;
+        names[slot] = name;
+        return name;
+    }
+
+    private byte[] receivedBytes(BytesXMLMessage msg) {
+        if (!receivedBytesSupported)
+            return null;
+        if (!(msg instanceof JCSMPXMLMessage)) {
+            if (!warned) {
+                warned = true;
+                logger.warn("Solace message of {} doesn't expose its destination bytes; topic names are decoded for every message",
+                        msg.getClass().getName());
+            }
+            return null;
+        }
+        try {
+            return ((JCSMPXMLMessage) msg).getDestinationReceivedBytes();
+        }
+        catch(LinkageError ex) {
+            // Internal API missing from this JCSMP version
+            receivedBytesSupported = false;
+            logger.warn("This JCSMP version doesn't expose received destination bytes; topic names are decoded for every message", ex);
+            return null;
+        }
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return Lookups that decoded the destination through the public API instead.
+     */
+    public long fallbacks() {
+        return fallbacks;
+    }
+
+    private static int hash(byte[] bytes) {
+        int h = 0;
+        for (byte b : bytes)
+            h = 31 * h + b;
+        // Spread the high bits into the masked index
+        return h ^ (h >>> 16);
+    }
+
+    private static volatile boolean receivedBytesSupported = true;
+
+    private final int mask;
+    private final byte[][] keys;
+    private final int[] hashes;
+    private final String[] names;
+    // Written only by the owning thread; read by the stats thread
+    private volatile long hits;
+    private volatile long misses;
+    private volatile long fallbacks;
+    private boolean warned;
+}
@@ -0,0 +1,76 @@
+package com.solacesystems.poc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Translates topics using an ordered list of regular expressions.
+ *
+ * Each mapping is a regex that must match the whole topic and a replacement that may refer
+ * to its groups as {@code $1}, {@code $2}, ... The first matching regex wins; topics matching
+ * none are returned unchanged. Regex evaluation only happens the first time a topic is seen;
+ * results are kept in a bounded CLOCK cache so steady traffic costs one hash lookup.
+ */
+public class TopicRegexTranslator implements TopicTranslator {
+
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    public TopicRegexTranslator(List<String[]> mappings) {
+        this(mappings, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param mappings ordered pairs of match regex and replacement template.
+     * @param cacheSize maximum number of distinct topics whose translations are remembered;
+     *                  0 to translate every call, e.g. when the caller caches results itself.
+     */
+    public TopicRegexTranslator(List<String[]> mappings, int cacheSize) {
+        for(String[] pair : mappings) {
+            patterns.add(Pattern.compile(pair[0].trim()));
+            replacements.add(pair[1].trim());
+        }
+        cache = cacheSize > 0 ? new ClockCache<String,String>(cacheSize) : null;
+    }
+
+    public String translate(String topic) {
+        if (cache == null)
+            return match(topic);
+        String result = cache.get(topic);
+        if (result == null) {
+            result = match(topic);
+            cache.put(topic, result);
+        }
+        return result;
+    }
+
+    /**
+     * Applies the first matching regex to a topic, bypassing the cache.
+     * @param topic topic to translate.
+     * @return the translated topic, or the topic itself if no regex matches.
+     */
+    String match(String topic) {
+        for (int i = 0; i < patterns.size(); i++) {
+            Matcher matcher = patterns.get(i).matcher(topic);
+            if (matcher.matches()) {
+                StringBuffer sb = new StringBuffer();
+                matcher.appendReplacement(sb, replacements.get(i));
+                matcher.appendTail(sb);
+                return sb.toString();
+            }
+        }
+        return topic;
+    }
+
+    /**
+     * @return the translation cache, for its hit/miss counters; null if not caching.
+     */
+    public ClockCache<String,String> cache() {
+        return cache;
+    }
+
+    final private List<Pattern> patterns = new ArrayList<>();
+    final private List<String> replacements = new ArrayList<>();
+    final private ClockCache<String,String> cache;
+}
@@ -0,0 +1,245 @@
+package com.solacesystems.poc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates topics using Solace-style wildcard rules, compiled into a trie with one level
+ * per topic level.
+ *
+ * Each mapping is a pattern and a target, e.g. {@code orders/eu/*}{@code /fill : eu_fills_$1}.
+ * In the pattern, {@code *} matches exactly one level and a trailing {@code >} matches one or
+ * more remaining levels. Each wildcard captures the text it matched; {@code $1}, {@code $2}, ...
+ * in the target are replaced with those captures in order. When several rules match, the most
+ * specific wins: at each level a literal beats {@code *}, which beats {@code >}. Topics that
+ * match no rule are returned unchanged.
+ *
+ * Lookups walk the topic in place, O(topic levels). Results are remembered in a bounded
+ * CLOCK cache, so a repeated topic costs one hash lookup and allocates nothing.
+ */
+public class TopicWildcardTranslator implements TopicTranslator {
+
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    public TopicWildcardTranslator(List<String[]> mappings) {
+        this(mappings, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param mappings pairs of wildcard pattern and target template.
+     * @param cacheSize maximum number of distinct topics whose translations are remembered;
+     *                  0 to translate every call, e.g. when the caller caches results itself.
+     */
+    public TopicWildcardTranslator(List<String[]> mappings, int cacheSize) {
+        cache = cacheSize > 0 ? new ClockCache<String,String>(cacheSize) : null;
+        for(String[] pair : mappings) {
+            addRule(pair[0].trim(), pair[1].trim());
+        }
+    }
+
+    public String translate(String topic) {
+        if (cache == null)
+            return match(topic);
+        String result = cache.get(topic);
+        if (result == null) {
+            result = match(topic);
+            cache.put(topic, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the translation cache, for its hit/miss counters; null if not caching.
+     */
+    public ClockCache<String,String> cache() {
+        return cache;
+    }
+
+    /**
+     * Finds the most specific rule for a topic and renders its target, bypassing the cache.
+     * @param topic topic to translate.
+     * @return the translated topic, or the topic itself if no rule matches.
+     */
+    String match(String topic) {
+        int[] captures = new int[2 * maxWildcards];
+        Template target = match(root, topic, 0, captures, 0);
+        return target == null ? topic : target.render(topic, captures);
+    }
+
+    private Template match(Node node, String topic, int pos, int[] captures, int ncap) {
+        if (pos > topic.length())
+            return node.target;
+        int end = topic.indexOf(LEVEL_SEPARATOR, pos);
+        if (end < 0)
+            end = topic.length();
+
+        Node literal = node.find(topic, pos, end);
+        if (literal != null) {
+            Template target = match(literal, topic, end + 1, captures, ncap);
+            if (target != null)
+                return target;
+        }
+        if (node.oneLevel != null) {
+            captures[2 * ncap] = pos;
+            captures[2 * ncap + 1] = end;
+            Template target = match(node.oneLevel, topic, end + 1, captures, ncap + 1);
+            if (target != null)
+                return target;
+        }
+        if (node.remainder != null) {
+            captures[2 * ncap] = pos;
+            captures[2 * ncap + 1] = topic.length();
+            return node.remainder;
+        }
+        return null;
+    }
+
+    private void addRule(String pattern, String target) {
+        String[] levels = pattern.split(String.valueOf(LEVEL_SEPARATOR), -1);
+        Template template = new Template(target);
+        Node node = root;
+        int wildcards = 0;
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals(">") && i == levels.length - 1) {
+                node.remainder = template;
+                node = null;
+                wildcards++;
+                break;
+            }
+            if (level.equals("*")) {
+                if (node.oneLevel == null)
+                    node.oneLevel = new Node();
+                node = node.oneLevel;
+                wildcards++;
+            }
+            else {
+                node = node.findOrAdd(level);
+            }
+        }
+        if (node != null)
+            node.target = template;
+        maxWildcards = Math.max(maxWildcards, wildcards);
+    }
+
+    /**
+     * One topic level of the trie. Literal children live in an open-addressed table keyed by
+     * level text, so they can be looked up straight from a region of the topic string.
+     */
+    private static final class Node {
+        Node find(String topic, int start, int end) {
+            if (count == 0)
+                return null;
+            int len = end - start;
+            int mask = keys.length - 1;
+            for (int idx = hash(topic, start, end) & mask; keys[idx] != null; idx = (idx + 1) & mask) {
+                String key = keys[idx];
+                if (key.length() == len && topic.regionMatches(start, key, 0, len))
+                    return children[idx];
+            }
+            return null;
+        }
+
+        Node findOrAdd(String level) {
+            Node child = find(level, 0, level.length());
+            if (child != null)
+                return child;
+            if (2 * (count + 1) > keys.length)
+                resize(2 * keys.length);
+            child = new Node();
+            insert(level, child);
+            count++;
+            return child;
+        }
+
+        private void insert(String key, Node child) {
+            int mask = keys.length - 1;
+            int idx = hash(key, 0, key.length()) & mask;
+            while (keys[idx] != null)
+                idx = (idx + 1) & mask;
+            keys[idx] = key;
+            children[idx] = child;
+        }
+
+        private void resize(int size) {
+            String[] oldKeys = keys;
+            Node[] oldChildren = children;
+            keys = new String[size];
+            children = new Node[size];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null)
+                    insert(oldKeys[i], oldChildren[i]);
+            }
+        }
+
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++)
+                h = 31 * h + s.charAt(i);
+            return h ^ (h >>> 16);
+        }
+
+        String[] keys = new String[2];
+        Node[] children = new Node[2];
+        int count = 0;
+        // Child for a '*' level
+        Node oneLevel;
+        // Target of a rule ending in '>' at this level
+        Template remainder;
+        // Target of a rule ending exactly at this level
+        Template target;
+    }
+
+    /**
+     * A target topic split into literal text and numbered capture references.
+     */
+    private static final class Template {
+        Template(String target) {
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < target.length()) {
+                char c = target.charAt(i);
+                int j = i + 1;
+                while (c == '$' && j < target.length() && Character.isDigit(target.charAt(j)))
+                    j++;
+                if (j > i + 1) {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                    captureRefs.add(Integer.parseInt(target.substring(i + 1, j)) - 1);
+                    i = j;
+                }
+                else {
+                    literal.append(c);
+                    i++;
+                }
+            }
+            parts.add(literal.toString());
+            constant = captureRefs.isEmpty() ? parts.get(0) : null;
+        }
+
+        String render(String topic, int[] captures) {
+            if (constant != null)
+                return constant;
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < captureRefs.size(); i++) {
+                sb.append(parts.get(i));
+                int ref = captureRefs.get(i);
+                if (ref >= 0 && 2 * ref + 1 < captures.length)
+                    sb.append(topic, captures[2 * ref], captures[2 * ref + 1]);
+            }
+            sb.append(parts.get(captureRefs.size()));
+            return sb.toString();
+        }
+
+        // Literal text before each capture reference, plus the trailing text
+        final List<String> parts = new ArrayList<>();
+        final List<Integer> captureRefs = new ArrayList<>();
+        final String constant;
+    }
+
+    private static final char LEVEL_SEPARATOR = '/';
+
+    final private Node root = new Node();
+    private int maxWildcards = 0;
+    final private ClockCache<String,String> cache;
+}
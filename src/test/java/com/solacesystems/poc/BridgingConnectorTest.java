@@ -0,0 +1,98 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BridgingConnectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final TopicPartition TP = new TopicPartition("t", 0);
+
+    private static void addRecords(MockConsumer<byte[], byte[]> consumer, long from, long to) {
+        for (long offset = from; offset < to; offset++)
+            consumer.addRecord(new ConsumerRecord<>(TP.topic(), TP.partition(), offset, (byte[]) null, new byte[500]));
+    }
+
+    @Test
+    public void spoolFillsMidBatchTest() throws Exception {
+        final DiskSpool spool = new DiskSpool(folder.getRoot(), 4096, 2);
+        MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        Properties props = new Properties();
+        props.put(BridgeProperties.PROP_KAFKA_BRIDGE_TOPICS, Collections.singletonList(TP.topic()));
+        final KafkaConnector<byte[], byte[]> kafkaConn = new KafkaConnector<>(props, consumer,
+                new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer()));
+        final List<Long> handled = new ArrayList<>();
+        kafkaConn.start(new ConnectionListener<byte[], byte[]>() {
+            @Override
+            public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) throws Exception {
+                long offset = ((ConsumerRecord) source).offset();
+                handled.add(offset);
+                return BridgingConnector.spoolOrRewind(spool, kafkaConn, topic, partition, offset, key, value);
+            }
+            @Override
+            public void onConnected() {
+            }
+            @Override
+            public void onDisconnected() {
+            }
+        });
+        consumer.rebalance(Collections.singletonList(TP));
+        consumer.updateBeginningOffsets(Collections.singletonMap(TP, 0L));
+        addRecords(consumer, 0, 20);
+        kafkaConn.poll(0);
+
+        long spooled = spool.unread();
+        assertTrue(spool.isFull());
+        assertTrue("The spool should fill mid-batch", spooled > 0 && spooled < 20);
+        assertEquals("Records after the rejected one are skipped", spooled + 1, handled.size());
+        assertEquals("Kafka should deliver the rejected record again", spooled, consumer.position(TP));
+        assertEquals(Collections.singleton(TP), consumer.paused());
+
+        ConsumerRecord<byte[], byte[]> record;
+        while ((record = spool.next()) != null)
+            spool.acked(record.topic(), record.partition(), record.offset());
+        spool.recycle();
+        // As the bridge's polling loop does once the spool has room
+        assertFalse(spool.isFull());
+        kafkaConn.releaseRewound();
+        assertEquals(Collections.emptySet(), consumer.paused());
+
+        handled.clear();
+        addRecords(consumer, spooled, 20);
+        kafkaConn.poll(0);
+        assertEquals(20 - spooled, handled.size());
+        for (long offset = spooled; offset < 20; offset++)
+            assertEquals("Nothing is lost or reordered", offset, spool.next().offset());
+    }
+
+    @Test
+    public void spoolSegmentCheckTest() {
+        BridgingConnector.checkSpoolSegment(64 * 1024 * 1024, 1048576);
+        BridgingConnector.checkSpoolSegment(2 * 1024 * 1024, 1048576);
+        try {
+            BridgingConnector.checkSpoolSegment(1024 * 1024, 1048576);
+            fail("A segment no larger than a fetch can't hold every record");
+        }
+        catch(IllegalArgumentException expected) {
+        }
+    }
+}
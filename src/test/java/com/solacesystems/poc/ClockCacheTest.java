@@ -0,0 +1,48 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ClockCacheTest {
+
+    @Test
+    public void hitMissTest() {
+        ClockCache<String,String> cache = new ClockCache<>(4);
+        assertNull("Empty cache should miss", cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("Cached value is wrong", "A", cache.get("a"));
+        cache.put("a", "AA");
+        assertEquals("Replaced value is wrong", "AA", cache.get("a"));
+        assertEquals("Size is wrong", 1, cache.size());
+        assertEquals("Hits are wrong", 2, cache.hits());
+        assertEquals("Misses are wrong", 1, cache.misses());
+    }
+
+    @Test
+    public void boundedTest() {
+        ClockCache<Integer,Integer> cache = new ClockCache<>(100);
+        for(int i = 0; i < 1000; i++)
+            cache.put(i, i);
+        assertEquals("Size should be bounded by capacity", 100, cache.size());
+        assertEquals("Evictions are wrong", 900, cache.evictions());
+    }
+
+    @Test
+    public void secondChanceTest() {
+        ClockCache<String,String> cache = new ClockCache<>(3);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        // Referenced entries survive the sweep; the first unreferenced one is evicted
+        cache.get("a");
+        cache.get("c");
+        cache.put("d", "D");
+        assertNotNull("Recently used entry should survive", cache.get("a"));
+        assertNull("Unused entry should be evicted", cache.get("b"));
+        assertNotNull("Recently used entry should survive", cache.get("c"));
+        assertNotNull("New entry should be cached", cache.get("d"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class DestinationCacheTest {
+
+    private static List<String[]> getTestMappings() {
+        ArrayList<String[]> mappings = new ArrayList<>();
+        mappings.add(new String[] { "from" , "to/topic" });
+        return mappings;
+    }
+
+    @Test
+    public void solaceRouteTest() {
+        DestinationCache routes = new DestinationCache(new TopicStringTranslator(getTestMappings()), 10, true);
+        DestinationCache.Route route = routes.lookup("from");
+        assertEquals("Translated name is wrong", "to/topic", route.getName());
+        assertEquals("Solace topic is wrong", "to/topic", route.getTopic().getName());
+        assertSame("Repeat lookup should return the same route", route, routes.lookup("from"));
+        assertEquals("Hits are wrong", 1, routes.cache().hits());
+        assertEquals("Misses are wrong", 1, routes.cache().misses());
+    }
+
+    @Test
+    public void kafkaRouteTest() {
+        DestinationCache routes = new DestinationCache(new TopicStringTranslator(getTestMappings()), 10, false);
+        DestinationCache.Route route = routes.lookup("other");
+        assertEquals("Untranslated name is wrong", "other", route.getName());
+        assertNull("No Solace topic should be created", route.getTopic());
+    }
+}
@@ -0,0 +1,204 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int SEGMENT_BYTES = 4096;
+
+    private final List<Long> synced = new ArrayList<>();
+
+    private DiskSpool open(File dir, int segments) throws Exception {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES, segments);
+        spool.setSpoolListener(new PublishAckListener() {
+            @Override
+            public void onPublishAck(String topic, int partition, long offset) {
+                synced.add(offset);
+            }
+        });
+        return spool;
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        DiskSpool spool = open(folder.getRoot(), 4);
+        assertTrue(spool.append("orders", 3, 42L, new byte[] { 1, 2 }, new byte[] { 3 }));
+        assertTrue(spool.append("orders", 4, Long.MAX_VALUE, null, new byte[0]));
+        assertEquals(2, spool.unread());
+
+        ConsumerRecord<byte[], byte[]> record = spool.next();
+        assertEquals("orders", record.topic());
+        assertEquals(3, record.partition());
+        assertEquals(42L, record.offset());
+        assertArrayEquals(new byte[] { 1, 2 }, record.key());
+        assertArrayEquals(new byte[] { 3 }, record.value());
+        record = spool.next();
+        assertEquals(Long.MAX_VALUE, record.offset());
+        assertNull(record.key());
+        assertArrayEquals(new byte[0], record.value());
+        assertNull(spool.next());
+        assertEquals(0, spool.unread());
+    }
+
+    @Test
+    public void offsetsReportedOnSyncTest() throws Exception {
+        DiskSpool spool = open(folder.getRoot(), 4);
+        spool.append("t", 0, 1L, null, new byte[10]);
+        spool.append("t", 0, 2L, null, new byte[10]);
+        assertTrue("Offsets must wait until the records are on disk", synced.isEmpty());
+        spool.sync();
+        assertEquals(2, synced.size());
+        spool.sync();
+        assertEquals("Each record is reported once", 2, synced.size());
+    }
+
+    @Test
+    public void segmentsRecycledOnceAckedTest() throws Exception {
+        DiskSpool spool = open(folder.getRoot(), 3);
+        long offset = 0;
+        while (spool.segmentsInUse() < 2)
+            spool.append("t", 0, offset++, null, new byte[500]);
+        spool.sync();
+        ConsumerRecord<byte[], byte[]> first = spool.next();
+        List<ConsumerRecord<byte[], byte[]>> rest = new ArrayList<>();
+        ConsumerRecord<byte[], byte[]> record;
+        while ((record = spool.next()) != null)
+            rest.add(record);
+        for (ConsumerRecord<byte[], byte[]> r : rest)
+            assertTrue(spool.acked(r.topic(), r.partition(), r.offset()));
+        assertEquals("The first segment still waits for an ACK", 0, spool.recycle());
+
+        assertTrue(spool.acked(first.topic(), first.partition(), first.offset()));
+        assertEquals(2, spool.recycle());
+        assertEquals(0, spool.segmentsInUse());
+        assertFalse("Only drained records are the spool's to ACK", spool.acked("t", 0, 0L));
+    }
+
+    @Test
+    public void nackedRecordReadAgainTest() throws Exception {
+        DiskSpool spool = open(folder.getRoot(), 3);
+        long offset = 0;
+        while (spool.segmentsInUse() < 2)
+            spool.append("t", 0, offset++, null, new byte[500]);
+        ConsumerRecord<byte[], byte[]> nacked = spool.next();
+        ConsumerRecord<byte[], byte[]> record;
+        while ((record = spool.next()) != null)
+            assertTrue(spool.acked(record.topic(), record.partition(), record.offset()));
+        assertTrue(spool.failed(nacked.topic(), nacked.partition(), nacked.offset()));
+        assertFalse("Only drained records are the spool's to fail", spool.failed("t", 0, offset));
+        assertEquals(1, spool.unread());
+        assertEquals("Its segment is kept until the record is published", 0, spool.recycle());
+
+        ConsumerRecord<byte[], byte[]> again = spool.next();
+        assertEquals(nacked.offset(), again.offset());
+        assertArrayEquals(nacked.value(), again.value());
+        assertNull(spool.next());
+        assertEquals(1, spool.retried());
+        assertTrue(spool.acked(again.topic(), again.partition(), again.offset()));
+        assertEquals(2, spool.recycle());
+        assertEquals(0, spool.segmentsInUse());
+    }
+
+    @Test
+    public void boundedTest() throws Exception {
+        File dir = folder.newFolder();
+        DiskSpool spool = open(dir, 2);
+        long offset = 0;
+        while (spool.append("t", 0, offset, null, new byte[500]))
+            offset++;
+        assertTrue(spool.isFull());
+        assertEquals(1, spool.rejected());
+        assertFalse("A record larger than a segment never fits", open(folder.newFolder(), 2)
+                .append("t", 0, 0L, null, new byte[SEGMENT_BYTES]));
+
+        while (spool.next() != null)
+            ;
+        for (long i = 0; i < offset; i++)
+            spool.acked("t", 0, i);
+        spool.recycle();
+        assertFalse(spool.isFull());
+        assertTrue("Recycled segments are re-used", spool.append("t", 0, offset, null, new byte[500]));
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void fitsTest() throws Exception {
+        DiskSpool spool = open(folder.newFolder(), 2);
+        StringBuilder topic = new StringBuilder();
+        while (topic.length() < 255)
+            topic.append('t');
+        int largest = SEGMENT_BYTES - DiskSpool.segmentBytesFor(0);
+        assertTrue("A segment sized for a record fits it on any topic", spool.fits(topic.toString(), null, new byte[largest]));
+        assertTrue(spool.append(topic.toString(), 0, 0L, null, new byte[largest]));
+        assertFalse(spool.fits(topic.toString(), null, new byte[largest + 1]));
+        assertFalse("A record that doesn't fit is never spooled", spool.append(topic.toString(), 0, 1L, null, new byte[largest + 1]));
+        assertTrue(spool.fits("t", new byte[10], new byte[500]));
+    }
+
+    @Test
+    public void recoveredAfterRestartTest() throws Exception {
+        File dir = folder.getRoot();
+        DiskSpool spool = open(dir, 4);
+        long offset = 0;
+        while (spool.segmentsInUse() < 3)
+            spool.append("t", 1, offset++, null, new byte[500]);
+        spool.sync();
+        // The first segment is drained and ACK'd, and the first record of the second only read
+        int perSegment = (SEGMENT_BYTES - 16 - 4) / (8 + 22 + 1 + 500);
+        for (int i = 0; i < perSegment; i++) {
+            ConsumerRecord<byte[], byte[]> record = spool.next();
+            spool.acked(record.topic(), record.partition(), record.offset());
+        }
+        assertEquals(1, spool.recycle());
+        long firstUnacked = spool.next().offset();
+        assertEquals(perSegment, firstUnacked);
+
+        DiskSpool reopened = open(dir, 4);
+        assertEquals(2, reopened.segmentsInUse());
+        assertEquals(offset - firstUnacked, reopened.unread());
+        for (long expected = firstUnacked; expected < offset; expected++)
+            assertEquals("Unacked records come back in order", expected, reopened.next().offset());
+        assertNull(reopened.next());
+        assertTrue(reopened.append("t", 1, offset, null, new byte[500]));
+    }
+
+    @Test
+    public void tornRecordIgnoredTest() throws Exception {
+        File dir = folder.getRoot();
+        DiskSpool spool = open(dir, 2);
+        spool.append("t", 0, 7L, null, new byte[] { 1, 2, 3 });
+        spool.append("t", 0, 8L, null, new byte[] { 4, 5, 6 });
+        spool.sync();
+        // Corrupt the last byte of the second record's value
+        RandomAccessFile file = new RandomAccessFile(new File(dir, DiskSpool.SEGMENT_PREFIX + 0 + DiskSpool.SEGMENT_SUFFIX), "rw");
+        try {
+            long end = 16 + 2 * (8 + 22 + 1 + 3);
+            file.seek(end - 1);
+            file.write(99);
+        }
+        finally {
+            file.close();
+        }
+        DiskSpool reopened = open(dir, 2);
+        assertEquals(1, reopened.unread());
+        assertEquals(7L, reopened.next().offset());
+        assertNull(reopened.next());
+    }
+}
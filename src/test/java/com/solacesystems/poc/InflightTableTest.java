@@ -0,0 +1,78 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InflightTableTest {
+
+    private class TestObj implements HasMsgID {
+        public TestObj(long id) {
+            this.id = id;
+        }
+        @Override
+        public void setMsgID(long id) {
+            this.id = id;
+        }
+        @Override
+        public long getMsgID() {
+            return id;
+        }
+        private long id;
+    }
+
+    @Test
+    public void capacityTest() {
+        assertEquals("Capacity should round up to a power of two", 8, new InflightTable<TestObj>(5).capacity());
+        assertEquals("Capacity is wrong", 8, new InflightTable<TestObj>(8).capacity());
+    }
+
+    @Test
+    public void outOfOrderRemoveTest() {
+        InflightTable<TestObj> table = new InflightTable<>(8);
+        TestObj[] sent = new TestObj[5];
+        for(int i = 0; i < sent.length; i++) {
+            sent[i] = new TestObj(1000 + i);
+            assertTrue("Put should succeed", table.put(sent[i]));
+        }
+        assertEquals("Inflight is wrong", 5, table.inflight());
+        assertEquals("Oldest is wrong", 1000, table.oldestUnacked());
+
+        assertSame("Wrong item removed", sent[2], table.remove(1002));
+        assertSame("Wrong item removed", sent[1], table.remove(1001));
+        assertEquals("Oldest should not move while 1000 is outstanding", 1000, table.oldestUnacked());
+        assertNull("Duplicate ACK should find nothing", table.remove(1001));
+
+        assertSame("Wrong item removed", sent[0], table.remove(1000));
+        assertEquals("Oldest should skip past removed items", 1003, table.oldestUnacked());
+        assertEquals("Inflight is wrong", 2, table.inflight());
+
+        table.remove(1004);
+        table.remove(1003);
+        assertEquals("Oldest should be the next ID when empty", 1005, table.oldestUnacked());
+        assertEquals("Inflight is wrong", 0, table.inflight());
+    }
+
+    @Test
+    public void slotReuseTest() {
+        InflightTable<TestObj> table = new InflightTable<>(4);
+        for(int i = 0; i < 4; i++)
+            table.put(new TestObj(i));
+        assertFalse("Slot of unacked ID 0 cannot be re-used", table.put(new TestObj(4)));
+
+        // Once IDs 0 and 1 are ACK'd their slots are re-used by IDs 4 and 5
+        table.remove(1);
+        table.remove(0);
+        assertTrue("Put should succeed", table.put(new TestObj(4)));
+        assertTrue("Put should succeed", table.put(new TestObj(5)));
+        assertEquals("Oldest is wrong", 2, table.oldestUnacked());
+        table.remove(2);
+        table.remove(3);
+        assertEquals("Oldest should stop at ID 4, not be fooled by slot re-use", 4, table.oldestUnacked());
+        assertNull("Stale ID in a re-used slot should find nothing", table.remove(1));
+    }
+}
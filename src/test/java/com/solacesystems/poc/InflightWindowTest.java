@@ -0,0 +1,74 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InflightWindowTest {
+
+    private class TestFlow implements FlowController {
+        @Override
+        public void stopFlow() {
+            stops++;
+            running = false;
+        }
+        @Override
+        public void startFlow() {
+            starts++;
+            running = true;
+        }
+        boolean running = true;
+        int stops = 0;
+        int starts = 0;
+    }
+
+    @Test
+    public void throttleTest() {
+        TestFlow flow = new TestFlow();
+        InflightWindow window = new InflightWindow(4, 2, flow);
+        for(int i = 0; i < 3; i++)
+            window.acquire();
+        assertTrue("Flow should still be running below the high watermark", flow.running);
+        window.acquire();
+        assertFalse("Flow should be stopped at the high watermark", flow.running);
+        assertTrue("Window should be throttled", window.isThrottled());
+        // Messages already dispatched are still accepted
+        window.acquire();
+        assertEquals("Flow should only be stopped once", 1, flow.stops);
+        assertEquals("Inflight is wrong", 5, window.inflight());
+
+        window.release();
+        window.release();
+        assertFalse("Flow should stay stopped above the low watermark", flow.running);
+        window.release();
+        assertTrue("Flow should restart at the low watermark", flow.running);
+        window.release();
+        assertEquals("Flow should only be restarted once", 1, flow.starts);
+        assertEquals("Inflight is wrong", 1, window.inflight());
+    }
+
+    @Test
+    public void heldTest() {
+        TestFlow flow = new TestFlow();
+        InflightWindow window = new InflightWindow(4, 2, flow);
+        window.setHeld(true);
+        assertFalse("Flow should be stopped while held", flow.running);
+        for(int i = 0; i < 4; i++)
+            window.acquire();
+        for(int i = 0; i < 4; i++)
+            window.release();
+        assertFalse("The window draining doesn't end the hold", flow.running);
+
+        for(int i = 0; i < 4; i++)
+            window.acquire();
+        window.setHeld(false);
+        assertFalse("Still stopped by the window", flow.running);
+        window.release();
+        window.release();
+        assertTrue(flow.running);
+        assertEquals(1, flow.stops);
+        assertEquals(1, flow.starts);
+    }
+}
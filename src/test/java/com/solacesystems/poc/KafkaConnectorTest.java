@@ -0,0 +1,120 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KafkaConnectorTest {
+
+    private static final TopicPartition TP = new TopicPartition("t", 0);
+
+    private final MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private final List<Long> handled = new ArrayList<>();
+
+    private KafkaConnector<byte[], byte[]> newConnector(int maxUnacked, final long failOnce) {
+        final boolean[] failed = { false };
+        Properties props = new Properties();
+        props.put(BridgeProperties.PROP_KAFKA_BRIDGE_TOPICS, Collections.singletonList(TP.topic()));
+        props.setProperty(BridgeProperties.PROP_KAFKA_MAX_UNACKED_PER_PARTITION, Integer.toString(maxUnacked));
+        props.setProperty(BridgeProperties.PROP_KAFKA_COMMIT_ACK_COUNT, "1");
+        props.setProperty(BridgeProperties.PROP_KAFKA_RETRY_BACKOFF_MS, "0");
+        KafkaConnector<byte[], byte[]> kafkaConn = new KafkaConnector<>(props, consumer,
+                new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer()));
+        kafkaConn.start(new ConnectionListener<byte[], byte[]>() {
+            @Override
+            public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                long offset = ((ConsumerRecord) source).offset();
+                handled.add(offset);
+                if (offset != failOnce || failed[0])
+                    return true;
+                failed[0] = true;
+                return false;
+            }
+            @Override
+            public void onConnected() {
+            }
+            @Override
+            public void onDisconnected() {
+            }
+        });
+        consumer.rebalance(Collections.singletonList(TP));
+        consumer.updateBeginningOffsets(Collections.singletonMap(TP, 0L));
+        return kafkaConn;
+    }
+
+    private void addRecords(long from, long to) {
+        for (long offset = from; offset < to; offset++)
+            consumer.addRecord(new ConsumerRecord<>(TP.topic(), TP.partition(), offset, (byte[]) null, new byte[10]));
+    }
+
+    private static void ack(KafkaConnector<byte[], byte[]> kafkaConn, long from, long to) {
+        for (long offset = from; offset < to; offset++)
+            kafkaConn.ack(TP.topic(), TP.partition(), offset);
+    }
+
+    @Test
+    public void rejectedHeadUnsticksPartitionTest() {
+        KafkaConnector<byte[], byte[]> kafkaConn = newConnector(4, -1);
+        addRecords(0, 8);
+        kafkaConn.poll(0);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), handled);
+        assertEquals("Paused with 4 records unacknowledged", Collections.singleton(TP), consumer.paused());
+
+        ack(kafkaConn, 1, 4);
+        kafkaConn.poll(0);
+        assertNull("The head holds back the commit", consumer.committed(TP));
+        assertEquals(Collections.singleton(TP), consumer.paused());
+
+        // As Solace rejecting the head does
+        kafkaConn.failed(TP.topic(), TP.partition(), 0);
+        kafkaConn.poll(0);
+        assertEquals("Sought back to the rejected record", 0, consumer.position(TP));
+        assertEquals(Collections.emptySet(), consumer.paused());
+
+        handled.clear();
+        addRecords(0, 8);
+        kafkaConn.poll(0);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), handled);
+        ack(kafkaConn, 0, 4);
+        kafkaConn.poll(0);
+        assertEquals(4, consumer.committed(TP).offset());
+
+        handled.clear();
+        addRecords(4, 8);
+        kafkaConn.poll(0);
+        assertEquals(Arrays.asList(4L, 5L, 6L, 7L), handled);
+    }
+
+    @Test
+    public void listenerFailureRetriesRecordTest() {
+        KafkaConnector<byte[], byte[]> kafkaConn = newConnector(64, 2);
+        addRecords(0, 6);
+        kafkaConn.poll(0);
+        assertEquals("Records after the failed one are skipped", Arrays.asList(0L, 1L, 2L), handled);
+        assertEquals(2, consumer.position(TP));
+
+        // A repeated report of the same failure changes nothing
+        kafkaConn.failed(TP.topic(), TP.partition(), 2);
+        handled.clear();
+        addRecords(2, 6);
+        kafkaConn.poll(0);
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L), handled);
+
+        ack(kafkaConn, 0, 6);
+        kafkaConn.poll(0);
+        assertEquals(6, consumer.committed(TP).offset());
+    }
+}
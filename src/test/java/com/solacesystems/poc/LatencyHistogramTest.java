@@ -0,0 +1,80 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousTest() {
+        // Every value maps into a bucket whose top is at or above it, and the bucket before ends below it
+        for (long v = 0; v < 1000000; v += 7) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(LatencyHistogram.highestEquivalentValue(index) >= v);
+            if (index > 0)
+                assertTrue(LatencyHistogram.highestEquivalentValue(index - 1) < v);
+        }
+    }
+
+    @Test
+    public void percentilesWithinPrecisionTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++)
+            histogram.record(v * 1000);
+        assertEquals(100000, histogram.count());
+        assertEquals(1000, histogram.min());
+        assertEquals(100000000, histogram.max());
+        assertWithin(50000000, histogram.percentile(50));
+        assertWithin(99000000, histogram.percentile(99));
+        assertEquals(100000000, histogram.percentile(100));
+        assertEquals(50000500.0, histogram.mean(), 1.0);
+    }
+
+    @Test
+    public void outOfRangeValuesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(2, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.max());
+    }
+
+    @Test
+    public void addTest() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(20000);
+        a.add(b);
+        assertEquals(2, a.count());
+        assertEquals(10, a.min());
+        assertEquals(20000, a.max());
+    }
+
+    @Test
+    public void concurrentRecordTest() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++)
+                        histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(400000, histogram.count());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 32);
+    }
+}
@@ -0,0 +1,95 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadPayloadTest {
+
+    @Test
+    public void headerRoundTripTest() {
+        byte[] payload = new byte[100];
+        long intended = LoadPayload.epochNanos();
+        LoadPayload.writeHeader(payload, intended, 42);
+        assertEquals(intended, LoadPayload.readIntendedEpochNanos(payload, payload.length));
+        assertEquals(-1, LoadPayload.readIntendedEpochNanos(new byte[100], 100));
+        assertEquals(-1, LoadPayload.readIntendedEpochNanos(payload, LoadPayload.HEADER_SIZE - 1));
+    }
+
+    @Test
+    public void solaceConsumerDecodesBridgedMessagesTest() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION, "load/>:lz4");
+        props.setProperty(BridgeProperties.PROP_COMPRESSION_MIN_BYTES, "64");
+        MsgHelper<byte[],byte[]> msgHelper = new MsgHelper<>(props);
+        LoadConsumer consumer = new LoadConsumer() {
+            @Override
+            void start() {
+            }
+            @Override
+            void close() {
+            }
+        };
+        byte[] payload = new byte[1000];
+        LoadPayload.writeHeader(payload, LoadPayload.epochNanos(), 1);
+
+        BytesXMLMessage compressed = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msgHelper.putValue(compressed, "load/1", payload);
+        assertTrue(PayloadCompression.codecOf(compressed) != PayloadCompression.NONE);
+        consumer.onMessage(msgHelper, compressed);
+        assertEquals(1, consumer.received());
+
+        RecordPacker.Envelope envelope = new RecordPacker(10, 65536, 0, 4)
+                .open(JCSMPFactory.onlyInstance().createTopic("load/2"), 0);
+        envelope.append("t", 0, 1L, null, payload);
+        envelope.append("t", 0, 2L, null, payload);
+        BytesXMLMessage packed = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        packed.setApplicationMessageType(RecordPacker.PACKED_MSG_TYPE);
+        PassThroughMsgHelper.putValue(packed, Arrays.copyOf(envelope.buffer(), envelope.length()));
+        consumer.onMessage(msgHelper, packed);
+        assertEquals("Each packed record is a payload", 3, consumer.received());
+
+        BytesXMLMessage other = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        other.writeAttachment(new byte[100]);
+        consumer.onMessage(msgHelper, other);
+        PassThroughMsgHelper.putValue(packed, new byte[3]);
+        consumer.onMessage(msgHelper, packed);
+        assertEquals(3, consumer.received());
+        assertEquals(2, consumer.unrecognised());
+    }
+
+    @Test
+    public void sizeDistributionTest() {
+        LoadPayload.SizeDistribution sizes = new LoadPayload.SizeDistribution("100:9, 10000:1, 1:0");
+        assertEquals(3, sizes.count());
+        // Too small for the header
+        assertEquals(LoadPayload.HEADER_SIZE, sizes.size(2));
+        int[] counts = new int[3];
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++)
+            counts[sizes.sample(random)]++;
+        assertEquals(0, counts[2]);
+        assertTrue("Expected about 10% large: " + counts[1], counts[1] > 9000 && counts[1] < 11000);
+    }
+
+    @Test
+    public void keysTest() {
+        assertEquals(0, LoadPayload.keys(0).length);
+        assertEquals("key-2", new String(LoadPayload.keys(3)[2]));
+    }
+}
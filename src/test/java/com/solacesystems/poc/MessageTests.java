@@ -3,10 +3,22 @@ package com.solacesystems.poc;
 import com.solacesystems.jcsmp.BytesXMLMessage;
 import com.solacesystems.jcsmp.JCSMPFactory;
 import com.solacesystems.jcsmp.SDTMap;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.Test;
 
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class MessageTests {
 
@@ -24,4 +36,97 @@ public class MessageTests {
 
         assertNull("Message properties should not survive a reset", msg.getProperties());
     }
+
+    @Test
+    public void passThroughRoundTripTest() throws Exception {
+        MsgHelper<byte[],byte[]> helper = new MsgHelper<>(serdeProps(
+                ByteArraySerializer.class, ByteArrayDeserializer.class));
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        byte[] key = "key-1".getBytes("UTF-8");
+        byte[] value = "some payload".getBytes("UTF-8");
+
+        helper.putKey(msg, "t", key);
+        helper.putValue(msg, "t", value);
+
+        assertArrayEquals(key, helper.getKey(msg, "t"));
+        assertArrayEquals(value, helper.getValue(msg, "t"));
+    }
+
+    @Test
+    public void passThroughMissingKeyTest() throws Exception {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        assertNull("No properties means no key", PassThroughMsgHelper.getKey(msg));
+
+        msg.setProperties(JCSMPFactory.onlyInstance().createMap());
+        assertNull("No key header means no key", PassThroughMsgHelper.getKey(msg));
+    }
+
+    @Test
+    public void keyInHeaderByDefaultTest() throws Exception {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        byte[] shortKey = "short".getBytes("UTF-8");
+        PassThroughMsgHelper.putKey(msg, shortKey);
+        assertNull("Keys go in a header unless asked otherwise", msg.getUserData());
+        assertNull(msg.getApplicationMessageType());
+        assertArrayEquals(shortKey, msg.getProperties().getBytes(MsgHelper.HDR_KAFKA_KEY));
+    }
+
+    @Test
+    public void keyCarriageTest() throws Exception {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        byte[] longKey = new byte[PassThroughMsgHelper.MAX_USER_DATA_KEY + 1];
+        byte[] shortKey = "short".getBytes("UTF-8");
+
+        PassThroughMsgHelper.putKey(msg, longKey, true);
+        assertNull("Long keys go in a header", msg.getUserData());
+        assertArrayEquals(longKey, PassThroughMsgHelper.getKey(msg));
+
+        // Re-used message: the old header must not shadow the new key
+        PassThroughMsgHelper.putKey(msg, shortKey, true);
+        assertNull(msg.getProperties().getBytes(MsgHelper.HDR_KAFKA_KEY));
+        assertArrayEquals(shortKey, PassThroughMsgHelper.getKey(msg));
+
+        // Nor the old user data
+        PassThroughMsgHelper.putKey(msg, longKey, true);
+        assertNull(msg.getApplicationMessageType());
+        assertArrayEquals(longKey, PassThroughMsgHelper.getKey(msg));
+
+        PassThroughMsgHelper.putKey(msg, null, true);
+        assertNull(PassThroughMsgHelper.getKey(msg));
+    }
+
+    @Test
+    public void applicationFieldsKeptTest() throws Exception {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        byte[] userData = { 1, 2, 3 };
+        msg.setApplicationMessageType("orders");
+        msg.setUserData(userData);
+        byte[] key = "short".getBytes("UTF-8");
+        PassThroughMsgHelper.putKey(msg, key, true);
+        assertEquals("orders", msg.getApplicationMessageType());
+        assertArrayEquals(userData, msg.getUserData());
+        assertArrayEquals("The key falls back to the header", key, PassThroughMsgHelper.getKey(msg));
+    }
+
+    @Test
+    public void foreignUserDataIsNotAKeyTest() {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        msg.setUserData(new byte[] { 1, 2, 3 });
+        assertNull(PassThroughMsgHelper.getKey(msg));
+    }
+
+    @Test
+    public void passThroughDetectionTest() {
+        assertTrue(MsgHelper.isPassThrough(serdeProps(ByteArraySerializer.class, ByteArrayDeserializer.class)));
+        assertFalse(MsgHelper.isPassThrough(serdeProps(StringSerializer.class, StringDeserializer.class)));
+    }
+
+    private static Properties serdeProps(Class<?> ser, Class<?> deser) {
+        Properties props = new Properties();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, deser.getName());
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, deser.getName());
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ser.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ser.getName());
+        return props;
+    }
 }
@@ -0,0 +1,139 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void prometheusTextTest() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_messages_total", "Messages", "direction", "in").add(5);
+        registry.counter("test_messages_total", "Messages", "direction", "in").add(2);
+        registry.gauge("test_inflight", "In flight", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return 42;
+            }
+        });
+        LatencyHistogram latency = new LatencyHistogram();
+        latency.record(2000000L);
+        registry.summary("test_latency_seconds", "Latency", latency, "stage", "total");
+
+        String text = registry.prometheusText();
+        assertTrue(text, text.contains("# HELP test_messages_total Messages\n# TYPE test_messages_total counter\n"));
+        assertTrue(text, text.contains("test_messages_total{direction=\"in\"} 7\n"));
+        assertTrue(text, text.contains("# TYPE test_inflight gauge\ntest_inflight 42\n"));
+        assertTrue(text, text.contains("# TYPE test_latency_seconds summary\n"));
+        assertTrue(text, text.contains("test_latency_seconds{stage=\"total\",quantile=\"0.99\"} 0.002"));
+        assertTrue(text, text.contains("test_latency_seconds_sum{stage=\"total\"} 0.002\n"));
+        assertTrue(text, text.contains("test_latency_seconds_count{stage=\"total\"} 1\n"));
+    }
+
+    @Test
+    public void quantilesWindowedTest() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(20L);
+        LatencyHistogram latency = new LatencyHistogram();
+        registry.summary("test_latency_seconds", "Latency", latency);
+        for (int i = 0; i < 100; i++)
+            latency.record(1000000L);
+        assertTrue("The first window covers everything so far",
+                registry.prometheusText().contains("test_latency_seconds{quantile=\"0.5\"} 0.001"));
+
+        Thread.sleep(30);
+        registry.snapshot();
+        for (int i = 0; i < 10; i++)
+            latency.record(100000000L);
+        Thread.sleep(30);
+        String text = registry.prometheusText();
+        assertTrue("Only the last window's values count: " + text,
+                text.contains("test_latency_seconds{quantile=\"0.5\"} 0.1"));
+        assertTrue(text, text.contains("test_latency_seconds_count 110\n"));
+    }
+
+    @Test
+    public void labelEscapingTest() {
+        assertEquals("topic=\"a\\\"b\\\\c\\nd\"", MetricsRegistry.labelString("topic", "a\"b\\c\nd"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void typeClashTest() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_value", "Value");
+        registry.gauge("test_value", "Value", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return 0;
+            }
+        });
+    }
+
+    @Test
+    public void topicLimitTest() {
+        MetricsRegistry registry = new MetricsRegistry();
+        DirectionMetrics metrics = new DirectionMetrics(DirectionMetrics.KAFKA_TO_SOLACE, registry, 2);
+        metrics.onMessage("a", 10);
+        metrics.onMessage("b", 20);
+        metrics.onMessage("c", 30);
+        metrics.onMessage("d", 40);
+        metrics.onMessage("a", 1);
+
+        Map<String, Number> values = registry.snapshot();
+        assertEquals(5L, values.get("solkaf_messages_total{direction=\"kafka_to_solace\"}"));
+        assertEquals(101L, values.get("solkaf_bytes_total{direction=\"kafka_to_solace\"}"));
+        assertEquals(2L, values.get("solkaf_topic_messages_total{direction=\"kafka_to_solace\",topic=\"a\"}"));
+        assertEquals(70L, values.get("solkaf_topic_bytes_total{direction=\"kafka_to_solace\",topic=\"_other\"}"));
+        assertEquals("Topics beyond the limit should share a series", null,
+                values.get("solkaf_topic_messages_total{direction=\"kafka_to_solace\",topic=\"c\"}"));
+    }
+
+    @Test
+    public void jmxTest() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_jmx_total", "Counted", "direction", "in").add(3);
+        ObjectName name = MetricsMBean.register(registry, "com.solacesystems.poc:type=BridgeMetricsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(3L, server.getAttribute(name, "test_jmx_total{direction=\"in\"}"));
+            assertEquals(1, server.getMBeanInfo(name).getAttributes().length);
+        }
+        finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void httpTest() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("test_http_total", "Counted").add(9);
+        MetricsHttpServer server = new MetricsHttpServer(registry, "127.0.0.1", 0);
+        server.start();
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + server.port() + MetricsHttpServer.PATH).openConnection();
+            assertEquals(200, conn.getResponseCode());
+            assertTrue(conn.getContentType(), conn.getContentType().startsWith("text/plain; version=0.0.4"));
+            InputStream in = conn.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            for (int n; (n = in.read(buf)) > 0; )
+                body.write(buf, 0, n);
+            in.close();
+            assertTrue(body.toString("UTF-8"), body.toString("UTF-8").contains("test_http_total 9\n"));
+        }
+        finally {
+            server.stop();
+        }
+    }
+}
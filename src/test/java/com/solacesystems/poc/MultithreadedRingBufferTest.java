@@ -1,5 +1,13 @@
 package com.solacesystems.poc;
 
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
 public class MultithreadedRingBufferTest {
     private class TestObj implements HasMsgID {
         public TestObj(long id) {
@@ -64,6 +72,110 @@ public class MultithreadedRingBufferTest {
         }
     }
 
+    //
+    // Contended producer/consumer runs over both buffer implementations
+    //
+
+    private static final int CONTENDED_CYCLES = 2000000;
+    private static final int CONTENDED_CAPACITY = 1024;
+
+    /**
+     * Common view of RingBuffer and SpscRingBuffer for the contended runs.
+     */
+    private interface Ring {
+        boolean append(TestObj item);
+        TestObj remove();
+        int used();
+    }
+
+    private long runContended(final Ring ring, final long cycles) throws InterruptedException {
+        final TestObj[] items = new TestObj[1024];
+        for(int i = 0; i < items.length; i++)
+            items[i] = new TestObj(i);
+        final long[] failures = new long[1];
+        Thread remover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for(long seq = 0; seq < cycles; ) {
+                    TestObj item;
+                    try {
+                        item = ring.remove();
+                    }
+                    catch(BufferUnderflowException e) {
+                        Thread.yield();
+                        continue;
+                    }
+                    if (item.getMsgID() != (seq & (items.length - 1)))
+                        failures[0]++;
+                    seq++;
+                }
+            }
+        });
+        long start = System.nanoTime();
+        remover.start();
+        for(long seq = 0; seq < cycles; ) {
+            if (ring.append(items[(int) seq & (items.length - 1)]))
+                seq++;
+            else
+                Thread.yield();
+        }
+        remover.join();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals("Items removed out of order", 0, failures[0]);
+        assertEquals("Buffer should be empty", 0, ring.used());
+        return elapsed;
+    }
+
+    private static void report(String name, long cycles, long nanos) {
+        System.out.println(name + ": " + cycles + " items in " + (nanos / 1000000) + "ms; "
+                + (cycles * 1000000000L / Math.max(1, nanos)) + " items/sec");
+    }
+
+    @Test
+    public void lockedContendedTest() throws Exception {
+        final RingBuffer<TestObj> locked = new RingBuffer<>(TestObj.class, CONTENDED_CAPACITY);
+        long nanos = runContended(new Ring() {
+            public boolean append(TestObj item) { return locked.append(item); }
+            public TestObj remove() { return locked.remove(); }
+            public int used() { return locked.used(); }
+        }, CONTENDED_CYCLES);
+        report("RingBuffer", CONTENDED_CYCLES, nanos);
+    }
+
+    @Test
+    public void spscContendedTest() throws Exception {
+        final SpscRingBuffer<TestObj> spsc = new SpscRingBuffer<>(TestObj.class, CONTENDED_CAPACITY);
+        long nanos = runContended(new Ring() {
+            public boolean append(TestObj item) { return spsc.append(item); }
+            public TestObj remove() { return spsc.remove(); }
+            public int used() { return spsc.used(); }
+        }, CONTENDED_CYCLES);
+        report("SpscRingBuffer", CONTENDED_CYCLES, nanos);
+    }
+
+    @Test
+    public void spscContendedDrainTest() throws Exception {
+        final SpscRingBuffer<TestObj> spsc = new SpscRingBuffer<>(TestObj.class, CONTENDED_CAPACITY);
+        final List<TestObj> batch = new ArrayList<>(64);
+        long nanos = runContended(new Ring() {
+            int next = 0;
+            public boolean append(TestObj item) { return spsc.append(item); }
+            public TestObj remove() {
+                // Hand out drained batches one item at a time
+                if (next == batch.size()) {
+                    batch.clear();
+                    next = 0;
+                    if (spsc.drainTo(batch, 64) == 0)
+                        throw new BufferUnderflowException();
+                }
+                return batch.get(next++);
+            }
+            public int used() { return spsc.used() + batch.size() - next; }
+        }, CONTENDED_CYCLES);
+        report("SpscRingBuffer (drainTo)", CONTENDED_CYCLES, nanos);
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("\tUSAGE: <long-integer-number-of-adds-to-run>");
@@ -0,0 +1,176 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetCommitTrackerTest {
+
+    private static final TopicPartition TP0 = new TopicPartition("test", 0);
+    private static final TopicPartition TP3 = new TopicPartition("test", 3);
+
+    @Test
+    public void contiguousAckTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        for(long offset = 10; offset < 15; offset++)
+            tracker.track("test", 0, offset);
+        tracker.ack("test", 0, 10);
+        tracker.ack("test", 0, 11);
+
+        Map<TopicPartition, OffsetAndMetadata> commits = tracker.collectCommits(0L);
+        assertEquals("Commit position should follow the last contiguous ack", 12L, commits.get(TP0).offset());
+        assertEquals("Pending is wrong", 3, tracker.pending());
+        assertTrue("Nothing new to commit", tracker.collectCommits(0L).isEmpty());
+    }
+
+    @Test
+    public void outOfOrderAckTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        for(long offset = 0; offset < 5; offset++)
+            tracker.track("test", 3, offset);
+        tracker.ack("test", 3, 2);
+        tracker.ack("test", 3, 1);
+        assertTrue("Gap at offset 0 should hold back the commit", tracker.collectCommits(0L).isEmpty());
+
+        tracker.ack("test", 3, 0);
+        assertEquals("Commit position should jump past all acked offsets",
+                3L, tracker.collectCommits(0L).get(TP3).offset());
+    }
+
+    @Test
+    public void sparseOffsetTest() {
+        // Compacted topics leave gaps between offsets
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        tracker.track("test", 0, 5);
+        tracker.track("test", 0, 9);
+        tracker.track("test", 0, 20);
+        tracker.ack("test", 0, 20);
+        tracker.ack("test", 0, 5);
+        assertEquals("Commit position is wrong", 6L, tracker.collectCommits(0L).get(TP0).offset());
+        tracker.ack("test", 0, 9);
+        assertEquals("Commit position is wrong", 21L, tracker.collectCommits(0L).get(TP0).offset());
+    }
+
+    @Test
+    public void growTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        for(long offset = 0; offset < 5000; offset++)
+            tracker.track("test", 0, offset);
+        for(long offset = 4999; offset > 0; offset--)
+            tracker.ack("test", 0, offset);
+        assertTrue("Gap at offset 0 should hold back the commit", tracker.collectCommits(0L).isEmpty());
+        tracker.ack("test", 0, 0);
+        assertEquals("Commit position is wrong", 5000L, tracker.collectCommits(0L).get(TP0).offset());
+        assertEquals("Pending is wrong", 0, tracker.pending());
+    }
+
+    @Test
+    public void commitDueTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100L, 3);
+        tracker.collectCommits(0L);
+        for(long offset = 0; offset < 5; offset++)
+            tracker.track("test", 0, offset);
+        assertFalse("No acks, no commit", tracker.isCommitDue(1000L));
+        tracker.ack("test", 0, 0);
+        assertFalse("Too few acks too soon", tracker.isCommitDue(50L));
+        assertTrue("Interval elapsed", tracker.isCommitDue(100L));
+        tracker.ack("test", 0, 1);
+        tracker.ack("test", 0, 2);
+        assertTrue("Ack count reached", tracker.isCommitDue(50L));
+    }
+
+    @Test
+    public void revokeTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        tracker.track("test", 0, 0);
+        tracker.remove(Collections.singletonList(TP0));
+        tracker.ack("test", 0, 0);
+        assertTrue("Acks for revoked partitions are ignored", tracker.collectCommits(0L).isEmpty());
+    }
+
+    @Test
+    public void commitLagTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        assertEquals("Nothing consumed yet", 0, tracker.commitLag());
+        for(long offset = 100; offset < 110; offset++)
+            tracker.track("test", 0, offset);
+        for(long offset = 0; offset < 5; offset++)
+            tracker.track("test", 3, offset);
+        assertEquals("Nothing committed yet", 15, tracker.commitLag());
+        for(long offset = 100; offset < 104; offset++)
+            tracker.ack("test", 0, offset);
+        assertEquals("Acks alone don't commit", 15, tracker.commitLag());
+        tracker.collectCommits(0L);
+        assertEquals("Lag should be what is beyond the commit", 11, tracker.commitLag());
+    }
+
+    @Test
+    public void commitDueListenerTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 3);
+        final int[] calls = new int[1];
+        tracker.setCommitDueListener(new Runnable() {
+            @Override
+            public void run() {
+                calls[0]++;
+            }
+        });
+        for(long offset = 0; offset < 10; offset++)
+            tracker.track("test", 0, offset);
+        tracker.ack("test", 0, 0);
+        tracker.ack("test", 0, 1);
+        assertEquals("Not due yet", 0, calls[0]);
+        tracker.ack("test", 0, 2);
+        tracker.ack("test", 0, 3);
+        assertEquals("Told once when the commit became due", 1, calls[0]);
+        tracker.collectCommits(0L);
+        for(long offset = 4; offset < 7; offset++)
+            tracker.ack("test", 0, offset);
+        assertEquals("Told again after the next commit", 2, calls[0]);
+    }
+
+    @Test
+    public void boundedPendingTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000, 3000);
+        assertEquals("Rounded up to a power of two", 4096, tracker.maxPending());
+        // Offset 0 is never acked
+        for(long offset = 0; offset < 4096; offset++) {
+            assertTrue(tracker.track("test", 0, offset));
+            if (offset > 0)
+                tracker.ack("test", 0, offset);
+        }
+        assertFalse("A stuck partition refuses more offsets", tracker.track("test", 0, 4096));
+        assertEquals(1, tracker.stuckPartitions());
+        assertTrue("Other partitions are unaffected", tracker.track("test", 3, 0));
+
+        tracker.ack("test", 0, 0);
+        tracker.collectCommits(0L);
+        assertEquals(0, tracker.stuckPartitions());
+        assertTrue(tracker.track("test", 0, 4096));
+    }
+
+    @Test
+    public void untrackTest() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(1000L, 1000);
+        for(long offset = 0; offset < 10; offset++)
+            tracker.track("test", 0, offset);
+        tracker.untrack("test", 0, 6);
+        assertEquals(6, tracker.pending("test", 0));
+        assertEquals("Untracked offsets aren't consumed", 6, tracker.commitLag());
+        for(long offset = 0; offset < 6; offset++)
+            tracker.ack("test", 0, offset);
+        assertEquals("Commit position is wrong", 6L, tracker.collectCommits(0L).get(TP0).offset());
+
+        // Consumed again after seeking back
+        for(long offset = 6; offset < 10; offset++)
+            tracker.track("test", 0, offset);
+        tracker.ack("test", 0, 6);
+        assertEquals("Commit position is wrong", 7L, tracker.collectCommits(0L).get(TP0).offset());
+    }
+}
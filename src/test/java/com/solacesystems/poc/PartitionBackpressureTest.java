@@ -0,0 +1,143 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionBackpressureTest {
+
+    private static final int LANES = 3;
+    private static final int PARTITIONS = 12;
+
+    private final int[] percentFull = new int[LANES];
+    private final PartitionBackpressure.LaneLoad load = new PartitionBackpressure.LaneLoad() {
+        @Override
+        public int lanes() {
+            return LANES;
+        }
+        @Override
+        public int percentFull(int lane) {
+            return percentFull[lane];
+        }
+    };
+
+    private MockConsumer<byte[], byte[]> assignedConsumer() {
+        MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (int p = 0; p < PARTITIONS; p++)
+            partitions.add(new TopicPartition("test", p));
+        consumer.assign(partitions);
+        return consumer;
+    }
+
+    private static Set<TopicPartition> laneOf(int lane) {
+        Set<TopicPartition> partitions = new HashSet<>();
+        for (int p = 0; p < PARTITIONS; p++)
+            if (SolaceConnector.laneFor("test", p, LANES) == lane)
+                partitions.add(new TopicPartition("test", p));
+        return partitions;
+    }
+
+    @Test
+    public void watermarkTest() {
+        MockConsumer<byte[], byte[]> consumer = assignedConsumer();
+        PartitionBackpressure backpressure = new PartitionBackpressure(consumer, load, 80, 40);
+
+        percentFull[1] = 79;
+        backpressure.update();
+        assertEquals("Below the high watermark", 0, consumer.paused().size());
+
+        percentFull[1] = 80;
+        backpressure.update();
+        assertEquals("Only the full lane should be paused", laneOf(1), consumer.paused());
+        assertEquals(laneOf(1).size(), backpressure.pausedCount());
+
+        percentFull[1] = 50;
+        backpressure.update();
+        assertEquals("Stays paused until the low watermark", laneOf(1), consumer.paused());
+
+        percentFull[1] = 40;
+        backpressure.update();
+        assertEquals("Resumed at the low watermark", 0, consumer.paused().size());
+        assertEquals(1, backpressure.pauses());
+    }
+
+    @Test
+    public void blockedTest() {
+        MockConsumer<byte[], byte[]> consumer = assignedConsumer();
+        PartitionBackpressure backpressure = new PartitionBackpressure(consumer, load, 80, 40);
+
+        backpressure.setBlocked(true);
+        backpressure.update();
+        assertEquals("Every partition should be paused", PARTITIONS, consumer.paused().size());
+
+        percentFull[2] = 60;
+        backpressure.setBlocked(false);
+        backpressure.update();
+        assertEquals("A lane above the low watermark should stay paused", laneOf(2), consumer.paused());
+    }
+
+    @Test
+    public void holdTest() {
+        MockConsumer<byte[], byte[]> consumer = assignedConsumer();
+        PartitionBackpressure backpressure = new PartitionBackpressure(consumer, load, 80, 40);
+        TopicPartition held = laneOf(1).iterator().next();
+
+        backpressure.hold(held);
+        assertEquals(Collections.singleton(held), consumer.paused());
+        percentFull[1] = 100;
+        backpressure.update();
+        percentFull[1] = 0;
+        backpressure.update();
+        assertEquals("A held partition stays paused when its lane resumes", Collections.singleton(held), consumer.paused());
+
+        percentFull[1] = 100;
+        backpressure.update();
+        backpressure.release(held);
+        assertTrue("Released while its lane is throttled", consumer.paused().contains(held));
+        percentFull[1] = 0;
+        backpressure.update();
+        assertEquals(0, consumer.paused().size());
+        assertEquals(0, backpressure.pausedCount());
+    }
+
+    @Test
+    public void revokedTest() {
+        MockConsumer<byte[], byte[]> consumer = assignedConsumer();
+        PartitionBackpressure backpressure = new PartitionBackpressure(consumer, load, 80, 40);
+
+        percentFull[0] = 100;
+        backpressure.update();
+        TopicPartition revoked = laneOf(0).iterator().next();
+        backpressure.revoked(Collections.singletonList(revoked));
+        List<TopicPartition> remaining = new ArrayList<>(consumer.assignment());
+        remaining.remove(revoked);
+        consumer.assign(remaining);
+
+        percentFull[0] = 0;
+        backpressure.update();
+        for (TopicPartition tp : remaining)
+            assertFalse("Remaining partitions should be resumed", consumer.paused().contains(tp));
+        assertEquals(0, backpressure.pausedCount());
+
+        // Partitions assigned while a lane is throttled are paused on the next update
+        percentFull[0] = 100;
+        backpressure.update();
+        remaining.add(revoked);
+        consumer.assign(remaining);
+        backpressure.update();
+        assertTrue("Newly assigned partition should be paused", consumer.paused().contains(revoked));
+        assertEquals("Newly assigned partition should be paused", laneOf(0).size(), backpressure.pausedCount());
+    }
+}
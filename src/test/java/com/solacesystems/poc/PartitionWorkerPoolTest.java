@@ -0,0 +1,142 @@
+package com.solacesystems.poc;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionWorkerPoolTest {
+
+    private static final int PARTITIONS = 8;
+    private static final int RECORDS_PER_PARTITION = 5000;
+
+    @Test(timeout = 20000)
+    public void perPartitionOrderTest() throws Exception {
+        final CountDownLatch done = new CountDownLatch(PARTITIONS * RECORDS_PER_PARTITION);
+        final ConcurrentHashMap<Integer, Long> lastOffsets = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, String> threads = new ConcurrentHashMap<>();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AtomicInteger threadHops = new AtomicInteger();
+
+        PartitionWorkerPool<byte[], byte[]> pool = new PartitionWorkerPool<>("test-worker", 3, 16,
+                new ConnectionListener<byte[], byte[]>() {
+                    @Override
+                    public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                        long offset = ((ConsumerRecord) source).offset();
+                        Long last = lastOffsets.put(partition, offset);
+                        if (last != null && last + 1 != offset)
+                            outOfOrder.incrementAndGet();
+                        String previous = threads.put(partition, Thread.currentThread().getName());
+                        if (previous != null && !previous.equals(Thread.currentThread().getName()))
+                            threadHops.incrementAndGet();
+                        done.countDown();
+                        return true;
+                    }
+                    @Override
+                    public void onConnected() {}
+                    @Override
+                    public void onDisconnected() {}
+                });
+
+        for(long offset = 0; offset < RECORDS_PER_PARTITION; offset++)
+            for(int partition = 0; partition < PARTITIONS; partition++)
+                pool.dispatch(new ConsumerRecord<byte[], byte[]>("test", partition, offset, null, null));
+
+        assertTrue("Workers did not finish", done.await(15, TimeUnit.SECONDS));
+        assertEquals("Records were handled out of order within a partition", 0, outOfOrder.get());
+        assertEquals("A partition was handled by more than one worker", 0, threadHops.get());
+        assertEquals("Queues should be empty", 0, pool.queued());
+    }
+
+    @Test(timeout = 20000)
+    public void receiveTimeTest() throws Exception {
+        final CountDownLatch done = new CountDownLatch(PARTITIONS);
+        final ConcurrentHashMap<Integer, Long> receivedTimes = new ConcurrentHashMap<>();
+
+        PartitionWorkerPool<byte[], byte[]> pool = new PartitionWorkerPool<>("test-worker", 3, 16,
+                new TimedConnectionListener<byte[], byte[]>() {
+                    @Override
+                    public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                        throw new AssertionError("Timed listeners should be given the receive time");
+                    }
+                    @Override
+                    public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value, long receivedNanos) {
+                        receivedTimes.put(partition, receivedNanos);
+                        done.countDown();
+                        return true;
+                    }
+                    @Override
+                    public void onConnected() {}
+                    @Override
+                    public void onDisconnected() {}
+                });
+
+        for(int partition = 0; partition < PARTITIONS; partition++)
+            pool.dispatch(new ConsumerRecord<byte[], byte[]>("test", partition, 0, null, null), 1000L * partition);
+
+        assertTrue("Workers did not finish", done.await(15, TimeUnit.SECONDS));
+        for(int partition = 0; partition < PARTITIONS; partition++)
+            assertEquals("Receive time was not carried to the worker", 1000L * partition, (long) receivedTimes.get(partition));
+    }
+
+    @Test(timeout = 20000)
+    public void failedRecordReportedTest() throws Exception {
+        final CountDownLatch done = new CountDownLatch(PARTITIONS * 3);
+        final ConcurrentHashMap<Integer, Long> failed = new ConcurrentHashMap<>();
+        final AtomicInteger repeated = new AtomicInteger();
+
+        PartitionWorkerPool<byte[], byte[]> pool = new PartitionWorkerPool<>("test-worker", 3, 16,
+                new ConnectionListener<byte[], byte[]>() {
+                    @Override
+                    public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) {
+                        done.countDown();
+                        long offset = ((ConsumerRecord) source).offset();
+                        if (offset == 1 && partition % 2 == 0)
+                            return false;
+                        if (offset == 2 && partition % 2 == 1)
+                            throw new IllegalStateException("test");
+                        return true;
+                    }
+                    @Override
+                    public void onConnected() {}
+                    @Override
+                    public void onDisconnected() {}
+                },
+                new PublishFailureListener() {
+                    @Override
+                    public void onPublishFailed(String topic, int partition, long offset) {
+                        if (failed.put(partition, offset) != null)
+                            repeated.incrementAndGet();
+                    }
+                });
+
+        for(long offset = 0; offset < 3; offset++)
+            for(int partition = 0; partition < PARTITIONS; partition++)
+                pool.dispatch(new ConsumerRecord<byte[], byte[]>("test", partition, offset, null, null));
+
+        assertTrue("Workers did not finish", done.await(15, TimeUnit.SECONDS));
+        // The failure is reported once the handler returns
+        while (failed.size() < PARTITIONS)
+            Thread.sleep(1);
+        for(int partition = 0; partition < PARTITIONS; partition++)
+            assertEquals("The failed record was not reported", partition % 2 == 0 ? 1L : 2L, (long) failed.get(partition));
+        assertEquals("Only failed records are reported", 0, repeated.get());
+    }
+
+    @Test
+    public void configuredWorkersTest() {
+        Properties props = new Properties();
+        assertEquals("Pipelined by default", 1, PartitionWorkerPool.configuredWorkers(props));
+        props.setProperty(BridgeProperties.PROP_SOLACE_PUBLISHER_SESSIONS, "3");
+        assertEquals("One worker per publisher session", 3, PartitionWorkerPool.configuredWorkers(props));
+        props.setProperty(BridgeProperties.PROP_BRIDGE_PUBLISH_WORKERS, "0");
+        assertEquals("Inline publishing when configured", 0, PartitionWorkerPool.configuredWorkers(props));
+    }
+}
@@ -0,0 +1,158 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadCompressionTest {
+
+    private static List<String[]> rules(String... pairs) {
+        List<String[]> mappings = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2)
+            mappings.add(new String[] { pairs[i], pairs[i + 1] });
+        return mappings;
+    }
+
+    private static byte[] compressible(int size) {
+        byte[] payload = new byte[size];
+        for (int i = 0; i < size; i++)
+            payload[i] = (byte) ('a' + (i % 7));
+        return payload;
+    }
+
+    private static BytesXMLMessage message() {
+        return JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+    }
+
+    @Test
+    public void roundTripEveryCodecTest() {
+        PayloadCompression compression = new PayloadCompression(
+                rules("d/>", "deflate", "l/>", "lz4", "s/>", "snappy"), 64);
+        byte[] payload = compressible(4096);
+        byte[] expected = { PayloadCompression.DEFLATE, PayloadCompression.LZ4, PayloadCompression.SNAPPY };
+        String[] topics = { "d/1", "l/1", "s/1" };
+        for (int i = 0; i < topics.length; i++) {
+            BytesXMLMessage msg = message();
+            compression.putValue(msg, topics[i], payload);
+            assertEquals(topics[i], expected[i], PayloadCompression.codecOf(msg));
+            byte[] attached = PassThroughMsgHelper.getValue(msg);
+            assertTrue(topics[i] + " should be smaller on the wire", attached.length < payload.length);
+            assertArrayEquals(topics[i], payload, compression.decompress(expected[i], attached));
+        }
+        assertEquals(3, compression.compressed());
+        assertTrue(compression.bytesSaved() > 0);
+    }
+
+    @Test
+    public void smallAndUnmatchedPayloadsAreNotCompressedTest() {
+        PayloadCompression compression = new PayloadCompression(rules("orders/>", "lz4"), 512);
+        BytesXMLMessage msg = message();
+        byte[] small = compressible(100);
+        compression.putValue(msg, "orders/new", small);
+        assertEquals("Below the threshold", PayloadCompression.NONE, PayloadCompression.codecOf(msg));
+        assertArrayEquals(small, PassThroughMsgHelper.getValue(msg));
+
+        byte[] large = compressible(4096);
+        compression.putValue(msg, "audit/new", large);
+        assertEquals("No rule for the topic", PayloadCompression.NONE, PayloadCompression.codecOf(msg));
+        assertArrayEquals(large, PassThroughMsgHelper.getValue(msg));
+        assertEquals(0, compression.compressed());
+    }
+
+    @Test
+    public void incompressiblePayloadIsSentAsIsTest() {
+        PayloadCompression compression = new PayloadCompression(rules(">", "deflate"), 0);
+        byte[] random = new byte[2048];
+        new Random(42).nextBytes(random);
+        BytesXMLMessage msg = message();
+        compression.putValue(msg, "any/topic", random);
+        assertEquals(PayloadCompression.NONE, PayloadCompression.codecOf(msg));
+        assertArrayEquals(random, PassThroughMsgHelper.getValue(msg));
+    }
+
+    @Test
+    public void reusedMessageLosesFlagTest() {
+        PayloadCompression compression = new PayloadCompression(rules("big/>", "lz4"), 64);
+        BytesXMLMessage msg = message();
+        compression.putValue(msg, "big/1", compressible(1024));
+        assertEquals(PayloadCompression.LZ4, PayloadCompression.codecOf(msg));
+
+        byte[] small = compressible(10);
+        compression.putValue(msg, "big/1", small);
+        assertEquals("Flag from the last send should be cleared", PayloadCompression.NONE, PayloadCompression.codecOf(msg));
+        assertArrayEquals(small, PassThroughMsgHelper.getValue(msg));
+    }
+
+    private static byte[] withPrefix(byte[] attached, int length) {
+        byte[] lying = attached.clone();
+        lying[0] = (byte) (length >>> 24);
+        lying[1] = (byte) (length >>> 16);
+        lying[2] = (byte) (length >>> 8);
+        lying[3] = (byte) length;
+        return lying;
+    }
+
+    @Test
+    public void lyingLengthPrefixRejectedTest() {
+        PayloadCompression compression = new PayloadCompression(
+                rules("d/>", "deflate", "l/>", "lz4", "s/>", "snappy"), 64, 1 << 20);
+        byte[] payload = compressible(4096);
+        byte[] codecs = { PayloadCompression.DEFLATE, PayloadCompression.LZ4, PayloadCompression.SNAPPY };
+        String[] topics = { "d/1", "l/1", "s/1" };
+        int[] lies = { 100, 4095, 4097, 1 << 19, (1 << 20) + 1, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+        for (int i = 0; i < topics.length; i++) {
+            BytesXMLMessage msg = message();
+            compression.putValue(msg, topics[i], payload);
+            byte[] attached = PassThroughMsgHelper.getValue(msg);
+            for (int lie : lies) {
+                try {
+                    compression.decompress(codecs[i], withPrefix(attached, lie));
+                    fail(topics[i] + " should reject a prefix of " + lie);
+                }
+                catch(IllegalArgumentException expected) {
+                }
+            }
+            assertArrayEquals("The honest prefix still works", payload, compression.decompress(codecs[i], attached));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownCodecTest() {
+        new PayloadCompression(rules("orders/>", "zstd"), 0);
+    }
+
+    @Test
+    public void msgHelperDecompressesTransparentlyTest() throws Exception {
+        Properties props = new Properties();
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION, "orders/>:snappy");
+        props.setProperty(BridgeProperties.PROP_COMPRESSION_MIN_BYTES, "128");
+        MsgHelper<byte[],byte[]> sender = new MsgHelper<>(props);
+        // The receiving bridge needs no rules of its own to decompress
+        props.remove(BridgeProperties.PROP_KAFKA_SOLACE_COMPRESSION);
+        MsgHelper<byte[],byte[]> receiver = new MsgHelper<>(props);
+
+        byte[] payload = compressible(1000);
+        BytesXMLMessage msg = message();
+        sender.putValue(msg, "orders/eu", payload);
+        assertEquals(PayloadCompression.SNAPPY, PayloadCompression.codecOf(msg));
+        assertArrayEquals(payload, receiver.getValue(msg, "orders"));
+    }
+}
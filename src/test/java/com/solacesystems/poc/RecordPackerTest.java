@@ -0,0 +1,103 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.Topic;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RecordPackerTest {
+
+    private static Topic topic(String name) {
+        return JCSMPFactory.onlyInstance().createTopic(name);
+    }
+
+    @Test
+    public void roundTripTest() {
+        RecordPacker packer = new RecordPacker(10, 1024, 0, 4);
+        RecordPacker.Envelope envelope = packer.open(topic("a"), 0);
+        envelope.append("t", 3, 42L, new byte[] { 1, 2 }, new byte[] { 3 });
+        envelope.append("t", 4, Long.MAX_VALUE, null, new byte[0]);
+
+        byte[] data = Arrays.copyOf(envelope.buffer(), envelope.length());
+        int[] partitions = new int[2];
+        long[] offsets = new long[2];
+        byte[][] keys = new byte[2][];
+        byte[][] values = new byte[2][];
+        assertEquals(2, RecordPacker.packedCount(data));
+        RecordPacker.unpack(data, partitions, offsets, keys, values);
+        assertArrayEquals(new int[] { 3, 4 }, partitions);
+        assertArrayEquals(new long[] { 42L, Long.MAX_VALUE }, offsets);
+        assertArrayEquals(new byte[] { 1, 2 }, keys[0]);
+        assertNull(keys[1]);
+        assertArrayEquals(new byte[] { 3 }, values[0]);
+        assertArrayEquals(new byte[0], values[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedEnvelopeTest() {
+        RecordPacker packer = new RecordPacker(10, 1024, 0, 4);
+        RecordPacker.Envelope envelope = packer.open(topic("a"), 0);
+        envelope.append("t", 0, 1L, null, new byte[20]);
+        byte[] data = Arrays.copyOf(envelope.buffer(), envelope.length() - 5);
+        RecordPacker.unpack(data, new int[1], new long[1], new byte[1][], new byte[1][]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void trailingBytesTest() {
+        RecordPacker packer = new RecordPacker(10, 1024, 0, 4);
+        RecordPacker.Envelope envelope = packer.open(topic("a"), 0);
+        envelope.append("t", 0, 1L, null, new byte[4]);
+        byte[] data = Arrays.copyOf(envelope.buffer(), envelope.length() + 3);
+        RecordPacker.unpack(data, new int[1], new long[1], new byte[1][], new byte[1][]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void impossibleCountTest() {
+        // Claims far more records than its bytes could hold
+        RecordPacker.packedCount(new byte[] { RecordPacker.VERSION, 0x7f, 0, 0, 0, 0, 0 });
+    }
+
+    @Test
+    public void limitsTest() {
+        RecordPacker packer = new RecordPacker(2, 100, 0, 4);
+        RecordPacker.Envelope envelope = packer.open(topic("a"), 0);
+        assertFalse("An empty envelope takes any record", packer.wouldOverflow(envelope, null, new byte[500]));
+        envelope.append("t", 0, 0L, null, new byte[10]);
+        assertFalse(packer.isComplete(envelope));
+        assertTrue(packer.wouldOverflow(envelope, null, new byte[70]));
+        envelope.append("t", 0, 1L, null, new byte[10]);
+        assertTrue("The record limit should complete it", packer.isComplete(envelope));
+    }
+
+    @Test
+    public void openEnvelopesTest() {
+        RecordPacker packer = new RecordPacker(10, 1024, 5, 2);
+        Topic a = topic("a");
+        RecordPacker.Envelope first = packer.open(a, 1000000L);
+        assertSame(first, packer.find(a));
+        assertSame("Found by name as well as instance", first, packer.find(topic("a")));
+        assertNull(packer.find(topic("b")));
+        RecordPacker.Envelope second = packer.open(topic("b"), 2000000L);
+        assertTrue(packer.isFull());
+        assertSame(first, packer.oldest());
+
+        assertNull("Not due before its linger time", packer.nextDue(5999999L));
+        assertSame(first, packer.nextDue(6000000L));
+        packer.close(first);
+        assertSame(second, packer.oldest());
+        assertEquals(1, packer.openCount());
+
+        RecordPacker.Envelope reused = packer.open(topic("c"), 0);
+        assertSame("Closed envelopes should be re-used", first, reused);
+        assertEquals(0, reused.count());
+        assertEquals(0, RecordPacker.packedCount(Arrays.copyOf(reused.buffer(), reused.length())));
+    }
+}
@@ -0,0 +1,57 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RedeliveryFilterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void onlyDeliveredAreDuplicatesTest() {
+        RedeliveryFilter filter = new RedeliveryFilter(1000, 60000);
+        for (long id = 1; id <= 500; id += 2)
+            filter.delivered(id, 0);
+        for (long id = 1; id <= 500; id++)
+            assertEquals("Message " + id, id % 2 == 1, filter.isDuplicate(id, 0));
+        assertEquals(250, filter.duplicates());
+        assertEquals(250, filter.tracked());
+        filter.delivered(0, 0);
+        assertFalse("Messages without an id are never duplicates", filter.isDuplicate(0, 0));
+    }
+
+    @Test
+    public void previousGenerationKeptTest() {
+        RedeliveryFilter filter = new RedeliveryFilter(96, 60000);
+        // A table of 128 slots starts a new generation every 96 ids
+        for (long id = 1; id <= 96; id++)
+            filter.delivered(id, 0);
+        assertEquals(1, filter.rotations());
+        for (long id = 97; id <= 150; id++)
+            filter.delivered(id, 0);
+        assertTrue("The last generation is still remembered", filter.isDuplicate(1, 0));
+        assertTrue(filter.isDuplicate(150, 0));
+
+        for (long id = 151; id <= 192; id++)
+            filter.delivered(id, 0);
+        assertEquals(2, filter.rotations());
+        assertFalse("Two generations back is forgotten", filter.isDuplicate(1, 0));
+        assertTrue(filter.isDuplicate(97, 0));
+    }
+
+    @Test
+    public void agesOutTest() {
+        RedeliveryFilter filter = new RedeliveryFilter(1000, 10000);
+        long start = -5 * SECOND;
+        filter.delivered(42, start);
+        filter.delivered(43, start + 11 * SECOND);
+        assertTrue("Kept for a window after its generation ends", filter.isDuplicate(42, start + 15 * SECOND));
+        assertFalse(filter.isDuplicate(42, start + 22 * SECOND));
+        assertTrue(filter.isDuplicate(43, start + 22 * SECOND));
+        assertFalse("Idle long enough, everything is forgotten", filter.isDuplicate(43, start + 60 * SECOND));
+        assertEquals(0, filter.tracked());
+    }
+}
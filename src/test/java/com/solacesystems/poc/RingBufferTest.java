@@ -3,6 +3,8 @@ package com.solacesystems.poc;
 import org.junit.Test;
 
 import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -72,4 +74,143 @@ public class RingBufferTest {
         assertTrue("One slot left; append should have succeeded", buffer.append(new TestObj(100)));
         assertFalse("Buffer is full; append should have failed", buffer.append(new TestObj(101)));
     }
+
+    @Test
+    public void spscEmptyTest() {
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 5);
+        assertEquals("Capacity is wrong", 5, buffer.capacity());
+        assertEquals("Used is wrong", 0, buffer.used());
+        assertEquals("Available is wrong", 5, buffer.available());
+    }
+
+    @Test
+    public void spscOverflowTest() {
+        // Storage is rounded up to a power of two, but capacity is still honored
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 5);
+        for(int i = 0; i < buffer.capacity(); i++)
+            assertTrue("Append should succeed until full", buffer.append(new TestObj(i)));
+        assertEquals("Used is wrong", 5, buffer.used());
+        assertEquals("Available is wrong", 0, buffer.available());
+        assertFalse("Append should fail when full", buffer.append(new TestObj(10)));
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void spscUnderflowTest() {
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 5);
+        TestObj i = buffer.remove();
+    }
+
+    @Test
+    public void spscRingOverlapTest() {
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 10);
+        for(int i = 0; i < 7; i++)
+            buffer.append(new TestObj(i));
+        for(int i = 0; i < 5; i++)
+            assertEquals("Removed out of order", i, buffer.remove().getMsgID());
+        for(int i = 0; i < 7; i++)
+            buffer.append(new TestObj(i+7));
+        assertEquals("Capacity is wrong", 10, buffer.capacity());
+        assertEquals("Used is wrong", 9, buffer.used());
+        assertEquals("Available is wrong", 1, buffer.available());
+        assertTrue("One slot left; append should have succeeded", buffer.append(new TestObj(100)));
+        assertFalse("Buffer is full; append should have failed", buffer.append(new TestObj(101)));
+        for(int i = 5; i < 14; i++)
+            assertEquals("Removed out of order", i, buffer.remove().getMsgID());
+    }
+
+    @Test
+    public void spscDrainTest() {
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 8);
+        for(int i = 0; i < 6; i++)
+            buffer.append(new TestObj(i));
+        buffer.remove();
+        for(int i = 6; i < 9; i++)
+            buffer.append(new TestObj(i));
+
+        List<TestObj> drained = new ArrayList<>();
+        assertEquals("Drain should be limited by maxItems", 3, buffer.drainTo(drained, 3));
+        assertEquals("Drain should stop when empty", 5, buffer.drainTo(drained, 100));
+        assertEquals("Drain of empty buffer", 0, buffer.drainTo(drained, 100));
+        for(int i = 0; i < drained.size(); i++)
+            assertEquals("Drained out of order", i + 1, drained.get(i).getMsgID());
+        assertEquals("Used is wrong", 0, buffer.used());
+    }
+
+    @Test
+    public void spscStampedDrainTest() {
+        SpscRingBuffer<TestObj> buffer = new SpscRingBuffer<>(TestObj.class, 4, true);
+        for(int i = 0; i < 3; i++)
+            buffer.append(new TestObj(i), 100 + i);
+        buffer.drainTo(new ArrayList<TestObj>(), 2);
+        for(int i = 3; i < 6; i++)
+            buffer.append(new TestObj(i), 100 + i);
+
+        List<TestObj> drained = new ArrayList<>();
+        long[] stamps = new long[8];
+        assertEquals("Drain should stop when empty", 4, buffer.drainTo(drained, 8, stamps));
+        for(int i = 0; i < drained.size(); i++) {
+            assertEquals("Drained out of order", i + 2, drained.get(i).getMsgID());
+            assertEquals("Stamp doesn't match its item", 102 + i, stamps[i]);
+        }
+    }
+
+    @Test
+    public void mpscOverflowAndOverlapTest() {
+        MpscRingBuffer<TestObj> buffer = new MpscRingBuffer<>(TestObj.class, 3);
+        assertEquals("Capacity should be rounded up to a power of two", 4, buffer.capacity());
+        TestObj[] drained = new TestObj[4];
+        long next = 0;
+        for (int lap = 0; lap < 5; lap++) {
+            for (int i = 0; i < 4; i++)
+                assertTrue("Append should fit", buffer.append(new TestObj(next + i)));
+            assertFalse("Append should not fit when full", buffer.append(new TestObj(-1)));
+            assertEquals("Drain should be limited by maxItems", 3, buffer.drainTo(drained, 3));
+            assertEquals("Drain should stop when empty", 1, buffer.drainTo(drained, 4));
+            assertEquals("Drained out of order", next + 3, drained[0].getMsgID());
+            next += 4;
+        }
+        assertEquals("Used is wrong", 0, buffer.used());
+    }
+
+    @Test(timeout = 20000)
+    public void mpscConcurrentAppendTest() throws Exception {
+        final MpscRingBuffer<TestObj> buffer = new MpscRingBuffer<>(TestObj.class, 64);
+        final int producers = 4;
+        final int perProducer = 20000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final long base = (long) p * perProducer;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.append(new TestObj(base + i)))
+                            Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        // Each producer's items must come out in the order it appended them, and none twice
+        long[] lastSeen = new long[producers];
+        for (int p = 0; p < producers; p++)
+            lastSeen[p] = -1;
+        TestObj[] drained = new TestObj[32];
+        long received = 0;
+        while (received < (long) producers * perProducer) {
+            int count = buffer.drainTo(drained, drained.length);
+            if (count == 0)
+                Thread.yield();
+            for (int i = 0; i < count; i++) {
+                long id = drained[i].getMsgID();
+                int p = (int) (id / perProducer);
+                assertTrue("Out of order for producer " + p, id % perProducer == lastSeen[p] + 1);
+                lastSeen[p] = id % perProducer;
+            }
+            received += count;
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals("Used is wrong", 0, buffer.used());
+    }
 }
@@ -0,0 +1,226 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.impl.JCSMPXMLMessage;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SolaceAckStageTest {
+
+    private final RecyclingPool<KafkaPublishCompletion> pool = new RecyclingPool<>(KafkaPublishCompletion.class, 16);
+    private final DirectionMetrics metrics = new DirectionMetrics(DirectionMetrics.SOLACE_TO_KAFKA, new MetricsRegistry(), 10);
+
+    private KafkaPublishCompletion acquire(SolaceAckStage stage) {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        long now = System.nanoTime();
+        return KafkaPublishCompletion.acquire(pool, msg, stage, "kafka-topic", new byte[1], new byte[8], metrics, now, now);
+    }
+
+    @Test
+    public void ackedOnStageNotKafkaThreadTest() {
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 0);
+        for (int i = 0; i < 3; i++)
+            acquire(stage).onCompletion(null, null);
+        assertEquals("Kafka's thread should only queue the completions", 0, stage.acked());
+        assertEquals(3, stage.queued());
+
+        assertEquals(3, stage.process());
+        assertEquals(3, stage.acked());
+        assertEquals(3, metrics.acks().sum());
+        assertEquals(3, stage.ackLatency().count());
+        assertEquals(3, metrics.latency().total().count());
+        assertEquals("Completions should be recycled once settled", 3, pool.available());
+        assertEquals(0, stage.process());
+    }
+
+    @Test
+    public void envelopeWaitsForEveryRecordTest() {
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 0);
+        PackedEnvelope envelope = new PackedEnvelope(JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class), 3);
+        KafkaPublishCompletion[] members = new KafkaPublishCompletion[3];
+        for (int i = 0; i < members.length; i++)
+            members[i] = acquire(stage).packedIn(envelope);
+        members[0].onCompletion(null, null);
+        members[2].onCompletion(null, null);
+        stage.process();
+        assertEquals("The envelope should wait for its last record", 1, envelope.remaining());
+        members[1].onCompletion(null, null);
+        stage.process();
+        assertEquals(0, envelope.remaining());
+        assertEquals(3, stage.acked());
+    }
+
+    @Test
+    public void ackedMessagesRememberedTest() {
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 0);
+        RedeliveryFilter redeliveries = new RedeliveryFilter(100, 60000);
+        stage.setRedeliveryFilter(redeliveries);
+        KafkaPublishCompletion acked = acquire(stage);
+        ((JCSMPXMLMessage) acked.solaceMsg()).setMessageIdLong(7);
+        KafkaPublishCompletion failed = acquire(stage);
+        ((JCSMPXMLMessage) failed.solaceMsg()).setMessageIdLong(8);
+        acked.onCompletion(null, null);
+        failed.onCompletion(null, new RecordTooLargeException("test"));
+        stage.process();
+        long now = System.nanoTime();
+        assertTrue(redeliveries.isDuplicate(7, now));
+        assertFalse("A message left unacknowledged must be bridged again", redeliveries.isDuplicate(8, now));
+    }
+
+    @Test
+    public void retriableFailureIsResentTest() {
+        final List<KafkaPublishCompletion> resent = new ArrayList<>();
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 0);
+        stage.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) {
+                resent.add(completion);
+                // Kafka takes it this time
+                completion.onCompletion(null, null);
+            }
+        });
+        KafkaPublishCompletion completion = acquire(stage);
+        completion.onCompletion(null, new TimeoutException("test"));
+        stage.process();
+        assertEquals("Should have been sent again", 1, resent.size());
+        assertSame(completion, resent.get(0));
+        assertEquals("kafka-topic", completion.kafkaTopic());
+        assertEquals(2, completion.attempts());
+        assertEquals(1, metrics.nacks().sum());
+
+        stage.process();
+        assertEquals(1, stage.acked());
+        assertEquals(1, stage.retried());
+        assertEquals(0, stage.failures());
+    }
+
+    @Test
+    public void retriesAreLimitedTest() {
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 2, 0);
+        stage.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) {
+                completion.onCompletion(null, new TimeoutException("test"));
+            }
+        });
+        acquire(stage).onCompletion(null, new TimeoutException("test"));
+        for (int i = 0; i < 5; i++)
+            stage.process();
+        assertEquals(2, stage.retried());
+        assertEquals(1, stage.failures());
+        assertEquals(0, stage.acked());
+        assertEquals(0, stage.retrying());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    public void retriesWaitForBackoffTest() throws Exception {
+        final List<KafkaPublishCompletion> resent = new ArrayList<>();
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 50);
+        stage.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) {
+                resent.add(completion);
+            }
+        });
+        acquire(stage).onCompletion(null, new TimeoutException("test"));
+        stage.process();
+        assertEquals("Retry should wait out its backoff", 0, resent.size());
+        assertEquals(1, stage.retrying());
+        Thread.sleep(60);
+        stage.process();
+        assertEquals(1, resent.size());
+    }
+
+    @Test
+    public void flowHeldWhileRetryingTest() throws Exception {
+        final boolean[] running = { true };
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 50);
+        stage.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) {
+            }
+        });
+        stage.setRetryFlowController(new FlowController() {
+            @Override
+            public void stopFlow() {
+                assertTrue("Stopped once for all the retries", running[0]);
+                running[0] = false;
+            }
+
+            @Override
+            public void startFlow() {
+                assertFalse(running[0]);
+                running[0] = true;
+            }
+        });
+        acquire(stage).onCompletion(null, new TimeoutException("test"));
+        acquire(stage).onCompletion(null, new TimeoutException("test"));
+        stage.process();
+        assertFalse("Later records mustn't overtake a retry", running[0]);
+        Thread.sleep(60);
+        stage.process();
+        assertEquals(2, stage.retried());
+        assertTrue("Flow should restart once every retry is sent", running[0]);
+    }
+
+    @Test
+    public void permanentFailureIsNotRetriedTest() {
+        final List<KafkaPublishCompletion> resent = new ArrayList<>();
+        SolaceAckStage stage = new SolaceAckStage("q", 16, 3, 0);
+        stage.setResender(new SolaceAckStage.Resender() {
+            @Override
+            public void resend(KafkaPublishCompletion completion) {
+                resent.add(completion);
+            }
+        });
+        acquire(stage).onCompletion(null, new RecordTooLargeException("test"));
+        stage.process();
+        assertEquals(0, resent.size());
+        assertEquals(1, stage.failures());
+        assertEquals(1, pool.available());
+    }
+
+    @Test
+    public void fullQueueOverflowsTest() {
+        SolaceAckStage stage = new SolaceAckStage("q", 2, 3, 0);
+        for (int i = 0; i < 5; i++)
+            acquire(stage).onCompletion(null, null);
+        assertEquals("Completions beyond the queue should overflow, not wait", 3, stage.overflows());
+        assertEquals(5, stage.queued());
+        stage.process();
+        assertEquals(5, stage.acked());
+        assertEquals(0, stage.queued());
+    }
+
+    @Test(timeout = 10000)
+    public void stageThreadTest() throws Exception {
+        final SolaceAckStage stage = new SolaceAckStage("q", 64, 3, 0);
+        stage.start();
+        final int count = 10000;
+        Thread kafka = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++)
+                    acquire(stage).onCompletion(null, null);
+            }
+        });
+        kafka.start();
+        kafka.join();
+        while (stage.acked() < count)
+            Thread.sleep(1);
+        stage.stop();
+        assertEquals(count, stage.acked());
+        assertEquals(count, metrics.acks().sum());
+    }
+}
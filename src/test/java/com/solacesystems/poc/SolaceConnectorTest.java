@@ -0,0 +1,108 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SolaceConnectorTest {
+
+    private static MsgHelper<byte[],byte[]> msgHelper() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        return new MsgHelper<>(props);
+    }
+
+    private static BytesXMLMessage envelope(int records) {
+        RecordPacker.Envelope envelope = new RecordPacker(10, 65536, 0, 4)
+                .open(JCSMPFactory.onlyInstance().createTopic("orders"), 0);
+        for (int i = 0; i < records; i++)
+            envelope.append("t", 0, i, null, new byte[] { (byte) i });
+        BytesXMLMessage packed = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        packed.setApplicationMessageType(RecordPacker.PACKED_MSG_TYPE);
+        PassThroughMsgHelper.putValue(packed, Arrays.copyOf(envelope.buffer(), envelope.length()));
+        return packed;
+    }
+
+    /**
+     * Takes records up to the failing one, which it rejects, or throws on if asked to.
+     */
+    private static class Listener implements ConnectionListener<byte[],byte[]> {
+        final List<PackedEnvelope> sources = new ArrayList<>();
+        final int failAt;
+        final boolean fatal;
+
+        Listener(int failAt, boolean fatal) {
+            this.failAt = failAt;
+            this.fatal = fatal;
+        }
+
+        @Override
+        public boolean onMessage(Object source, Integer partition, String topic, byte[] key, byte[] value) throws Exception {
+            if (value[0] == failAt) {
+                if (fatal)
+                    throw new IllegalStateException("test");
+                return false;
+            }
+            sources.add((PackedEnvelope) source);
+            return true;
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    }
+
+    @Test
+    public void everyRecordDispatchedTest() throws Exception {
+        Listener listener = new Listener(-1, false);
+        assertTrue(SolaceConnector.dispatchEnvelope(envelope(3), "orders", 0, msgHelper(), listener));
+        assertEquals(3, listener.sources.size());
+        PackedEnvelope envelope = listener.sources.get(0);
+        assertFalse(envelope.memberAcked());
+        assertFalse(envelope.memberAcked());
+        assertTrue(envelope.memberAcked());
+    }
+
+    @Test
+    public void malformedEnvelopeDiscardedTest() throws Exception {
+        BytesXMLMessage packed = envelope(3);
+        PassThroughMsgHelper.putValue(packed, new byte[3]);
+        Listener listener = new Listener(-1, false);
+        assertFalse(SolaceConnector.dispatchEnvelope(packed, "orders", 0, msgHelper(), listener));
+        assertTrue(listener.sources.isEmpty());
+    }
+
+    @Test
+    public void rejectedRecordSettlesTheRestTest() throws Exception {
+        for (boolean fatal : new boolean[] { false, true }) {
+            Listener listener = new Listener(1, fatal);
+            assertTrue(SolaceConnector.dispatchEnvelope(envelope(4), "orders", 0, msgHelper(), listener));
+            assertEquals("Nothing is sent after the failed record", 1, listener.sources.size());
+            PackedEnvelope envelope = listener.sources.get(0);
+            assertTrue(envelope.failed());
+            assertEquals("Only the record sent is outstanding", 1, envelope.remaining());
+            assertFalse("A failed envelope is never ACK'd", envelope.memberAcked());
+            assertEquals(0, envelope.remaining());
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.*;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SolacePublisherAllocationTest {
+
+    @Test
+    public void steadyStateSendAllocatesNothingTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 16, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/alloc/test");
+        byte[] key = "key".getBytes("UTF-8");
+        byte[] value = new byte[128];
+
+        // Warm up until the JIT has settled and every pooled message has been used
+        for (int i = 0; i < 200000; i++)
+            publisher.send("kafka-topic", 0, i, topic, key, value, System.nanoTime());
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int count = 100000;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < count; i++)
+            publisher.send("kafka-topic", 0, i, topic, key, value, System.nanoTime());
+        long after = threads.getThreadAllocatedBytes(thread);
+        double perMsg = (after - before) / (double) count;
+        assertEquals(count + 200000, producer.sent);
+        assertTrue("Allocated " + perMsg + " bytes/msg", perMsg < 1.0);
+    }
+
+    @Test
+    public void steadyStateBatchedSendAllocatesNothingTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 64, 20, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/alloc/batched");
+        byte[] key = "key".getBytes("UTF-8");
+        byte[] value = new byte[128];
+
+        // Odd-sized polls, so partial batches are flushed as well as full ones
+        for (int i = 0; i < 200000; i++) {
+            publisher.send("kafka-topic", 0, i, topic, key, value, System.nanoTime());
+            if (i % 7 == 0)
+                publisher.flush();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int count = 100000;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < count; i++) {
+            publisher.send("kafka-topic", 0, i, topic, key, value, System.nanoTime());
+            if (i % 7 == 0)
+                publisher.flush();
+        }
+        publisher.flush();
+        long after = threads.getThreadAllocatedBytes(thread);
+        double perMsg = (after - before) / (double) count;
+        assertEquals(count + 200000, producer.sent);
+        assertTrue("Allocated " + perMsg + " bytes/msg", perMsg < 1.0);
+    }
+
+    @Test
+    public void batchFlushTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 16, 4, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/batch/test");
+
+        for (int i = 0; i < 3; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], System.nanoTime());
+        assertEquals("Nothing should be sent before the batch is full", 0, producer.sent);
+        assertEquals(3, publisher.batched());
+        assertEquals(3, publisher.inflight().inflight());
+
+        publisher.send("kafka-topic", 0, 3, topic, null, new byte[8], System.nanoTime());
+        assertEquals("A full batch should be sent at once", 4, producer.sent);
+        assertEquals(1, producer.calls);
+        assertEquals(0, publisher.batched());
+
+        publisher.send("kafka-topic", 0, 4, topic, null, new byte[8], System.nanoTime());
+        publisher.flush();
+        assertEquals("A flush should send a partial batch", 5, producer.sent);
+        assertEquals(2, producer.calls);
+        publisher.flush();
+        assertEquals("Flushing nothing should send nothing", 2, producer.calls);
+        assertEquals(2, publisher.batches());
+        assertEquals(0, publisher.inflight().inflight());
+        assertEquals(16, publisher.pool().available());
+    }
+
+    @Test
+    public void batchShorterThanPoolTest() throws Exception {
+        // A batch can never wait on more states than the pool has
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 4, 1000, producer);
+        producer.publisher = publisher;
+        assertEquals(4, publisher.batchSize());
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/batch/small");
+        for (int i = 0; i < 10; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], System.nanoTime());
+        assertEquals(8, producer.sent);
+        assertEquals(SolacePublisher.MAX_BATCH_SIZE,
+                new SolacePublisher<byte[],byte[]>(0, passThroughProps(), 1000, 1000, producer).batchSize());
+    }
+
+    @Test
+    public void failedBatchReturnsStatesTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 8, 8, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/batch/fail");
+        for (int i = 0; i < 5; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], System.nanoTime());
+        producer.fail = true;
+        try {
+            publisher.flush();
+            fail("The failed send should be reported");
+        }
+        catch(JCSMPException expected) {
+        }
+        assertEquals("Unsent messages should no longer be inflight", 0, publisher.inflight().inflight());
+        assertEquals("Unsent messages should be back in the pool", 8, publisher.pool().available());
+
+        producer.fail = false;
+        for (int i = 0; i < 8; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], System.nanoTime());
+        assertEquals("Every state should be usable again", 8, producer.sent);
+    }
+
+    @Test
+    public void nackedRecordReportedTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 8, producer);
+        producer.publisher = publisher;
+        final List<String> failed = new ArrayList<>();
+        publisher.setPublishFailureListener(new PublishFailureListener() {
+            @Override
+            public void onPublishFailed(String topic, int partition, long offset) {
+                failed.add(topic + "/" + partition + "@" + offset);
+            }
+        });
+        producer.holdAcks = true;
+        publisher.send("orders", 2, 42, JCSMPFactory.onlyInstance().createTopic("bridge/nack"), null, new byte[8], System.nanoTime());
+        publisher.onError((SolaceSentMessageState) producer.last.getCorrelationKey());
+        assertEquals(Arrays.asList("orders/2@42"), failed);
+        assertEquals(0, publisher.inflight().inflight());
+    }
+
+    @Test
+    public void failedBatchWhileWaitingForSlotReturnsStateTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        // An inflight table of 16 slots
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 8, 4, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/batch/slot");
+        producer.holdAcks = true;
+        publisher.send("kafka-topic", 0, 0, topic, null, new byte[8], System.nanoTime());
+        publisher.flush();
+        producer.holdAcks = false;
+        // Three full batches ACK'd, three more records staged
+        for (int i = 1; i < 16; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], System.nanoTime());
+        assertEquals(3, publisher.batched());
+
+        // The next record's slot is taken by the first, so the staged batch is sent to make way
+        producer.fail = true;
+        try {
+            publisher.send("kafka-topic", 0, 16, topic, null, new byte[8], System.nanoTime());
+            fail("The failed send should be reported");
+        }
+        catch(JCSMPException expected) {
+        }
+        assertEquals("Only the unACK'd first message should be missing from the pool", 7, publisher.pool().available());
+    }
+
+    @Test
+    public void ackRecordsMetricsTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, passThroughProps(), 16, producer);
+        producer.publisher = publisher;
+        DirectionMetrics metrics = new DirectionMetrics(DirectionMetrics.KAFKA_TO_SOLACE, new MetricsRegistry(), 10);
+        DirectionLatency latency = metrics.latency();
+        publisher.setMetrics(metrics);
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/latency/test");
+
+        long received = System.nanoTime() - 5000000L;
+        for (int i = 0; i < 10; i++)
+            publisher.send("kafka-topic", 0, i, topic, null, new byte[8], received);
+
+        assertEquals("Every ACK should be counted", 10, metrics.acks().sum());
+        assertEquals("Every send should be timed", 10, latency.publish().count());
+        assertEquals("Every ACK should be timed", 10, latency.ack().count());
+        assertEquals("Every ACK should be timed", 10, latency.total().count());
+        assertTrue("Publish latency should include time before the send", latency.publish().min() >= 5000000L);
+        assertTrue("Total latency should cover publish latency", latency.total().min() >= latency.publish().min());
+    }
+
+    @Test
+    public void steadyStatePackedSendAllocatesNothingTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        Properties props = passThroughProps();
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_MAX_RECORDS, "32");
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, props, 16, 8, producer);
+        producer.publisher = publisher;
+        Topic[] topics = {
+                JCSMPFactory.onlyInstance().createTopic("bridge/alloc/packed/a"),
+                JCSMPFactory.onlyInstance().createTopic("bridge/alloc/packed/b") };
+        byte[] key = "key".getBytes("UTF-8");
+        byte[] value = new byte[100];
+
+        for (int i = 0; i < 200000; i++) {
+            publisher.send("kafka-topic", 0, i, topics[i & 1], key, value, System.nanoTime());
+            if (i % 101 == 0)
+                publisher.flush();
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int count = 100000;
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < count; i++) {
+            publisher.send("kafka-topic", 0, i, topics[i & 1], key, value, System.nanoTime());
+            if (i % 101 == 0)
+                publisher.flush();
+        }
+        publisher.flush();
+        long after = threads.getThreadAllocatedBytes(thread);
+        double perMsg = (after - before) / (double) count;
+        assertEquals(count + 200000, publisher.packedRecords());
+        assertTrue("Envelopes should hold many records", producer.sent < publisher.packedRecords() / 10);
+        assertTrue("Allocated " + perMsg + " bytes/record", perMsg < 1.0);
+    }
+
+    @Test
+    public void packedEnvelopeAcksEveryRecordTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        Properties props = passThroughProps();
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_MAX_RECORDS, "3");
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, props, 16, producer);
+        producer.publisher = publisher;
+        final List<String> acked = new ArrayList<>();
+        publisher.setPublishAckListener(new PublishAckListener() {
+            @Override
+            public void onPublishAck(String topic, int partition, long offset) {
+                acked.add(topic + "/" + partition + "@" + offset);
+            }
+        });
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/packed/test");
+
+        publisher.send("orders", 0, 10, topic, "k0".getBytes("UTF-8"), "v0".getBytes("UTF-8"), System.nanoTime());
+        publisher.send("orders", 1, 20, topic, null, "v1".getBytes("UTF-8"), System.nanoTime());
+        assertEquals("Records should wait for the envelope to fill", 0, producer.sent);
+        publisher.send("audit", 0, 30, topic, "k2".getBytes("UTF-8"), null, System.nanoTime());
+        assertEquals("A full envelope should be published as one message", 1, producer.sent);
+        assertEquals("One ACK should advance every packed record's offset",
+                Arrays.asList("orders/0@10", "orders/1@20", "audit/0@30"), acked);
+
+        BytesXMLMessage msg = (BytesXMLMessage) producer.last;
+        assertTrue(RecordPacker.isPacked(msg));
+        byte[] data = PassThroughMsgHelper.getValue(msg);
+        assertEquals(3, RecordPacker.packedCount(data));
+        int[] partitions = new int[3];
+        long[] offsets = new long[3];
+        byte[][] keys = new byte[3][];
+        byte[][] values = new byte[3][];
+        RecordPacker.unpack(data, partitions, offsets, keys, values);
+        assertArrayEquals(new int[] { 0, 1, 0 }, partitions);
+        assertArrayEquals(new long[] { 10, 20, 30 }, offsets);
+        assertArrayEquals("k0".getBytes("UTF-8"), keys[0]);
+        assertNull(keys[1]);
+        assertArrayEquals("v1".getBytes("UTF-8"), values[1]);
+        assertNull(values[2]);
+        assertEquals(1, publisher.envelopes());
+        assertEquals(3, publisher.packedRecords());
+    }
+
+    @Test
+    public void packedEnvelopesPerTopicTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        Properties props = passThroughProps();
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_MAX_RECORDS, "100");
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_MAX_BYTES, "200");
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, props, 16, producer);
+        producer.publisher = publisher;
+        Topic a = JCSMPFactory.onlyInstance().createTopic("bridge/packed/a");
+        Topic b = JCSMPFactory.onlyInstance().createTopic("bridge/packed/b");
+
+        for (int i = 0; i < 4; i++) {
+            publisher.send("kafka-topic", 0, 2 * i, a, null, new byte[10], System.nanoTime());
+            publisher.send("kafka-topic", 0, 2 * i + 1, b, null, new byte[10], System.nanoTime());
+        }
+        assertEquals(0, producer.sent);
+        assertEquals(2, publisher.packer().openCount());
+        // Too big to share an envelope with the others
+        publisher.send("kafka-topic", 0, 8, a, null, new byte[150], System.nanoTime());
+        assertEquals("The byte limit should close the envelope before it is exceeded", 1, producer.sent);
+        assertEquals(4, RecordPacker.packedCount(PassThroughMsgHelper.getValue((BytesXMLMessage) producer.last)));
+
+        publisher.flush();
+        assertEquals("Without a linger time a flush should publish every envelope", 3, producer.sent);
+        assertEquals(0, publisher.packer().openCount());
+        assertEquals(9, publisher.packedRecords());
+        assertEquals(16, publisher.pool().available());
+    }
+
+    @Test
+    public void packedEnvelopeLingersTest() throws Exception {
+        AckingProducer producer = new AckingProducer();
+        Properties props = passThroughProps();
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_MAX_RECORDS, "100");
+        props.setProperty(BridgeProperties.PROP_SOLACE_PACK_LINGER_MS, "50");
+        SolacePublisher<byte[],byte[]> publisher = new SolacePublisher<>(0, props, 16, producer);
+        producer.publisher = publisher;
+        Topic topic = JCSMPFactory.onlyInstance().createTopic("bridge/packed/linger");
+
+        publisher.send("kafka-topic", 0, 0, topic, null, new byte[10], System.nanoTime());
+        publisher.flush();
+        assertEquals("The envelope should wait out its linger time", 0, producer.sent);
+        Thread.sleep(60);
+        publisher.flush();
+        assertEquals(1, producer.sent);
+    }
+
+    private static Properties passThroughProps() {
+        Properties props = new Properties();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        // Both allocate per message
+        props.setProperty(BridgeProperties.PROP_SOLACE_KEY_IN_USER_DATA, "true");
+        props.setProperty(BridgeProperties.PROP_SOLACE_APP_MSG_ID, "false");
+        return props;
+    }
+
+    /**
+     * Stands in for the JCSMP producer, ACKing every message as soon as it is sent.
+     */
+    private static class AckingProducer implements XMLMessageProducer {
+        SolacePublisher<byte[],byte[]> publisher;
+        long sent;
+        long calls;
+        boolean fail;
+        boolean holdAcks;
+        XMLMessage last;
+
+        @Override
+        public void send(XMLMessage msg, Destination destination) throws JCSMPException {
+            sent++;
+            last = msg;
+            if (!holdAcks)
+                publisher.onAck((SolaceSentMessageState) msg.getCorrelationKey());
+        }
+
+        @Override
+        public void send(XMLMessage msg) throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public int sendMultiple(JCSMPSendMultipleEntry[] entries, int offset, int length, int flags) throws JCSMPException {
+            if (fail)
+                throw new JCSMPException("Refused by the test");
+            calls++;
+            for (int i = offset; i < offset + length; i++)
+                send(entries[i].getMessage(), entries[i].getDestination());
+            return length;
+        }
+        @Override
+        public void sendReply(XMLMessage request, XMLMessage reply) throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public void setStreamingCallbackHandler(JCSMPStreamingPublishEventHandler handler) throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public JCSMPStreamingPublishEventHandler getStreamingCallbackHandler() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public TextXMLMessage createTextXMLMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public TextXMLMessage createTextXMLMessage(String text) throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public BytesXMLMessage createBytesXMLMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public BytesXMLMessage createBytesXMLMessage(byte[] bytes) throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public StreamXMLMessage createStreamXMLMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public StreamXMLMessage createStreamXMLMessage(InputStream in) { throw new UnsupportedOperationException(); }
+        @Override
+        public SDTMap createMap() { throw new UnsupportedOperationException(); }
+        @Override
+        public SDTStream createStream() { throw new UnsupportedOperationException(); }
+        @Override
+        public BytesMessage createBytesMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public XMLContentMessage createXMLContentMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public MapMessage createMapMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public StreamMessage createStreamMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public TextMessage createTextMessage() throws JCSMPException { throw new UnsupportedOperationException(); }
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,46 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SolaceSentMessagePoolTest {
+
+    @Test
+    public void preallocatedTest() throws Exception {
+        SolaceSentMessagePool pool = new SolaceSentMessagePool(4);
+        assertEquals("Capacity is wrong", 4, pool.capacity());
+        assertEquals("Available is wrong", 4, pool.available());
+
+        SolaceSentMessageState state = pool.acquire();
+        assertEquals("Available is wrong", 3, pool.available());
+        pool.release(state);
+        assertEquals("Available is wrong", 4, pool.available());
+        assertEquals("Pool should not have been exhausted", 0, pool.exhaustedCount());
+    }
+
+    @Test(timeout = 5000)
+    public void exhaustedPoolWaitsForReleaseTest() throws Exception {
+        final SolaceSentMessagePool pool = new SolaceSentMessagePool(2);
+        pool.acquire();
+        final SolaceSentMessageState held = pool.acquire();
+        assertEquals("Available is wrong", 0, pool.available());
+
+        Thread acker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try { Thread.sleep(100); } catch(InterruptedException e) {}
+                pool.release(held);
+            }
+        });
+        long start = System.currentTimeMillis();
+        acker.start();
+        SolaceSentMessageState state = pool.acquire();
+        assertSame("Should get back the released state, not a new one", held, state);
+        assertTrue("Acquire should have waited for the release", System.currentTimeMillis() - start >= 50);
+        assertEquals("Pool should have been exhausted once", 1, pool.exhaustedCount());
+        acker.join();
+    }
+}
@@ -0,0 +1,76 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reports the bytes allocated per message by the bridge's own Solace->Kafka handling: topic
+ * name, key and value extraction, route lookup and the pooled Kafka completion round trip.
+ * The ProducerRecord and what the Kafka client allocates internally are not included.
+ */
+public class SolaceToKafkaAllocationTest {
+
+    @Test
+    public void steadyStateReceiveAllocatesNothingTest() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        MsgHelper<byte[],byte[]> msgHelper = new MsgHelper<>(props);
+        TopicNameCache topicNames = new TopicNameCache(64);
+        List<String[]> mappings = new ArrayList<>();
+        mappings.add(new String[] { "sol/topic/1", "kafka_test1" });
+        DestinationCache routes = new DestinationCache(new TopicStringTranslator(mappings), 64, false);
+        RecyclingPool<KafkaPublishCompletion> completions = new RecyclingPool<>(KafkaPublishCompletion.class, 16);
+
+        // Messages as they would arrive: destination as raw bytes, key, payload
+        BytesXMLMessage[] received = new BytesXMLMessage[8];
+        for (int i = 0; i < received.length; i++) {
+            received[i] = TopicNameCacheTest.received("sol/topic/1");
+            msgHelper.putKey(received[i], null, "key".getBytes("UTF-8"));
+            msgHelper.putValue(received[i], null, new byte[128]);
+        }
+
+        long sink = 0;
+        for (int i = 0; i < 200000; i++)
+            sink += bridge(received[i & 7], msgHelper, topicNames, routes, completions);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int count = 100000;
+        double perMsg = Double.MAX_VALUE;
+        // A recompilation mid-round can briefly lose escape analysis, so keep the best of a few rounds
+        for (int round = 0; round < 5 && perMsg >= 1.0; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < count; i++)
+                sink += bridge(received[i & 7], msgHelper, topicNames, routes, completions);
+            long after = threads.getThreadAllocatedBytes(thread);
+            perMsg = Math.min(perMsg, (after - before) / (double) count);
+        }
+        assertTrue("Every message should be bridged", sink > 0);
+        assertTrue("Allocated " + perMsg + " bytes/msg", perMsg < 1.0);
+    }
+
+    private static int bridge(BytesXMLMessage msg, MsgHelper<byte[],byte[]> msgHelper, TopicNameCache topicNames,
+                              DestinationCache routes, RecyclingPool<KafkaPublishCompletion> completions) {
+        String topic = topicNames.lookup(msg);
+        byte[] key = msgHelper.getKey(msg, topic);
+        byte[] value = msgHelper.getValue(msg, topic);
+        String kafkaTopic = routes.lookup(topic).getName();
+        // Kafka would complete this on its I/O thread once the record is acknowledged
+        KafkaPublishCompletion.acquire(completions, msg).onCompletion(null, null);
+        return kafkaTopic.length() + key.length + value.length;
+    }
+}
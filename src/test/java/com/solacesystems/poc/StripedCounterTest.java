@@ -0,0 +1,49 @@
+package com.solacesystems.poc;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class StripedCounterTest {
+
+    @Test
+    public void stripesTest() {
+        assertEquals(1, StripedCounter.stripesFor(0));
+        assertEquals(1, StripedCounter.stripesFor(1));
+        assertEquals(4, StripedCounter.stripesFor(3));
+        assertEquals(8, StripedCounter.stripesFor(8));
+        assertEquals(64, StripedCounter.stripesFor(500));
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentAddTest() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int adds = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < adds; i++)
+                        counter.increment();
+                    counter.add(10);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        assertEquals("Adds were lost", threads * (adds + 10L), counter.sum());
+    }
+}
@@ -0,0 +1,61 @@
+package com.solacesystems.poc;
+
+import com.solacesystems.jcsmp.BytesXMLMessage;
+import com.solacesystems.jcsmp.JCSMPFactory;
+import com.solacesystems.jcsmp.impl.JCSMPXMLMessage;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TopicNameCacheTest {
+
+    static BytesXMLMessage received(String topic) throws Exception {
+        BytesXMLMessage msg = JCSMPFactory.onlyInstance().createMessage(BytesXMLMessage.class);
+        ((JCSMPXMLMessage) msg).setDestinationReceivedBytes(topic.getBytes("UTF-8"));
+        return msg;
+    }
+
+    @Test
+    public void sameStringPerTopicTest() throws Exception {
+        TopicNameCache cache = new TopicNameCache(16);
+        String first = cache.lookup(received("orders/eu/1"));
+        assertEquals("orders/eu/1", first);
+        assertSame(first, cache.lookup(received("orders/eu/1")));
+        assertEquals("orders/eu/2", cache.lookup(received("orders/eu/2")));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.fallbacks());
+    }
+
+    @Test
+    public void otherMessageClassTest() throws Exception {
+        // Not the JCSMP implementation class, so only the public API is available
+        BytesXMLMessage msg = (BytesXMLMessage) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { BytesXMLMessage.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return "getDestination".equals(method.getName())
+                                ? JCSMPFactory.onlyInstance().createTopic("orders/us/1")
+                                : null;
+                    }
+                });
+        TopicNameCache cache = new TopicNameCache(16);
+        assertEquals("orders/us/1", cache.lookup(msg));
+        assertEquals(0, cache.misses());
+        assertEquals("The fallback is counted", 1, cache.fallbacks());
+    }
+
+    @Test
+    public void overflowStillTranslatesTest() throws Exception {
+        // Far more topics than slots: entries get replaced but names stay correct
+        TopicNameCache cache = new TopicNameCache(4);
+        for (int round = 0; round < 2; round++)
+            for (int i = 0; i < 100; i++)
+                assertEquals("t/" + i, cache.lookup(received("t/" + i)));
+    }
+}
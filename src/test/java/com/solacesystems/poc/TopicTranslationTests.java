@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TopicTranslationTests {
 
@@ -27,4 +28,83 @@ public class TopicTranslationTests {
         assertEquals("Topic with no mapping did not come back the same",
                 "other", translator.translate("other"));
     }
+
+    private static List<String[]> getWildcardMappings() {
+        ArrayList<String[]> mappings = new ArrayList<>();
+
+        mappings.add(new String[] { "orders/eu/*/fill" , "eu_fills_$1" });
+        mappings.add(new String[] { "orders/eu/de/fill" , "de_fills" });
+        mappings.add(new String[] { "orders/*/*/cancel" , "cancels_$1_$2" });
+        mappings.add(new String[] { "orders/>" , "orders_other" });
+        mappings.add(new String[] { "prices/>" , "prices.$1" });
+
+        return mappings;
+    }
+
+    @Test
+    public void wildcardTransTest() {
+        TopicTranslator translator = new TopicWildcardTranslator(getWildcardMappings());
+
+        assertEquals("Single-level wildcard capture did not translate",
+                "eu_fills_fr", translator.translate("orders/eu/fr/fill"));
+        assertEquals("Literal level should beat a wildcard",
+                "de_fills", translator.translate("orders/eu/de/fill"));
+        assertEquals("Multiple captures did not translate",
+                "cancels_us_ny", translator.translate("orders/us/ny/cancel"));
+        assertEquals("Trailing wildcard should catch what nothing more specific matches",
+                "orders_other", translator.translate("orders/eu/fr/new"));
+        assertEquals("Trailing wildcard should capture all remaining levels",
+                "prices.fx/eur/usd", translator.translate("prices/fx/eur/usd"));
+        assertEquals("Trailing wildcard needs at least one level",
+                "prices", translator.translate("prices"));
+        assertEquals("Topic with no mapping did not come back the same",
+                "other/topic", translator.translate("other/topic"));
+    }
+
+    @Test
+    public void wildcardBacktrackTest() {
+        ArrayList<String[]> mappings = new ArrayList<>();
+        mappings.add(new String[] { "a/b/c" , "literal" });
+        mappings.add(new String[] { "a/*/d" , "star_$1" });
+        TopicTranslator translator = new TopicWildcardTranslator(mappings);
+
+        assertEquals("Literal path dead-ends; should fall back to the wildcard",
+                "star_b", translator.translate("a/b/d"));
+        assertEquals("Literal path did not translate", "literal", translator.translate("a/b/c"));
+    }
+
+    @Test
+    public void wildcardCacheTest() {
+        TopicWildcardTranslator translator = new TopicWildcardTranslator(getWildcardMappings(), 1);
+        String first = translator.translate("orders/eu/fr/fill");
+        assertTrue("Cached translation should be the same instance",
+                first == translator.translate("orders/eu/fr/fill"));
+        assertEquals("Translation beyond the cache size should still work",
+                "eu_fills_it", translator.translate("orders/eu/it/fill"));
+    }
+
+    @Test
+    public void regexTransTest() {
+        ArrayList<String[]> mappings = new ArrayList<>();
+        mappings.add(new String[] { "orders/([a-z]+)/(.*)" , "orders_$1" });
+        mappings.add(new String[] { "orders/.*" , "orders_unknown" });
+        mappings.add(new String[] { "prices/(\\w+)/(\\w+)" , "prices.$2.$1" });
+        TopicRegexTranslator translator = new TopicRegexTranslator(mappings);
+
+        assertEquals("Group substitution did not translate",
+                "orders_eu", translator.translate("orders/eu/fr/fill"));
+        assertEquals("First matching regex should win",
+                "orders_unknown", translator.translate("orders/42/fill"));
+        assertEquals("Multiple groups did not translate",
+                "prices.usd.fx", translator.translate("prices/fx/usd"));
+        assertEquals("Regex must match the whole topic",
+                "prices/fx/usd/bid", translator.translate("prices/fx/usd/bid"));
+        assertEquals("Topic with no mapping did not come back the same",
+                "other", translator.translate("other"));
+
+        assertEquals("Repeat lookup did not translate",
+                "orders_eu", translator.translate("orders/eu/fr/fill"));
+        assertEquals("Repeat lookup should have hit the cache", 1, translator.cache().hits());
+        assertEquals("Each new topic should miss once", 5, translator.cache().misses());
+    }
 }